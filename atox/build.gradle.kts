@@ -72,6 +72,7 @@ dependencies {
     implementation(libs.androidx.navigation.ui)
 
     implementation(libs.androidx.preference)
+    implementation(libs.androidx.recyclerview)
 
     implementation(libs.androidx.lifecycle.livedata.ktx)
     implementation(libs.androidx.lifecycle.runtime.ktx)
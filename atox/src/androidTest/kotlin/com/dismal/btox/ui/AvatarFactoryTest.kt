@@ -7,6 +7,9 @@ package com.dismal.btox.ui
 import androidx.test.ext.junit.runners.AndroidJUnit4
 import androidx.test.platform.app.InstrumentationRegistry
 import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotSame
+import kotlin.test.assertSame
 import org.junit.runner.RunWith
 
 @RunWith(AndroidJUnit4::class)
@@ -28,4 +31,15 @@ class AvatarFactoryTest {
             publicKey = "123",
         )
     }
+
+    @Test
+    fun avatarsAreCachedPerSize() {
+        val resources = InstrumentationRegistry.getInstrumentation().targetContext.resources
+        val small = AvatarFactory.create(resources, name = "a b", publicKey = "123", size = Px(32))
+        assertSame(small, AvatarFactory.create(resources, name = "a b", publicKey = "123", size = Px(32)))
+
+        val large = AvatarFactory.create(resources, name = "a b", publicKey = "123", size = Px(64))
+        assertNotSame(small, large)
+        assertEquals(64, large.width)
+    }
 }
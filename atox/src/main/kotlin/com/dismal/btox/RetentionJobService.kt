@@ -0,0 +1,83 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package com.dismal.btox
+
+import android.app.job.JobInfo
+import android.app.job.JobParameters
+import android.app.job.JobScheduler
+import android.app.job.JobService
+import android.content.ComponentName
+import android.content.Context
+import android.util.Log
+import java.util.concurrent.TimeUnit
+import javax.inject.Inject
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.launch
+import com.dismal.btox.settings.Settings
+import ltd.evilcorp.domain.feature.RetentionManager
+
+private const val TAG = "RetentionJobService"
+private const val JOB_ID = 0x7e7e
+
+/** Prunes history according to the retention policies while the device is idle and charging. */
+class RetentionJobService : JobService() {
+    @Inject
+    lateinit var retentionManager: RetentionManager
+
+    @Inject
+    lateinit var settings: Settings
+
+    private val scope = CoroutineScope(Dispatchers.IO)
+    private var job: Job? = null
+
+    override fun onCreate() {
+        (application as App).component.inject(this)
+        super.onCreate()
+    }
+
+    override fun onDestroy() {
+        scope.cancel()
+        super.onDestroy()
+    }
+
+    override fun onStartJob(params: JobParameters): Boolean {
+        job = scope.launch {
+            try {
+                retentionManager.prune(settings.retentionPolicy)
+                jobFinished(params, false)
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                Log.e(TAG, "Pruning failed", e)
+                jobFinished(params, true)
+            }
+        }
+        return true
+    }
+
+    override fun onStopJob(params: JobParameters): Boolean {
+        Log.i(TAG, "Stopped before finishing, will retry")
+        job?.cancel()
+        return true
+    }
+
+    companion object {
+        fun schedule(context: Context) {
+            val scheduler = context.getSystemService(Context.JOB_SCHEDULER_SERVICE) as? JobScheduler ?: return
+            if (scheduler.allPendingJobs.any { it.id == JOB_ID }) return
+
+            val info = JobInfo.Builder(JOB_ID, ComponentName(context, RetentionJobService::class.java))
+                .setPeriodic(TimeUnit.DAYS.toMillis(1))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .build()
+            scheduler.schedule(info)
+        }
+    }
+}
@@ -127,6 +127,7 @@ class ToxService : LifecycleService() {
         }
 
         createNotificationChannel()
+        RetentionJobService.schedule(this)
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
             startForeground(
@@ -11,7 +11,9 @@ import javax.inject.Singleton
 import com.dismal.btox.ActionReceiver
 import com.dismal.btox.BootReceiver
 import com.dismal.btox.MainActivity
+import com.dismal.btox.RetentionJobService
 import com.dismal.btox.ToxService
+import com.dismal.btox.settings.Settings
 
 @Singleton
 @Component(
@@ -31,6 +33,10 @@ interface AppComponent {
 
     fun inject(activity: MainActivity)
     fun inject(service: ToxService)
+    fun inject(service: RetentionJobService)
     fun inject(receiver: BootReceiver)
     fun inject(receiver: ActionReceiver)
+
+    // For the places Android creates without going through the component, e.g. app widgets.
+    fun settings(): Settings
 }
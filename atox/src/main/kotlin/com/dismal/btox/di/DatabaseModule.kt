@@ -11,10 +11,12 @@ import dagger.Provides
 import javax.inject.Singleton
 import ltd.evilcorp.core.db.ALL_MIGRATIONS
 import ltd.evilcorp.core.db.ContactDao
+import ltd.evilcorp.core.db.ContactPolicyDao
 import ltd.evilcorp.core.db.Database
 import ltd.evilcorp.core.db.FileTransferDao
 import ltd.evilcorp.core.db.FriendRequestDao
 import ltd.evilcorp.core.db.MessageDao
+import ltd.evilcorp.core.db.RetentionPolicyDao
 import ltd.evilcorp.core.db.UserDao
 
 @Module
@@ -33,6 +35,10 @@ class DaoModule {
     @Provides
     internal fun provideContactDao(db: Database): ContactDao = db.contactDao()
 
+    @Singleton
+    @Provides
+    internal fun provideContactPolicyDao(db: Database): ContactPolicyDao = db.contactPolicyDao()
+
     @Singleton
     @Provides
     internal fun provideFileTransferDao(db: Database): FileTransferDao = db.fileTransferDao()
@@ -45,6 +51,10 @@ class DaoModule {
     @Provides
     internal fun provideMessageDao(db: Database): MessageDao = db.messageDao()
 
+    @Singleton
+    @Provides
+    internal fun provideRetentionPolicyDao(db: Database): RetentionPolicyDao = db.retentionPolicyDao()
+
     @Singleton
     @Provides
     internal fun provideUserDao(db: Database): UserDao = db.userDao()
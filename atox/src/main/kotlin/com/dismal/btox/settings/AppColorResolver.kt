@@ -11,11 +11,12 @@ import androidx.core.content.ContextCompat
 import androidx.appcompat.widget.Toolbar
 import android.view.View
 import android.content.res.ColorStateList
+import com.dismal.btox.App
 import com.dismal.btox.R
 
 object AppColorResolver {
     fun primary(context: Context, fallbackColorRes: Int = R.color.colorPrimary): Int {
-        return Settings(context).appColorValue()
+        return (context.applicationContext as App).component.settings().appColorValue()
     }
 
     fun primaryDark(context: Context, fallbackColorRes: Int = R.color.colorPrimaryDark): Int {
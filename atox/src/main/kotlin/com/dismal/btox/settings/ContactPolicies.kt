@@ -0,0 +1,151 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package com.dismal.btox.settings
+
+import android.content.Context
+import android.util.Log
+import androidx.core.content.edit
+import androidx.preference.PreferenceManager
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import ltd.evilcorp.core.repository.ContactPolicyRepository
+import ltd.evilcorp.core.vo.ContactPolicy
+import ltd.evilcorp.core.vo.PublicKey
+
+private const val TAG = "ContactPolicies"
+
+// Where these used to be kept before they moved into the database.
+private const val LEGACY_MUTED_KEY = "muted_contacts"
+private const val LEGACY_BLOCKED_KEY = "blocked_contacts"
+
+// How long a lookup waits for the policies to be loaded. Loading is one small query, so this is only ever reached when
+// the database is badly stuck.
+private const val LOAD_TIMEOUT_MS = 5_000L
+
+/**
+ * Which contacts are muted or blocked.
+ *
+ * Lookups happen for every incoming message, typing notification and call, so they're served from an immutable
+ * in-memory snapshot without locking or allocating. Changes replace the snapshot and are written to the database in
+ * the background, in the order they were made. Loading starts as soon as this is created, and lookups made before it
+ * has finished wait for it, so a blocked contact is never let through just because it's early. If the database can't
+ * be read, the policies still kept in the old shared preferences are used instead.
+ */
+@Singleton
+class ContactPolicies @Inject constructor(
+    private val context: Context,
+    private val scope: CoroutineScope,
+    private val repository: ContactPolicyRepository,
+) {
+    private class Snapshot(val policies: Map<String, ContactPolicy>) {
+        val muted: Set<String> = policies.values.filter { it.muted }.mapTo(HashSet()) { it.publicKey }
+        val blocked: Set<String> = policies.values.filter { it.blocked }.mapTo(HashSet()) { it.publicKey }
+    }
+
+    private val writer = Dispatchers.IO.limitedParallelism(1)
+
+    private val loaded = CountDownLatch(1)
+
+    @Volatile
+    private var snapshot = Snapshot(emptyMap())
+
+    // Changes made before the policies have been loaded, made again on top of what's loaded once it is.
+    private var pending: MutableList<Pair<String, (ContactPolicy) -> ContactPolicy>>? = mutableListOf()
+
+    init {
+        scope.launch(writer) {
+            try {
+                val policies = try {
+                    load()
+                } catch (e: RuntimeException) {
+                    Log.e(TAG, "Unable to load contact policies, falling back to shared preferences: $e")
+                    legacy()
+                }.associateByTo(HashMap()) { it.publicKey }
+                val changed = synchronized(this@ContactPolicies) {
+                    val changes = pending.orEmpty()
+                    pending = null
+                    for ((key, change) in changes) {
+                        policies[key] = change(policies[key] ?: ContactPolicy(key))
+                    }
+                    snapshot = Snapshot(policies)
+                    changes.mapTo(LinkedHashSet()) { it.first }
+                }
+                changed.forEach { write(policies.getValue(it)) }
+            } finally {
+                loaded.countDown()
+            }
+        }
+    }
+
+    private fun current(): Snapshot {
+        if (loaded.count > 0 && !loaded.await(LOAD_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            Log.w(TAG, "Contact policies still not loaded after ${LOAD_TIMEOUT_MS}ms")
+        }
+        return snapshot
+    }
+
+    fun isMuted(publicKey: PublicKey): Boolean = current().muted.contains(publicKey.string())
+
+    fun isBlocked(publicKey: PublicKey): Boolean = current().blocked.contains(publicKey.string())
+
+    /** An immutable view of the blocked contacts' public keys. */
+    fun blocked(): Set<String> = current().blocked
+
+    fun setMuted(publicKey: PublicKey, muted: Boolean) = update(publicKey) { it.copy(muted = muted) }
+
+    fun setBlocked(publicKey: PublicKey, blocked: Boolean) = update(publicKey) { it.copy(blocked = blocked) }
+
+    private fun update(publicKey: PublicKey, change: (ContactPolicy) -> ContactPolicy) {
+        val key = publicKey.string()
+        val policy = synchronized(this) {
+            val policies = snapshot.policies
+            val updated = change(policies[key] ?: ContactPolicy(key))
+            if (updated == policies[key]) return
+            snapshot = Snapshot(policies + (key to updated))
+            pending?.let {
+                it.add(key to change)
+                return
+            }
+            updated
+        }
+
+        scope.launch(writer) { write(policy) }
+    }
+
+    private fun write(policy: ContactPolicy) {
+        if (policy == ContactPolicy(policy.publicKey)) {
+            repository.delete(policy.publicKey)
+        } else {
+            repository.set(policy)
+        }
+    }
+
+    private fun load(): List<ContactPolicy> {
+        val preferences = PreferenceManager.getDefaultSharedPreferences(context)
+        val muted = preferences.getStringSet(LEGACY_MUTED_KEY, null)
+        val blocked = preferences.getStringSet(LEGACY_BLOCKED_KEY, null)
+        if (muted == null && blocked == null) return repository.getAll()
+
+        val migrated = repository.migrateLegacy(muted.orEmpty(), blocked.orEmpty())
+        preferences.edit {
+            remove(LEGACY_MUTED_KEY)
+            remove(LEGACY_BLOCKED_KEY)
+        }
+        Log.i(TAG, "Moved $migrated contact policies out of shared preferences")
+        return repository.getAll()
+    }
+
+    private fun legacy(): List<ContactPolicy> {
+        val preferences = PreferenceManager.getDefaultSharedPreferences(context)
+        val muted = preferences.getStringSet(LEGACY_MUTED_KEY, null).orEmpty()
+        val blocked = preferences.getStringSet(LEGACY_BLOCKED_KEY, null).orEmpty()
+        return (muted + blocked).map { ContactPolicy(it, muted = it in muted, blocked = it in blocked) }
+    }
+}
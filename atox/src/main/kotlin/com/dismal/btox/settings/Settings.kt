@@ -17,9 +17,10 @@ import java.security.SecureRandom
 import javax.crypto.SecretKeyFactory
 import javax.crypto.spec.PBEKeySpec
 import javax.inject.Inject
+import kotlinx.coroutines.flow.StateFlow
 import com.dismal.btox.R
 import com.dismal.btox.BootReceiver
-import ltd.evilcorp.core.vo.PublicKey
+import ltd.evilcorp.core.vo.RetentionPolicy
 import ltd.evilcorp.domain.tox.ProxyType
 
 enum class FtAutoAccept {
@@ -45,35 +46,36 @@ enum class UiStyleMode {
     Material3,
 }
 
-class Settings @Inject constructor(private val ctx: Context) {
+class Settings @Inject constructor(private val ctx: Context, private val store: SettingsStore) {
     private val preferences = PreferenceManager.getDefaultSharedPreferences(ctx)
 
+    /** All settings at once, updated whenever one of them changes. */
+    val state: StateFlow<SettingsSnapshot> get() = store.state
+
     var theme: Int
-        get() = preferences.getInt("theme", AppCompatDelegate.MODE_NIGHT_FOLLOW_SYSTEM)
+        get() = store.value.theme
         set(theme) {
-            preferences.edit { putInt("theme", theme) }
+            store.update { it.copy(theme = theme) }
             AppCompatDelegate.setDefaultNightMode(theme)
         }
 
     var appColorIndex: Int
-        get() = preferences.getInt("app_color_index", 0).coerceIn(0, APP_THEME_STYLES.lastIndex)
-        set(value) = preferences.edit { putInt("app_color_index", value.coerceIn(0, APP_THEME_STYLES.lastIndex)) }
+        get() = store.value.appColorIndex.coerceIn(0, APP_THEME_STYLES.lastIndex)
+        set(value) = store.update { it.copy(appColorIndex = value.coerceIn(0, APP_THEME_STYLES.lastIndex)) }
 
     var customAppColor: Int
-        get() = preferences.getInt("custom_app_color", 0)
-        set(value) = preferences.edit { putInt("custom_app_color", value) }
+        get() = store.value.customAppColor
+        set(value) = store.update { it.copy(customAppColor = value) }
 
     fun appColorValue(): Int {
-        val custom = customAppColor
-        if (custom != 0) return custom
-        return APP_THEME_COLORS[appColorIndex]
+        val settings = store.value
+        if (settings.customAppColor != 0) return settings.customAppColor
+        return APP_THEME_COLORS[settings.appColorIndex.coerceIn(0, APP_THEME_COLORS.lastIndex)]
     }
 
     var uiStyleMode: UiStyleMode
-        get() = UiStyleMode.entries.getOrElse(preferences.getInt("ui_style_mode", UiStyleMode.Classic.ordinal)) {
-            UiStyleMode.Classic
-        }
-        set(mode) = preferences.edit { putInt("ui_style_mode", mode.ordinal) }
+        get() = store.value.uiStyleMode
+        set(mode) = store.update { it.copy(uiStyleMode = mode) }
 
     fun availableAppColors(): IntArray = APP_THEME_COLORS
 
@@ -98,15 +100,15 @@ class Settings @Inject constructor(private val ctx: Context) {
             }
             if (color == c) exactMatch = true
         }
-        appColorIndex = bestIndex
-        customAppColor = if (exactMatch) 0 else color
+        val custom = if (exactMatch) 0 else color
+        store.update { it.copy(appColorIndex = bestIndex, customAppColor = custom) }
     }
 
     fun appThemeRes(): Int = APP_THEME_STYLES[appColorIndex]
 
     var udpEnabled: Boolean
-        get() = preferences.getBoolean("udp_enabled", false)
-        set(enabled) = preferences.edit { putBoolean("udp_enabled", enabled) }
+        get() = store.value.udpEnabled
+        set(enabled) = store.update { it.copy(udpEnabled = enabled) }
 
     var runAtStartup: Boolean
         get() = ctx.packageManager.getComponentEnabledSetting(
@@ -127,90 +129,66 @@ class Settings @Inject constructor(private val ctx: Context) {
         }
 
     var autoAwayEnabled: Boolean
-        get() = preferences.getBoolean("auto_away_enabled", false)
-        set(enabled) = preferences.edit { putBoolean("auto_away_enabled", enabled) }
+        get() = store.value.autoAwayEnabled
+        set(enabled) = store.update { it.copy(autoAwayEnabled = enabled) }
 
     var autoAwaySeconds: Long
-        get() = preferences.getLong("auto_away_seconds", 180)
-        set(seconds) = preferences.edit { putLong("auto_away_seconds", seconds) }
+        get() = store.value.autoAwaySeconds
+        set(seconds) = store.update { it.copy(autoAwaySeconds = seconds) }
 
     var proxyType: ProxyType
-        get() = ProxyType.entries[preferences.getInt("proxy_type", 0)]
-        set(type) = preferences.edit { putInt("proxy_type", type.ordinal) }
+        get() = store.value.proxyType
+        set(type) = store.update { it.copy(proxyType = type) }
 
     var proxyAddress: String
-        get() = preferences.getString("proxy_address", null) ?: ""
-        set(address) = preferences.edit { putString("proxy_address", address) }
+        get() = store.value.proxyAddress
+        set(address) = store.update { it.copy(proxyAddress = address) }
 
     var proxyPort: Int
-        get() = preferences.getInt("proxy_port", 0)
-        set(port) = preferences.edit { putInt("proxy_port", port) }
+        get() = store.value.proxyPort
+        set(port) = store.update { it.copy(proxyPort = port) }
 
     var ftAutoAccept: FtAutoAccept
-        get() = FtAutoAccept.entries[preferences.getInt("ft_auto_accept", 0)]
-        set(autoAccept) = preferences.edit { putInt("ft_auto_accept", autoAccept.ordinal) }
+        get() = store.value.ftAutoAccept
+        set(autoAccept) = store.update { it.copy(ftAutoAccept = autoAccept) }
 
     var bootstrapNodeSource: BootstrapNodeSource
-        get() = BootstrapNodeSource.entries[preferences.getInt("bootstrap_node_source", 0)]
-        set(source) = preferences.edit { putInt("bootstrap_node_source", source.ordinal) }
+        get() = store.value.bootstrapNodeSource
+        set(source) = store.update { it.copy(bootstrapNodeSource = source) }
 
     var disableScreenshots: Boolean
-        get() = preferences.getBoolean("disable_screenshots", false)
-        set(disable) = preferences.edit { putBoolean("disable_screenshots", disable) }
+        get() = store.value.disableScreenshots
+        set(disable) = store.update { it.copy(disableScreenshots = disable) }
 
     var confirmQuitting: Boolean
-        get() = preferences.getBoolean("confirm_quitting", true)
-        set(confirm) = preferences.edit { putBoolean("confirm_quitting", confirm) }
+        get() = store.value.confirmQuitting
+        set(confirm) = store.update { it.copy(confirmQuitting = confirm) }
 
     var confirmCalling: Boolean
-        get() = preferences.getBoolean("confirm_calling", true)
-        set(confirm) = preferences.edit { putBoolean("confirm_calling", confirm) }
+        get() = store.value.confirmCalling
+        set(confirm) = store.update { it.copy(confirmCalling = confirm) }
 
     var outgoingMessageSoundsEnabled: Boolean
-        get() = preferences.getBoolean("outgoing_message_sounds_enabled", true)
-        set(enabled) = preferences.edit { putBoolean("outgoing_message_sounds_enabled", enabled) }
+        get() = store.value.outgoingMessageSoundsEnabled
+        set(enabled) = store.update { it.copy(outgoingMessageSoundsEnabled = enabled) }
 
     var nfcFriendAddEnabled: Boolean
-        get() = preferences.getBoolean("nfc_friend_add_enabled", false)
-        set(enabled) = preferences.edit { putBoolean("nfc_friend_add_enabled", enabled) }
+        get() = store.value.nfcFriendAddEnabled
+        set(enabled) = store.update { it.copy(nfcFriendAddEnabled = enabled) }
 
     var appLockMode: AppLockMode
-        get() = AppLockMode.entries.getOrElse(preferences.getInt("app_lock_mode", AppLockMode.None.ordinal)) {
-            AppLockMode.None
-        }
-        set(mode) = preferences.edit { putInt("app_lock_mode", mode.ordinal) }
-
-    fun isContactMuted(publicKey: PublicKey): Boolean = mutedContacts.contains(publicKey.string())
-
-    fun setContactMuted(publicKey: PublicKey, muted: Boolean) {
-        val current = mutedContacts
-        val updated = if (muted) {
-            current + publicKey.string()
-        } else {
-            current - publicKey.string()
-        }
-        preferences.edit { putStringSet("muted_contacts", updated) }
-    }
-
-    private val mutedContacts: Set<String>
-        get() = preferences.getStringSet("muted_contacts", emptySet())?.toSet() ?: emptySet()
-
-    fun isContactBlocked(publicKey: PublicKey): Boolean = blockedContacts.contains(publicKey.string())
-
-    fun setContactBlocked(publicKey: PublicKey, blocked: Boolean) {
-        val current = blockedContacts
-        val updated = if (blocked) {
-            current + publicKey.string()
-        } else {
-            current - publicKey.string()
+        get() = store.value.appLockMode
+        set(mode) = store.update { it.copy(appLockMode = mode) }
+
+    var retentionPolicy: RetentionPolicy
+        get() = store.value.retentionPolicy
+        set(policy) = store.update {
+            it.copy(
+                retentionMaxAgeMs = policy.maxAgeMs,
+                retentionMaxCount = policy.maxCount,
+                retentionMaxBytes = policy.maxBytes,
+            )
         }
-        preferences.edit { putStringSet("blocked_contacts", updated) }
-    }
-
-    fun getBlockedContactKeys(): Set<String> = blockedContacts
-
-    private val blockedContacts: Set<String>
-        get() = preferences.getStringSet("blocked_contacts", emptySet())?.toSet() ?: emptySet()
 
     fun hasAppPassword(): Boolean =
         preferences.contains("app_password_hash") && preferences.contains("app_password_salt")
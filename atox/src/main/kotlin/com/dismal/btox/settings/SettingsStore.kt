@@ -0,0 +1,143 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package com.dismal.btox.settings
+
+import android.content.Context
+import android.content.SharedPreferences
+import androidx.appcompat.app.AppCompatDelegate
+import androidx.core.content.edit
+import androidx.preference.PreferenceManager
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.update
+import kotlinx.coroutines.launch
+import ltd.evilcorp.core.vo.RETENTION_UNLIMITED
+import ltd.evilcorp.core.vo.RetentionPolicy
+import ltd.evilcorp.domain.tox.ProxyType
+
+/** Every preference the app reads at runtime, as of one point in time. */
+data class SettingsSnapshot(
+    val theme: Int = AppCompatDelegate.MODE_NIGHT_FOLLOW_SYSTEM,
+    val appColorIndex: Int = 0,
+    val customAppColor: Int = 0,
+    val uiStyleMode: UiStyleMode = UiStyleMode.Classic,
+    val udpEnabled: Boolean = false,
+    val autoAwayEnabled: Boolean = false,
+    val autoAwaySeconds: Long = 180,
+    val proxyType: ProxyType = ProxyType.None,
+    val proxyAddress: String = "",
+    val proxyPort: Int = 0,
+    val ftAutoAccept: FtAutoAccept = FtAutoAccept.None,
+    val bootstrapNodeSource: BootstrapNodeSource = BootstrapNodeSource.BuiltIn,
+    val disableScreenshots: Boolean = false,
+    val confirmQuitting: Boolean = true,
+    val confirmCalling: Boolean = true,
+    val outgoingMessageSoundsEnabled: Boolean = true,
+    val nfcFriendAddEnabled: Boolean = false,
+    val appLockMode: AppLockMode = AppLockMode.None,
+    val retentionMaxAgeMs: Long = RETENTION_UNLIMITED,
+    val retentionMaxCount: Long = RETENTION_UNLIMITED,
+    val retentionMaxBytes: Long = RETENTION_UNLIMITED,
+) {
+    val retentionPolicy: RetentionPolicy
+        get() = RetentionPolicy(
+            publicKey = "",
+            maxAgeMs = retentionMaxAgeMs,
+            maxCount = retentionMaxCount,
+            maxBytes = retentionMaxBytes,
+        )
+}
+
+private inline fun <reified T : Enum<T>> SharedPreferences.getEnum(key: String, default: T): T =
+    enumValues<T>().getOrElse(getInt(key, default.ordinal)) { default }
+
+/**
+ * Holds the settings as an immutable [SettingsSnapshot], read from shared preferences once.
+ *
+ * Reading a setting is a volatile read of [state], so it costs nothing on hot paths and every field comes from the same
+ * version of the settings. Changes publish a new snapshot right away and are persisted in the background, one write at
+ * a time and only when something actually changed.
+ */
+@Singleton
+class SettingsStore @Inject constructor(context: Context, private val scope: CoroutineScope) {
+    private val preferences = PreferenceManager.getDefaultSharedPreferences(context)
+    private val writer = Dispatchers.IO.limitedParallelism(1)
+
+    private val _state = MutableStateFlow(load())
+    val state: StateFlow<SettingsSnapshot> = _state.asStateFlow()
+
+    // Only touched on the writer.
+    private var persisted = _state.value
+
+    val value: SettingsSnapshot get() = _state.value
+
+    fun update(change: (SettingsSnapshot) -> SettingsSnapshot) {
+        _state.update(change)
+        scope.launch(writer) {
+            // Later changes may already be in here, in which case their own writes have nothing left to do.
+            val latest = _state.value
+            if (latest == persisted) return@launch
+            save(latest)
+            persisted = latest
+        }
+    }
+
+    private fun load() = with(preferences) {
+        val defaults = SettingsSnapshot()
+        SettingsSnapshot(
+            theme = getInt("theme", defaults.theme),
+            appColorIndex = getInt("app_color_index", defaults.appColorIndex),
+            customAppColor = getInt("custom_app_color", defaults.customAppColor),
+            uiStyleMode = getEnum("ui_style_mode", defaults.uiStyleMode),
+            udpEnabled = getBoolean("udp_enabled", defaults.udpEnabled),
+            autoAwayEnabled = getBoolean("auto_away_enabled", defaults.autoAwayEnabled),
+            autoAwaySeconds = getLong("auto_away_seconds", defaults.autoAwaySeconds),
+            proxyType = getEnum("proxy_type", defaults.proxyType),
+            proxyAddress = getString("proxy_address", null) ?: defaults.proxyAddress,
+            proxyPort = getInt("proxy_port", defaults.proxyPort),
+            ftAutoAccept = getEnum("ft_auto_accept", defaults.ftAutoAccept),
+            bootstrapNodeSource = getEnum("bootstrap_node_source", defaults.bootstrapNodeSource),
+            disableScreenshots = getBoolean("disable_screenshots", defaults.disableScreenshots),
+            confirmQuitting = getBoolean("confirm_quitting", defaults.confirmQuitting),
+            confirmCalling = getBoolean("confirm_calling", defaults.confirmCalling),
+            outgoingMessageSoundsEnabled =
+            getBoolean("outgoing_message_sounds_enabled", defaults.outgoingMessageSoundsEnabled),
+            nfcFriendAddEnabled = getBoolean("nfc_friend_add_enabled", defaults.nfcFriendAddEnabled),
+            appLockMode = getEnum("app_lock_mode", defaults.appLockMode),
+            retentionMaxAgeMs = getLong("retention_max_age_ms", defaults.retentionMaxAgeMs),
+            retentionMaxCount = getLong("retention_max_count", defaults.retentionMaxCount),
+            retentionMaxBytes = getLong("retention_max_bytes", defaults.retentionMaxBytes),
+        )
+    }
+
+    private fun save(settings: SettingsSnapshot) = preferences.edit {
+        putInt("theme", settings.theme)
+        putInt("app_color_index", settings.appColorIndex)
+        putInt("custom_app_color", settings.customAppColor)
+        putInt("ui_style_mode", settings.uiStyleMode.ordinal)
+        putBoolean("udp_enabled", settings.udpEnabled)
+        putBoolean("auto_away_enabled", settings.autoAwayEnabled)
+        putLong("auto_away_seconds", settings.autoAwaySeconds)
+        putInt("proxy_type", settings.proxyType.ordinal)
+        putString("proxy_address", settings.proxyAddress)
+        putInt("proxy_port", settings.proxyPort)
+        putInt("ft_auto_accept", settings.ftAutoAccept.ordinal)
+        putInt("bootstrap_node_source", settings.bootstrapNodeSource.ordinal)
+        putBoolean("disable_screenshots", settings.disableScreenshots)
+        putBoolean("confirm_quitting", settings.confirmQuitting)
+        putBoolean("confirm_calling", settings.confirmCalling)
+        putBoolean("outgoing_message_sounds_enabled", settings.outgoingMessageSoundsEnabled)
+        putBoolean("nfc_friend_add_enabled", settings.nfcFriendAddEnabled)
+        putInt("app_lock_mode", settings.appLockMode.ordinal)
+        putLong("retention_max_age_ms", settings.retentionMaxAgeMs)
+        putLong("retention_max_count", settings.retentionMaxCount)
+        putLong("retention_max_bytes", settings.retentionMaxBytes)
+    }
+}
@@ -8,7 +8,6 @@ import android.content.Context
 import android.util.Log
 import im.tox.tox4j.av.enums.ToxavFriendCallState
 import im.tox.tox4j.core.enums.ToxFileControl
-import java.net.URLConnection
 import java.util.Date
 import javax.inject.Inject
 import javax.inject.Singleton
@@ -18,6 +17,7 @@ import androidx.core.net.toUri
 import kotlinx.coroutines.flow.firstOrNull
 import kotlinx.coroutines.launch
 import com.dismal.btox.R
+import com.dismal.btox.settings.ContactPolicies
 import com.dismal.btox.settings.FtAutoAccept
 import com.dismal.btox.settings.Settings
 import com.dismal.btox.ui.NotificationHelper
@@ -34,10 +34,10 @@ import ltd.evilcorp.core.vo.Message
 import ltd.evilcorp.core.vo.PublicKey
 import ltd.evilcorp.core.vo.Sender
 import ltd.evilcorp.core.vo.UserStatus
-import ltd.evilcorp.domain.av.AudioPlayer
 import ltd.evilcorp.domain.feature.CallManager
 import ltd.evilcorp.domain.feature.ChatManager
 import ltd.evilcorp.domain.feature.FileTransferManager
+import ltd.evilcorp.domain.feature.isImage
 import ltd.evilcorp.domain.tox.Tox
 import ltd.evilcorp.domain.tox.ToxAvEventListener
 import ltd.evilcorp.domain.tox.ToxEventListener
@@ -46,13 +46,6 @@ import ltd.evilcorp.domain.tox.toMessageType
 private const val MAX_ACTIVE_FRIEND_REQUESTS = 32
 private const val TAG = "EventListenerCallbacks"
 
-private fun isImage(filename: String) = try {
-    URLConnection.guessContentTypeFromName(filename).startsWith("image/")
-} catch (e: Exception) {
-    Log.e(TAG, e.toString())
-    false
-}
-
 private const val FINGERPRINT_LEN = 8
 private fun String.fingerprint() = this.take(FINGERPRINT_LEN)
 
@@ -69,9 +62,9 @@ class EventListenerCallbacks @Inject constructor(
     private val notificationHelper: NotificationHelper,
     private val tox: Tox,
     private val settings: Settings,
+    private val contactPolicies: ContactPolicies,
 ) {
     private var maxFriendRequestsWarningActive = false
-    private var audioPlayer: AudioPlayer? = null
     private val scope = CoroutineScope(Dispatchers.Default)
 
     private suspend fun tryGetContact(pk: String, tag: String) = contactRepository.get(pk).firstOrNull().let {
@@ -116,7 +109,7 @@ class EventListenerCallbacks @Inject constructor(
         }
 
         friendRequestHandler = handler@{ publicKey, _, message ->
-            if (settings.isContactBlocked(PublicKey(publicKey))) {
+            if (contactPolicies.isBlocked(PublicKey(publicKey))) {
                 return@handler
             }
 
@@ -136,7 +129,7 @@ class EventListenerCallbacks @Inject constructor(
         }
 
         friendMessageHandler = handler@{ publicKey, type, _, msg ->
-            if (settings.isContactBlocked(PublicKey(publicKey))) {
+            if (contactPolicies.isBlocked(PublicKey(publicKey))) {
                 return@handler
             }
 
@@ -162,7 +155,7 @@ class EventListenerCallbacks @Inject constructor(
         }
 
         fileRecvHandler = handler@{ publicKey, fileNo, kind, fileSize, filename ->
-            if (settings.isContactBlocked(PublicKey(publicKey))) {
+            if (contactPolicies.isBlocked(PublicKey(publicKey))) {
                 return@handler
             }
 
@@ -200,7 +193,7 @@ class EventListenerCallbacks @Inject constructor(
         }
 
         friendTypingHandler = handler@{ publicKey, isTyping ->
-            if (settings.isContactBlocked(PublicKey(publicKey))) {
+            if (contactPolicies.isBlocked(PublicKey(publicKey))) {
                 contactRepository.setTyping(publicKey, false)
                 return@handler
             }
@@ -211,7 +204,7 @@ class EventListenerCallbacks @Inject constructor(
     fun setUp(listener: ToxAvEventListener) = with(listener) {
         callHandler = handler@{ pk, audioEnabled, videoEnabled ->
             Log.e(TAG, "call ${pk.fingerprint()} $audioEnabled $videoEnabled")
-            if (settings.isContactBlocked(PublicKey(pk))) {
+            if (contactPolicies.isBlocked(PublicKey(pk))) {
                 return@handler
             }
             scope.launch {
@@ -224,48 +217,31 @@ class EventListenerCallbacks @Inject constructor(
         callStateHandler = { pk, callState ->
             Log.e(TAG, "callState ${pk.fingerprint()} $callState")
             if (callState.contains(ToxavFriendCallState.FINISHED) || callState.contains(ToxavFriendCallState.ERROR)) {
-                audioPlayer?.stop()
-                audioPlayer?.release()
-                audioPlayer = null
                 notificationHelper.dismissCallNotification(PublicKey(pk))
                 callManager.endCall(PublicKey(pk))
             }
         }
 
         videoBitRateHandler = { pk, bitRate ->
-            Log.e(TAG, "videoBitRate ${pk.fingerprint()} $bitRate")
+            Log.i(TAG, "videoBitRate ${pk.fingerprint()} $bitRate")
+            callManager.onVideoBitRateSuggested(PublicKey(pk), bitRate)
         }
 
-        videoReceiveFrameHandler = {
-                pk,
-                width,
-                height,
-                y,
-                u,
-                v,
-                yStride,
-                uStride,
-                vStride,
-            ->
-            Log.v(
-                TAG,
-                "videoReceiveFrame ${pk.fingerprint()}" +
-                    "$width $height" +
-                    "${y.size} ${u.size} ${v.size}" +
-                    "$yStride $uStride $vStride",
-            )
+        videoFrameCachedYuvHandler = { height, yStride, uStride, vStride ->
+            callManager.remoteVideo.writeFrame(height, yStride, uStride, vStride)
+        }
+
+        videoReceiveFrameHandler = { pk, width, height, y, u, v, yStride, uStride, vStride ->
+            callManager.onVideoFrame(PublicKey(pk), width, height, y, u, v, yStride, uStride, vStride)
         }
 
         audioBitRateHandler = { pk, bitRate ->
-            Log.e(TAG, "audioBitRate ${pk.fingerprint()} $bitRate")
+            Log.i(TAG, "audioBitRate ${pk.fingerprint()} $bitRate")
+            callManager.onAudioBitRateSuggested(PublicKey(pk), bitRate)
         }
 
-        audioReceiveFrameHandler = { _, pcm, channels, samplingRate ->
-            if (audioPlayer == null) {
-                audioPlayer = AudioPlayer(samplingRate, channels)
-                audioPlayer?.start()
-            }
-            audioPlayer?.buffer(pcm)
+        audioReceiveFrameHandler = { pk, pcm, channels, samplingRate ->
+            callManager.playAudio(PublicKey(pk), pcm, channels, samplingRate)
         }
     }
 }
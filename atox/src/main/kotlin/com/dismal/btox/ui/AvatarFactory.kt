@@ -13,11 +13,33 @@ import android.graphics.Paint
 import android.graphics.Rect
 import android.graphics.RectF
 import android.graphics.Typeface
+import android.util.LruCache
 import androidx.core.graphics.createBitmap
 import kotlin.math.abs
 import com.dismal.btox.R
 
+// Roughly 40 list-sized avatars on an xxhdpi screen.
+private const val CACHE_SIZE_BYTES = 4 * 1024 * 1024
+
 internal object AvatarFactory {
+    private data class Key(val initials: String, val colorIndex: Int, val px: Int)
+
+    private val cache = object : LruCache<Key, Bitmap>(CACHE_SIZE_BYTES) {
+        override fun sizeOf(key: Key, value: Bitmap) = value.allocationByteCount
+    }
+
+    // Only ever touched while holding the lock in render().
+    private val backgroundPaint = Paint().apply { isAntiAlias = true }
+    private val textPaint = Paint().apply {
+        color = Color.WHITE
+        textAlign = Paint.Align.CENTER
+        isAntiAlias = true
+        typeface = Typeface.create("sans-serif-light", Typeface.NORMAL)
+    }
+    private val textBounds = Rect()
+    private val rect = RectF()
+    @Volatile
+    private var colors: IntArray? = null
 
     private fun getInitials(name: String): String {
         val segments = name.split(" ")
@@ -25,35 +47,38 @@ internal object AvatarFactory {
         return segments.first().take(1) + segments[1].take(1)
     }
 
-    // Method will create an avatar based on the initials of a name and a public key for the background color.
+    private fun colors(resources: Resources): IntArray =
+        colors ?: resources.getIntArray(R.array.contactBackgrounds).also { colors = it }
+
+    /**
+     * An avatar based on the initials of a name and a public key for the background color.
+     *
+     * Avatars are cached by what they look like, so the returned bitmap is shared and must not be modified.
+     */
     fun create(
         resources: Resources,
         name: String,
         publicKey: String,
         size: Px = Px(resources.getDimension(R.dimen.default_avatar_size).toInt()),
     ): Bitmap {
+        val key = Key(getInitials(name), abs(publicKey.hashCode()).rem(colors(resources).size), size.px)
+        return cache.get(key) ?: render(resources, key).also { cache.put(key, it) }
+    }
+
+    @Synchronized
+    private fun render(resources: Resources, key: Key): Bitmap {
         val defaultAvatarSize = resources.getDimension(R.dimen.default_avatar_size)
-        val textScale = size.px / defaultAvatarSize
+        val textScale = key.px / defaultAvatarSize
 
-        val bitmap = createBitmap(size.px, size.px)
+        val bitmap = createBitmap(key.px, key.px)
         val canvas = Canvas(bitmap)
-        val rect = RectF(0f, 0f, bitmap.width.toFloat(), bitmap.height.toFloat())
-        val colors = resources.getIntArray(R.array.contactBackgrounds)
-        val backgroundPaint = Paint().apply { color = colors[abs(publicKey.hashCode()).rem(colors.size)] }
-
-        val textPaint = Paint().apply {
-            color = Color.WHITE
-            textSize = resources.getDimension(R.dimen.contact_avatar_placeholder_text) * textScale
-            textAlign = Paint.Align.CENTER
-            isAntiAlias = true
-            typeface = Typeface.create("sans-serif-light", Typeface.NORMAL)
-        }
-
-        val textBounds = Rect()
-        val initials = getInitials(name)
-        textPaint.getTextBounds(initials, 0, initials.length, textBounds)
+        rect.set(0f, 0f, bitmap.width.toFloat(), bitmap.height.toFloat())
+        backgroundPaint.color = colors(resources)[key.colorIndex]
+        textPaint.textSize = resources.getDimension(R.dimen.contact_avatar_placeholder_text) * textScale
+
+        textPaint.getTextBounds(key.initials, 0, key.initials.length, textBounds)
         canvas.drawRoundRect(rect, rect.bottom, rect.right, backgroundPaint)
-        canvas.drawText(initials, rect.centerX(), rect.centerY() - textBounds.exactCenterY(), textPaint)
+        canvas.drawText(key.initials, rect.centerX(), rect.centerY() - textBounds.exactCenterY(), textPaint)
 
         return bitmap
     }
@@ -8,6 +8,7 @@ package com.dismal.btox.ui
 import android.content.Context
 import android.graphics.Canvas
 import android.graphics.Paint
+import android.graphics.drawable.BitmapDrawable
 import android.util.AttributeSet
 import androidx.core.content.ContextCompat
 import androidx.core.content.res.use
@@ -49,7 +50,13 @@ class AvatarImageView @JvmOverloads constructor(context: Context, attrs: Attribu
 
     fun setFrom(contact: Contact) {
         statusIndicatorPaint.color = colorByContactStatus(context, contact)
-        setSource(contact.avatarUri)
+        setSource(contact.avatarUri, contact.name, contact.publicKey)
+    }
+
+    /** Only redraws the status indicator, for when nothing but [contact]'s presence has changed. */
+    fun setStatusFrom(contact: Contact) {
+        statusIndicatorPaint.color = colorByContactStatus(context, contact)
+        invalidate()
     }
 
     fun setFrom(user: User) {
@@ -58,21 +65,37 @@ class AvatarImageView @JvmOverloads constructor(context: Context, attrs: Attribu
         } else {
             colorFromStatus(context, user.status)
         }
-        setSource(user.avatarUri)
+        setSource(user.avatarUri, user.name, user.publicKey)
     }
 
-    private fun setSource(avatarUri: String) {
+    private fun setSource(avatarUri: String, name: String, publicKey: String) {
         val normalizedAvatarUri = avatarUri.trim()
         Picasso.get().cancelRequest(this)
 
+        // Contacts without a name fall back to the Messaging/AOSP-like default person icon.
+        val initials = if (name.isNotBlank()) {
+            val size = layoutParams?.width?.takeIf { it > 0 }
+                ?: resources.getDimensionPixelSize(R.dimen.default_avatar_size)
+            AvatarFactory.create(resources, name, publicKey, Px(size))
+        } else {
+            null
+        }
+
         if (normalizedAvatarUri.isNotEmpty() && !normalizedAvatarUri.equals("null", ignoreCase = true)) {
+            val fallback = initials?.let { BitmapDrawable(resources, it) }
             Picasso.get()
                 .load(normalizedAvatarUri.toUri())
-                .placeholder(R.drawable.ic_person_avatar)
-                .error(R.drawable.ic_person_avatar)
+                .apply {
+                    if (fallback != null) {
+                        placeholder(fallback).error(fallback)
+                    } else {
+                        placeholder(R.drawable.ic_person_avatar).error(R.drawable.ic_person_avatar)
+                    }
+                }
                 .into(this)
+        } else if (initials != null) {
+            setImageBitmap(initials)
         } else {
-            // Use Messaging/AOSP-like default person icon when no profile photo is set.
             setImageResource(R.drawable.ic_person_avatar)
         }
 
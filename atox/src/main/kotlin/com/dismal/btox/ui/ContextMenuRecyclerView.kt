@@ -0,0 +1,39 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package com.dismal.btox.ui
+
+import android.content.Context
+import android.util.AttributeSet
+import android.view.ContextMenu
+import android.view.View
+import android.widget.AdapterView
+import androidx.recyclerview.widget.RecyclerView
+
+/**
+ * A RecyclerView that hands [AdapterView.AdapterContextMenuInfo] to context menu listeners the way ListView does,
+ * so fragments can keep using [android.app.Activity.registerForContextMenu] on it.
+ */
+class ContextMenuRecyclerView @JvmOverloads constructor(
+    context: Context,
+    attrs: AttributeSet? = null,
+    defStyleAttr: Int = 0,
+) : RecyclerView(context, attrs, defStyleAttr) {
+    private var contextMenuInfo: AdapterView.AdapterContextMenuInfo? = null
+
+    override fun getContextMenuInfo(): ContextMenu.ContextMenuInfo? = contextMenuInfo
+
+    override fun showContextMenuForChild(originalView: View): Boolean =
+        updateContextMenuInfo(originalView) && super.showContextMenuForChild(originalView)
+
+    override fun showContextMenuForChild(originalView: View, x: Float, y: Float): Boolean =
+        updateContextMenuInfo(originalView) && super.showContextMenuForChild(originalView, x, y)
+
+    private fun updateContextMenuInfo(child: View): Boolean {
+        val position = getChildAdapterPosition(child)
+        if (position == NO_POSITION) return false
+        contextMenuInfo = AdapterView.AdapterContextMenuInfo(child, position, getChildItemId(child))
+        return true
+    }
+}
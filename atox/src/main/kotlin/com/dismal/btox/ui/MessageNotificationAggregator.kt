@@ -0,0 +1,81 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package com.dismal.btox.ui
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import ltd.evilcorp.core.vo.Contact
+
+private const val NOTIFICATION_DEBOUNCE_MS = 400L
+
+// About what MessagingStyle shows when expanded, older messages are only a tap away in the chat.
+private const val MAX_NOTIFICATION_MESSAGES = 25
+
+internal class NotificationMessage(val text: String, val timestamp: Long, val outgoing: Boolean)
+
+/**
+ * Keeps the messages shown in each conversation's notification and posts them at most once per
+ * [NOTIFICATION_DEBOUNCE_MS], so a burst of messages after reconnecting turns into one notification update instead of
+ * one per message, staying well clear of Android's notification rate limit.
+ *
+ * [activeMessages] is asked once per burst for what the system is currently showing, both to pick up notifications
+ * posted before the process was restarted and to notice ones the user has swiped away.
+ */
+internal class MessageNotificationAggregator(
+    private val scope: CoroutineScope,
+    private val activeMessages: (publicKey: String) -> List<NotificationMessage>?,
+    private val post: (contact: Contact, messages: List<NotificationMessage>, silent: Boolean) -> Unit,
+) {
+    private class Conversation(var contact: Contact) {
+        val messages = ArrayDeque<NotificationMessage>()
+        var silent = true
+        var posted = false
+        var pending: Job? = null
+    }
+
+    private val conversations = HashMap<String, Conversation>()
+
+    fun add(contact: Contact, message: NotificationMessage, silent: Boolean) = synchronized(conversations) {
+        val conversation = conversations.getOrPut(contact.publicKey) { Conversation(contact) }
+        conversation.contact = contact
+
+        if (conversation.pending == null) {
+            val showing = activeMessages(contact.publicKey)
+            if (showing == null || !conversation.posted) {
+                conversation.messages.clear()
+                showing?.let { conversation.messages.addAll(it) }
+            }
+            conversation.silent = true
+            conversation.pending = scope.launch {
+                delay(NOTIFICATION_DEBOUNCE_MS)
+                flush(contact.publicKey)
+            }
+        }
+
+        conversation.messages.addLast(message)
+        while (conversation.messages.size > MAX_NOTIFICATION_MESSAGES) {
+            conversation.messages.removeFirst()
+        }
+        // One alert per burst, unless every message in it was meant to be silent.
+        conversation.silent = conversation.silent && silent
+    }
+
+    /** Forgets [publicKey]'s conversation and drops any update that hasn't been posted yet. */
+    fun clear(publicKey: String) = synchronized(conversations) {
+        conversations.remove(publicKey)?.pending?.cancel()
+    }
+
+    private fun flush(publicKey: String) {
+        val (contact, messages, silent) = synchronized(conversations) {
+            val conversation = conversations[publicKey] ?: return
+            conversation.pending = null
+            conversation.posted = true
+            Triple(conversation.contact, conversation.messages.toList(), conversation.silent)
+        }
+        post(contact, messages, silent)
+    }
+}
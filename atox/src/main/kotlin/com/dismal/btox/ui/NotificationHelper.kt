@@ -11,12 +11,6 @@ import android.app.PendingIntent
 import android.content.Context
 import android.content.Intent
 import android.content.pm.PackageManager
-import android.graphics.Bitmap
-import android.graphics.Canvas
-import android.graphics.Paint
-import android.graphics.PorterDuff
-import android.graphics.PorterDuffXfermode
-import android.graphics.Rect
 import android.media.AudioAttributes
 import android.media.RingtoneManager
 import android.os.Build
@@ -28,14 +22,12 @@ import androidx.core.app.NotificationManagerCompat
 import androidx.core.app.Person
 import androidx.core.app.RemoteInput
 import androidx.core.content.getSystemService
-import androidx.core.graphics.createBitmap
 import androidx.core.graphics.drawable.IconCompat
 import androidx.core.os.bundleOf
 import androidx.navigation.NavDeepLinkBuilder
-import com.squareup.picasso.Picasso
-import com.squareup.picasso.Transformation
 import javax.inject.Inject
 import javax.inject.Singleton
+import kotlinx.coroutines.CoroutineScope
 import com.dismal.btox.Action
 import com.dismal.btox.ActionReceiver
 import com.dismal.btox.KEY_ACTION
@@ -44,6 +36,7 @@ import com.dismal.btox.KEY_TEXT_REPLY
 import com.dismal.btox.PendingIntentCompat
 import com.dismal.btox.R
 import com.dismal.btox.hasPermission
+import com.dismal.btox.settings.ContactPolicies
 import com.dismal.btox.settings.Settings
 import com.dismal.btox.ui.chat.CONTACT_PUBLIC_KEY
 import com.dismal.btox.ui.chat.FOCUS_ON_MESSAGE_BOX
@@ -58,13 +51,20 @@ private const val MESSAGE = "aTox messages"
 private const val FRIEND_REQUEST = "aTox friend requests"
 private const val CALL = "aTox calls"
 
+// Person key of the messages sent as replies from the notification.
+private const val MYSELF = "myself"
+
 @Singleton
 class NotificationHelper @Inject constructor(
     private val context: Context,
     private val settings: Settings,
+    private val contactPolicies: ContactPolicies,
+    private val iconCache: NotificationIconCache,
+    scope: CoroutineScope,
 ) {
     private val notifier = NotificationManagerCompat.from(context)
     private val notifierOld = context.getSystemService<NotificationManager>()!!
+    private val aggregator = MessageNotificationAggregator(scope, ::activeMessages, ::postMessageNotification)
 
     init {
         createNotificationChannel()
@@ -93,27 +93,9 @@ class NotificationHelper @Inject constructor(
         notifier.createNotificationChannelsCompat(listOf(messageChannel, friendChannel, callChannel))
     }
 
-    fun dismissNotifications(publicKey: PublicKey) = notifier.cancel(publicKey.string().hashCode())
-
-    private val circleTransform = object : Transformation {
-        override fun transform(bitmap: Bitmap): Bitmap {
-            val output = createBitmap(bitmap.width, bitmap.height)
-            val canvas = Canvas(output)
-            val paint = Paint()
-            val rect = Rect(0, 0, bitmap.width, bitmap.height)
-
-            paint.isAntiAlias = true
-            canvas.drawARGB(0, 0, 0, 0)
-            canvas.drawCircle(bitmap.width / 2.0f, bitmap.height / 2.0f, bitmap.width / 2.0f, paint)
-            paint.xfermode = PorterDuffXfermode(PorterDuff.Mode.SRC_IN)
-            canvas.drawBitmap(bitmap, rect, rect, paint)
-            if (bitmap != output) {
-                bitmap.recycle()
-            }
-            return output
-        }
-
-        override fun key() = "circleTransform"
+    fun dismissNotifications(publicKey: PublicKey) {
+        aggregator.clear(publicKey.string())
+        notifier.cancel(publicKey.string().hashCode())
     }
 
     fun showMessageNotification(
@@ -122,14 +104,27 @@ class NotificationHelper @Inject constructor(
         outgoing: Boolean = false,
         silent: Boolean = outgoing,
     ) {
-        if (settings.isContactBlocked(PublicKey(contact.publicKey))) {
+        if (contactPolicies.isBlocked(PublicKey(contact.publicKey))) {
             return
         }
 
-        if (!outgoing && settings.isContactMuted(PublicKey(contact.publicKey))) {
+        if (!outgoing && contactPolicies.isMuted(PublicKey(contact.publicKey))) {
             return
         }
 
+        aggregator.add(contact, NotificationMessage(message, System.currentTimeMillis(), outgoing), silent)
+    }
+
+    private fun activeMessages(publicKey: String): List<NotificationMessage>? {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) return null
+        val notification = notifierOld.activeNotifications.find { it.notification.group == publicKey } ?: return null
+        val style = NotificationCompat.MessagingStyle.extractMessagingStyleFromNotification(notification.notification)
+        return style?.messages.orEmpty().map {
+            NotificationMessage(it.text.toString(), it.timestamp, it.person?.key == MYSELF)
+        }
+    }
+
+    private fun postMessageNotification(contact: Contact, messages: List<NotificationMessage>, silent: Boolean) {
         if (ActivityCompat.checkSelfPermission(
                 context,
                 Manifest.permission.POST_NOTIFICATIONS,
@@ -143,33 +138,36 @@ class NotificationHelper @Inject constructor(
             .setCategory(NotificationCompat.CATEGORY_MESSAGE)
             .setSmallIcon(R.drawable.stat_notify_chat)
             .setContentTitle(contact.name.ifEmpty { context.getText(R.string.contact_default_name) })
-            .setContentText(message)
+            .setContentText(messages.last().text)
             .setContentIntent(deepLinkToChat(PublicKey(contact.publicKey)))
             .setAutoCancel(true)
             .setSilent(silent)
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            val icon = if (contact.avatarUri.isNotEmpty()) {
-                IconCompat.createWithBitmap(Picasso.get().load(contact.avatarUri).transform(circleTransform).get())
+            val icon = iconCache.get(contact) ?: if (contact.name.isNotBlank()) {
+                IconCompat.createWithBitmap(AvatarFactory.create(context.resources, contact.name, contact.publicKey))
             } else {
                 null
             }
 
             val chatPartner = Person.Builder()
                 .setName(contact.name.ifEmpty { context.getText(R.string.contact_default_name) })
-                .setKey(if (outgoing) "myself" else contact.publicKey)
+                .setKey(contact.publicKey)
                 .setIcon(icon)
                 .setImportant(true)
                 .build()
-
-            val style =
-                notifierOld.activeNotifications.find { it.notification.group == contact.publicKey }?.notification?.let {
-                    NotificationCompat.MessagingStyle.extractMessagingStyleFromNotification(it)
-                } ?: NotificationCompat.MessagingStyle(chatPartner)
-
-            style.messages.add(
-                NotificationCompat.MessagingStyle.Message(message, System.currentTimeMillis(), chatPartner),
-            )
+            val myself = chatPartner.toBuilder().setKey(MYSELF).build()
+
+            val style = NotificationCompat.MessagingStyle(chatPartner)
+            for (message in messages) {
+                style.messages.add(
+                    NotificationCompat.MessagingStyle.Message(
+                        message.text,
+                        message.timestamp,
+                        if (message.outgoing) myself else chatPartner,
+                    ),
+                )
+            }
 
             notificationBuilder
                 .setStyle(style)
@@ -315,11 +313,11 @@ class NotificationHelper @Inject constructor(
     }
 
     fun showPendingCallNotification(status: UserStatus, c: Contact) {
-        if (settings.isContactBlocked(PublicKey(c.publicKey))) {
+        if (contactPolicies.isBlocked(PublicKey(c.publicKey))) {
             return
         }
 
-        if (settings.isContactMuted(PublicKey(c.publicKey))) {
+        if (contactPolicies.isMuted(PublicKey(c.publicKey))) {
             return
         }
 
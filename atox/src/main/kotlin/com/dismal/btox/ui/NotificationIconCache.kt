@@ -0,0 +1,132 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package com.dismal.btox.ui
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.graphics.PorterDuff
+import android.graphics.PorterDuffXfermode
+import android.graphics.Rect
+import android.util.Log
+import android.util.LruCache
+import androidx.core.graphics.createBitmap
+import androidx.core.graphics.drawable.IconCompat
+import androidx.core.net.toUri
+import com.squareup.picasso.MemoryPolicy
+import com.squareup.picasso.Picasso
+import com.squareup.picasso.Transformation
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.launch
+import ltd.evilcorp.core.repository.ContactRepository
+import ltd.evilcorp.core.vo.Contact
+
+private const val TAG = "NotificationIconCache"
+private const val CACHE_SIZE_BYTES = 4 * 1024 * 1024
+
+private object CircleTransform : Transformation {
+    override fun transform(bitmap: Bitmap): Bitmap {
+        val output = createBitmap(bitmap.width, bitmap.height)
+        val canvas = Canvas(output)
+        val paint = Paint()
+        val rect = Rect(0, 0, bitmap.width, bitmap.height)
+
+        paint.isAntiAlias = true
+        canvas.drawARGB(0, 0, 0, 0)
+        canvas.drawCircle(bitmap.width / 2.0f, bitmap.height / 2.0f, bitmap.width / 2.0f, paint)
+        paint.xfermode = PorterDuffXfermode(PorterDuff.Mode.SRC_IN)
+        canvas.drawBitmap(bitmap, rect, rect, paint)
+        if (bitmap != output) {
+            bitmap.recycle()
+        }
+        return output
+    }
+
+    override fun key() = "circleTransform"
+}
+
+/**
+ * Circular contact avatars sized for notifications, decoded ahead of time so posting a notification never waits on
+ * disk or image decoding.
+ *
+ * Avatars are keyed by their file's size and modification time as well as their uri, since a contact sending a new
+ * avatar overwrites the old file in place. Icons are prepared whenever a contact's avatar changes, and on the first
+ * lookup that misses.
+ */
+@Singleton
+class NotificationIconCache @Inject constructor(
+    private val context: Context,
+    private val scope: CoroutineScope,
+    contactRepository: ContactRepository,
+) {
+    private data class Key(val uri: String, val lastModified: Long, val length: Long)
+
+    private val icons = object : LruCache<Key, Bitmap>(CACHE_SIZE_BYTES) {
+        override fun sizeOf(key: Key, value: Bitmap) = value.allocationByteCount
+    }
+    private val pending = ConcurrentHashMap.newKeySet<Key>()
+    private val size = context.resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+
+    init {
+        scope.launch {
+            var previous: Map<String, String>? = null
+            contactRepository.getAll()
+                .map { contacts -> contacts.associate { it.publicKey to it.avatarUri } }
+                .distinctUntilChanged()
+                .collect { avatars ->
+                    // Everything that was there on startup is loaded on first use instead.
+                    previous?.let { old ->
+                        for ((publicKey, uri) in avatars) {
+                            if (uri.isNotEmpty() && old[publicKey] != uri) prepare(uri)
+                        }
+                    }
+                    previous = avatars
+                }
+        }
+    }
+
+    /** The avatar of [contact] if it's ready, otherwise null while it's prepared in the background. */
+    fun get(contact: Contact): IconCompat? {
+        if (contact.avatarUri.isEmpty()) return null
+        val key = keyOf(contact.avatarUri)
+        icons.get(key)?.let { return IconCompat.createWithBitmap(it) }
+        prepare(contact.avatarUri)
+        return null
+    }
+
+    private fun keyOf(uri: String): Key {
+        val path = uri.toUri().path
+        val file = if (uri.startsWith("file:") && path != null) File(path) else null
+        return Key(uri, file?.lastModified() ?: 0, file?.length() ?: 0)
+    }
+
+    private fun prepare(uri: String) = scope.launch(Dispatchers.IO) {
+        val key = keyOf(uri)
+        if (icons.get(key) != null || !pending.add(key)) return@launch
+        try {
+            val bitmap = Picasso.get()
+                .load(uri.toUri())
+                .memoryPolicy(MemoryPolicy.NO_CACHE, MemoryPolicy.NO_STORE)
+                .resize(size, size)
+                .centerCrop()
+                .transform(CircleTransform)
+                .get()
+            icons.put(key, bitmap)
+        } catch (e: IOException) {
+            Log.w(TAG, "Unable to load avatar $uri: $e")
+        } finally {
+            pending.remove(key)
+        }
+    }
+}
@@ -60,20 +60,13 @@ private class ReceiveShareDialog(
 
         binding.sharingText.text = String.format("%s", sharePreview.truncated(SHARE_TEXT_PREVIEW_LENGTH))
 
-        binding.contacts.let {
-            it.adapter = ContactAdapter(layoutInflater, context)
-            it.setOnItemClickListener { _, _, position, _ ->
-                val contact = binding.contacts.getItemAtPosition(position) as Contact
-                contactSelectedFunc(contact)
-                dismiss()
-            }
-        }
+        binding.contacts.adapter = ContactAdapter(layoutInflater, context, onItemClicked = {
+            contactSelectedFunc(it as Contact)
+            dismiss()
+        })
     }
 
     fun setContacts(contacts: List<Contact>) {
-        (binding.contacts.adapter as ContactAdapter?)?.let {
-            it.contacts = contacts
-            it.notifyDataSetChanged()
-        }
+        (binding.contacts.adapter as ContactAdapter?)?.submit(emptyList(), contacts)
     }
 }
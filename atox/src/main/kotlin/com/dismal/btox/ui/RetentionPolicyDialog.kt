@@ -0,0 +1,66 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package com.dismal.btox.ui
+
+import android.content.Context
+import android.text.InputType
+import android.widget.EditText
+import android.widget.LinearLayout
+import androidx.appcompat.app.AlertDialog
+import java.util.concurrent.TimeUnit
+import com.dismal.btox.R
+import ltd.evilcorp.core.vo.RETENTION_UNLIMITED
+import ltd.evilcorp.core.vo.RetentionPolicy
+
+private const val BYTES_PER_MB = 1024L * 1024L
+
+/**
+ * Lets the user edit the three retention limits. Empty or zero fields mean "keep everything".
+ * [onReset] adds a button for going back to the default policy, used for per-contact overrides.
+ */
+fun showRetentionPolicyDialog(
+    context: Context,
+    policy: RetentionPolicy,
+    onSave: (RetentionPolicy) -> Unit,
+    onReset: (() -> Unit)? = null,
+) {
+    fun field(hint: Int, value: Long) = EditText(context).apply {
+        this.hint = context.getString(hint)
+        inputType = InputType.TYPE_CLASS_NUMBER
+        if (value != RETENTION_UNLIMITED) setText(value.toString())
+    }
+
+    val days = field(R.string.retention_max_age_days, TimeUnit.MILLISECONDS.toDays(policy.maxAgeMs))
+    val count = field(R.string.retention_max_count, policy.maxCount)
+    val megabytes = field(R.string.retention_max_size_mb, policy.maxBytes / BYTES_PER_MB)
+
+    val container = LinearLayout(context).apply {
+        orientation = LinearLayout.VERTICAL
+        val spacing = (16 * resources.displayMetrics.density).toInt()
+        setPadding(spacing, spacing, spacing, spacing)
+        addView(days)
+        addView(count)
+        addView(megabytes)
+    }
+
+    fun EditText.long() = text?.toString()?.toLongOrNull() ?: RETENTION_UNLIMITED
+
+    AlertDialog.Builder(context)
+        .setTitle(R.string.retention_policy)
+        .setMessage(R.string.retention_policy_description)
+        .setView(container)
+        .setPositiveButton(R.string.save) { _, _ ->
+            onSave(
+                policy.copy(
+                    maxAgeMs = TimeUnit.DAYS.toMillis(days.long()),
+                    maxCount = count.long(),
+                    maxBytes = megabytes.long() * BYTES_PER_MB,
+                ),
+            )
+        }
+        .setNegativeButton(android.R.string.cancel, null)
+        .apply { if (onReset != null) setNeutralButton(R.string.retention_use_default) { _, _ -> onReset() } }
+        .show()
+}
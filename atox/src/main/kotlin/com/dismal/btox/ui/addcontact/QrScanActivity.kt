@@ -18,9 +18,9 @@ import android.widget.Toast
 import androidx.appcompat.app.AppCompatActivity
 import androidx.core.app.ActivityCompat
 import androidx.core.content.ContextCompat
+import com.dismal.btox.App
 import com.dismal.btox.R
 import com.dismal.btox.databinding.ActivityQrScanBinding
-import com.dismal.btox.settings.Settings
 import com.google.zxing.BinaryBitmap
 import com.google.zxing.DecodeHintType
 import com.google.zxing.MultiFormatReader
@@ -330,7 +330,7 @@ class QrScanActivity : AppCompatActivity(), SurfaceHolder.Callback, Camera.Previ
     }
 
     private fun playScanSuccessToneIfEnabled() {
-        if (!Settings(this).outgoingMessageSoundsEnabled) return
+        if (!(application as App).component.settings().outgoingMessageSoundsEnabled) return
         val player = MediaPlayer.create(this, R.raw.beep) ?: return
         player.setOnCompletionListener { it.release() }
         player.setOnErrorListener { mp, _, _ ->
@@ -6,6 +6,7 @@
 package com.dismal.btox.ui.call
 
 import android.Manifest
+import android.opengl.GLSurfaceView
 import android.os.Bundle
 import android.view.View
 import android.view.ViewGroup
@@ -30,10 +31,25 @@ import ltd.evilcorp.core.vo.PublicKey
 import ltd.evilcorp.domain.feature.CallState
 
 private const val PERMISSION = Manifest.permission.RECORD_AUDIO
+private const val CAMERA_PERMISSION = Manifest.permission.CAMERA
 
 class CallFragment : BaseFragment<FragmentCallBinding>(FragmentCallBinding::inflate) {
     private val vm: CallViewModel by viewModels { vmFactory }
 
+    private val requestCameraPermissionLauncher = registerForActivityResult(
+        ActivityResultContracts.RequestPermission(),
+    ) { granted ->
+        if (granted) {
+            vm.startSendingVideo()
+        } else {
+            Toast.makeText(requireContext(), getString(R.string.call_camera_permission_needed), Toast.LENGTH_LONG)
+                .show()
+        }
+    }
+
+    @Volatile
+    private var showingVideo = false
+
     private val requestPermissionLauncher = registerForActivityResult(
         ActivityResultContracts.RequestPermission(),
     ) { granted ->
@@ -64,6 +80,9 @@ class CallFragment : BaseFragment<FragmentCallBinding>(FragmentCallBinding::infl
                 callContactName.text = it.name.ifEmpty { getString(R.string.contact_default_name) }
             }
         }
+        setUpRemoteVideo()
+        setUpMetrics()
+
         callStatusText.text = getString(R.string.connecting)
         callDuration.stop()
         callDuration.visibility = View.GONE
@@ -94,6 +113,21 @@ class CallFragment : BaseFragment<FragmentCallBinding>(FragmentCallBinding::infl
             }
         }
 
+        vm.sendingVideo.asLiveData().observe(viewLifecycleOwner) { sending ->
+            cameraControl.setImageResource(if (sending) R.drawable.ic_videocam else R.drawable.ic_videocam_off)
+            cameraControl.isSelected = sending
+        }
+
+        cameraControl.setOnClickListener {
+            if (vm.sendingVideo.value) {
+                vm.stopSendingVideo()
+            } else if (requireContext().hasPermission(CAMERA_PERMISSION)) {
+                vm.startSendingVideo()
+            } else {
+                requestCameraPermissionLauncher.launch(CAMERA_PERMISSION)
+            }
+        }
+
         updateSpeakerphoneIcon()
         speakerphone.setOnClickListener {
             vm.toggleSpeakerphone()
@@ -127,6 +161,71 @@ class CallFragment : BaseFragment<FragmentCallBinding>(FragmentCallBinding::infl
         }
     }
 
+    override fun onResume() {
+        super.onResume()
+        binding.remoteVideo.onResume()
+    }
+
+    override fun onPause() {
+        binding.remoteVideo.onPause()
+        super.onPause()
+    }
+
+    override fun onDestroyView() {
+        vm.remoteVideo.onFrameAvailable = null
+        super.onDestroyView()
+    }
+
+    private fun setUpRemoteVideo() = binding.remoteVideo.run {
+        setEGLContextClientVersion(2)
+        setRenderer(RemoteVideoRenderer(vm.remoteVideo))
+        renderMode = GLSurfaceView.RENDERMODE_WHEN_DIRTY
+
+        showingVideo = false
+        vm.remoteVideo.onFrameAvailable = {
+            // The surface only exists once the view is shown, so wait for the first frame to show it.
+            if (!showingVideo) {
+                showingVideo = true
+                post {
+                    visibility = View.VISIBLE
+                    binding.avatarImageView.visibility = View.GONE
+                }
+            }
+            requestRender()
+        }
+    }
+
+    // Call diagnostics are shown on top of everything else by long-pressing the call status.
+    private fun setUpMetrics() = binding.run {
+        callStatusText.setOnLongClickListener {
+            callMetrics.visibility = if (callMetrics.visibility == View.VISIBLE) View.GONE else View.VISIBLE
+            true
+        }
+
+        vm.metrics.asLiveData().observe(viewLifecycleOwner) { metrics ->
+            if (metrics == null) {
+                callMetrics.text = ""
+                return@observe
+            }
+            callMetrics.text = getString(
+                R.string.call_metrics,
+                metrics.connection.name,
+                metrics.bottleneck.name,
+                metrics.audioBitrateKbps,
+                metrics.audioSendLatencyMs,
+                metrics.jitterMs,
+                metrics.audioUnderruns,
+                metrics.audioConcealed,
+                metrics.videoSendFps,
+                metrics.videoBitrateKbps,
+                metrics.videoSendTimeMs,
+                metrics.videoReceiveFps,
+                metrics.videoFramesDropped,
+                metrics.audioDeviceUnderruns,
+            )
+        }
+    }
+
     private fun updateSpeakerphoneIcon() {
         val icon = if (vm.speakerphoneOn) R.drawable.ic_speakerphone else R.drawable.ic_speakerphone_off
         binding.speakerphone.setImageResource(icon)
@@ -52,6 +52,8 @@ class CallViewModel @Inject constructor(
 
     fun startSendingAudio() = callManager.startSendingAudio()
     fun stopSendingAudio() = callManager.stopSendingAudio()
+    fun startSendingVideo() = callManager.startSendingVideo()
+    fun stopSendingVideo() = callManager.stopSendingVideo()
 
     fun toggleSpeakerphone() {
         speakerphoneOn = !speakerphoneOn
@@ -64,6 +66,9 @@ class CallViewModel @Inject constructor(
 
     val inCall = callManager.inCall
     val sendingAudio = callManager.sendingAudio
+    val sendingVideo = callManager.sendingVideo
+    val remoteVideo = callManager.remoteVideo
+    val metrics = callManager.metrics
 
     var speakerphoneOn by callManager::speakerphoneOn
 }
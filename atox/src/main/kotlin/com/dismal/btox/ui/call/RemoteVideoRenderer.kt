@@ -0,0 +1,192 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package com.dismal.btox.ui.call
+
+import android.opengl.GLES20
+import android.opengl.GLSurfaceView
+import android.util.Log
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.FloatBuffer
+import javax.microedition.khronos.egl.EGLConfig
+import javax.microedition.khronos.opengles.GL10
+import ltd.evilcorp.domain.av.I420Frame
+import ltd.evilcorp.domain.av.VideoReceiveBuffer
+import ltd.evilcorp.domain.av.chromaSize
+
+private const val TAG = "RemoteVideoRenderer"
+
+private const val VERTEX_SHADER = """
+attribute vec2 position;
+attribute vec2 texCoord;
+varying vec2 uv;
+void main() {
+    gl_Position = vec4(position, 0.0, 1.0);
+    uv = texCoord;
+}
+"""
+
+// The same limited range BT.601 conversion as I420Frame.toArgb. The planes are uploaded including the padding at the
+// end of each row, as GLES 2 can't skip it, so the horizontal coordinates are scaled to leave it out.
+private const val FRAGMENT_SHADER = """
+precision mediump float;
+varying vec2 uv;
+uniform sampler2D yPlane;
+uniform sampler2D uPlane;
+uniform sampler2D vPlane;
+uniform float yScale;
+uniform float uvScale;
+void main() {
+    float y = 1.164 * (texture2D(yPlane, vec2(uv.x * yScale, uv.y)).r - 0.0625);
+    float u = texture2D(uPlane, vec2(uv.x * uvScale, uv.y)).r - 0.5;
+    float v = texture2D(vPlane, vec2(uv.x * uvScale, uv.y)).r - 0.5;
+    gl_FragColor = vec4(y + 1.596 * v, y - 0.391 * u - 0.813 * v, y + 2.018 * u, 1.0);
+}
+"""
+
+// A quad covering the viewport, with the top of the frame at the top of the screen.
+private val QUAD = floatArrayOf(
+    -1f, -1f, 0f, 1f,
+    1f, -1f, 1f, 1f,
+    -1f, 1f, 0f, 0f,
+    1f, 1f, 1f, 0f,
+)
+
+private fun floatBuffer(values: FloatArray): FloatBuffer =
+    ByteBuffer.allocateDirect(values.size * 4).order(ByteOrder.nativeOrder()).asFloatBuffer().apply {
+        put(values)
+        position(0)
+    }
+
+/**
+ * Draws the frames in a [VideoReceiveBuffer], converting them from I420 on the GPU.
+ *
+ * Meant for a [GLSurfaceView] rendering when dirty, which is asked to render whenever a new frame arrives. The planes
+ * are uploaded through direct buffers that are only replaced when the video grows, and a redraw without a new frame
+ * reuses the textures from the last one.
+ */
+internal class RemoteVideoRenderer(private val frames: VideoReceiveBuffer) : GLSurfaceView.Renderer {
+    private val quad = floatBuffer(QUAD)
+    private val textures = IntArray(3)
+    private val planes = arrayOfNulls<ByteBuffer>(3)
+    private var program = 0
+    private var yScaleLocation = 0
+    private var uvScaleLocation = 0
+
+    private var surfaceWidth = 0
+    private var surfaceHeight = 0
+    private var frameWidth = 0
+    private var frameHeight = 0
+
+    override fun onSurfaceCreated(gl: GL10?, config: EGLConfig?) {
+        program = link(
+            compile(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER),
+            compile(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER),
+        )
+        GLES20.glUseProgram(program)
+        yScaleLocation = GLES20.glGetUniformLocation(program, "yScale")
+        uvScaleLocation = GLES20.glGetUniformLocation(program, "uvScale")
+
+        val position = GLES20.glGetAttribLocation(program, "position")
+        val texCoord = GLES20.glGetAttribLocation(program, "texCoord")
+        quad.position(0)
+        GLES20.glVertexAttribPointer(position, 2, GLES20.GL_FLOAT, false, 16, quad)
+        GLES20.glEnableVertexAttribArray(position)
+        quad.position(2)
+        GLES20.glVertexAttribPointer(texCoord, 2, GLES20.GL_FLOAT, false, 16, quad)
+        GLES20.glEnableVertexAttribArray(texCoord)
+
+        GLES20.glGenTextures(3, textures, 0)
+        for ((unit, name) in listOf("yPlane", "uPlane", "vPlane").withIndex()) {
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + unit)
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[unit])
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR)
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR)
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE)
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE)
+            GLES20.glUniform1i(GLES20.glGetUniformLocation(program, name), unit)
+        }
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1)
+        GLES20.glClearColor(0f, 0f, 0f, 1f)
+
+        // A new surface means new textures, so whatever frame comes next has to be drawn from scratch.
+        frameWidth = 0
+        frameHeight = 0
+    }
+
+    override fun onSurfaceChanged(gl: GL10?, width: Int, height: Int) {
+        surfaceWidth = width
+        surfaceHeight = height
+    }
+
+    override fun onDrawFrame(gl: GL10?) {
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT)
+        frames.takeLatest()?.let { upload(it) }
+        if (frameWidth == 0 || frameHeight == 0) return
+
+        // Fit the frame inside the surface, keeping its aspect ratio.
+        val scale = minOf(surfaceWidth.toFloat() / frameWidth, surfaceHeight.toFloat() / frameHeight)
+        val width = (frameWidth * scale).toInt()
+        val height = (frameHeight * scale).toInt()
+        GLES20.glViewport((surfaceWidth - width) / 2, (surfaceHeight - height) / 2, width, height)
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4)
+    }
+
+    private fun upload(frame: I420Frame) {
+        if (frame.width <= 0 || frame.height <= 0) return
+        val chromaHeight = chromaSize(frame.height)
+        uploadPlane(0, frame.y, frame.yStride, frame.height)
+        uploadPlane(1, frame.u, frame.uStride, chromaHeight)
+        uploadPlane(2, frame.v, frame.vStride, chromaHeight)
+        GLES20.glUniform1f(yScaleLocation, frame.width.toFloat() / frame.yStride)
+        GLES20.glUniform1f(uvScaleLocation, chromaSize(frame.width).toFloat() / frame.uStride)
+        frameWidth = frame.width
+        frameHeight = frame.height
+    }
+
+    private fun uploadPlane(unit: Int, data: ByteArray, stride: Int, rows: Int) {
+        val size = stride * rows
+        val buffer = planes[unit]?.takeIf { it.capacity() >= size }
+            ?: ByteBuffer.allocateDirect(size).also { planes[unit] = it }
+        buffer.clear()
+        buffer.put(data, 0, size)
+        buffer.position(0)
+
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + unit)
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[unit])
+        GLES20.glTexImage2D(
+            GLES20.GL_TEXTURE_2D,
+            0,
+            GLES20.GL_LUMINANCE,
+            stride,
+            rows,
+            0,
+            GLES20.GL_LUMINANCE,
+            GLES20.GL_UNSIGNED_BYTE,
+            buffer,
+        )
+    }
+
+    private fun compile(type: Int, source: String): Int {
+        val shader = GLES20.glCreateShader(type)
+        GLES20.glShaderSource(shader, source)
+        GLES20.glCompileShader(shader)
+        val status = IntArray(1)
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0)
+        if (status[0] == 0) Log.e(TAG, "Unable to compile shader: ${GLES20.glGetShaderInfoLog(shader)}")
+        return shader
+    }
+
+    private fun link(vertexShader: Int, fragmentShader: Int): Int {
+        val program = GLES20.glCreateProgram()
+        GLES20.glAttachShader(program, vertexShader)
+        GLES20.glAttachShader(program, fragmentShader)
+        GLES20.glLinkProgram(program)
+        val status = IntArray(1)
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0)
+        if (status[0] == 0) Log.e(TAG, "Unable to link shaders: ${GLES20.glGetProgramInfoLog(program)}")
+        return program
+    }
+}
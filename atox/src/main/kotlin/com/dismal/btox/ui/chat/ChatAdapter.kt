@@ -7,34 +7,40 @@ package com.dismal.btox.ui.chat
 import android.media.MediaPlayer
 import android.content.res.Resources
 import android.graphics.drawable.ClipDrawable
+import android.graphics.drawable.ColorDrawable
 import android.graphics.PorterDuff
 import android.os.Handler
 import android.os.Looper
-import android.text.format.DateUtils
 import android.text.format.Formatter
+import android.text.method.LinkMovementMethod
 import android.util.Log
 import android.view.Gravity
 import android.view.LayoutInflater
-import android.view.MotionEvent
 import android.view.View
 import android.view.ViewGroup
-import android.widget.BaseAdapter
 import android.widget.Button
 import android.widget.ImageView
 import android.widget.ImageButton
-import android.widget.ListView
 import android.widget.ProgressBar
 import android.widget.RelativeLayout
 import android.widget.SeekBar
 import android.widget.TextView
+import androidx.appcompat.widget.AppCompatTextView
 import androidx.core.content.ContextCompat
 import androidx.core.net.toUri
+import androidx.core.text.PrecomputedTextCompat
+import androidx.core.widget.TextViewCompat
+import androidx.recyclerview.widget.AsyncDifferConfig
+import androidx.recyclerview.widget.AsyncListDiffer
+import androidx.recyclerview.widget.DiffUtil
+import androidx.recyclerview.widget.ListUpdateCallback
+import androidx.recyclerview.widget.RecyclerView
 import com.squareup.picasso.Picasso
 import java.io.File
-import java.net.URLConnection
-import java.util.Calendar
 import java.util.Locale
+import kotlin.math.abs
 import kotlin.math.max
+import kotlin.math.min
 import kotlin.math.roundToInt
 import com.dismal.btox.R
 import com.dismal.btox.settings.AppColorResolver
@@ -47,22 +53,22 @@ import ltd.evilcorp.core.vo.Sender
 import ltd.evilcorp.core.vo.isComplete
 import ltd.evilcorp.core.vo.isRejected
 import ltd.evilcorp.core.vo.isStarted
+import ltd.evilcorp.domain.av.decodeWaveform
+import ltd.evilcorp.domain.feature.MessageList
+import ltd.evilcorp.domain.feature.MessageListDelta
+import ltd.evilcorp.domain.feature.isAudio
+import ltd.evilcorp.domain.feature.isImage
 
 private const val TAG = "ChatAdapter"
 private const val IMAGE_TO_SCREEN_RATIO = 0.9
+private const val OPAQUE = 0xFF000000.toInt()
+private const val TEXT_PREFETCH_DISTANCE = 16
 
 private fun resolveThemeColor(context: android.content.Context, attr: Int): Int {
     return AppColorResolver.resolve(context, attr, R.color.colorPrimary)
 }
 
-private fun FileTransfer.isImage() = try {
-    URLConnection.guessContentTypeFromName(fileName).startsWith("image/")
-} catch (e: Exception) {
-    Log.e(TAG, e.toString())
-    false
-}
-
-private fun inflateView(type: ChatItemType, inflater: LayoutInflater): View = inflater.inflate(
+private fun inflateView(type: ChatItemType, inflater: LayoutInflater, parent: ViewGroup): View = inflater.inflate(
     when (type) {
         ChatItemType.SentMessage -> R.layout.chat_message_sent
         ChatItemType.ReceivedMessage -> R.layout.chat_message_received
@@ -70,26 +76,46 @@ private fun inflateView(type: ChatItemType, inflater: LayoutInflater): View = in
         ChatItemType.ReceivedAction -> R.layout.chat_action_received
         ChatItemType.SentFileTransfer, ChatItemType.ReceivedFileTransfer -> R.layout.chat_filetransfer
     },
-    null,
-    true,
+    parent,
+    false,
 )
 
-private enum class ChatItemType {
-    ReceivedMessage,
-    SentMessage,
-    ReceivedAction,
-    SentAction,
-    ReceivedFileTransfer,
-    SentFileTransfer,
+private enum class ChatItemType(val recycledViews: Int) {
+    ReceivedMessage(12),
+    SentMessage(12),
+    ReceivedAction(2),
+    SentAction(2),
+    ReceivedFileTransfer(4),
+    SentFileTransfer(4),
+}
+
+/** What a partial re-bind needs to refresh. */
+private enum class ChatPayload {
+    Timestamp,
+    FileTransferProgress,
+    AudioProgress,
+}
+
+private data class FileTransferChange(val id: Int, val progressOnly: Boolean)
+
+private object FileTransferDiff : DiffUtil.ItemCallback<FileTransfer>() {
+    override fun areItemsTheSame(oldItem: FileTransfer, newItem: FileTransfer) = oldItem.id == newItem.id
+    override fun areContentsTheSame(oldItem: FileTransfer, newItem: FileTransfer) = oldItem == newItem
+    // Only plain progress within a running transfer can skip the full re-bind, anything else may change the layout.
+    override fun getChangePayload(oldItem: FileTransfer, newItem: FileTransfer) = FileTransferChange(
+        newItem.id,
+        oldItem.copy(progress = newItem.progress) == newItem &&
+            oldItem.isStarted() && !oldItem.isRejected() && !newItem.isComplete() && !newItem.isRejected(),
+    )
 }
 
-private class MessageViewHolder(row: View) {
+private class MessageViewHolder(row: View) : RecyclerView.ViewHolder(row) {
     val message: TextView = row.findViewById(R.id.message)
     val timestamp: TextView = row.findViewById(R.id.timestamp)
     val incomingAvatar: AvatarImageView? = row.findViewById(R.id.incomingAvatar)
 }
 
-private class FileTransferViewHolder(row: View) {
+private class FileTransferViewHolder(row: View) : RecyclerView.ViewHolder(row) {
     val container: RelativeLayout = row.findViewById(R.id.fileTransfer)
     val fileName: TextView = row.findViewById(R.id.fileName)
     val fileSize: TextView = row.findViewById(R.id.fileSize)
@@ -109,12 +135,65 @@ private class FileTransferViewHolder(row: View) {
     val audioSeekBar: SeekBar = row.findViewById(R.id.audioSeekBar)
 }
 
-class ChatAdapter(private val inflater: LayoutInflater, private val resources: Resources) : BaseAdapter() {
-    var messages: List<Message> = listOf()
-    var fileTransfers: List<FileTransfer> = listOf()
+/**
+ * Applies [delta] to [adapter] and, like ListView's transcript mode used to, keeps the newest message in view if it
+ * already was.
+ */
+fun RecyclerView.followNewMessages(adapter: ChatAdapter, delta: MessageListDelta) {
+    val atBottom = !canScrollVertically(1)
+    adapter.onMessagesChanged(delta)
+    if (atBottom && adapter.itemCount > 0 && (delta is MessageListDelta.Inserted || delta == MessageListDelta.Reset)) {
+        scrollToPosition(adapter.itemCount - 1)
+    }
+}
+
+/**
+ * Messages come in as deltas from [messageList] and file transfers are diffed on a background thread, so only rows
+ * that actually changed get re-bound, and receipts, transfer progress and audio playback only re-bind the part of the
+ * row they affect.
+ *
+ * [onFileTransferAction] gets the id of the clicked view, one of accept, reject, cancel or the transfer itself.
+ */
+class ChatAdapter(
+    private val inflater: LayoutInflater,
+    private val resources: Resources,
+    private val onFileTransferAction: (viewId: Int, message: Message) -> Unit,
+    private val onMessageLongClicked: (Message) -> Unit = {},
+) : RecyclerView.Adapter<RecyclerView.ViewHolder>() {
+    val messageList = MessageList()
+    val messages: List<Message> get() = messageList.messages
     var activeContact: Contact? = null
+        set(value) {
+            // The contact is re-emitted for typing and status changes, only the avatar is shown here.
+            val changed = field?.avatarUri != value?.avatarUri
+            field = value
+            if (changed) notifyItemRangeChanged(0, itemCount)
+        }
     var material3StyleEnabled: Boolean = false
 
+    private var fileTransfersById: Map<Int, FileTransfer> = emptyMap()
+    private val changedFileTransfers = mutableListOf<FileTransferChange>()
+    private var fileTransfersInserted = false
+    private val fileTransferDiffer = AsyncListDiffer(
+        object : ListUpdateCallback {
+            override fun onInserted(position: Int, count: Int) {
+                fileTransfersInserted = true
+            }
+
+            override fun onRemoved(position: Int, count: Int) = Unit
+            override fun onMoved(fromPosition: Int, toPosition: Int) = Unit
+            override fun onChanged(position: Int, count: Int, payload: Any?) {
+                (payload as? FileTransferChange)?.let { changedFileTransfers.add(it) }
+            }
+        },
+        AsyncDifferConfig.Builder(FileTransferDiff).build(),
+    ).apply { addListListener { previous, current -> onFileTransfersChanged(previous, current) } }
+
+    private val textCache = MessageTextCache()
+    private val textParams = arrayOfNulls<PrecomputedTextCompat.Params>(ChatItemType.entries.size)
+    private var lastPrefetchPosition = RecyclerView.NO_POSITION
+    private val timestamps = MessageTimestampFormatter(inflater.context)
+
     private var audioPlayer: MediaPlayer? = null
     private var activeAudioTransferId: Int? = null
     private var activeAudioDurationMs: Int = 0
@@ -124,70 +203,18 @@ class ChatAdapter(private val inflater: LayoutInflater, private val resources: R
         override fun run() {
             val player = audioPlayer ?: return
             if (player.isPlaying && !userSeekingAudio) {
-                notifyDataSetChanged()
+                notifyAudioChanged()
                 audioUiHandler.postDelayed(this, 250L)
             }
         }
     }
 
-    private fun formatMessageTimestamp(timestamp: Long): CharSequence {
-        val context = inflater.context
-        val now = System.currentTimeMillis()
-        val diff = now - timestamp
-        val hourFlag = if (android.text.format.DateFormat.is24HourFormat(context)) {
-            @Suppress("deprecation")
-            DateUtils.FORMAT_24HOUR
-        } else {
-            @Suppress("deprecation")
-            DateUtils.FORMAT_12HOUR
-        }
-
-        if (diff < DateUtils.MINUTE_IN_MILLIS) {
-            return resources.getString(R.string.posted_now)
-        }
-        if (diff < DateUtils.HOUR_IN_MILLIS) {
-            val mins = (diff / DateUtils.MINUTE_IN_MILLIS).toInt()
-            return resources.getQuantityString(R.plurals.num_minutes_ago, mins, mins)
-        }
-
-        val thenCal = Calendar.getInstance().apply { timeInMillis = timestamp }
-        val nowCal = Calendar.getInstance()
-        val sameDay = thenCal.get(Calendar.YEAR) == nowCal.get(Calendar.YEAR) &&
-            thenCal.get(Calendar.DAY_OF_YEAR) == nowCal.get(Calendar.DAY_OF_YEAR)
-        if (sameDay) {
-            return DateUtils.formatDateTime(context, timestamp, DateUtils.FORMAT_SHOW_TIME or hourFlag)
-        }
-
-        if (diff < DateUtils.WEEK_IN_MILLIS) {
-            return DateUtils.formatDateTime(
-                context,
-                timestamp,
-                DateUtils.FORMAT_SHOW_WEEKDAY or DateUtils.FORMAT_ABBREV_WEEKDAY or
-                    DateUtils.FORMAT_SHOW_TIME or hourFlag,
-            )
-        }
-
-        if (diff < DateUtils.YEAR_IN_MILLIS) {
-            return DateUtils.formatDateTime(
-                context,
-                timestamp,
-                DateUtils.FORMAT_SHOW_DATE or DateUtils.FORMAT_SHOW_TIME or
-                    DateUtils.FORMAT_ABBREV_MONTH or DateUtils.FORMAT_NO_YEAR or hourFlag,
-            )
-        }
-
-        return DateUtils.formatDateTime(
-            context,
-            timestamp,
-            DateUtils.FORMAT_SHOW_DATE or DateUtils.FORMAT_SHOW_TIME or
-                DateUtils.FORMAT_NUMERIC_DATE or DateUtils.FORMAT_SHOW_YEAR or hourFlag,
-        )
+    init {
+        setHasStableIds(true)
     }
 
-    override fun getCount(): Int = messages.size
-    override fun getItem(position: Int): Any = messages[position]
-    override fun getItemId(position: Int): Long = position.toLong()
-    override fun getViewTypeCount(): Int = ChatItemType.entries.size
+    override fun getItemCount(): Int = messages.size
+    override fun getItemId(position: Int): Long = messages[position].id
     override fun getItemViewType(position: Int): Int = with(messages[position]) {
         when (type) {
             MessageType.Normal -> when (sender) {
@@ -205,190 +232,321 @@ class ChatAdapter(private val inflater: LayoutInflater, private val resources: R
         }
     }
 
-    override fun getView(position: Int, convertView: View?, parent: ViewGroup): View =
-        when (val type = ChatItemType.entries[getItemViewType(position)]) {
+    override fun onAttachedToRecyclerView(recyclerView: RecyclerView) {
+        // Chats are mostly plain messages, keep enough of those around to fill a screen while flinging.
+        for (type in ChatItemType.entries) {
+            recyclerView.recycledViewPool.setMaxRecycledViews(type.ordinal, type.recycledViews)
+        }
+    }
+
+    override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): RecyclerView.ViewHolder =
+        when (val type = ChatItemType.entries[viewType]) {
             ChatItemType.ReceivedMessage, ChatItemType.SentMessage,
             ChatItemType.ReceivedAction, ChatItemType.SentAction,
-            -> {
-                val message = messages[position]
-                val view: View
-                val vh: MessageViewHolder
-
-                if (convertView != null) {
-                    view = convertView
-                    vh = view.tag as MessageViewHolder
-                } else {
-                    view = inflateView(type, inflater)
-                    vh = MessageViewHolder(view)
-                    view.tag = vh
+            -> MessageViewHolder(inflateView(type, inflater, parent)).apply {
+                message.movementMethod = LinkMovementMethod.getInstance()
+                if (textParams[type.ordinal] == null) {
+                    textParams[type.ordinal] = TextViewCompat.getTextMetricsParams(message)
                 }
-
-                val unsent = message.timestamp == 0L
-                vh.message.text = message.message
-                if (type == ChatItemType.ReceivedMessage) {
-                    activeContact?.let { vh.incomingAvatar?.setFrom(it) }
+                val longClick = View.OnLongClickListener {
+                    messageAt(this)?.let(onMessageLongClicked)
+                    true
                 }
-                // Messaging-goplay keeps bubble geometry from red 9-patch assets and tints them at runtime.
-                val bubble = vh.message.parent as? View
-                when (type) {
-                    ChatItemType.ReceivedMessage -> {
-                        if (material3StyleEnabled) {
-                            bubble?.setBackgroundResource(R.drawable.msg_bubble_incoming_m3)
-                        } else {
-                            bubble?.setBackgroundResource(R.drawable.msg_bubble_incoming)
-                            bubble?.background?.mutate()?.setColorFilter(
-                                resolveThemeColor(inflater.context, androidx.appcompat.R.attr.colorPrimary),
-                                PorterDuff.Mode.SRC_IN,
-                            )
-                        }
-                        vh.message.setTextColor(ContextCompat.getColor(inflater.context, android.R.color.white))
-                        vh.message.setLinkTextColor(ContextCompat.getColor(inflater.context, android.R.color.white))
-                        vh.timestamp.setTextColor(ContextCompat.getColor(inflater.context, R.color.timestamp_text_incoming))
+                itemView.setOnLongClickListener(longClick)
+                // Links make the text clickable on its own, so it has to forward long presses itself.
+                message.setOnLongClickListener(longClick)
+            }
+            ChatItemType.ReceivedFileTransfer, ChatItemType.SentFileTransfer ->
+                FileTransferViewHolder(inflateView(type, inflater, parent)).apply {
+                    for (view in listOf(accept, reject, cancel, container)) {
+                        view.setOnClickListener { v -> messageAt(this)?.let { onFileTransferAction(v.id, it) } }
                     }
-                    ChatItemType.SentMessage -> {
-                        if (material3StyleEnabled) {
-                            bubble?.setBackgroundResource(R.drawable.msg_bubble_outgoing_m3)
-                        } else {
-                            bubble?.setBackgroundResource(R.drawable.msg_bubble_outgoing)
-                            bubble?.background?.mutate()?.setColorFilter(
-                                ContextCompat.getColor(inflater.context, R.color.message_bubble_outgoing_bg),
-                                PorterDuff.Mode.SRC_IN,
-                            )
-                        }
-                        vh.message.setTextColor(ContextCompat.getColor(inflater.context, android.R.color.black))
-                        vh.message.setLinkTextColor(ContextCompat.getColor(inflater.context, android.R.color.black))
-                        vh.timestamp.setTextColor(ContextCompat.getColor(inflater.context, R.color.timestamp_text_outgoing))
+                    container.setOnLongClickListener {
+                        messageAt(this)?.let(onMessageLongClicked)
+                        true
                     }
-                    else -> Unit
-                }
-                vh.timestamp.text = if (!unsent) {
-                    formatMessageTimestamp(message.timestamp)
-                } else {
-                    resources.getText(R.string.sending)
                 }
+        }
 
-                vh.timestamp.visibility = if (position == messages.lastIndex || unsent) {
-                    View.VISIBLE
-                } else {
-                    val next = messages[position + 1]
-                    if (next.timestamp != 0L &&
-                        next.sender == message.sender &&
-                        next.timestamp - message.timestamp < 60_000
-                    ) {
-                        View.GONE
-                    } else {
-                        View.VISIBLE
-                    }
-                }
+    private fun messageAt(holder: RecyclerView.ViewHolder): Message? =
+        messages.getOrNull(holder.bindingAdapterPosition)
+
+    override fun onBindViewHolder(holder: RecyclerView.ViewHolder, position: Int) = when (holder) {
+        is MessageViewHolder -> bindMessage(holder, position)
+        is FileTransferViewHolder -> bindFileTransfer(holder, position)
+        else -> Unit
+    }
 
-                view
+    override fun onBindViewHolder(holder: RecyclerView.ViewHolder, position: Int, payloads: MutableList<Any>) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position)
+            return
+        }
+
+        val message = messages[position]
+        when (holder) {
+            is MessageViewHolder -> bindTimestamp(holder.timestamp, position)
+            is FileTransferViewHolder -> {
+                val ft = fileTransferFor(message)
+                if (ChatPayload.Timestamp in payloads) bindTimestamp(holder.timestamp, position)
+                if (ChatPayload.FileTransferProgress in payloads) bindFileTransferState(holder, ft)
+                if (ChatPayload.AudioProgress in payloads && isPlayableAudio(ft)) bindAudioProgress(holder, ft)
             }
-            ChatItemType.ReceivedFileTransfer, ChatItemType.SentFileTransfer -> {
-                val message = messages[position]
-                val fileTransfer = fileTransfers.find { it.id == message.correlationId } ?: run {
-                    Log.e(TAG, "Unable to find ft ${message.correlationId} for ${message.publicKey} required for view")
-                    FileTransfer("", 0, 0, 0, "", message.sender == Sender.Sent)
-                }
+        }
+    }
 
-                val view: View
-                val vh: FileTransferViewHolder
+    /**
+     * Applies a change to [messageList]. The previous row is refreshed too, since whether it shows its timestamp
+     * depends on the message after it.
+     */
+    fun onMessagesChanged(delta: MessageListDelta) {
+        when (delta) {
+            MessageListDelta.Reset -> {
+                timestamps.invalidate()
+                lastPrefetchPosition = RecyclerView.NO_POSITION
+                notifyDataSetChanged()
+            }
+            is MessageListDelta.Inserted -> {
+                notifyItemRangeInserted(delta.position, delta.count)
+                if (delta.position > 0) notifyItemChanged(delta.position - 1, ChatPayload.Timestamp)
+            }
+            is MessageListDelta.Changed -> for (position in delta.positions) {
+                notifyItemChanged(position, ChatPayload.Timestamp)
+                if (position > 0) notifyItemChanged(position - 1, ChatPayload.Timestamp)
+            }
+            is MessageListDelta.Removed -> for (position in delta.positions.asReversed()) {
+                notifyItemRemoved(position)
+                if (position > 0) notifyItemChanged(position - 1, ChatPayload.Timestamp)
+            }
+        }
+    }
 
-                if (convertView != null) {
-                    view = convertView
-                    vh = view.tag as FileTransferViewHolder
-                } else {
-                    view = inflateView(type, inflater)
-                    vh = FileTransferViewHolder(view)
-                    view.tag = vh
-                }
+    fun submitFileTransfers(fileTransfers: List<FileTransfer>) = fileTransferDiffer.submitList(fileTransfers)
 
-                // TODO(robinlinden)
-                // Updating the file transfer progress refreshes this so often that onClick-listeners never trigger
-                // for some reason. Will revisit this once I've replaced the ListView with a RecyclerView.
-                val touchListener = View.OnTouchListener { v, event ->
-                    if (event.actionMasked == MotionEvent.ACTION_DOWN) {
-                        (parent as ListView).performItemClick(v, position, position.toLong())
-                    }
-                    false
-                }
-                vh.accept.setOnTouchListener(touchListener)
-                vh.reject.setOnTouchListener(touchListener)
-                vh.cancel.setOnTouchListener(touchListener)
-
-                val playableAudio = isPlayableAudio(fileTransfer)
-
-                if (!playableAudio && fileTransfer.isImage() && (fileTransfer.isComplete() || fileTransfer.outgoing)) {
-                    vh.completedLayout.visibility = View.VISIBLE
-                    val targetWidth = Resources.getSystem().displayMetrics.widthPixels * IMAGE_TO_SCREEN_RATIO
-                    Picasso.get()
-                        .load(fileTransfer.destination)
-                        .resize(targetWidth.roundToInt(), 0)
-                        .centerInside()
-                        .into(vh.imagePreview)
+    private fun onFileTransfersChanged(previous: List<FileTransfer>, current: List<FileTransfer>) {
+        fileTransfersById = current.associateBy { it.id }
+
+        for (change in changedFileTransfers) {
+            val payload = if (change.progressOnly) ChatPayload.FileTransferProgress else null
+            notifyFileTransferChanged(change.id, payload)
+        }
+        changedFileTransfers.clear()
+
+        // Rows may have been bound before their transfer showed up.
+        if (fileTransfersInserted) {
+            val known = previous.mapTo(HashSet()) { it.id }
+            current.filter { it.id !in known }.forEach { notifyFileTransferChanged(it.id, null) }
+            fileTransfersInserted = false
+        }
+    }
+
+    private fun notifyFileTransferChanged(id: Int, payload: ChatPayload?) {
+        val position = messageList.positionOfFileTransfer(id)
+        if (position >= 0) notifyItemChanged(position, payload)
+    }
+
+    private fun notifyAudioChanged() {
+        activeAudioTransferId?.let { notifyFileTransferChanged(it, ChatPayload.AudioProgress) }
+    }
+
+    fun fileTransferFor(message: Message): FileTransfer = fileTransfersById[message.correlationId] ?: run {
+        Log.e(TAG, "Unable to find ft ${message.correlationId} for ${message.publicKey} required for view")
+        FileTransfer("", 0, 0, 0, "", message.sender == Sender.Sent)
+    }
+
+    private fun bindTimestamp(timestamp: TextView, position: Int) {
+        val message = messages[position]
+        val unsent = message.timestamp == 0L
+        timestamp.text = if (!unsent) {
+            timestamps.format(message.timestamp)
+        } else {
+            resources.getText(R.string.sending)
+        }
+
+        timestamp.visibility = if (position == messages.lastIndex || unsent) {
+            View.VISIBLE
+        } else {
+            val next = messages[position + 1]
+            if (next.timestamp != 0L &&
+                next.sender == message.sender &&
+                next.timestamp - message.timestamp < 60_000
+            ) {
+                View.GONE
+            } else {
+                View.VISIBLE
+            }
+        }
+    }
+
+    private fun bindMessage(vh: MessageViewHolder, position: Int) {
+        val message = messages[position]
+        val type = ChatItemType.entries[getItemViewType(position)]
+
+        bindMessageText(vh.message, message, type)
+        prefetchMessageText(position)
+        if (type == ChatItemType.ReceivedMessage) {
+            activeContact?.let { vh.incomingAvatar?.setFrom(it) }
+        }
+        // Messaging-goplay keeps bubble geometry from red 9-patch assets and tints them at runtime.
+        val bubble = vh.message.parent as? View
+        when (type) {
+            ChatItemType.ReceivedMessage -> {
+                if (material3StyleEnabled) {
+                    bubble?.setBackgroundResource(R.drawable.msg_bubble_incoming_m3)
                 } else {
-                    vh.completedLayout.visibility = View.GONE
+                    bubble?.setBackgroundResource(R.drawable.msg_bubble_incoming)
+                    bubble?.background?.mutate()?.setColorFilter(
+                        resolveThemeColor(inflater.context, androidx.appcompat.R.attr.colorPrimary),
+                        PorterDuff.Mode.SRC_IN,
+                    )
                 }
-                vh.audioPlayerLayout.visibility = if (playableAudio) View.VISIBLE else View.GONE
-
-                vh.state.visibility = View.GONE
-                if (fileTransfer.isRejected() || fileTransfer.isComplete()) {
-                    vh.acceptLayout.visibility = View.GONE
-                    vh.cancelLayout.visibility = View.GONE
-                    vh.progress.visibility = View.GONE
-                    vh.state.visibility =
-                        if ((fileTransfer.isImage() || playableAudio) && fileTransfer.isComplete()) View.GONE else View.VISIBLE
-                } else if (!fileTransfer.isStarted()) {
-                    if (fileTransfer.outgoing) {
-                        vh.acceptLayout.visibility = View.GONE
-                        vh.cancelLayout.visibility = View.VISIBLE
-                        vh.progress.visibility = View.VISIBLE
-                    } else {
-                        vh.acceptLayout.visibility = View.VISIBLE
-                        vh.cancelLayout.visibility = View.GONE
-                        vh.progress.visibility = View.GONE
-                    }
+                vh.message.setTextColor(ContextCompat.getColor(inflater.context, android.R.color.white))
+                vh.message.setLinkTextColor(ContextCompat.getColor(inflater.context, android.R.color.white))
+                vh.timestamp.setTextColor(ContextCompat.getColor(inflater.context, R.color.timestamp_text_incoming))
+            }
+            ChatItemType.SentMessage -> {
+                if (material3StyleEnabled) {
+                    bubble?.setBackgroundResource(R.drawable.msg_bubble_outgoing_m3)
                 } else {
-                    vh.acceptLayout.visibility = View.GONE
-                    vh.cancelLayout.visibility = View.VISIBLE
-                    vh.progress.visibility = View.VISIBLE
+                    bubble?.setBackgroundResource(R.drawable.msg_bubble_outgoing)
+                    bubble?.background?.mutate()?.setColorFilter(
+                        ContextCompat.getColor(inflater.context, R.color.message_bubble_outgoing_bg),
+                        PorterDuff.Mode.SRC_IN,
+                    )
                 }
+                vh.message.setTextColor(ContextCompat.getColor(inflater.context, android.R.color.black))
+                vh.message.setLinkTextColor(ContextCompat.getColor(inflater.context, android.R.color.black))
+                vh.timestamp.setTextColor(ContextCompat.getColor(inflater.context, R.color.timestamp_text_outgoing))
+            }
+            else -> Unit
+        }
+        bindTimestamp(vh.timestamp, position)
+    }
 
-                vh.fileName.text = fileTransfer.fileName
-                vh.fileSize.text = Formatter.formatFileSize(inflater.context, fileTransfer.fileSize)
-                vh.progress.max = fileTransfer.fileSize.toInt()
-                vh.progress.progress = fileTransfer.progress.toInt()
-                // TODO(robinlinden): paused, but that requires a database update and a release is overdue.
-                val stateId = if (fileTransfer.isRejected()) R.string.cancelled else R.string.completed
-                vh.state.text = resources.getString(stateId).lowercase(Locale.getDefault())
-                vh.timestamp.text = formatMessageTimestamp(message.timestamp)
-                if (playableAudio) {
-                    bindAudioControls(vh, fileTransfer)
-                } else {
-                    vh.audioSeekBar.setOnSeekBarChangeListener(null)
-                    vh.audioPlayPauseButton.setOnClickListener(null)
-                }
+    private fun bindMessageText(view: TextView, message: Message, type: ChatItemType) {
+        val params = textParams[type.ordinal] ?: TextViewCompat.getTextMetricsParams(view)
+        val text = textCache.get(message, params)
+        // Measuring waits for the text if it isn't done yet, which still leaves the rest of the bind unblocked.
+        if (view is AppCompatTextView) {
+            view.setTextFuture(text)
+        } else {
+            TextViewCompat.setPrecomputedText(view, text.get())
+        }
+    }
 
-                vh.timestamp.visibility = if (position == messages.lastIndex) {
-                    View.VISIBLE
-                } else {
-                    val next = messages[position + 1]
-                    if (next.sender == message.sender && next.timestamp - message.timestamp < 60_000) {
-                        View.GONE
-                    } else {
-                        View.VISIBLE
-                    }
-                }
+    /** Lays out the text of the messages around [position] before they're scrolled into view. */
+    private fun prefetchMessageText(position: Int) {
+        if (lastPrefetchPosition != RecyclerView.NO_POSITION &&
+            abs(position - lastPrefetchPosition) < TEXT_PREFETCH_DISTANCE / 2
+        ) {
+            return
+        }
+        lastPrefetchPosition = position
+
+        val from = max(0, position - TEXT_PREFETCH_DISTANCE)
+        val to = min(messages.lastIndex, position + TEXT_PREFETCH_DISTANCE)
+        for (i in from..to) {
+            val message = messages[i]
+            if (message.type == MessageType.FileTransfer) continue
+            val params = textParams[getItemViewType(i)] ?: continue
+            textCache.prefetch(message, params)
+        }
+    }
 
-                vh.container.gravity = if (fileTransfer.outgoing) {
-                    Gravity.END
-                } else {
-                    Gravity.START
-                }
+    private fun bindFileTransfer(vh: FileTransferViewHolder, position: Int) {
+        val message = messages[position]
+        val fileTransfer = fileTransferFor(message)
+        val playableAudio = isPlayableAudio(fileTransfer)
+
+        if (!playableAudio && isImage(fileTransfer.fileName) && (fileTransfer.isComplete() || fileTransfer.outgoing)) {
+            vh.completedLayout.visibility = View.VISIBLE
+            bindImagePreview(vh.imagePreview, fileTransfer)
+        } else {
+            vh.completedLayout.visibility = View.GONE
+        }
+        vh.audioPlayerLayout.visibility = if (playableAudio) View.VISIBLE else View.GONE
+
+        vh.fileName.text = fileTransfer.fileName
+        vh.fileSize.text = Formatter.formatFileSize(inflater.context, fileTransfer.fileSize)
+        bindFileTransferState(vh, fileTransfer)
+        if (playableAudio) {
+            bindAudioControls(vh, fileTransfer)
+        } else {
+            vh.audioSeekBar.setOnSeekBarChangeListener(null)
+            vh.audioPlayPauseButton.setOnClickListener(null)
+        }
+
+        bindTimestamp(vh.timestamp, position)
+        vh.container.gravity = if (fileTransfer.outgoing) {
+            Gravity.END
+        } else {
+            Gravity.START
+        }
+    }
+
+    private fun bindImagePreview(view: ImageView, fileTransfer: FileTransfer) {
+        val targetWidth = view.layoutParams.width.takeIf { it > 0 }
+            ?: (Resources.getSystem().displayMetrics.widthPixels * IMAGE_TO_SCREEN_RATIO).roundToInt()
+
+        // Transfers from before previews existed, or whose preview is still being made, fall back to the original.
+        if (fileTransfer.preview.isEmpty()) {
+            view.layoutParams.height = ViewGroup.LayoutParams.WRAP_CONTENT
+            view.requestLayout()
+            Picasso.get()
+                .load(fileTransfer.destination)
+                .resize(targetWidth, 0)
+                .centerInside()
+                .into(view)
+            return
+        }
+
+        // Reserve the final size up front so rows don't jump around as previews load.
+        view.layoutParams.height = if (fileTransfer.imageWidth > 0) {
+            (targetWidth.toLong() * fileTransfer.imageHeight / fileTransfer.imageWidth).toInt()
+        } else {
+            ViewGroup.LayoutParams.WRAP_CONTENT
+        }
+        view.requestLayout()
+        Picasso.get()
+            .load(fileTransfer.preview)
+            .placeholder(ColorDrawable(fileTransfer.placeholderColor or OPAQUE))
+            .resize(targetWidth, 0)
+            .onlyScaleDown()
+            .into(view)
+    }
 
-                view
+    private fun bindFileTransferState(vh: FileTransferViewHolder, fileTransfer: FileTransfer) {
+        val playableAudio = isPlayableAudio(fileTransfer)
+        vh.state.visibility = View.GONE
+        if (fileTransfer.isRejected() || fileTransfer.isComplete()) {
+            vh.acceptLayout.visibility = View.GONE
+            vh.cancelLayout.visibility = View.GONE
+            vh.progress.visibility = View.GONE
+            val shownInline = isImage(fileTransfer.fileName) || playableAudio
+            vh.state.visibility = if (shownInline && fileTransfer.isComplete()) View.GONE else View.VISIBLE
+        } else if (!fileTransfer.isStarted()) {
+            if (fileTransfer.outgoing) {
+                vh.acceptLayout.visibility = View.GONE
+                vh.cancelLayout.visibility = View.VISIBLE
+                vh.progress.visibility = View.VISIBLE
+            } else {
+                vh.acceptLayout.visibility = View.VISIBLE
+                vh.cancelLayout.visibility = View.GONE
+                vh.progress.visibility = View.GONE
             }
+        } else {
+            vh.acceptLayout.visibility = View.GONE
+            vh.cancelLayout.visibility = View.VISIBLE
+            vh.progress.visibility = View.VISIBLE
         }
 
+        vh.progress.max = fileTransfer.fileSize.toInt()
+        vh.progress.progress = fileTransfer.progress.toInt()
+        // TODO(robinlinden): paused, but that requires a database update and a release is overdue.
+        val stateId = if (fileTransfer.isRejected()) R.string.cancelled else R.string.completed
+        vh.state.text = resources.getString(stateId).lowercase(Locale.getDefault())
+    }
+
     fun onFileTransferClicked(ft: FileTransfer): Boolean {
         if (!isPlayableAudio(ft)) return false
         toggleAudio(ft)
@@ -399,55 +557,76 @@ class ChatAdapter(private val inflater: LayoutInflater, private val resources: R
         stopAudioProgressUpdates()
         audioPlayer?.release()
         audioPlayer = null
+        val previous = activeAudioTransferId
         activeAudioTransferId = null
         activeAudioDurationMs = 0
-        notifyDataSetChanged()
+        previous?.let { notifyFileTransferChanged(it, ChatPayload.AudioProgress) }
     }
 
     private fun bindAudioControls(vh: FileTransferViewHolder, ft: FileTransfer) {
-        val isActive = activeAudioTransferId == ft.id
-        val player = if (isActive) audioPlayer else null
-        val position = player?.currentPosition ?: 0
-        val duration = if (isActive) max(activeAudioDurationMs, 0) else 0
-
-        vh.audioPlayPauseButton.setImageResource(
-            if (player?.isPlaying == true) android.R.drawable.ic_media_pause else android.R.drawable.ic_media_play,
-        )
-
-        vh.audioTimer.text = formatAudioProgress(position, duration)
-        vh.audioSeekBar.max = max(duration, 1)
-        vh.audioSeekBar.progress = position.coerceAtMost(vh.audioSeekBar.max)
-        vh.audioSeekBar.isEnabled = isActive && duration > 0
-
-        val progressDrawable = ContextCompat.getDrawable(inflater.context, R.drawable.audio_progress_bar_progress)
-        if (progressDrawable != null) {
-            vh.audioSeekBar.progressDrawable =
-                ClipDrawable(progressDrawable, Gravity.START, ClipDrawable.HORIZONTAL)
+        val peaks = decodeWaveform(ft.audioWaveform)
+        if (peaks.isNotEmpty()) {
+            vh.audioSeekBar.showWaveform(
+                peaks,
+                resolveThemeColor(inflater.context, androidx.appcompat.R.attr.colorPrimary),
+                ContextCompat.getColor(inflater.context, R.color.mg_text_secondary),
+            )
+        } else {
+            val progressDrawable = ContextCompat.getDrawable(inflater.context, R.drawable.audio_progress_bar_progress)
+            if (progressDrawable != null) {
+                vh.audioSeekBar.progressDrawable =
+                    ClipDrawable(progressDrawable, Gravity.START, ClipDrawable.HORIZONTAL)
+            }
+            vh.audioSeekBar.background =
+                ContextCompat.getDrawable(inflater.context, R.drawable.audio_progress_bar_background_outgoing)
         }
-        vh.audioSeekBar.background =
-            ContextCompat.getDrawable(inflater.context, R.drawable.audio_progress_bar_background_outgoing)
 
+        // Whether this is the one playing can change without the row being bound again, so it's checked as it's used.
         vh.audioPlayPauseButton.setOnClickListener { toggleAudio(ft) }
         vh.audioSeekBar.setOnSeekBarChangeListener(
             object : SeekBar.OnSeekBarChangeListener {
                 override fun onProgressChanged(seekBar: SeekBar?, progress: Int, fromUser: Boolean) {
-                    if (fromUser && isActive) {
-                        vh.audioTimer.text = formatAudioProgress(progress, duration)
+                    if (fromUser && activeAudioTransferId == ft.id) {
+                        vh.audioTimer.text = formatAudioProgress(progress, audioDurationMs(ft))
                     }
                 }
 
                 override fun onStartTrackingTouch(seekBar: SeekBar?) {
-                    if (isActive) userSeekingAudio = true
+                    if (activeAudioTransferId == ft.id) userSeekingAudio = true
                 }
 
                 override fun onStopTrackingTouch(seekBar: SeekBar?) {
-                    if (!isActive) return
+                    if (activeAudioTransferId != ft.id) return
                     val p = seekBar?.progress ?: 0
                     audioPlayer?.seekTo(p)
                     userSeekingAudio = false
                 }
             },
         )
+        bindAudioProgress(vh, ft)
+    }
+
+    /** Only what changes as audio plays, so the playing row can be refreshed without setting up the rest again. */
+    private fun bindAudioProgress(vh: FileTransferViewHolder, ft: FileTransfer) {
+        val isActive = activeAudioTransferId == ft.id
+        val player = if (isActive) audioPlayer else null
+        val position = player?.currentPosition ?: 0
+        val duration = audioDurationMs(ft)
+
+        vh.audioPlayPauseButton.setImageResource(
+            if (player?.isPlaying == true) android.R.drawable.ic_media_pause else android.R.drawable.ic_media_play,
+        )
+
+        vh.audioTimer.text = if (isActive) formatAudioProgress(position, duration) else formatAudioTime(duration)
+        vh.audioSeekBar.max = max(duration, 1)
+        vh.audioSeekBar.progress = position.coerceAtMost(vh.audioSeekBar.max)
+        vh.audioSeekBar.isEnabled = isActive && duration > 0
+    }
+
+    // What was stored when the transfer finished, until the player has opened the audio and knows exactly.
+    private fun audioDurationMs(ft: FileTransfer): Int {
+        val opened = activeAudioTransferId == ft.id && activeAudioDurationMs > 0
+        return if (opened) activeAudioDurationMs else ft.audioDurationMs.toInt()
     }
 
     private fun toggleAudio(ft: FileTransfer) {
@@ -464,7 +643,7 @@ class ChatAdapter(private val inflater: LayoutInflater, private val resources: R
             player.start()
             startAudioProgressUpdates()
         }
-        notifyDataSetChanged()
+        notifyAudioChanged()
     }
 
     private fun startAudio(ft: FileTransfer) {
@@ -485,19 +664,19 @@ class ChatAdapter(private val inflater: LayoutInflater, private val resources: R
                 activeAudioDurationMs = max(prepared.duration, 0)
                 prepared.start()
                 startAudioProgressUpdates()
-                notifyDataSetChanged()
+                notifyAudioChanged()
             }
             mp.setOnCompletionListener { done ->
                 done.seekTo(0)
                 stopAudioProgressUpdates()
-                notifyDataSetChanged()
+                notifyAudioChanged()
             }
             mp.setOnErrorListener { _, _, _ ->
                 releaseAudio()
                 true
             }
             mp.prepareAsync()
-            notifyDataSetChanged()
+            notifyAudioChanged()
         }.onFailure {
             releaseAudio()
         }
@@ -513,12 +692,9 @@ class ChatAdapter(private val inflater: LayoutInflater, private val resources: R
         userSeekingAudio = false
     }
 
-    private fun isAudioTransfer(ft: FileTransfer): Boolean =
-        URLConnection.guessContentTypeFromName(ft.fileName)?.startsWith("audio/") == true
-
     private fun isPlayableAudio(ft: FileTransfer): Boolean {
         if (!ft.isComplete()) return false
-        if (!isAudioTransfer(ft)) return false
+        if (!isAudio(ft.fileName)) return false
         if (!ft.destination.startsWith("file://")) return false
         val path = ft.destination.toUri().path ?: return false
         return File(path).exists()
@@ -17,16 +17,13 @@ import android.graphics.PorterDuff
 import android.graphics.Typeface
 import android.graphics.drawable.GradientDrawable
 import android.hardware.Camera
-import android.graphics.drawable.ClipDrawable
 import android.media.MediaPlayer
-import android.media.MediaRecorder
 import android.net.Uri
 import android.os.Build
 import android.os.Bundle
 import android.os.Handler
 import android.os.Looper
 import android.os.SystemClock
-import android.provider.MediaStore
 import android.util.Log
 import android.view.ContextMenu
 import android.view.MenuItem
@@ -54,8 +51,12 @@ import androidx.core.view.isVisible
 import androidx.core.view.updatePadding
 import androidx.core.widget.doAfterTextChanged
 import androidx.fragment.app.viewModels
+import androidx.lifecycle.Lifecycle
+import androidx.lifecycle.lifecycleScope
+import androidx.lifecycle.repeatOnLifecycle
 import androidx.navigation.fragment.findNavController
 import androidx.recyclerview.widget.GridLayoutManager
+import androidx.recyclerview.widget.RecyclerView
 import com.google.android.material.math.MathUtils.lerp
 import com.squareup.picasso.Picasso
 import com.squareup.picasso.Callback
@@ -67,12 +68,17 @@ import java.text.SimpleDateFormat
 import java.util.Date
 import java.util.Locale
 import kotlin.math.max
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import com.dismal.btox.R
 import com.dismal.btox.databinding.FragmentChatBinding
 import com.dismal.btox.requireStringArg
 import com.dismal.btox.settings.AppColorResolver
 import com.dismal.btox.truncated
 import com.dismal.btox.ui.BaseFragment
+import com.dismal.btox.ui.showRetentionPolicyDialog
 import com.dismal.btox.vmFactory
 import ltd.evilcorp.core.vo.ConnectionStatus
 import ltd.evilcorp.core.vo.FileTransfer
@@ -80,6 +86,8 @@ import ltd.evilcorp.core.vo.Message
 import ltd.evilcorp.core.vo.MessageType
 import ltd.evilcorp.core.vo.PublicKey
 import ltd.evilcorp.core.vo.isComplete
+import ltd.evilcorp.domain.av.VoiceMemo
+import ltd.evilcorp.domain.av.VoiceMemoRecorder
 import ltd.evilcorp.domain.feature.CallState
 import com.dismal.btox.ui.contactlist.ARG_SHARE
 
@@ -89,6 +97,7 @@ const val FOCUS_ON_MESSAGE_BOX = "focusOnMessageBox"
 private const val MAX_CONFIRM_DELETE_STRING_LENGTH = 20
 private const val VOICE_MEMO_CACHE_SUBDIR = "shared_images"
 private const val VOICE_MEMO_MIN_DURATION_MS = 300L
+private const val PHOTO_GRID_COLUMNS = 3
 
 class OpenMultiplePersistableDocuments : ActivityResultContracts.OpenMultipleDocuments() {
     override fun createIntent(context: Context, input: Array<String>): Intent = super.createIntent(context, input)
@@ -106,10 +115,15 @@ class ChatFragment : BaseFragment<FragmentChatBinding>(FragmentChatBinding::infl
     private var lastAppliedBackgroundUri = ""  // Track the last background we applied locally
     private lateinit var chatAdapter: ChatAdapter
     private lateinit var mediaPhotoGridAdapter: MediaPhotoGridAdapter
+    private var photoLoader: MediaStorePhotoLoader? = null
+    private var photoPageJob: Job? = null
+    private var photosQueried = 0
+    private var photosExhausted = false
     private var mediaCamera: Camera? = null
     private var mediaCameraSurfaceReady = false
-    private var voiceMemoRecorder: MediaRecorder? = null
+    private var voiceMemoRecorder: VoiceMemoRecorder? = null
     private var voiceMemoFile: File? = null
+    private var voiceMemo: VoiceMemo? = null
     private var voiceMemoRecording = false
     private var voiceMemoStartedAt = 0L
     private var voiceMemoPlayer: MediaPlayer? = null
@@ -129,6 +143,8 @@ class ChatFragment : BaseFragment<FragmentChatBinding>(FragmentChatBinding::infl
         }
     }
 
+    private var historyExportDialog: AlertDialog? = null
+
     private val exportBackupLauncher =
         registerForActivityResult(ActivityResultContracts.CreateDocument("application/json")) { dest ->
             if (dest == null) return@registerForActivityResult
@@ -293,6 +309,17 @@ class ChatFragment : BaseFragment<FragmentChatBinding>(FragmentChatBinding::infl
                     )
                     true
                 }
+                R.id.retention_policy -> {
+                    viewLifecycleOwner.lifecycleScope.launch {
+                        showRetentionPolicyDialog(
+                            requireContext(),
+                            viewModel.getRetentionPolicy(),
+                            onSave = viewModel::setRetentionPolicy,
+                            onReset = viewModel::clearRetentionPolicy,
+                        )
+                    }
+                    true
+                }
                 R.id.clear_history -> {
                     AlertDialog.Builder(requireContext())
                         .setTitle(R.string.clear_history)
@@ -385,9 +412,15 @@ class ChatFragment : BaseFragment<FragmentChatBinding>(FragmentChatBinding::infl
             )
         }
 
-        chatAdapter = ChatAdapter(layoutInflater, resources)
+        chatAdapter = ChatAdapter(
+            layoutInflater,
+            resources,
+            onFileTransferAction = ::onFileTransferAction,
+            onMessageLongClicked = ::startMessageActionMode,
+        )
         chatAdapter.material3StyleEnabled = viewModel.useMaterial3Ui()
         messages.adapter = chatAdapter
+        messages.addItemDecoration(MessageSpacingDecoration(resources))
         mediaPhotoGridAdapter = MediaPhotoGridAdapter { uri ->
             viewModel.setActiveChat(PublicKey(contactPubKey))
             viewModel.createFt(uri)
@@ -395,8 +428,26 @@ class ChatFragment : BaseFragment<FragmentChatBinding>(FragmentChatBinding::infl
             hideVoiceRecorderPanel()
             hidePhotosPanel()
         }
-        mediaPickerPhotosGrid.layoutManager = GridLayoutManager(requireContext(), 3)
+        photoLoader = MediaStorePhotoLoader(
+            requireContext().contentResolver,
+            resources.displayMetrics.widthPixels / PHOTO_GRID_COLUMNS,
+            mediaPhotoGridAdapter::onThumbnailLoaded,
+        )
+        mediaPhotoGridAdapter.setLoader(photoLoader)
+        mediaPickerPhotosGrid.layoutManager = GridLayoutManager(requireContext(), PHOTO_GRID_COLUMNS)
         mediaPickerPhotosGrid.adapter = mediaPhotoGridAdapter
+        mediaPickerPhotosGrid.addOnScrollListener(
+            object : RecyclerView.OnScrollListener() {
+                override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
+                    val layoutManager = recyclerView.layoutManager as GridLayoutManager
+                    val first = layoutManager.findFirstVisibleItemPosition()
+                    val last = layoutManager.findLastVisibleItemPosition()
+                    if (first == RecyclerView.NO_POSITION) return
+                    mediaPhotoGridAdapter.prefetch(first, last, forward = dy >= 0)
+                    if (last + PHOTO_PAGE_SIZE / 2 >= mediaPhotoGridAdapter.itemCount) loadNextPhotoPage()
+                }
+            },
+        )
         mediaCameraSurface.holder.addCallback(
             object : SurfaceHolder.Callback {
                 override fun surfaceCreated(holder: SurfaceHolder) {
@@ -418,6 +469,24 @@ class ChatFragment : BaseFragment<FragmentChatBinding>(FragmentChatBinding::infl
         emptyMessagesView.setIsImageVisible(true)
         emptyMessagesView.setIsVerticallyCentered(true)
 
+        viewModel.historyExportProgress.observe(viewLifecycleOwner) { progress ->
+            if (progress == null) {
+                historyExportDialog?.dismiss()
+                historyExportDialog = null
+                return@observe
+            }
+
+            val text = getString(R.string.export_history_progress, progress.exported, progress.total)
+            historyExportDialog?.setMessage(text) ?: run {
+                historyExportDialog = AlertDialog.Builder(requireContext())
+                    .setTitle(R.string.export_history)
+                    .setMessage(text)
+                    .setCancelable(false)
+                    .setNegativeButton(android.R.string.cancel) { _, _ -> viewModel.cancelHistoryBackup() }
+                    .show()
+            }
+        }
+
         viewModel.contact.observe(viewLifecycleOwner) {
             if (it == null) {
                 Log.e(TAG, "Contact $contactPubKey does not exist, leaving chat")
@@ -440,7 +509,6 @@ class ChatFragment : BaseFragment<FragmentChatBinding>(FragmentChatBinding::infl
 
             avatarImageView.setFrom(it)
             chatAdapter.activeContact = it
-            chatAdapter.notifyDataSetChanged()
             
             Log.d(TAG, "Observer update - Database background URI: '${it.chatBackgroundUri}', Last applied: '$lastAppliedBackgroundUri'")
             
@@ -509,59 +577,18 @@ class ChatFragment : BaseFragment<FragmentChatBinding>(FragmentChatBinding::infl
         ongoingCall.endCall.setOnClickListener { viewModel.onEndCall() }
         ongoingCall.info.setOnClickListener { navigateToCallScreen() }
 
-        viewModel.messages.observe(viewLifecycleOwner) {
-            chatAdapter.messages = it
-            chatAdapter.notifyDataSetChanged()
-            emptyMessagesView.visibility = if (it.isEmpty()) View.VISIBLE else View.GONE
-        }
-
-        viewModel.fileTransfers.observe(viewLifecycleOwner) {
-            fts = it
-            chatAdapter.fileTransfers = it
-            chatAdapter.notifyDataSetChanged()
-        }
-
-        messages.setOnItemClickListener { _, view, position, _ ->
-            when (view.id) {
-                R.id.accept -> viewModel.acceptFt(chatAdapter.messages[position].correlationId)
-                R.id.reject, R.id.cancel -> viewModel.rejectFt(chatAdapter.messages[position].correlationId)
-                R.id.fileTransfer -> {
-                    val id = chatAdapter.messages[position].correlationId
-                    val ft = chatAdapter.fileTransfers.find { it.id == id } ?: return@setOnItemClickListener
-                    if (chatAdapter.onFileTransferClicked(ft)) return@setOnItemClickListener
-                    if (ft.outgoing) return@setOnItemClickListener
-                    if (!ft.isComplete()) return@setOnItemClickListener
-                    if (!ft.destination.startsWith("file://")) return@setOnItemClickListener
-                    val contentType = URLConnection.guessContentTypeFromName(ft.fileName)
-                    val filePath = ft.destination.toUri().path ?: return@setOnItemClickListener
-                    val uri = FileProvider.getUriForFile(
-                        requireContext(),
-                        "${requireContext().packageName}.fileprovider",
-                        File(filePath),
-                    )
-                    val shareIntent = Intent(Intent.ACTION_VIEW).apply {
-                        putExtra(Intent.EXTRA_TITLE, ft.fileName)
-                        setDataAndType(uri, contentType)
-                        flags = Intent.FLAG_GRANT_READ_URI_PERMISSION
-                    }
-                    try {
-                        WindowInsetsControllerCompat(requireActivity().window, view).hide(WindowInsetsCompat.Type.ime())
-                        startActivity(Intent.createChooser(shareIntent, null))
-                    } catch (_: ActivityNotFoundException) {
-                        Toast.makeText(
-                            requireContext(),
-                            getString(R.string.mimetype_handler_not_found, contentType),
-                            Toast.LENGTH_LONG,
-                        ).show()
-                    }
+        viewLifecycleOwner.lifecycleScope.launch {
+            viewLifecycleOwner.repeatOnLifecycle(Lifecycle.State.STARTED) {
+                viewModel.messageDeltas(chatAdapter.messageList).collect { delta ->
+                    messages.followNewMessages(chatAdapter, delta)
+                    emptyMessagesView.visibility = if (chatAdapter.itemCount == 0) View.VISIBLE else View.GONE
                 }
             }
         }
 
-        messages.setOnItemLongClickListener { _, _, position, _ ->
-            val message = chatAdapter.messages.getOrNull(position) ?: return@setOnItemLongClickListener false
-            startMessageActionMode(message)
-            true
+        viewModel.fileTransfers.observe(viewLifecycleOwner) {
+            fts = it
+            chatAdapter.submitFileTransfers(it)
         }
 
         registerForContextMenu(send)
@@ -704,11 +731,14 @@ class ChatFragment : BaseFragment<FragmentChatBinding>(FragmentChatBinding::infl
 
     override fun onPause() {
         messageActionMode?.finish()
+        historyExportDialog?.dismiss()
+        historyExportDialog = null
         if (voiceMemoRecording) {
             stopVoiceMemoRecording(keepForPreview = false)
         }
         clearVoiceMemoPreview(deleteFile = false)
         closeEmbeddedCamera()
+        photoLoader?.cancelAll()
         if (::chatAdapter.isInitialized) {
             chatAdapter.releaseAudio()
         }
@@ -742,6 +772,43 @@ class ChatFragment : BaseFragment<FragmentChatBinding>(FragmentChatBinding::infl
         }
     }
 
+    private fun onFileTransferAction(viewId: Int, message: Message) {
+        when (viewId) {
+            R.id.accept -> viewModel.acceptFt(message.correlationId)
+            R.id.reject, R.id.cancel -> viewModel.rejectFt(message.correlationId)
+            R.id.fileTransfer -> {
+                val ft = chatAdapter.fileTransferFor(message)
+                if (chatAdapter.onFileTransferClicked(ft)) return
+                if (ft.outgoing) return
+                if (!ft.isComplete()) return
+                if (!ft.destination.startsWith("file://")) return
+                val contentType = URLConnection.guessContentTypeFromName(ft.fileName)
+                val filePath = ft.destination.toUri().path ?: return
+                val uri = FileProvider.getUriForFile(
+                    requireContext(),
+                    "${requireContext().packageName}.fileprovider",
+                    File(filePath),
+                )
+                val shareIntent = Intent(Intent.ACTION_VIEW).apply {
+                    putExtra(Intent.EXTRA_TITLE, ft.fileName)
+                    setDataAndType(uri, contentType)
+                    flags = Intent.FLAG_GRANT_READ_URI_PERMISSION
+                }
+                try {
+                    WindowInsetsControllerCompat(requireActivity().window, requireView())
+                        .hide(WindowInsetsCompat.Type.ime())
+                    startActivity(Intent.createChooser(shareIntent, null))
+                } catch (_: ActivityNotFoundException) {
+                    Toast.makeText(
+                        requireContext(),
+                        getString(R.string.mimetype_handler_not_found, contentType),
+                        Toast.LENGTH_LONG,
+                    ).show()
+                }
+            }
+        }
+    }
+
     private fun startMessageActionMode(message: Message) {
         messageActionMode?.finish()
         val host = requireActivity() as? AppCompatActivity ?: return
@@ -901,31 +968,33 @@ class ChatFragment : BaseFragment<FragmentChatBinding>(FragmentChatBinding::infl
     }
 
     private fun hidePhotosPanel() {
+        photoLoader?.cancelAll()
         binding.mediaPickerPhotosGrid.isVisible = false
         binding.mediaPickerPhotosEmpty.isVisible = false
         binding.mediaPickerPhotos.isActivated = false
     }
 
     private fun loadPhotosIntoPanel() {
-        val projection = arrayOf(MediaStore.Images.Media._ID)
-        val sortOrder = "${MediaStore.Images.Media.DATE_ADDED} DESC"
-        val items = mutableListOf<Uri>()
-        requireContext().contentResolver.query(
-            MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
-            projection,
-            null,
-            null,
-            sortOrder,
-        )?.use { cursor ->
-            val idIdx = cursor.getColumnIndexOrThrow(MediaStore.Images.Media._ID)
-            while (cursor.moveToNext() && items.size < 200) {
-                val id = cursor.getLong(idIdx)
-                val uri = Uri.withAppendedPath(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, id.toString())
-                items += uri
-            }
+        photoPageJob?.cancel()
+        photoPageJob = null
+        photosQueried = 0
+        photosExhausted = false
+        mediaPhotoGridAdapter.clear()
+        binding.mediaPickerPhotosEmpty.isVisible = false
+        loadNextPhotoPage()
+    }
+
+    private fun loadNextPhotoPage() {
+        val loader = photoLoader ?: return
+        if (photosExhausted || photoPageJob?.isActive == true) return
+        val offset = photosQueried
+        photoPageJob = viewLifecycleOwner.lifecycleScope.launch {
+            val ids = withContext(Dispatchers.IO) { loader.loadPage(offset) }
+            photosQueried = offset + ids.size
+            photosExhausted = ids.size < PHOTO_PAGE_SIZE
+            mediaPhotoGridAdapter.appendItems(ids)
+            if (offset == 0) binding.mediaPickerPhotosEmpty.isVisible = ids.isEmpty()
         }
-        mediaPhotoGridAdapter.submitItems(items)
-        binding.mediaPickerPhotosEmpty.isVisible = items.isEmpty()
     }
 
     private fun showCameraPanel() {
@@ -997,67 +1066,58 @@ class ChatFragment : BaseFragment<FragmentChatBinding>(FragmentChatBinding::infl
         clearVoiceMemoPreview(deleteFile = true)
         val cacheDir = File(requireContext().cacheDir, VOICE_MEMO_CACHE_SUBDIR)
         cacheDir.mkdirs()
-        val outputFile = File(cacheDir, "voice_${System.currentTimeMillis()}.m4a")
-        val recorder = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-            MediaRecorder(requireContext())
-        } else {
-            @Suppress("DEPRECATION")
-            MediaRecorder()
-        }
-        try {
-            recorder.setAudioSource(MediaRecorder.AudioSource.MIC)
-            recorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4)
-            recorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC)
-            recorder.setAudioEncodingBitRate(128_000)
-            recorder.setAudioSamplingRate(44_100)
-            recorder.setOutputFile(outputFile.absolutePath)
-            recorder.prepare()
-            recorder.start()
-            voiceMemoRecorder = recorder
-            voiceMemoFile = outputFile
-            voiceMemoRecording = true
-            voiceMemoStartedAt = SystemClock.elapsedRealtime()
-            binding.voicePreviewLayout.visibility = View.GONE
-            binding.voiceHintText.visibility = View.GONE
-            binding.voiceTimerText.visibility = View.VISIBLE
-            binding.voiceTimerText.base = SystemClock.elapsedRealtime()
-            binding.voiceTimerText.start()
-            updateVoiceButtonAppearance(isRecording = true)
-        } catch (_: Throwable) {
-            recorder.release()
-            voiceMemoRecorder = null
-            voiceMemoFile = null
+        val recorder = VoiceMemoRecorder.start(requireContext(), cacheDir, "voice_${System.currentTimeMillis()}")
+        if (recorder == null) {
             voiceMemoRecording = false
             updateVoiceButtonAppearance(isRecording = false)
             Toast.makeText(requireContext(), R.string.media_picker_voice_open_failed, Toast.LENGTH_LONG).show()
+            return
         }
+        voiceMemoRecorder = recorder
+        voiceMemoFile = recorder.file
+        voiceMemoRecording = true
+        voiceMemoStartedAt = SystemClock.elapsedRealtime()
+        binding.voicePreviewLayout.visibility = View.GONE
+        binding.voiceHintText.visibility = View.GONE
+        binding.voiceTimerText.visibility = View.VISIBLE
+        binding.voiceTimerText.base = SystemClock.elapsedRealtime()
+        binding.voiceTimerText.start()
+        updateVoiceButtonAppearance(isRecording = true)
     }
 
     private fun stopVoiceMemoRecording(keepForPreview: Boolean) {
         val recorder = voiceMemoRecorder ?: return
-        val file = voiceMemoFile
-        try {
-            recorder.stop()
-        } catch (_: Throwable) {
-            // Can throw when recording is too short.
-        } finally {
-            recorder.release()
-            voiceMemoRecorder = null
-            voiceMemoRecording = false
-            binding.voiceTimerText.stop()
-            binding.voiceTimerText.visibility = View.GONE
-            updateVoiceButtonAppearance(isRecording = false)
-        }
-
-        if (keepForPreview && file != null && file.exists() && file.length() > 0L) {
-            showVoiceMemoPreview(file)
-        } else {
-            file?.delete()
+        voiceMemoRecorder = null
+        voiceMemoRecording = false
+        voiceMemoStartedAt = 0L
+        binding.voiceTimerText.stop()
+        binding.voiceTimerText.visibility = View.GONE
+        updateVoiceButtonAppearance(isRecording = false)
+        if (!keepForPreview) {
             voiceMemoFile = null
             updateVoiceRecorderIdleUi()
         }
 
-        voiceMemoStartedAt = 0L
+        // The encoder still has the last few frames to hand back before the file is complete.
+        lifecycleScope.launch {
+            val file = recorder.file
+            var shown = false
+            try {
+                val memo = recorder.stop()
+                // Anything else since then, like a new recording or leaving the chat, means this one isn't wanted.
+                if (memo != null && file.length() > 0L && voiceMemoFile == file && view != null) {
+                    showVoiceMemoPreview(memo)
+                    shown = true
+                }
+            } finally {
+                // Also when the chat is destroyed before the encoder is done, so nothing is left behind in the cache.
+                if (!shown) {
+                    file.delete()
+                    if (voiceMemoFile == file) voiceMemoFile = null
+                    if (view != null) updateVoiceRecorderIdleUi()
+                }
+            }
+        }
     }
 
     private fun showVoiceRecorderPanel() {
@@ -1114,16 +1174,23 @@ class ChatFragment : BaseFragment<FragmentChatBinding>(FragmentChatBinding::infl
         binding.voiceHintText.setTypeface(null, Typeface.NORMAL)
     }
 
-    private fun showVoiceMemoPreview(file: File) {
+    private fun showVoiceMemoPreview(memo: VoiceMemo) {
+        val file = memo.file
         voiceMemoFile = file
+        voiceMemo = memo
         releaseVoiceMemoPreviewPlayer()
-        voiceMemoPreviewDurationMs = 0
+        voiceMemoPreviewDurationMs = memo.durationMs.toInt()
+        binding.voicePreviewSeekBar.showWaveform(
+            memo.waveform,
+            resolveThemeColor(androidx.appcompat.R.attr.colorPrimary, R.color.colorPrimary),
+            ContextCompat.getColor(requireContext(), R.color.mg_text_secondary),
+        )
         val player = MediaPlayer()
         voiceMemoPlayer = player
         runCatching {
             player.setDataSource(file.absolutePath)
             player.setOnPreparedListener { prepared ->
-                voiceMemoPreviewDurationMs = max(prepared.duration, 0)
+                if (prepared.duration > 0) voiceMemoPreviewDurationMs = prepared.duration
                 binding.voicePreviewLayout.visibility = View.VISIBLE
                 updateVoicePreviewUi(0, voiceMemoPreviewDurationMs)
                 setVoicePreviewPlaying(false)
@@ -1172,13 +1239,6 @@ class ChatFragment : BaseFragment<FragmentChatBinding>(FragmentChatBinding::infl
         binding.voicePreviewSeekBar.max = max(durationMs, 1)
         binding.voicePreviewSeekBar.progress = positionMs.coerceAtMost(binding.voicePreviewSeekBar.max)
         binding.voicePreviewSeekBar.isEnabled = durationMs > 0
-        val progressDrawable = ContextCompat.getDrawable(requireContext(), R.drawable.audio_progress_bar_progress)
-        if (progressDrawable != null) {
-            binding.voicePreviewSeekBar.progressDrawable =
-                ClipDrawable(progressDrawable, android.view.Gravity.START, ClipDrawable.HORIZONTAL)
-        }
-        binding.voicePreviewSeekBar.background =
-            ContextCompat.getDrawable(requireContext(), R.drawable.audio_progress_bar_background_outgoing)
     }
 
     private fun sendVoiceMemoPreview() {
@@ -1193,7 +1253,7 @@ class ChatFragment : BaseFragment<FragmentChatBinding>(FragmentChatBinding::infl
             "${requireContext().packageName}.fileprovider",
             file,
         )
-        viewModel.createFt(uri)
+        viewModel.createFt(uri, voiceMemo?.takeIf { it.file == file })
         clearVoiceMemoPreview(deleteFile = false)
         voiceMemoFile = null
         binding.mediaPickerPanel.isVisible = false
@@ -1205,6 +1265,7 @@ class ChatFragment : BaseFragment<FragmentChatBinding>(FragmentChatBinding::infl
         releaseVoiceMemoPreviewPlayer()
         binding.voicePreviewLayout.visibility = View.GONE
         voiceMemoPreviewDurationMs = 0
+        voiceMemo = null
         if (deleteFile) {
             voiceMemoFile?.delete()
             voiceMemoFile = null
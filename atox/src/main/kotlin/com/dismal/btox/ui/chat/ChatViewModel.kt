@@ -9,41 +9,55 @@ import android.content.ContentResolver
 import android.content.Context
 import android.media.MediaPlayer
 import android.net.Uri
+import android.provider.DocumentsContract
 import android.util.Log
 import android.widget.Toast
 import androidx.core.net.toUri
 import androidx.lifecycle.LiveData
+import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.asLiveData
 import com.squareup.picasso.Picasso
 import java.io.File
 import java.io.FileInputStream
 import javax.inject.Inject
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.flow.combine
-import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.mapNotNull
 import kotlinx.coroutines.flow.take
 import kotlinx.coroutines.flow.transform
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import com.dismal.btox.R
+import com.dismal.btox.settings.ContactPolicies
 import com.dismal.btox.settings.Settings
 import com.dismal.btox.settings.UiStyleMode
 import com.dismal.btox.ui.NotificationHelper
+import ltd.evilcorp.core.repository.MessageChange
 import ltd.evilcorp.core.vo.ConnectionStatus
 import ltd.evilcorp.core.vo.Contact
 import ltd.evilcorp.core.vo.FileTransfer
 import ltd.evilcorp.core.vo.Message
 import ltd.evilcorp.core.vo.MessageType
 import ltd.evilcorp.core.vo.PublicKey
+import ltd.evilcorp.core.vo.RetentionPolicy
+import ltd.evilcorp.domain.av.VoiceMemo
 import ltd.evilcorp.domain.feature.CallManager
 import ltd.evilcorp.domain.feature.CallState
 import ltd.evilcorp.domain.feature.ChatManager
 import ltd.evilcorp.domain.feature.ContactManager
 import ltd.evilcorp.domain.feature.ExportManager
+import ltd.evilcorp.domain.feature.ExportProgress
 import ltd.evilcorp.domain.feature.FileTransferManager
+import ltd.evilcorp.domain.feature.MessageList
+import ltd.evilcorp.domain.feature.MessageListDelta
+import ltd.evilcorp.domain.feature.RetentionManager
 
 private const val TAG = "ChatViewModel"
 
@@ -59,21 +73,33 @@ class ChatViewModel @Inject constructor(
     private val exportManager: ExportManager,
     private val contactManager: ContactManager,
     private val fileTransferManager: FileTransferManager,
+    private val retentionManager: RetentionManager,
     private val notificationHelper: NotificationHelper,
     private val resolver: ContentResolver,
     private val context: Context,
     private val scope: CoroutineScope,
     private val settings: Settings,
+    private val contactPolicies: ContactPolicies,
 ) : ViewModel() {
     private var publicKey = PublicKey("")
     private var sentTyping = false
 
     val contact: LiveData<Contact?> by lazy { contactManager.get(publicKey).asLiveData() }
-    val messages: LiveData<List<Message>> by lazy {
-        chatManager.messagesFor(publicKey).distinctUntilChanged().asLiveData()
-    }
     val fileTransfers: LiveData<List<FileTransfer>> by lazy { fileTransferManager.transfersFor(publicKey).asLiveData() }
 
+    /**
+     * Keeps [list] in sync with the conversation, emitting what changed. The first delta is always a
+     * [MessageListDelta.Reset], so collect this again after a stop rather than trying to resume.
+     */
+    fun messageDeltas(list: MessageList): Flow<MessageListDelta> =
+        chatManager.messageChangesFor(publicKey).mapNotNull { change ->
+            if (change is MessageChange.Invalidated) {
+                list.reset(chatManager.loadMessages(publicKey))
+            } else {
+                list.apply(change)
+            }
+        }
+
     fun callingNeedsConfirmation(): Boolean = settings.confirmCalling
     fun useMaterial3Ui(): Boolean = settings.uiStyleMode == UiStyleMode.Material3
     val ongoingCall = callManager.inCall.asLiveData()
@@ -99,7 +125,7 @@ class ChatViewModel @Inject constructor(
 
     fun send(message: String, type: MessageType) {
         if (message.isBlank()) return
-        if (settings.isContactBlocked(publicKey)) return
+        if (contactPolicies.isBlocked(publicKey)) return
         chatManager.sendMessage(publicKey, message, type)
         if (settings.outgoingMessageSoundsEnabled) {
             try {
@@ -121,6 +147,17 @@ class ChatViewModel @Inject constructor(
         fileTransferManager.deleteAll(publicKey)
     }
 
+    suspend fun getRetentionPolicy(): RetentionPolicy =
+        retentionManager.get(publicKey).first() ?: settings.retentionPolicy.copy(publicKey = publicKey.string())
+
+    fun setRetentionPolicy(policy: RetentionPolicy) = scope.launch {
+        retentionManager.set(policy.copy(publicKey = publicKey.string()))
+    }
+
+    fun clearRetentionPolicy() = scope.launch {
+        retentionManager.clear(publicKey)
+    }
+
     fun setArchived(archived: Boolean) = contactManager.setArchived(publicKey, archived)
 
     fun setActiveChat(pk: PublicKey) {
@@ -152,18 +189,18 @@ class ChatViewModel @Inject constructor(
         fileTransferManager.reject(id)
     }
 
-    fun createFt(file: Uri) = scope.launch {
+    fun createFt(file: Uri, memo: VoiceMemo? = null) = scope.launch {
         // Make sure there's no stale cached image in Picasso.
         // This happens if the user sends 2 different files with the same path (e.g. by overwriting one with the other.)
         Picasso.get().invalidate(file)
-        fileTransferManager.create(publicKey, file)
+        fileTransferManager.create(publicKey, file, memo)
     }
 
     fun delete(msg: Message) = scope.launch {
         if (msg.type == MessageType.FileTransfer) {
             fileTransferManager.delete(msg.correlationId)
         }
-        chatManager.deleteMessage(msg.id)
+        chatManager.deleteMessage(publicKey, msg.id)
     }
 
     fun exportFt(id: Int, dest: Uri) = scope.launch {
@@ -188,12 +225,17 @@ class ChatViewModel @Inject constructor(
         }
     }
 
-    fun backupHistory(publicKey: String, locationSave: Uri) = scope.launch {
-        val backupContent = exportManager.generateExportMessagesJString(publicKey)
-        launch(Dispatchers.IO) {
+    private val _historyExportProgress = MutableLiveData<ExportProgress?>(null)
+    val historyExportProgress: LiveData<ExportProgress?> get() = _historyExportProgress
+    private var historyExportJob: Job? = null
+
+    fun backupHistory(publicKey: String, locationSave: Uri) {
+        historyExportJob?.cancel()
+        _historyExportProgress.value = ExportProgress(0, 0)
+        historyExportJob = scope.launch(Dispatchers.IO) {
             try {
                 resolver.openOutputStream(locationSave).use { os ->
-                    backupContent.byteInputStream().copyTo(os!!)
+                    exportManager.exportConversation(publicKey, os!!) { _historyExportProgress.postValue(it) }
                 }
                 withContext(Dispatchers.Main) {
                     Toast.makeText(
@@ -202,6 +244,10 @@ class ChatViewModel @Inject constructor(
                         Toast.LENGTH_LONG,
                     ).show()
                 }
+            } catch (e: CancellationException) {
+                Log.i(TAG, "History export cancelled")
+                runCatching { DocumentsContract.deleteDocument(resolver, locationSave) }
+                throw e
             } catch (e: Exception) {
                 Log.e(TAG, e.toString())
                 withContext(Dispatchers.Main) {
@@ -211,10 +257,16 @@ class ChatViewModel @Inject constructor(
                         Toast.LENGTH_LONG,
                     ).show()
                 }
+            } finally {
+                _historyExportProgress.postValue(null)
             }
         }
     }
 
+    fun cancelHistoryBackup() {
+        historyExportJob?.cancel()
+    }
+
     fun setDraft(draft: String) = contactManager.setDraft(publicKey, draft)
     fun clearDraft() = setDraft("")
     fun setChatBackgroundUri(pk: PublicKey, uri: String) {
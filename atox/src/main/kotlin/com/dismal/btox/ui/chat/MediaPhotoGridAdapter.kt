@@ -7,17 +7,63 @@ import android.view.ViewGroup
 import android.widget.ImageView
 import androidx.recyclerview.widget.RecyclerView
 import com.dismal.btox.R
-import com.squareup.picasso.Picasso
 
-class MediaPhotoGridAdapter(
+// How far ahead of what's on screen thumbnails are decoded, about two screens of a three column grid.
+private const val THUMBNAIL_PREFETCH_DISTANCE = 24
+
+// Passed as a payload so the item animator updates the cell in place instead of cross-fading it.
+private object ThumbnailLoaded
+
+internal class MediaPhotoGridAdapter(
     private val onClicked: (Uri) -> Unit,
 ) : RecyclerView.Adapter<MediaPhotoGridAdapter.VH>() {
 
-    private var items: List<Uri> = emptyList()
+    private val items = ArrayList<Long>()
+    private val positions = HashMap<Long, Int>()
+    private var loader: MediaStorePhotoLoader? = null
+
+    init {
+        setHasStableIds(true)
+    }
+
+    fun setLoader(loader: MediaStorePhotoLoader?) {
+        this.loader?.cancelAll()
+        this.loader = loader
+    }
+
+    fun clear() {
+        loader?.cancelAll()
+        val count = items.size
+        items.clear()
+        positions.clear()
+        notifyItemRangeRemoved(0, count)
+    }
+
+    fun appendItems(ids: List<Long>) {
+        val start = items.size
+        for (id in ids) {
+            // Paging by offset can repeat a photo if the library changes between pages.
+            if (positions.containsKey(id)) continue
+            positions[id] = items.size
+            items += id
+        }
+        notifyItemRangeInserted(start, items.size - start)
+    }
 
-    fun submitItems(newItems: List<Uri>) {
-        items = newItems
-        notifyDataSetChanged()
+    /** Redraws the photo with [id], if it's still in the grid. */
+    fun onThumbnailLoaded(id: Long) {
+        positions[id]?.let { notifyItemChanged(it, ThumbnailLoaded) }
+    }
+
+    /** Starts decoding thumbnails in the direction of scrolling, past the visible [first]..[last]. */
+    fun prefetch(first: Int, last: Int, forward: Boolean) {
+        val loader = loader ?: return
+        val range = if (forward) {
+            (last + 1)..minOf(last + THUMBNAIL_PREFETCH_DISTANCE, items.lastIndex)
+        } else {
+            maxOf(first - THUMBNAIL_PREFETCH_DISTANCE, 0) until first
+        }
+        for (position in range) loader.load(items[position])
     }
 
     override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): VH {
@@ -26,9 +72,16 @@ class MediaPhotoGridAdapter(
     }
 
     override fun onBindViewHolder(holder: VH, position: Int) {
-        holder.bind(items[position])
+        holder.bind(items[position], loader)
     }
 
+    override fun onViewRecycled(holder: VH) {
+        // Scrolled past before its thumbnail got its turn, prefetching asks again if it comes back into range.
+        if (holder.itemId != RecyclerView.NO_ID) loader?.cancel(holder.itemId)
+    }
+
+    override fun getItemId(position: Int): Long = items[position]
+
     override fun getItemCount(): Int = items.size
 
     class VH(
@@ -36,22 +89,23 @@ class MediaPhotoGridAdapter(
         private val onClicked: (Uri) -> Unit,
     ) : RecyclerView.ViewHolder(itemView) {
         private val thumb: ImageView = itemView.findViewById(R.id.photoThumb)
-        private var itemUri: Uri? = null
+        private var photoId: Long? = null
 
         init {
             itemView.setOnClickListener {
-                itemUri?.let(onClicked)
+                photoId?.let { onClicked(photoUri(it)) }
             }
         }
 
-        fun bind(uri: Uri) {
-            itemUri = uri
-            Picasso.get()
-                .load(uri)
-                .placeholder(R.drawable.attachment_image_placeholder_background)
-                .fit()
-                .centerCrop()
-                .into(thumb)
+        internal fun bind(id: Long, loader: MediaStorePhotoLoader?) {
+            photoId = id
+            val bitmap = loader?.cached(id)
+            if (bitmap != null) {
+                thumb.setImageBitmap(bitmap)
+            } else {
+                thumb.setImageResource(R.drawable.attachment_image_placeholder_background)
+                loader?.load(id)
+            }
         }
     }
 }
@@ -0,0 +1,139 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package com.dismal.btox.ui.chat
+
+import android.content.ContentResolver
+import android.content.ContentUris
+import android.graphics.Bitmap
+import android.net.Uri
+import android.os.Build
+import android.os.CancellationSignal
+import android.os.Handler
+import android.os.Looper
+import android.os.OperationCanceledException
+import android.provider.MediaStore
+import android.util.Log
+import android.util.LruCache
+import android.util.Size
+import androidx.core.os.bundleOf
+import java.io.IOException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+private const val TAG = "MediaStorePhotoLoader"
+
+internal const val PHOTO_PAGE_SIZE = 120
+
+// Decoding is mostly waiting on the media provider, so two threads keep up with flinging without hogging cores.
+private val thumbnailExecutor = Executors.newFixedThreadPool(2) { runnable ->
+    Thread(runnable, "PhotoThumbnails").apply {
+        isDaemon = true
+        priority = Thread.NORM_PRIORITY - 1
+    }
+}
+
+// Shared between chats so reopening the panel shows the most recent photos right away.
+private val thumbnailCache = object : LruCache<Long, Bitmap>((Runtime.getRuntime().maxMemory() / 16).toInt()) {
+    override fun sizeOf(key: Long, value: Bitmap) = value.allocationByteCount
+}
+
+internal fun photoUri(id: Long): Uri = ContentUris.withAppendedId(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, id)
+
+/**
+ * Reads the photo library a page at a time, newest first, and decodes small thumbnails of the photos in it in the
+ * background.
+ *
+ * Thumbnails come from the media provider, which usually has them ready on disk, instead of from the full size image.
+ * Everything except [loadPage] has to be called on the main thread, and loaded thumbnails are reported there through
+ * [onThumbnailLoaded].
+ */
+internal class MediaStorePhotoLoader(
+    private val contentResolver: ContentResolver,
+    private val thumbnailSize: Int,
+    private val onThumbnailLoaded: (id: Long) -> Unit,
+) {
+    private class Request(val future: Future<*>, val signal: CancellationSignal)
+
+    private val handler = Handler(Looper.getMainLooper())
+    private val pending = HashMap<Long, Request>()
+
+    /** The ids of up to [PHOTO_PAGE_SIZE] photos starting at [offset]. Blocks, so don't call it on the main thread. */
+    fun loadPage(offset: Int): List<Long> {
+        val projection = arrayOf(MediaStore.Images.Media._ID)
+        val cursor = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            val args = bundleOf(
+                ContentResolver.QUERY_ARG_SORT_COLUMNS to arrayOf(MediaStore.Images.Media.DATE_ADDED),
+                ContentResolver.QUERY_ARG_SORT_DIRECTION to ContentResolver.QUERY_SORT_DIRECTION_DESCENDING,
+                ContentResolver.QUERY_ARG_LIMIT to PHOTO_PAGE_SIZE,
+                ContentResolver.QUERY_ARG_OFFSET to offset,
+            )
+            contentResolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, projection, args, null)
+        } else {
+            // Older media providers pass the sort order straight to SQLite, which is the only way to page them.
+            val sortOrder = "${MediaStore.Images.Media.DATE_ADDED} DESC LIMIT $PHOTO_PAGE_SIZE OFFSET $offset"
+            contentResolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, projection, null, null, sortOrder)
+        }
+
+        return cursor?.use {
+            val idIdx = it.getColumnIndexOrThrow(MediaStore.Images.Media._ID)
+            val ids = ArrayList<Long>(it.count)
+            while (it.moveToNext()) {
+                ids += it.getLong(idIdx)
+            }
+            ids
+        } ?: emptyList()
+    }
+
+    fun cached(id: Long): Bitmap? = thumbnailCache.get(id)
+
+    /** Starts decoding the thumbnail of [id] unless it's already cached or on its way. */
+    fun load(id: Long) {
+        if (thumbnailCache.get(id) != null || pending.containsKey(id)) return
+        val signal = CancellationSignal()
+        val future = thumbnailExecutor.submit {
+            val bitmap = decode(id, signal)
+            handler.post {
+                if (pending[id]?.signal !== signal) return@post
+                pending.remove(id)
+                if (bitmap != null) {
+                    thumbnailCache.put(id, bitmap)
+                    onThumbnailLoaded(id)
+                }
+            }
+        }
+        pending[id] = Request(future, signal)
+    }
+
+    /** Gives up on [id] if nothing needs it any more, e.g. because it was scrolled past before it got its turn. */
+    fun cancel(id: Long) {
+        pending.remove(id)?.let {
+            it.future.cancel(false)
+            it.signal.cancel()
+        }
+    }
+
+    fun cancelAll() {
+        for (id in pending.keys.toList()) cancel(id)
+    }
+
+    private fun decode(id: Long, signal: CancellationSignal): Bitmap? = try {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            contentResolver.loadThumbnail(photoUri(id), Size(thumbnailSize, thumbnailSize), signal)
+        } else {
+            @Suppress("deprecation")
+            MediaStore.Images.Thumbnails.getThumbnail(
+                contentResolver,
+                id,
+                MediaStore.Images.Thumbnails.MINI_KIND,
+                null,
+            )
+        }
+    } catch (_: OperationCanceledException) {
+        null
+    } catch (e: IOException) {
+        Log.w(TAG, "Unable to load thumbnail for $id: $e")
+        null
+    }
+}
@@ -0,0 +1,21 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package com.dismal.btox.ui.chat
+
+import android.content.res.Resources
+import android.graphics.Rect
+import android.view.View
+import androidx.recyclerview.widget.RecyclerView
+
+private const val SPACING_DP = 2
+
+/** The gap the message list used to get from its ListView divider. */
+class MessageSpacingDecoration(resources: Resources) : RecyclerView.ItemDecoration() {
+    private val spacing = (SPACING_DP * resources.displayMetrics.density).toInt()
+
+    override fun getItemOffsets(outRect: Rect, view: View, parent: RecyclerView, state: RecyclerView.State) {
+        if (parent.getChildAdapterPosition(view) > 0) outRect.top = spacing
+    }
+}
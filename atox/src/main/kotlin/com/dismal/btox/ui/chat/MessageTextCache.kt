@@ -0,0 +1,59 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package com.dismal.btox.ui.chat
+
+import android.text.SpannableString
+import android.text.util.Linkify
+import android.util.LruCache
+import androidx.core.text.PrecomputedTextCompat
+import androidx.core.text.util.LinkifyCompat
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.FutureTask
+import ltd.evilcorp.core.vo.Message
+
+private const val CACHE_SIZE = 256
+
+// What android:autoLink="all" used to find, minus map addresses which are both deprecated and slow.
+private const val LINK_MASK = Linkify.WEB_URLS or Linkify.EMAIL_ADDRESSES or Linkify.PHONE_NUMBERS
+
+// One thread is plenty, it only needs to stay ahead of scrolling and should never compete with the UI for cores.
+private val textLayoutExecutor = Executors.newSingleThreadExecutor { runnable ->
+    Thread(runnable, "MessageTextLayout").apply {
+        isDaemon = true
+        priority = Thread.NORM_PRIORITY - 1
+    }
+}
+
+/**
+ * Finds links in and measures message text on a background thread, so binding a bubble only has to hand a finished
+ * layout to its TextView.
+ *
+ * Results are cached by message id. Message text never changes, and a message always ends up in the same kind of
+ * bubble, so the id is enough to tell both the text and the [PrecomputedTextCompat.Params] apart.
+ */
+internal class MessageTextCache {
+    private val cache = LruCache<Long, Future<PrecomputedTextCompat>>(CACHE_SIZE)
+
+    /** The laid out text of [message], which may still be in progress. */
+    fun get(message: Message, params: PrecomputedTextCompat.Params): Future<PrecomputedTextCompat> =
+        cache.get(message.id) ?: submit(message, params)
+
+    /** Starts laying out [message] unless that's already been done. */
+    fun prefetch(message: Message, params: PrecomputedTextCompat.Params) {
+        if (cache.get(message.id) == null) submit(message, params)
+    }
+
+    private fun submit(message: Message, params: PrecomputedTextCompat.Params): Future<PrecomputedTextCompat> {
+        val task = FutureTask {
+            val text = SpannableString(message.message)
+            LinkifyCompat.addLinks(text, LINK_MASK)
+            PrecomputedTextCompat.create(text, params)
+        }
+        cache.put(message.id, task)
+        textLayoutExecutor.execute(task)
+        return task
+    }
+}
@@ -0,0 +1,121 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package com.dismal.btox.ui.chat
+
+import android.content.Context
+import android.text.format.DateFormat
+import android.text.format.DateUtils
+import android.util.LruCache
+import java.util.Calendar
+import com.dismal.btox.R
+
+private const val CACHE_SIZE = 512
+
+/**
+ * Formats message timestamps relative to now, the way the stock Messaging app does.
+ *
+ * Every formatted string is cached along with the point in time when it would start reading differently, e.g. the
+ * next minute for "5 minutes ago" or midnight for a time of day, so re-binding a row is usually a map lookup.
+ */
+internal class MessageTimestampFormatter(private val context: Context) {
+    private class Entry(val text: CharSequence, val validUntil: Long)
+
+    private val cache = LruCache<Long, Entry>(CACHE_SIZE)
+    private var hourFlag = currentHourFlag()
+    private var todayStart = 0L
+    private var tomorrowStart = 0L
+
+    fun format(timestamp: Long): CharSequence {
+        val now = System.currentTimeMillis()
+        cache.get(timestamp)?.let { if (now < it.validUntil) return it.text }
+        return create(timestamp, now).also { cache.put(timestamp, it) }.text
+    }
+
+    /** Drops everything formatted so far and picks up the current 12/24-hour setting. */
+    fun invalidate() {
+        cache.evictAll()
+        hourFlag = currentHourFlag()
+    }
+
+    private fun currentHourFlag() = if (DateFormat.is24HourFormat(context)) {
+        @Suppress("deprecation")
+        DateUtils.FORMAT_24HOUR
+    } else {
+        @Suppress("deprecation")
+        DateUtils.FORMAT_12HOUR
+    }
+
+    private fun updateDay(now: Long) {
+        if (now in todayStart until tomorrowStart) return
+        val calendar = Calendar.getInstance().apply {
+            timeInMillis = now
+            set(Calendar.HOUR_OF_DAY, 0)
+            set(Calendar.MINUTE, 0)
+            set(Calendar.SECOND, 0)
+            set(Calendar.MILLISECOND, 0)
+        }
+        todayStart = calendar.timeInMillis
+        calendar.add(Calendar.DAY_OF_YEAR, 1)
+        tomorrowStart = calendar.timeInMillis
+    }
+
+    private fun create(timestamp: Long, now: Long): Entry {
+        val diff = now - timestamp
+        val resources = context.resources
+
+        if (diff < DateUtils.MINUTE_IN_MILLIS) {
+            return Entry(resources.getString(R.string.posted_now), timestamp + DateUtils.MINUTE_IN_MILLIS)
+        }
+        if (diff < DateUtils.HOUR_IN_MILLIS) {
+            val mins = (diff / DateUtils.MINUTE_IN_MILLIS).toInt()
+            return Entry(
+                resources.getQuantityString(R.plurals.num_minutes_ago, mins, mins),
+                timestamp + (mins + 1) * DateUtils.MINUTE_IN_MILLIS,
+            )
+        }
+
+        updateDay(now)
+        if (timestamp >= todayStart) {
+            return Entry(
+                DateUtils.formatDateTime(context, timestamp, DateUtils.FORMAT_SHOW_TIME or hourFlag),
+                tomorrowStart,
+            )
+        }
+
+        if (diff < DateUtils.WEEK_IN_MILLIS) {
+            return Entry(
+                DateUtils.formatDateTime(
+                    context,
+                    timestamp,
+                    DateUtils.FORMAT_SHOW_WEEKDAY or DateUtils.FORMAT_ABBREV_WEEKDAY or
+                        DateUtils.FORMAT_SHOW_TIME or hourFlag,
+                ),
+                timestamp + DateUtils.WEEK_IN_MILLIS,
+            )
+        }
+
+        if (diff < DateUtils.YEAR_IN_MILLIS) {
+            return Entry(
+                DateUtils.formatDateTime(
+                    context,
+                    timestamp,
+                    DateUtils.FORMAT_SHOW_DATE or DateUtils.FORMAT_SHOW_TIME or
+                        DateUtils.FORMAT_ABBREV_MONTH or DateUtils.FORMAT_NO_YEAR or hourFlag,
+                ),
+                timestamp + DateUtils.YEAR_IN_MILLIS,
+            )
+        }
+
+        return Entry(
+            DateUtils.formatDateTime(
+                context,
+                timestamp,
+                DateUtils.FORMAT_SHOW_DATE or DateUtils.FORMAT_SHOW_TIME or
+                    DateUtils.FORMAT_NUMERIC_DATE or DateUtils.FORMAT_SHOW_YEAR or hourFlag,
+            ),
+            Long.MAX_VALUE,
+        )
+    }
+}
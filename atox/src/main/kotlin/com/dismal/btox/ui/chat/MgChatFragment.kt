@@ -17,14 +17,21 @@ import androidx.core.view.updatePadding
 import androidx.core.widget.doAfterTextChanged
 import androidx.fragment.app.Fragment
 import androidx.fragment.app.viewModels
+import androidx.lifecycle.Lifecycle
+import androidx.lifecycle.lifecycleScope
 import androidx.lifecycle.observe
+import androidx.lifecycle.repeatOnLifecycle
+import androidx.recyclerview.widget.RecyclerView
 import com.dismal.btox.R
 import com.dismal.btox.settings.AppColorResolver
 import com.dismal.btox.vmFactory
 import kotlin.math.max
+import kotlinx.coroutines.launch
+import ltd.evilcorp.core.vo.Message
 import ltd.evilcorp.core.vo.MessageType
 import ltd.evilcorp.core.vo.PublicKey
 import ltd.evilcorp.core.vo.isComplete
+import ltd.evilcorp.domain.feature.MessageListDelta
 
 private const val TAG = "MgChatFragment"
 
@@ -33,7 +40,7 @@ class MgChatFragment : Fragment() {
 
     private lateinit var contactPubKey: String
 
-    private lateinit var messagesList: ListView
+    private lateinit var messagesList: RecyclerView
     private lateinit var outgoingMessage: EditText
     private lateinit var sendButton: ImageButton
     private lateinit var attachButton: ImageButton
@@ -77,51 +84,26 @@ class MgChatFragment : Fragment() {
             compat
         }
 
-        chatAdapter = ChatAdapter(layoutInflater, resources)
+        chatAdapter = ChatAdapter(layoutInflater, resources, ::onFileTransferAction)
         chatAdapter.material3StyleEnabled = viewModel.useMaterial3Ui()
         messagesList.adapter = chatAdapter
-        registerForContextMenu(messagesList)
-
-        viewModel.messages.observe(viewLifecycleOwner) { list ->
-            chatAdapter.messages = list
-            chatAdapter.notifyDataSetChanged()
-            messagesList.setSelection(chatAdapter.count - 1)
-        }
-
-        viewModel.fileTransfers.observe(viewLifecycleOwner) { fts ->
-            chatAdapter.fileTransfers = fts
-            chatAdapter.notifyDataSetChanged()
-        }
-
-        messagesList.setOnItemClickListener { parent, v, position, id ->
-            when (v.id) {
-                R.id.accept -> viewModel.acceptFt(chatAdapter.messages[position].correlationId)
-                R.id.reject, R.id.cancel -> viewModel.rejectFt(chatAdapter.messages[position].correlationId)
-                R.id.fileTransfer -> {
-                    val idc = chatAdapter.messages[position].correlationId
-                    val ft = chatAdapter.fileTransfers.find { it.id == idc } ?: return@setOnItemClickListener
-                    if (chatAdapter.onFileTransferClicked(ft)) return@setOnItemClickListener
-                    if (ft.outgoing) return@setOnItemClickListener
-                    if (!ft.isComplete()) return@setOnItemClickListener
-                    if (!ft.destination.startsWith("file://")) return@setOnItemClickListener
-                    val contentType = java.net.URLConnection.guessContentTypeFromName(ft.fileName)
-                    val filePath = ft.destination.toUri().path ?: return@setOnItemClickListener
-                    val uri = androidx.core.content.FileProvider.getUriForFile(requireContext(), "${requireContext().packageName}.fileprovider", java.io.File(filePath))
-                    val shareIntent = Intent(Intent.ACTION_VIEW).apply {
-                        putExtra(Intent.EXTRA_TITLE, ft.fileName)
-                        setDataAndType(uri, contentType)
-                        flags = Intent.FLAG_GRANT_READ_URI_PERMISSION
-                    }
-                    try {
-                        WindowInsetsControllerCompat(requireActivity().window, view).hide(android.view.WindowInsets.Type.ime())
-                        startActivity(Intent.createChooser(shareIntent, null))
-                    } catch (_: ActivityNotFoundException) {
-                        Toast.makeText(requireContext(), getString(R.string.mimetype_handler_not_found, contentType), Toast.LENGTH_LONG).show()
+        messagesList.addItemDecoration(MessageSpacingDecoration(resources))
+
+        viewLifecycleOwner.lifecycleScope.launch {
+            viewLifecycleOwner.repeatOnLifecycle(Lifecycle.State.STARTED) {
+                viewModel.messageDeltas(chatAdapter.messageList).collect { delta ->
+                    chatAdapter.onMessagesChanged(delta)
+                    if (delta !is MessageListDelta.Changed && chatAdapter.itemCount > 0) {
+                        messagesList.scrollToPosition(chatAdapter.itemCount - 1)
                     }
                 }
             }
         }
 
+        viewModel.fileTransfers.observe(viewLifecycleOwner) { fts ->
+            chatAdapter.submitFileTransfers(fts)
+        }
+
         registerForContextMenu(sendButton)
         sendButton.setOnClickListener { send() }
 
@@ -153,6 +135,34 @@ class MgChatFragment : Fragment() {
         super.onResume()
     }
 
+    private fun onFileTransferAction(viewId: Int, message: Message) {
+        when (viewId) {
+            R.id.accept -> viewModel.acceptFt(message.correlationId)
+            R.id.reject, R.id.cancel -> viewModel.rejectFt(message.correlationId)
+            R.id.fileTransfer -> {
+                val ft = chatAdapter.fileTransferFor(message)
+                if (chatAdapter.onFileTransferClicked(ft)) return
+                if (ft.outgoing) return
+                if (!ft.isComplete()) return
+                if (!ft.destination.startsWith("file://")) return
+                val contentType = java.net.URLConnection.guessContentTypeFromName(ft.fileName)
+                val filePath = ft.destination.toUri().path ?: return
+                val uri = androidx.core.content.FileProvider.getUriForFile(requireContext(), "${requireContext().packageName}.fileprovider", java.io.File(filePath))
+                val shareIntent = Intent(Intent.ACTION_VIEW).apply {
+                    putExtra(Intent.EXTRA_TITLE, ft.fileName)
+                    setDataAndType(uri, contentType)
+                    flags = Intent.FLAG_GRANT_READ_URI_PERMISSION
+                }
+                try {
+                    WindowInsetsControllerCompat(requireActivity().window, requireView()).hide(android.view.WindowInsets.Type.ime())
+                    startActivity(Intent.createChooser(shareIntent, null))
+                } catch (_: ActivityNotFoundException) {
+                    Toast.makeText(requireContext(), getString(R.string.mimetype_handler_not_found, contentType), Toast.LENGTH_LONG).show()
+                }
+            }
+        }
+    }
+
     private fun send() {
         viewModel.clearDraft()
         viewModel.send(outgoingMessage.text.toString(), MessageType.Normal)
@@ -0,0 +1,58 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package com.dismal.btox.ui.chat
+
+import android.graphics.Canvas
+import android.graphics.ColorFilter
+import android.graphics.Paint
+import android.graphics.PixelFormat
+import android.graphics.RectF
+import android.graphics.drawable.ClipDrawable
+import android.graphics.drawable.Drawable
+import android.view.Gravity
+import android.widget.SeekBar
+import kotlin.math.max
+
+// How much of the space each bar gets it fills, the rest being the gap to the next one.
+private const val BAR_FILL = 0.6f
+
+/** Draws the unsigned [peaks] of a waveform as a row of bars across its bounds, centered on the middle. */
+class WaveformDrawable(private val peaks: ByteArray, color: Int) : Drawable() {
+    private val paint = Paint(Paint.ANTI_ALIAS_FLAG).apply { this.color = color }
+    private val bar = RectF()
+
+    override fun draw(canvas: Canvas) {
+        if (peaks.isEmpty() || bounds.isEmpty) return
+        val step = bounds.width().toFloat() / peaks.size
+        val width = step * BAR_FILL
+        for (i in peaks.indices) {
+            // Silence still gets a dot, so the row reads as a waveform rather than a gap.
+            val height = max(width, bounds.height() * (peaks[i].toInt() and 0xff) / 255f)
+            val left = bounds.left + i * step + (step - width) / 2
+            val top = bounds.exactCenterY() - height / 2
+            bar.set(left, top, left + width, top + height)
+            canvas.drawRoundRect(bar, width / 2, width / 2, paint)
+        }
+    }
+
+    override fun setAlpha(alpha: Int) {
+        paint.alpha = alpha
+        invalidateSelf()
+    }
+
+    override fun setColorFilter(colorFilter: ColorFilter?) {
+        paint.colorFilter = colorFilter
+        invalidateSelf()
+    }
+
+    @Deprecated("Deprecated in Java")
+    override fun getOpacity() = PixelFormat.TRANSLUCENT
+}
+
+/** Shows [peaks] as the track of the seek bar, the part that's been played in [playedColor]. */
+fun SeekBar.showWaveform(peaks: ByteArray, playedColor: Int, unplayedColor: Int) {
+    background = WaveformDrawable(peaks, unplayedColor)
+    progressDrawable = ClipDrawable(WaveformDrawable(peaks, playedColor), Gravity.START, ClipDrawable.HORIZONTAL)
+}
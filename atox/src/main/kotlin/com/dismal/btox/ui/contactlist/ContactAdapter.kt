@@ -5,14 +5,19 @@
 
 package com.dismal.btox.ui.contactlist
 
+import android.annotation.SuppressLint
 import android.content.Context
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
-import android.widget.BaseAdapter
 import android.widget.ImageView
 import android.widget.TextView
+import androidx.recyclerview.widget.AsyncDifferConfig
+import androidx.recyclerview.widget.AsyncListDiffer
+import androidx.recyclerview.widget.DiffUtil
+import androidx.recyclerview.widget.RecyclerView
 import java.text.DateFormat
+import java.util.EnumSet
 import java.util.concurrent.TimeUnit
 import com.dismal.btox.R
 import com.dismal.btox.databinding.ContactListViewItemBinding
@@ -27,121 +32,220 @@ enum class ContactListItemType {
     Contact,
 }
 
+/** The parts of a contact row that can be re-bound without touching the rest of it. */
+private enum class ContactPayload {
+    StatusLine,
+    Presence,
+    Unread,
+    Selection,
+}
+
 private fun resolveThemeColor(context: Context, attr: Int, fallbackRes: Int): Int {
     return AppColorResolver.resolve(context, attr, fallbackRes)
 }
 
-class ContactAdapter(private val inflater: LayoutInflater, private val context: Context) : BaseAdapter() {
-    var friendRequests: List<FriendRequest> = listOf()
-    var contacts: List<Contact> = listOf()
+private object ContactListDiff : DiffUtil.ItemCallback<Any>() {
+    override fun areItemsTheSame(oldItem: Any, newItem: Any) = when {
+        oldItem is Contact && newItem is Contact -> oldItem.publicKey == newItem.publicKey
+        oldItem is FriendRequest && newItem is FriendRequest -> oldItem.publicKey == newItem.publicKey
+        else -> false
+    }
+
+    // Both item types are data classes.
+    @SuppressLint("DiffUtilEquals")
+    override fun areContentsTheSame(oldItem: Any, newItem: Any) = oldItem == newItem
+
+    override fun getChangePayload(oldItem: Any, newItem: Any): Any? {
+        if (oldItem !is Contact || newItem !is Contact) return null
+
+        // Anything outside of what the payloads cover needs a full bind.
+        val onlyPayloadFieldsChanged = oldItem.copy(
+            statusMessage = newItem.statusMessage,
+            typing = newItem.typing,
+            draftMessage = newItem.draftMessage,
+            status = newItem.status,
+            connectionStatus = newItem.connectionStatus,
+            hasUnreadMessages = newItem.hasUnreadMessages,
+        ) == newItem
+        if (!onlyPayloadFieldsChanged) return null
+
+        val payloads = EnumSet.noneOf(ContactPayload::class.java)
+        if (oldItem.statusMessage != newItem.statusMessage ||
+            oldItem.typing != newItem.typing ||
+            oldItem.draftMessage != newItem.draftMessage
+        ) {
+            payloads.add(ContactPayload.StatusLine)
+        }
+        if (oldItem.status != newItem.status || oldItem.connectionStatus != newItem.connectionStatus) {
+            payloads.add(ContactPayload.Presence)
+        }
+        if (oldItem.hasUnreadMessages != newItem.hasUnreadMessages) {
+            payloads.add(ContactPayload.Unread)
+        }
+        return payloads
+    }
+}
+
+private class FriendRequestViewHolder(row: FriendRequestItemBinding) : RecyclerView.ViewHolder(row.root) {
+    val publicKey: TextView = row.publicKey
+    val message: TextView = row.message
+}
+
+private class ContactViewHolder(row: ContactListViewItemBinding) : RecyclerView.ViewHolder(row.root) {
+    val name: TextView = row.name
+    val statusMessage: TextView = row.statusMessage
+    val lastMessage: TextView = row.lastMessage
+    val avatarImageView: AvatarImageView = row.avatarImageView
+    val selectedAvatar: ImageView = row.selectedAvatar
+    val unreadIndicator: ImageView = row.unreadIndicator
+    val starredIndicator: ImageView = row.starredIndicator
+}
+
+/**
+ * Friend requests followed by contacts. New lists are diffed on a background thread, and changes that only touch
+ * the status line, presence or unread state of a contact re-bind just those views of that one row.
+ *
+ * [onItemClicked] and [onItemLongClicked] get the [FriendRequest] or [Contact] of the row. If [onItemLongClicked]
+ * returns false, the row's context menu is opened instead.
+ */
+class ContactAdapter(
+    private val inflater: LayoutInflater,
+    private val context: Context,
+    private val onItemClicked: (item: Any) -> Unit,
+    private val onItemLongClicked: (item: Any) -> Boolean = { false },
+) : RecyclerView.Adapter<RecyclerView.ViewHolder>() {
+    private val differ = AsyncListDiffer(this, AsyncDifferConfig.Builder(ContactListDiff).build())
+
+    // Public keys are too long to be used as ids directly, so every key seen gets its own number instead.
+    private val ids = HashMap<String, Long>()
+
     var selectedPublicKeys: Set<String> = emptySet()
+        set(value) {
+            val changed = (field - value) + (value - field)
+            field = value
+            if (changed.isEmpty()) return
+            differ.currentList.forEachIndexed { position, item ->
+                if (item is Contact && item.publicKey in changed) {
+                    notifyItemChanged(position, ContactPayload.Selection)
+                }
+            }
+        }
+
+    init {
+        setHasStableIds(true)
+    }
+
+    fun submit(friendRequests: List<FriendRequest>, contacts: List<Contact>) =
+        differ.submitList(friendRequests + contacts)
+
+    fun getItem(position: Int): Any = differ.currentList[position]
+
+    override fun getItemCount(): Int = differ.currentList.size
 
-    override fun getCount(): Int = friendRequests.size + contacts.size
-    override fun getItem(position: Int): Any = when {
-        position < friendRequests.size -> friendRequests[position]
-        else -> contacts[position - friendRequests.size]
+    override fun getItemId(position: Int): Long = when (val item = getItem(position)) {
+        is FriendRequest -> ids.getOrPut("r${item.publicKey}") { ids.size.toLong() }
+        else -> ids.getOrPut((item as Contact).publicKey) { ids.size.toLong() }
     }
 
-    override fun getItemId(position: Int): Long = position.toLong()
-    override fun getViewTypeCount(): Int = 2
-    override fun getItemViewType(position: Int): Int = when {
-        position < friendRequests.size -> ContactListItemType.FriendRequest.ordinal
+    override fun getItemViewType(position: Int): Int = when (getItem(position)) {
+        is FriendRequest -> ContactListItemType.FriendRequest.ordinal
         else -> ContactListItemType.Contact.ordinal
     }
 
-    override fun getView(position: Int, convertView: View?, parent: ViewGroup): View =
-        when (ContactListItemType.entries[getItemViewType(position)]) {
-            ContactListItemType.FriendRequest -> {
-                val view: View
-                val vh: FriendRequestViewHolder
-
-                if (convertView == null) {
-                    view = inflater.inflate(R.layout.friend_request_item, parent, false)
-                    vh = FriendRequestViewHolder(FriendRequestItemBinding.bind(view))
-                    view.tag = vh
-                } else {
-                    view = convertView
-                    vh = view.tag as FriendRequestViewHolder
-                }
+    override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): RecyclerView.ViewHolder {
+        val holder = when (ContactListItemType.entries[viewType]) {
+            ContactListItemType.FriendRequest ->
+                FriendRequestViewHolder(FriendRequestItemBinding.inflate(inflater, parent, false))
+            ContactListItemType.Contact ->
+                ContactViewHolder(ContactListViewItemBinding.inflate(inflater, parent, false))
+        }
 
-                friendRequests[position].run {
-                    vh.publicKey.text = publicKey
-                    vh.message.text = message
-                }
+        holder.itemView.setOnClickListener {
+            val position = holder.bindingAdapterPosition
+            if (position != RecyclerView.NO_POSITION) onItemClicked(getItem(position))
+        }
+        holder.itemView.setOnLongClickListener {
+            val position = holder.bindingAdapterPosition
+            position != RecyclerView.NO_POSITION && onItemLongClicked(getItem(position))
+        }
+        return holder
+    }
 
-                view
+    override fun onBindViewHolder(holder: RecyclerView.ViewHolder, position: Int) =
+        when (val item = getItem(position)) {
+            is FriendRequest -> bindFriendRequest(holder as FriendRequestViewHolder, item)
+            else -> bindContact(holder as ContactViewHolder, item as Contact)
+        }
+
+    override fun onBindViewHolder(holder: RecyclerView.ViewHolder, position: Int, payloads: List<Any>) {
+        if (payloads.isEmpty() || holder !is ContactViewHolder) {
+            onBindViewHolder(holder, position)
+            return
+        }
+
+        val contact = getItem(position) as Contact
+        val changes = EnumSet.noneOf(ContactPayload::class.java)
+        for (payload in payloads) {
+            when (payload) {
+                is ContactPayload -> changes.add(payload)
+                is Set<*> -> payload.forEach { changes.add(it as ContactPayload) }
             }
-            ContactListItemType.Contact -> {
-                val view: View
-                val vh: ContactViewHolder
-
-                if (convertView == null) {
-                    view = inflater.inflate(R.layout.contact_list_view_item, parent, false)
-                    vh = ContactViewHolder(ContactListViewItemBinding.bind(view))
-                    view.tag = vh
-                } else {
-                    view = convertView
-                    vh = view.tag as ContactViewHolder
-                }
+        }
 
-                contacts[position - friendRequests.size].run {
-                    name = name.ifEmpty { context.getString(R.string.contact_default_name) }
-                    val selected = selectedPublicKeys.contains(publicKey)
-
-                    vh.name.text = name
-                    vh.lastMessage.text = if (lastMessage != 0L) {
-                        val ageMs = System.currentTimeMillis() - lastMessage
-                        if (ageMs in 0 until TimeUnit.DAYS.toMillis(1)) {
-                            DateFormat.getTimeInstance(DateFormat.SHORT).format(lastMessage)
-                        } else {
-                            DateFormat.getDateInstance(DateFormat.MEDIUM).format(lastMessage)
-                        }
-                    } else {
-                        context.getText(R.string.never)
-                    }
-                    when {
-                        typing -> {
-                            vh.statusMessage.text = context.getString(R.string.contact_typing)
-                            vh.statusMessage.setTextColor(vh.lastMessage.currentTextColor)
-                        }
-                        draftMessage.isNotEmpty() -> {
-                            vh.statusMessage.text = context.getString(R.string.draft_message, draftMessage)
-                            vh.statusMessage.setTextColor(
-                                resolveThemeColor(context, androidx.appcompat.R.attr.colorAccent, R.color.colorAccent),
-                            )
-                        }
-                        else -> {
-                            vh.statusMessage.text = statusMessage
-                            vh.statusMessage.setTextColor(vh.lastMessage.currentTextColor)
-                        }
-                    }
-                    vh.avatarImageView.setFrom(this)
-                    vh.avatarImageView.visibility = if (selected) View.INVISIBLE else View.VISIBLE
-                    vh.selectedAvatar.visibility = if (selected) View.VISIBLE else View.GONE
-                    vh.unreadIndicator.visibility = if (hasUnreadMessages) {
-                        View.VISIBLE
-                    } else {
-                        View.GONE
-                    }
-                    vh.starredIndicator.visibility = if (starred) View.VISIBLE else View.GONE
-                }
+        if (ContactPayload.StatusLine in changes) bindStatusLine(holder, contact)
+        if (ContactPayload.Presence in changes) holder.avatarImageView.setStatusFrom(contact)
+        if (ContactPayload.Unread in changes) bindUnread(holder, contact)
+        if (ContactPayload.Selection in changes) bindSelection(holder, contact)
+    }
 
-                view
+    private fun bindFriendRequest(vh: FriendRequestViewHolder, friendRequest: FriendRequest) {
+        vh.publicKey.text = friendRequest.publicKey
+        vh.message.text = friendRequest.message
+    }
+
+    private fun bindContact(vh: ContactViewHolder, contact: Contact) = contact.run {
+        vh.name.text = name.ifEmpty { context.getString(R.string.contact_default_name) }
+        vh.lastMessage.text = if (lastMessage != 0L) {
+            val ageMs = System.currentTimeMillis() - lastMessage
+            if (ageMs in 0 until TimeUnit.DAYS.toMillis(1)) {
+                DateFormat.getTimeInstance(DateFormat.SHORT).format(lastMessage)
+            } else {
+                DateFormat.getDateInstance(DateFormat.MEDIUM).format(lastMessage)
             }
+        } else {
+            context.getText(R.string.never)
         }
+        bindStatusLine(vh, this)
+        vh.avatarImageView.setFrom(this)
+        bindSelection(vh, this)
+        bindUnread(vh, this)
+        vh.starredIndicator.visibility = if (starred) View.VISIBLE else View.GONE
+    }
+
+    private fun bindStatusLine(vh: ContactViewHolder, contact: Contact) = when {
+        contact.typing -> {
+            vh.statusMessage.text = context.getString(R.string.contact_typing)
+            vh.statusMessage.setTextColor(vh.lastMessage.currentTextColor)
+        }
+        contact.draftMessage.isNotEmpty() -> {
+            vh.statusMessage.text = context.getString(R.string.draft_message, contact.draftMessage)
+            vh.statusMessage.setTextColor(
+                resolveThemeColor(context, androidx.appcompat.R.attr.colorAccent, R.color.colorAccent),
+            )
+        }
+        else -> {
+            vh.statusMessage.text = contact.statusMessage
+            vh.statusMessage.setTextColor(vh.lastMessage.currentTextColor)
+        }
+    }
 
-    private class FriendRequestViewHolder(row: FriendRequestItemBinding) {
-        val publicKey: TextView = row.publicKey
-        val message: TextView = row.message
+    private fun bindSelection(vh: ContactViewHolder, contact: Contact) {
+        val selected = selectedPublicKeys.contains(contact.publicKey)
+        vh.avatarImageView.visibility = if (selected) View.INVISIBLE else View.VISIBLE
+        vh.selectedAvatar.visibility = if (selected) View.VISIBLE else View.GONE
     }
 
-    private class ContactViewHolder(row: ContactListViewItemBinding) {
-        val name: TextView = row.name
-        val statusMessage: TextView = row.statusMessage
-        val lastMessage: TextView = row.lastMessage
-        val avatarImageView: AvatarImageView = row.avatarImageView
-        val selectedAvatar: ImageView = row.selectedAvatar
-        val unreadIndicator: ImageView = row.unreadIndicator
-        val starredIndicator: ImageView = row.starredIndicator
+    private fun bindUnread(vh: ContactViewHolder, contact: Contact) {
+        vh.unreadIndicator.visibility = if (contact.hasUnreadMessages) View.VISIBLE else View.GONE
     }
 }
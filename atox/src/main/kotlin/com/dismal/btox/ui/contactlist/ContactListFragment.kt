@@ -173,7 +173,12 @@ class ContactListFragment :
 
         navView.setNavigationItemSelectedListener(this@ContactListFragment)
 
-        contactAdapter = ContactAdapter(layoutInflater, requireContext())
+        contactAdapter = ContactAdapter(
+            layoutInflater,
+            requireContext(),
+            onItemClicked = ::onItemClicked,
+            onItemLongClicked = ::onItemLongClicked,
+        )
         contactList.adapter = contactAdapter
         registerForContextMenu(contactList)
         val emptyConversationsView = noConversationsView
@@ -192,39 +197,6 @@ class ContactListFragment :
             refreshContactList()
         }
 
-        contactList.setOnItemClickListener { _, _, position, _ ->
-            if (selectedContacts.isNotEmpty()) {
-                val item = contactList.getItemAtPosition(position)
-                if (item is Contact) {
-                    toggleContactSelection(item, contactAdapter)
-                }
-                return@setOnItemClickListener
-            }
-            when (contactList.adapter.getItemViewType(position)) {
-                ContactListItemType.FriendRequest.ordinal -> {
-                    openFriendRequest(contactList.getItemAtPosition(position) as FriendRequest)
-                }
-                ContactListItemType.Contact.ordinal -> {
-                    openChat(contactList.getItemAtPosition(position) as Contact)
-                }
-            }
-        }
-
-        contactList.setOnItemLongClickListener { _, _, position, _ ->
-            if (contactList.adapter.getItemViewType(position) != ContactListItemType.Contact.ordinal) {
-                return@setOnItemLongClickListener false
-            }
-            val contact = contactList.getItemAtPosition(position) as Contact
-            if (contactActionMode == null) {
-                startContactActionMode(contactAdapter)
-                if (contactActionMode == null) {
-                    return@setOnItemLongClickListener false
-                }
-            }
-            toggleContactSelection(contact, contactAdapter)
-            true
-        }
-
         activeFab.setOnClickListener {
             findNavController().navigate(R.id.addContactFragment)
         }
@@ -279,6 +251,33 @@ class ContactListFragment :
         super.onDestroyView()
     }
 
+    private fun onItemClicked(item: Any) {
+        if (selectedContacts.isNotEmpty()) {
+            if (item is Contact) {
+                toggleContactSelection(item, contactAdapter)
+            }
+            return
+        }
+        when (item) {
+            is FriendRequest -> openFriendRequest(item)
+            is Contact -> openChat(item)
+        }
+    }
+
+    private fun onItemLongClicked(item: Any): Boolean {
+        if (item !is Contact) {
+            return false
+        }
+        if (contactActionMode == null) {
+            startContactActionMode(contactAdapter)
+            if (contactActionMode == null) {
+                return false
+            }
+        }
+        toggleContactSelection(item, contactAdapter)
+        return true
+    }
+
     override fun onCreateContextMenu(menu: ContextMenu, v: View, menuInfo: ContextMenu.ContextMenuInfo?) {
         if (selectedContacts.isNotEmpty()) {
             return
@@ -288,7 +287,7 @@ class ContactListFragment :
         val inflater: MenuInflater = requireActivity().menuInflater
         val info = menuInfo as AdapterView.AdapterContextMenuInfo
 
-        when (binding.contactList.adapter.getItemViewType(info.position)) {
+        when (contactAdapter.getItemViewType(info.position)) {
             ContactListItemType.FriendRequest.ordinal -> {
                 val f = FriendRequestItemBinding.bind(info.targetView)
                 menu.setHeaderTitle(f.publicKey.text)
@@ -310,7 +309,7 @@ class ContactListFragment :
 
         return when (info.targetView.id) {
             R.id.friendRequestItem -> {
-                val friendRequest = binding.contactList.adapter.getItem(info.position) as FriendRequest
+                val friendRequest = contactAdapter.getItem(info.position) as FriendRequest
                 when (item.itemId) {
                     R.id.accept -> {
                         viewModel.acceptFriendRequest(friendRequest)
@@ -324,11 +323,11 @@ class ContactListFragment :
             R.id.contactListItem -> {
                 when (item.itemId) {
                     R.id.profile -> {
-                        val contact = binding.contactList.adapter.getItem(info.position) as Contact
+                        val contact = contactAdapter.getItem(info.position) as Contact
                         openProfile(contact)
                     }
                     R.id.delete -> {
-                        val contact = binding.contactList.adapter.getItem(info.position) as Contact
+                        val contact = contactAdapter.getItem(info.position) as Contact
 
                         AlertDialog.Builder(requireContext())
                             .setTitle(R.string.delete_contact)
@@ -448,7 +447,6 @@ class ContactListFragment :
 
                             val shouldMute = !targets.all { viewModel.isMuted(PublicKey(it.publicKey)) }
                             targets.forEach { viewModel.setMuted(PublicKey(it.publicKey), shouldMute) }
-                            contactAdapter.notifyDataSetChanged()
                             updateNotificationActionTitle(mode)
                             true
                         }
@@ -498,7 +496,6 @@ class ContactListFragment :
                 override fun onDestroyActionMode(mode: ActionMode) {
                     selectedContacts.clear()
                     contactAdapter.selectedPublicKeys = emptySet()
-                    contactAdapter.notifyDataSetChanged()
                     binding.toolbar.visibility = View.VISIBLE
                     setStartConversationFabVisible(listMode == ContactListMode.Inbox)
                     if (contactActionMode === mode) {
@@ -520,8 +517,7 @@ class ContactListFragment :
             return
         }
 
-        contactAdapter.selectedPublicKeys = selectedContacts
-        contactAdapter.notifyDataSetChanged()
+        contactAdapter.selectedPublicKeys = selectedContacts.toSet()
         contactActionMode?.let {
             updateNotificationActionTitle(it)
             updateArchiveActionTitle(it)
@@ -558,8 +554,8 @@ class ContactListFragment :
 
     private fun refreshContactList() {
         val blocked = viewModel.blockedKeys()
-        contactAdapter.friendRequests = if (listMode == ContactListMode.Inbox) allFriendRequests else emptyList()
-        contactAdapter.contacts = allContacts
+        val friendRequests = if (listMode == ContactListMode.Inbox) allFriendRequests else emptyList()
+        val contacts = allContacts
             .asSequence()
             .filter {
                 when (listMode) {
@@ -573,13 +569,17 @@ class ContactListFragment :
                     .thenByDescending { contactListSorter(it) },
             )
             .toList()
-        contactAdapter.notifyDataSetChanged()
+        contactAdapter.submit(friendRequests, contacts)
         binding.noConversationsView.setTextHint(when (listMode) {
             ContactListMode.Inbox -> R.string.conversation_list_empty_text
             ContactListMode.Archived -> R.string.archived_empty_text
             ContactListMode.Blocked -> R.string.blocked_empty_text
         })
-        binding.noConversationsView.visibility = if (contactAdapter.isEmpty) View.VISIBLE else View.GONE
+        binding.noConversationsView.visibility = if (friendRequests.isEmpty() && contacts.isEmpty()) {
+            View.VISIBLE
+        } else {
+            View.GONE
+        }
     }
 
     private fun updateListModeUi() {
@@ -23,6 +23,7 @@ import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
 import kotlinx.coroutines.withContext
 import com.dismal.btox.R
+import com.dismal.btox.settings.ContactPolicies
 import com.dismal.btox.settings.Settings
 import com.dismal.btox.settings.UiStyleMode
 import com.dismal.btox.tox.ToxStarter
@@ -56,6 +57,7 @@ class ContactListViewModel @Inject constructor(
     private val tox: Tox,
     private val toxStarter: ToxStarter,
     private val settings: Settings,
+    private val contactPolicies: ContactPolicies,
     userManager: UserManager,
 ) : ViewModel() {
     val publicKey by lazy { tox.publicKey }
@@ -126,10 +128,10 @@ class ContactListViewModel @Inject constructor(
 
     fun onShareText(what: String, to: Contact) = chatManager.sendMessage(PublicKey(to.publicKey), what)
 
-    fun isMuted(publicKey: PublicKey): Boolean = settings.isContactMuted(publicKey)
+    fun isMuted(publicKey: PublicKey): Boolean = contactPolicies.isMuted(publicKey)
 
     fun setMuted(publicKey: PublicKey, muted: Boolean) {
-        settings.setContactMuted(publicKey, muted)
+        contactPolicies.setMuted(publicKey, muted)
         if (muted) {
             notificationHelper.dismissNotifications(publicKey)
         }
@@ -139,10 +141,10 @@ class ContactListViewModel @Inject constructor(
         contactManager.setArchived(publicKey, archived)
     }
 
-    fun isBlocked(publicKey: PublicKey): Boolean = settings.isContactBlocked(publicKey)
+    fun isBlocked(publicKey: PublicKey): Boolean = contactPolicies.isBlocked(publicKey)
 
     fun setBlocked(publicKey: PublicKey, blocked: Boolean) {
-        settings.setContactBlocked(publicKey, blocked)
+        contactPolicies.setBlocked(publicKey, blocked)
         if (blocked) {
             setMuted(publicKey, true)
             notificationHelper.dismissNotifications(publicKey)
@@ -150,5 +152,5 @@ class ContactListViewModel @Inject constructor(
         }
     }
 
-    fun blockedKeys(): Set<String> = settings.getBlockedContactKeys()
+    fun blockedKeys(): Set<String> = contactPolicies.blocked()
 }
@@ -21,6 +21,7 @@ import android.widget.Spinner
 import android.widget.Toast
 import androidx.activity.OnBackPressedCallback
 import androidx.activity.result.contract.ActivityResultContracts
+import androidx.annotation.StringRes
 import androidx.core.view.ViewCompat
 import androidx.core.view.WindowInsetsCompat
 import androidx.core.view.WindowInsetsControllerCompat
@@ -47,6 +48,7 @@ import com.dismal.btox.settings.FtAutoAccept
 import com.dismal.btox.settings.UiStyleMode
 import com.dismal.btox.ui.colorpicker.ColorPickerDialog
 import com.dismal.btox.ui.BaseFragment
+import com.dismal.btox.ui.showRetentionPolicyDialog
 import com.dismal.btox.ui.contactlist.ARG_CONTACT_LIST_MODE
 import com.dismal.btox.ui.contactlist.CONTACT_LIST_MODE_BLOCKED
 import com.dismal.btox.vmFactory
@@ -109,6 +111,21 @@ class SettingsFragment : BaseFragment<FragmentSettingsBinding>(FragmentSettingsB
         }
     }
 
+    private val exportHistoryLauncher =
+        registerForActivityResult(ActivityResultContracts.CreateDocument("application/json")) { uri ->
+            if (uri != null) {
+                vm.exportAllHistoryTo(uri)
+            }
+        }
+
+    private val importHistoryLauncher = registerForActivityResult(ActivityResultContracts.OpenDocument()) { uri ->
+        if (uri != null) {
+            vm.importHistoryFrom(uri)
+        }
+    }
+
+    private var progressDialog: AlertDialog? = null
+
     override fun onAttach(context: Context) {
         super.onAttach(context)
         requireActivity().onBackPressedDispatcher.addCallback(this, applySettingsCallback)
@@ -464,9 +481,58 @@ class SettingsFragment : BaseFragment<FragmentSettingsBinding>(FragmentSettingsB
             exportToxSaveLauncher.launch("btox-profile.tox")
         }
 
+        exportHistoryRow.setOnClickListener {
+            exportHistoryLauncher.launch("btox-messages.json")
+        }
+
+        importHistoryRow.setOnClickListener {
+            importHistoryLauncher.launch(arrayOf("application/json"))
+        }
+
+        retentionRow.setOnClickListener {
+            showRetentionPolicyDialog(requireContext(), vm.getRetentionPolicy(), onSave = vm::setRetentionPolicy)
+        }
+
+        vm.historyExportProgress.observe(viewLifecycleOwner) { progress ->
+            updateProgressDialog(
+                R.string.export_all_history,
+                progress?.let { getString(R.string.export_history_progress, it.exported, it.total) },
+            ) { vm.cancelHistoryExport() }
+        }
+
+        vm.historyImportProgress.observe(viewLifecycleOwner) { progress ->
+            updateProgressDialog(
+                R.string.import_history,
+                progress?.let { getString(R.string.import_history_progress, it.imported) },
+            ) { vm.cancelHistoryImport() }
+        }
+
         version.text = getString(R.string.version_display, BuildConfig.VERSION_NAME, BuildConfig.VERSION_CODE)
     }
 
+    override fun onDestroyView() {
+        progressDialog?.dismiss()
+        progressDialog = null
+        super.onDestroyView()
+    }
+
+    private fun updateProgressDialog(@StringRes title: Int, text: String?, onCancel: () -> Unit) {
+        if (text == null) {
+            progressDialog?.dismiss()
+            progressDialog = null
+            return
+        }
+
+        progressDialog?.setMessage(text) ?: run {
+            progressDialog = AlertDialog.Builder(requireContext())
+                .setTitle(title)
+                .setMessage(text)
+                .setCancelable(false)
+                .setNegativeButton(android.R.string.cancel) { _, _ -> onCancel() }
+                .show()
+        }
+    }
+
     private fun showSetAppPasswordDialog(onSuccess: () -> Unit) {
         val password = EditText(requireContext()).apply {
             hint = getString(R.string.password)
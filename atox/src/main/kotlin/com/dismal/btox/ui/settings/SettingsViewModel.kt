@@ -7,6 +7,8 @@ package com.dismal.btox.ui.settings
 import android.content.ContentResolver
 import android.content.Context
 import android.net.Uri
+import android.provider.DocumentsContract
+import android.provider.OpenableColumns
 import android.widget.Toast
 import androidx.appcompat.app.AppCompatDelegate
 import androidx.lifecycle.LiveData
@@ -18,6 +20,7 @@ import java.io.FileNotFoundException
 import java.io.FileOutputStream
 import javax.inject.Inject
 import kotlin.math.max
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.delay
@@ -31,6 +34,11 @@ import com.dismal.btox.settings.UiStyleMode
 import com.dismal.btox.settings.Settings
 import com.dismal.btox.tox.ToxStarter
 import com.dismal.btox.widget.MessagingWidgetProvider
+import ltd.evilcorp.core.vo.RetentionPolicy
+import ltd.evilcorp.domain.feature.ExportManager
+import ltd.evilcorp.domain.feature.ExportProgress
+import ltd.evilcorp.domain.feature.ImportManager
+import ltd.evilcorp.domain.feature.ImportProgress
 import ltd.evilcorp.domain.tox.BootstrapNodeJsonParser
 import ltd.evilcorp.domain.tox.BootstrapNodeRegistry
 import ltd.evilcorp.domain.tox.ProxyType
@@ -57,6 +65,8 @@ class SettingsViewModel @Inject constructor(
     private val tox: Tox,
     private val nodeParser: BootstrapNodeJsonParser,
     private val nodeRegistry: BootstrapNodeRegistry,
+    private val exportManager: ExportManager,
+    private val importManager: ImportManager,
 ) : ViewModel() {
     private var restartNeeded = false
 
@@ -194,6 +204,89 @@ class SettingsViewModel @Inject constructor(
         }
     }
 
+    fun getRetentionPolicy(): RetentionPolicy = settings.retentionPolicy
+    fun setRetentionPolicy(policy: RetentionPolicy) {
+        settings.retentionPolicy = policy
+    }
+
+    private val _historyExportProgress = MutableLiveData<ExportProgress?>(null)
+    val historyExportProgress: LiveData<ExportProgress?> get() = _historyExportProgress
+    private var historyExportJob: Job? = null
+
+    fun exportAllHistoryTo(uri: Uri) {
+        historyExportJob?.cancel()
+        _historyExportProgress.value = ExportProgress(0, 0)
+        historyExportJob = viewModelScope.launch(Dispatchers.IO) {
+            try {
+                resolver.openOutputStream(uri).use { os ->
+                    exportManager.exportAll(os!!) { _historyExportProgress.postValue(it) }
+                }
+                withContext(Dispatchers.Main) {
+                    Toast.makeText(context, R.string.export_history_success, Toast.LENGTH_LONG).show()
+                }
+            } catch (e: CancellationException) {
+                runCatching { DocumentsContract.deleteDocument(resolver, uri) }
+                throw e
+            } catch (e: Exception) {
+                withContext(Dispatchers.Main) {
+                    Toast.makeText(
+                        context,
+                        context.getString(R.string.export_history_failure, e.message),
+                        Toast.LENGTH_LONG,
+                    ).show()
+                }
+            } finally {
+                _historyExportProgress.postValue(null)
+            }
+        }
+    }
+
+    fun cancelHistoryExport() {
+        historyExportJob?.cancel()
+    }
+
+    private val _historyImportProgress = MutableLiveData<ImportProgress?>(null)
+    val historyImportProgress: LiveData<ImportProgress?> get() = _historyImportProgress
+    private var historyImportJob: Job? = null
+
+    fun importHistoryFrom(uri: Uri) {
+        historyImportJob?.cancel()
+        _historyImportProgress.value = ImportProgress(0, 0, 0)
+        historyImportJob = viewModelScope.launch(Dispatchers.IO) {
+            try {
+                val size = resolver.query(uri, arrayOf(OpenableColumns.SIZE), null, null, null)?.use { cursor ->
+                    if (cursor.moveToFirst()) cursor.getLong(0) else -1L
+                } ?: -1L
+                val result = resolver.openInputStream(uri).use { ins ->
+                    importManager.import(ins!!, size) { _historyImportProgress.postValue(it) }
+                }
+                withContext(Dispatchers.Main) {
+                    Toast.makeText(
+                        context,
+                        context.getString(R.string.import_history_success, result.imported, result.duplicates),
+                        Toast.LENGTH_LONG,
+                    ).show()
+                }
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                withContext(Dispatchers.Main) {
+                    Toast.makeText(
+                        context,
+                        context.getString(R.string.import_history_failure, e.message),
+                        Toast.LENGTH_LONG,
+                    ).show()
+                }
+            } finally {
+                _historyImportProgress.postValue(null)
+            }
+        }
+    }
+
+    fun cancelHistoryImport() {
+        historyImportJob?.cancel()
+    }
+
     private var checkProxyJob: Job? = null
     fun checkProxy() {
         checkProxyJob?.cancel(null)
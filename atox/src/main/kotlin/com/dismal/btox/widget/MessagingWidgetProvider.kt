@@ -11,10 +11,10 @@ import android.content.ComponentName
 import android.content.Context
 import android.content.Intent
 import android.widget.RemoteViews
+import com.dismal.btox.App
 import com.dismal.btox.MainActivity
 import com.dismal.btox.R
 import com.dismal.btox.settings.AppLockMode
-import com.dismal.btox.settings.Settings
 
 class MessagingWidgetProvider : AppWidgetProvider() {
     override fun onUpdate(context: Context, appWidgetManager: AppWidgetManager, appWidgetIds: IntArray) {
@@ -31,7 +31,8 @@ class MessagingWidgetProvider : AppWidgetProvider() {
     }
 
     private fun buildViews(context: Context): RemoteViews {
-        val locked = Settings(context).appLockMode != AppLockMode.None
+        val settings = (context.applicationContext as App).component.settings()
+        val locked = settings.appLockMode != AppLockMode.None
         val layout = if (locked) R.layout.widget_messaging_locked else R.layout.widget_messaging
         return RemoteViews(context.packageName, layout).apply {
             val openIntent = Intent(context, MainActivity::class.java)
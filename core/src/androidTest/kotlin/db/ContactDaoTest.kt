@@ -12,6 +12,7 @@ import kotlin.test.Test
 import kotlin.test.assertEquals
 import kotlin.test.assertFalse
 import kotlin.test.assertNotEquals
+import kotlin.test.assertNull
 import kotlin.test.assertTrue
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.flow.first
@@ -76,6 +77,14 @@ class ContactDaoTest {
         assertTrue(dao.exists(second.publicKey))
     }
 
+    @Test
+    fun find() {
+        assertNull(dao.find(first.publicKey))
+        dao.save(first)
+        assertEquals(first, dao.find(first.publicKey))
+        assertNull(dao.find(second.publicKey))
+    }
+
     @Test
     fun overwrite_with_save() = runTest {
         dao.save(first)
@@ -0,0 +1,64 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.core.db
+
+import androidx.room.Room
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import ltd.evilcorp.core.vo.ContactPolicy
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class ContactPolicyDaoTest {
+    private val db =
+        Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getInstrumentation().targetContext, Database::class.java)
+            .allowMainThreadQueries()
+            .build()
+    private val dao = db.contactPolicyDao()
+
+    private val muted = ContactPolicy("1234", muted = true)
+    private val blocked = ContactPolicy("5678", blocked = true)
+
+    @BeforeTest
+    fun clearDb() {
+        db.clearAllTables()
+    }
+
+    @Test
+    fun save_and_load() {
+        assertEquals(listOf(), dao.loadAll())
+        dao.save(muted)
+        assertEquals(listOf(muted), dao.loadAll())
+    }
+
+    @Test
+    fun overwrite_with_save() {
+        dao.save(muted)
+        dao.save(muted.copy(blocked = true))
+        assertEquals(listOf(muted.copy(blocked = true)), dao.loadAll())
+    }
+
+    @Test
+    fun save_all() {
+        dao.save(muted)
+        dao.saveAll(listOf(muted.copy(muted = false, blocked = true), blocked))
+        assertEquals(
+            setOf(muted.copy(muted = false, blocked = true), blocked),
+            dao.loadAll().toSet(),
+        )
+    }
+
+    @Test
+    fun delete() {
+        dao.saveAll(listOf(muted, blocked))
+        dao.delete(muted.publicKey)
+        assertEquals(listOf(blocked), dao.loadAll())
+        dao.delete("not stored")
+        assertEquals(listOf(blocked), dao.loadAll())
+    }
+}
@@ -25,6 +25,7 @@ import org.junit.runner.RunWith
 fun Boolean.toInt() = if (this) 1 else 0
 
 private const val TEST_DB = "migration-test"
+private const val PK = "76518406F6A9F2217E8DC487CC783C25CC16A15EB36FF32E335A235342C48A39"
 
 @RunWith(AndroidJUnit4::class)
 class DatabaseMigrationTest {
@@ -252,6 +253,128 @@ class DatabaseMigrationTest {
         }
     }
 
+    @Test
+    fun migrate_5_to_6() {
+        helper.createDatabase(TEST_DB, 5).use { db ->
+            with(msg) {
+                db.execSQL(
+                    """INSERT INTO messages (id, conversation, message, sender, correlation_id, timestamp, type) VALUES (
+                        $id,
+                        '$publicKey',
+                        '$message',
+                        ${sender.ordinal},
+                        $correlationId,
+                        $timestamp,
+                        ${type.ordinal})
+                    """.trimIndent(),
+                )
+            }
+        }
+
+        helper.runMigrationsAndValidate(TEST_DB, 6, true, MIGRATION_5_6).use { db ->
+            db.query("SELECT id, conversation, message, timestamp FROM messages").let { cursor ->
+                with(msg) {
+                    cursor.moveToFirst()
+                    assertEquals(id, cursor.getLong(0))
+                    assertEquals(publicKey, cursor.getString(1))
+                    assertEquals(message, cursor.getString(2))
+                    assertEquals(timestamp, cursor.getLong(3))
+                }
+            }
+            db.query("PRAGMA index_list(messages)").let { cursor ->
+                assertEquals(1, cursor.count)
+                cursor.moveToFirst()
+                assertEquals("index_messages_conversation_timestamp", cursor.getString(1))
+            }
+        }
+    }
+
+    @Test
+    fun migrate_6_to_7() {
+        helper.createDatabase(TEST_DB, 6).close()
+
+        helper.runMigrationsAndValidate(TEST_DB, 7, true, MIGRATION_6_7).use { db ->
+            db.execSQL("INSERT INTO retention_policies VALUES ('$PK', 1, 2, 3)")
+            db.query("SELECT * FROM retention_policies").let { cursor ->
+                assertEquals(4, cursor.columnCount)
+                cursor.moveToFirst()
+                assertEquals(PK, cursor.getString(0))
+                assertEquals(1, cursor.getLong(1))
+                assertEquals(2, cursor.getLong(2))
+                assertEquals(3, cursor.getLong(3))
+            }
+        }
+    }
+
+    @Test
+    fun migrate_7_to_8() {
+        helper.createDatabase(TEST_DB, 7).close()
+
+        helper.runMigrationsAndValidate(TEST_DB, 8, true, MIGRATION_7_8).use { db ->
+            db.execSQL("INSERT INTO contact_policies VALUES ('$PK', 1, 0)")
+            db.query("SELECT * FROM contact_policies").let { cursor ->
+                assertEquals(3, cursor.columnCount)
+                cursor.moveToFirst()
+                assertEquals(PK, cursor.getString(0))
+                assertEquals(1, cursor.getInt(1))
+                assertEquals(0, cursor.getInt(2))
+            }
+        }
+    }
+
+    @Test
+    fun migrate_8_to_9() {
+        helper.createDatabase(TEST_DB, 8).use { db ->
+            with(ft) {
+                db.execSQL(
+                    """INSERT INTO file_transfers
+                        (public_key, file_number, file_kind, file_size, file_name, outgoing, progress, destination)
+                        VALUES ('$publicKey', $fileNumber, $fileKind, $fileSize, '$fileName', ${outgoing.toInt()},
+                        $progress, '$destination')
+                    """.trimIndent(),
+                )
+            }
+        }
+
+        helper.runMigrationsAndValidate(TEST_DB, 9, true, MIGRATION_8_9).use { db ->
+            db.query(
+                "SELECT file_name, preview, image_width, image_height, placeholder_color FROM file_transfers",
+            ).let { cursor ->
+                cursor.moveToFirst()
+                assertEquals(ft.fileName, cursor.getString(0))
+                assertEquals("", cursor.getString(1))
+                assertEquals(0, cursor.getInt(2))
+                assertEquals(0, cursor.getInt(3))
+                assertEquals(0, cursor.getInt(4))
+            }
+        }
+    }
+
+    @Test
+    fun migrate_9_to_10() {
+        helper.createDatabase(TEST_DB, 9).use { db ->
+            with(ft) {
+                db.execSQL(
+                    """INSERT INTO file_transfers
+                        (public_key, file_number, file_kind, file_size, file_name, outgoing, progress, destination,
+                        preview, image_width, image_height, placeholder_color)
+                        VALUES ('$publicKey', $fileNumber, $fileKind, $fileSize, '$fileName', ${outgoing.toInt()},
+                        $progress, '$destination', '', 0, 0, 0)
+                    """.trimIndent(),
+                )
+            }
+        }
+
+        helper.runMigrationsAndValidate(TEST_DB, 10, true, MIGRATION_9_10).use { db ->
+            db.query("SELECT file_name, audio_duration_ms, audio_waveform FROM file_transfers").let { cursor ->
+                cursor.moveToFirst()
+                assertEquals(ft.fileName, cursor.getString(0))
+                assertEquals(0L, cursor.getLong(1))
+                assertEquals("", cursor.getString(2))
+            }
+        }
+    }
+
     @Test
     fun run_all_migrations() {
         helper.createDatabase(TEST_DB, 1).use { db ->
@@ -336,7 +459,7 @@ class DatabaseMigrationTest {
             }
         }
 
-        helper.runMigrationsAndValidate(TEST_DB, 5, true, *ALL_MIGRATIONS).use { db ->
+        helper.runMigrationsAndValidate(TEST_DB, 10, true, *ALL_MIGRATIONS).use { db ->
             db.query("SELECT * FROM contacts").let { cursor ->
                 assertEquals(cursor.columnCount, 10)
                 with(contact) {
@@ -0,0 +1,72 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.core.db
+
+import androidx.room.Room
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+import ltd.evilcorp.core.vo.FileTransfer
+import ltd.evilcorp.core.vo.Message
+import ltd.evilcorp.core.vo.MessageType
+import ltd.evilcorp.core.vo.Sender
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class MessageDaoTest {
+    private val db =
+        Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getInstrumentation().targetContext, Database::class.java)
+            .allowMainThreadQueries()
+            .build()
+    private val dao = db.messageDao()
+
+    private fun message(conversation: String, text: String) =
+        Message(conversation, text, Sender.Received, MessageType.Normal, 0, 1000)
+
+    @BeforeTest
+    fun clearDb() {
+        db.clearAllTables()
+    }
+
+    @Test
+    fun load_page() {
+        repeat(5) { dao.save(message("a", "$it")) }
+        repeat(3) { dao.save(message("b", "$it")) }
+
+        val first = dao.loadPage("a", 0, 2)
+        assertEquals(listOf("0", "1"), first.map { it.message })
+        val second = dao.loadPage("a", first.last().id, 2)
+        assertEquals(listOf("2", "3"), second.map { it.message })
+        val third = dao.loadPage("a", second.last().id, 2)
+        assertEquals(listOf("4"), third.map { it.message })
+        assertTrue(dao.loadPage("a", third.last().id, 2).isEmpty())
+    }
+
+    @Test
+    fun count_and_conversations() {
+        repeat(5) { dao.save(message("a", "$it")) }
+        repeat(3) { dao.save(message("b", "$it")) }
+
+        assertEquals(5, dao.count("a"))
+        assertEquals(3, dao.count("b"))
+        assertEquals(8, dao.count())
+        assertEquals(setOf("a", "b"), dao.loadConversations().toSet())
+    }
+
+    @Test
+    fun delete_messages_with_their_file_transfers() {
+        val fts = db.fileTransferDao()
+        val ft = fts.save(FileTransfer("a", 0, 0, 100, "file", false)).toInt()
+        val kept = fts.save(FileTransfer("a", 1, 0, 100, "other", false)).toInt()
+        val ids = listOf(dao.save(message("a", "0")), dao.save(message("a", "1")), dao.save(message("a", "2")))
+
+        dao.deleteMessages(ids.take(2), listOf(ft))
+        assertEquals(listOf("2"), dao.load("a").map { it.message })
+        assertEquals(listOf(kept), fts.loadAll(listOf(ft, kept)).map { it.id })
+    }
+}
@@ -0,0 +1,59 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.core.repository
+
+import androidx.room.Room
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import ltd.evilcorp.core.db.Database
+import ltd.evilcorp.core.vo.ContactPolicy
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class ContactPolicyRepositoryTest {
+    private val db =
+        Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getInstrumentation().targetContext, Database::class.java)
+            .allowMainThreadQueries()
+            .build()
+    private val repository = ContactPolicyRepository(db.contactPolicyDao())
+
+    @AfterTest
+    fun closeDb() {
+        db.close()
+    }
+
+    @Test
+    fun legacy_policies_are_moved_into_the_table() {
+        assertEquals(3, repository.migrateLegacy(setOf("a", "b"), setOf("b", "c")))
+        assertEquals(
+            setOf(
+                ContactPolicy("a", muted = true),
+                ContactPolicy("b", muted = true, blocked = true),
+                ContactPolicy("c", blocked = true),
+            ),
+            repository.getAll().toSet(),
+        )
+    }
+
+    @Test
+    fun legacy_policies_override_what_is_stored() {
+        repository.set(ContactPolicy("a", blocked = true))
+        repository.set(ContactPolicy("b", muted = true))
+        assertEquals(1, repository.migrateLegacy(setOf("a"), setOf()))
+        assertEquals(
+            setOf(ContactPolicy("a", muted = true), ContactPolicy("b", muted = true)),
+            repository.getAll().toSet(),
+        )
+    }
+
+    @Test
+    fun nothing_to_migrate() {
+        assertEquals(0, repository.migrateLegacy(setOf(), setOf()))
+        assertEquals(listOf(), repository.getAll())
+    }
+}
@@ -0,0 +1,90 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.core.repository
+
+import androidx.room.Room
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.async
+import kotlinx.coroutines.flow.take
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import ltd.evilcorp.core.db.Database
+import ltd.evilcorp.core.vo.Message
+import ltd.evilcorp.core.vo.MessageType
+import ltd.evilcorp.core.vo.Sender
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class MessageRepositoryTest {
+    private val db =
+        Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getInstrumentation().targetContext, Database::class.java)
+            .allowMainThreadQueries()
+            .build()
+    private val repository = MessageRepository(db.messageDao(), ContactRepository(db.contactDao()))
+
+    private fun message(conversation: String, text: String) =
+        Message(conversation, text, Sender.Sent, MessageType.Normal, 1)
+
+    @AfterTest
+    fun closeDb() {
+        db.close()
+    }
+
+    @Test
+    fun changes_are_scoped_to_the_conversation() = runBlocking {
+        val changes = async(start = CoroutineStart.UNDISPATCHED) { repository.changes("a").take(4).toList() }
+
+        repository.add(message("b", "not for a"))
+        val first = message("a", "hello")
+        repository.add(first)
+        repository.setReceipt("b", 1, 1000)
+        repository.setReceipt("a", 1, 1000)
+        repository.deleteMessage("b", 1)
+        repository.deleteMessage("a", first.id)
+
+        assertEquals(
+            listOf(
+                MessageChange.Invalidated("a"),
+                MessageChange.Inserted("a", listOf(first)),
+                MessageChange.Receipt("a", 1, 1000),
+                MessageChange.Deleted("a", listOf(first.id)),
+            ),
+            changes.await(),
+        )
+    }
+
+    @Test
+    fun a_collector_that_falls_behind_is_told_to_reload() = runBlocking {
+        val changes = async(start = CoroutineStart.UNDISPATCHED) { repository.changes("a").take(3).toList() }
+
+        // Nothing is collected until this coroutine suspends, so most of these overflow the buffer.
+        repeat(1000) { repository.add(message("b", "$it")) }
+        val last = message("a", "hello")
+        repository.add(last)
+
+        assertEquals(
+            listOf(
+                MessageChange.Invalidated("a"),
+                MessageChange.Invalidated("a"),
+                MessageChange.Inserted("a", listOf(last)),
+            ),
+            changes.await(),
+        )
+    }
+
+    @Test
+    fun inserted_messages_have_ids() {
+        val messages = listOf(message("a", "1"), message("a", "2"))
+        repository.addAll(messages)
+        assertTrue(messages.all { it.id != 0L })
+        assertEquals(messages.map { it.id }, repository.getPage("a", 0, 10).map { it.id })
+    }
+}
@@ -32,6 +32,9 @@ interface ContactDao {
     @Query("SELECT * FROM contacts WHERE public_key = :publicKey")
     fun load(publicKey: String): Flow<Contact>
 
+    @Query("SELECT * FROM contacts WHERE public_key = :publicKey")
+    fun find(publicKey: String): Contact?
+
     @Query("SELECT * FROM contacts")
     fun loadAll(): Flow<List<Contact>>
 
@@ -0,0 +1,26 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.core.db
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import ltd.evilcorp.core.vo.ContactPolicy
+
+@Dao
+interface ContactPolicyDao {
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    fun save(policy: ContactPolicy)
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    fun saveAll(policies: List<ContactPolicy>)
+
+    @Query("DELETE FROM contact_policies WHERE public_key == :publicKey")
+    fun delete(publicKey: String)
+
+    @Query("SELECT * FROM contact_policies")
+    fun loadAll(): List<ContactPolicy>
+}
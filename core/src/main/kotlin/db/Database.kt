@@ -8,20 +8,32 @@ import androidx.room.Database
 import androidx.room.RoomDatabase
 import androidx.room.TypeConverters
 import ltd.evilcorp.core.vo.Contact
+import ltd.evilcorp.core.vo.ContactPolicy
 import ltd.evilcorp.core.vo.FileTransfer
 import ltd.evilcorp.core.vo.FriendRequest
 import ltd.evilcorp.core.vo.Message
+import ltd.evilcorp.core.vo.RetentionPolicy
 import ltd.evilcorp.core.vo.User
 
 @Database(
-    entities = [Contact::class, FileTransfer::class, FriendRequest::class, Message::class, User::class],
-    version = 5,
+    entities = [
+        Contact::class,
+        ContactPolicy::class,
+        FileTransfer::class,
+        FriendRequest::class,
+        Message::class,
+        RetentionPolicy::class,
+        User::class,
+    ],
+    version = 10,
 )
 @TypeConverters(Converters::class)
 abstract class Database : RoomDatabase() {
     abstract fun contactDao(): ContactDao
+    abstract fun contactPolicyDao(): ContactPolicyDao
     abstract fun fileTransferDao(): FileTransferDao
     abstract fun friendRequestDao(): FriendRequestDao
     abstract fun messageDao(): MessageDao
+    abstract fun retentionPolicyDao(): RetentionPolicyDao
     abstract fun userDao(): UserDao
 }
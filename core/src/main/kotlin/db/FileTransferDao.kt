@@ -20,6 +20,18 @@ interface FileTransferDao {
     @Query("DELETE FROM file_transfers WHERE id == :id")
     fun delete(id: Int)
 
+    @Query("DELETE FROM file_transfers WHERE id IN (:ids)")
+    fun delete(ids: List<Int>)
+
+    @Query("SELECT * FROM file_transfers WHERE id IN (:ids)")
+    fun loadAll(ids: List<Int>): List<FileTransfer>
+
+    @Query("SELECT COALESCE(SUM(file_size), 0) FROM file_transfers WHERE public_key == :publicKey AND outgoing == 0")
+    fun incomingSize(publicKey: String): Long
+
+    @Query("SELECT destination FROM file_transfers WHERE outgoing == 0")
+    fun loadIncomingDestinations(): List<String>
+
     @Query("SELECT * FROM file_transfers WHERE public_key == :publicKey")
     fun load(publicKey: String): Flow<List<FileTransfer>>
 
@@ -32,6 +44,16 @@ interface FileTransferDao {
     @Query("UPDATE file_transfers SET destination = :destination WHERE id == :id")
     fun setDestination(id: Int, destination: String)
 
+    @Query(
+        """UPDATE file_transfers
+        SET preview = :preview, image_width = :width, image_height = :height, placeholder_color = :color
+        WHERE id == :id""",
+    )
+    fun setPreview(id: Int, preview: String, width: Int, height: Int, color: Int)
+
+    @Query("UPDATE file_transfers SET audio_duration_ms = :durationMs, audio_waveform = :waveform WHERE id == :id")
+    fun setAudioMetadata(id: Int, durationMs: Long, waveform: String)
+
     @Query("UPDATE file_transfers SET progress = :progress WHERE progress < file_size")
     fun resetTransientData(progress: Long = FT_REJECTED)
 }
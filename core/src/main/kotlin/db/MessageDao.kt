@@ -8,16 +8,43 @@ import androidx.room.Dao
 import androidx.room.Insert
 import androidx.room.OnConflictStrategy
 import androidx.room.Query
-import kotlinx.coroutines.flow.Flow
+import androidx.room.Transaction
 import ltd.evilcorp.core.vo.Message
 
 @Dao
 interface MessageDao {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
-    fun save(message: Message)
+    fun save(message: Message): Long
 
-    @Query("SELECT * FROM messages WHERE conversation == :conversation")
-    fun load(conversation: String): Flow<List<Message>>
+    @Insert
+    fun saveAll(messages: List<Message>): List<Long>
+
+    @Query("SELECT * FROM messages WHERE conversation == :conversation ORDER BY id")
+    fun load(conversation: String): List<Message>
+
+    @Query("SELECT * FROM messages WHERE conversation == :conversation AND id > :afterId ORDER BY id LIMIT :limit")
+    fun loadPage(conversation: String, afterId: Long, limit: Int): List<Message>
+
+    @Query("SELECT * FROM messages WHERE conversation == :conversation AND timestamp BETWEEN :from AND :to")
+    fun loadBetween(conversation: String, from: Long, to: Long): List<Message>
+
+    @Suppress("ktlint:standard:max-line-length")
+    @Query(
+        "SELECT * FROM messages WHERE conversation == :conversation AND timestamp > 0 AND timestamp < :before ORDER BY timestamp LIMIT :limit",
+    )
+    fun loadOldest(conversation: String, before: Long, limit: Int): List<Message>
+
+    @Query("SELECT COALESCE(SUM(LENGTH(CAST(message AS BLOB))), 0) FROM messages WHERE conversation == :conversation")
+    fun byteSize(conversation: String): Long
+
+    @Query("SELECT DISTINCT conversation FROM messages")
+    fun loadConversations(): List<String>
+
+    @Query("SELECT COUNT(*) FROM messages WHERE conversation == :conversation")
+    fun count(conversation: String): Int
+
+    @Query("SELECT COUNT(*) FROM messages")
+    fun count(): Int
 
     @Query("SELECT * FROM messages WHERE conversation == :conversation AND timestamp == 0")
     fun loadPending(conversation: String): List<Message>
@@ -36,4 +63,16 @@ interface MessageDao {
 
     @Query("DELETE FROM messages WHERE id = :id")
     fun deleteMessage(id: Long)
+
+    @Query("DELETE FROM messages WHERE id IN (:ids)")
+    fun deleteMessages(ids: List<Long>)
+
+    @Query("DELETE FROM file_transfers WHERE id IN (:ids)")
+    fun deleteFileTransfers(ids: List<Int>)
+
+    @Transaction
+    fun deleteMessages(ids: List<Long>, fileTransferIds: List<Int>) {
+        if (fileTransferIds.isNotEmpty()) deleteFileTransfers(fileTransferIds)
+        deleteMessages(ids)
+    }
 }
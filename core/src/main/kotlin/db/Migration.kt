@@ -44,4 +44,59 @@ val MIGRATION_4_5 = object : Migration(4, 5) {
     )
 }
 
-val ALL_MIGRATIONS = arrayOf(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5)
+val MIGRATION_5_6 = object : Migration(5, 6) {
+    override fun migrate(db: SupportSQLiteDatabase) = db.execSQL(
+        "CREATE INDEX IF NOT EXISTS index_messages_conversation_timestamp ON messages (conversation, timestamp)",
+    )
+}
+
+val MIGRATION_6_7 = object : Migration(6, 7) {
+    override fun migrate(db: SupportSQLiteDatabase) = db.execSQL(
+        """CREATE TABLE IF NOT EXISTS 'retention_policies' (
+            'public_key' TEXT NOT NULL,
+            'max_age_ms' INTEGER NOT NULL,
+            'max_count' INTEGER NOT NULL,
+            'max_bytes' INTEGER NOT NULL,
+            PRIMARY KEY('public_key'))
+        """.trimIndent(),
+    )
+}
+
+val MIGRATION_7_8 = object : Migration(7, 8) {
+    override fun migrate(db: SupportSQLiteDatabase) = db.execSQL(
+        """CREATE TABLE IF NOT EXISTS 'contact_policies' (
+            'public_key' TEXT NOT NULL,
+            'muted' INTEGER NOT NULL,
+            'blocked' INTEGER NOT NULL,
+            PRIMARY KEY('public_key'))
+        """.trimIndent(),
+    )
+}
+
+val MIGRATION_8_9 = object : Migration(8, 9) {
+    override fun migrate(db: SupportSQLiteDatabase) {
+        db.execSQL("ALTER TABLE file_transfers ADD COLUMN preview TEXT NOT NULL DEFAULT ''")
+        db.execSQL("ALTER TABLE file_transfers ADD COLUMN image_width INTEGER NOT NULL DEFAULT 0")
+        db.execSQL("ALTER TABLE file_transfers ADD COLUMN image_height INTEGER NOT NULL DEFAULT 0")
+        db.execSQL("ALTER TABLE file_transfers ADD COLUMN placeholder_color INTEGER NOT NULL DEFAULT 0")
+    }
+}
+
+val MIGRATION_9_10 = object : Migration(9, 10) {
+    override fun migrate(db: SupportSQLiteDatabase) {
+        db.execSQL("ALTER TABLE file_transfers ADD COLUMN audio_duration_ms INTEGER NOT NULL DEFAULT 0")
+        db.execSQL("ALTER TABLE file_transfers ADD COLUMN audio_waveform TEXT NOT NULL DEFAULT ''")
+    }
+}
+
+val ALL_MIGRATIONS = arrayOf(
+    MIGRATION_1_2,
+    MIGRATION_2_3,
+    MIGRATION_3_4,
+    MIGRATION_4_5,
+    MIGRATION_5_6,
+    MIGRATION_6_7,
+    MIGRATION_7_8,
+    MIGRATION_8_9,
+    MIGRATION_9_10,
+)
@@ -0,0 +1,27 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.core.db
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import kotlinx.coroutines.flow.Flow
+import ltd.evilcorp.core.vo.RetentionPolicy
+
+@Dao
+interface RetentionPolicyDao {
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    fun save(policy: RetentionPolicy)
+
+    @Query("DELETE FROM retention_policies WHERE public_key == :publicKey")
+    fun delete(publicKey: String)
+
+    @Query("SELECT * FROM retention_policies WHERE public_key == :publicKey")
+    fun load(publicKey: String): Flow<RetentionPolicy?>
+
+    @Query("SELECT * FROM retention_policies")
+    fun loadAll(): List<RetentionPolicy>
+}
@@ -0,0 +1,34 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.core.repository
+
+import javax.inject.Inject
+import javax.inject.Singleton
+import ltd.evilcorp.core.db.ContactPolicyDao
+import ltd.evilcorp.core.vo.ContactPolicy
+
+@Singleton
+class ContactPolicyRepository @Inject internal constructor(private val dao: ContactPolicyDao) {
+    fun set(policy: ContactPolicy) = dao.save(policy)
+
+    fun setAll(policies: List<ContactPolicy>) = dao.saveAll(policies)
+
+    fun delete(publicKey: String) = dao.delete(publicKey)
+
+    fun getAll(): List<ContactPolicy> = dao.loadAll()
+
+    /**
+     * Stores the [muted] and [blocked] contacts from before policies were kept in the database, overriding whatever's
+     * already stored for them. Returns how many contacts that was.
+     */
+    fun migrateLegacy(muted: Set<String>, blocked: Set<String>): Int {
+        val existing = dao.loadAll().associateBy { it.publicKey }
+        val migrated = (muted + blocked).map { key ->
+            (existing[key] ?: ContactPolicy(key)).copy(muted = key in muted, blocked = key in blocked)
+        }
+        dao.saveAll(migrated)
+        return migrated.size
+    }
+}
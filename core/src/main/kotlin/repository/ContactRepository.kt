@@ -19,6 +19,7 @@ class ContactRepository @Inject constructor(private val dao: ContactDao) {
     fun update(contact: Contact) = dao.update(contact)
     fun delete(contact: Contact) = dao.delete(contact)
     fun get(publicKey: String): Flow<Contact> = dao.load(publicKey)
+    fun find(publicKey: String): Contact? = dao.find(publicKey)
     fun getAll(): Flow<List<Contact>> = dao.loadAll()
     fun resetTransientData() = dao.resetTransientData()
 
@@ -16,6 +16,14 @@ class FileTransferRepository @Inject internal constructor(private val dao: FileT
 
     fun delete(id: Int) = dao.delete(id)
 
+    fun delete(ids: List<Int>) = dao.delete(ids)
+
+    fun getAll(ids: List<Int>): List<FileTransfer> = dao.loadAll(ids)
+
+    fun incomingSize(publicKey: String): Long = dao.incomingSize(publicKey)
+
+    fun getIncomingDestinations(): List<String> = dao.loadIncomingDestinations()
+
     fun get(publicKey: String): Flow<List<FileTransfer>> = dao.load(publicKey)
 
     fun get(id: Int): Flow<FileTransfer> = dao.load(id)
@@ -24,5 +32,10 @@ class FileTransferRepository @Inject internal constructor(private val dao: FileT
 
     fun updateProgress(id: Int, progress: Long) = dao.updateProgress(id, progress)
 
+    fun setPreview(id: Int, preview: String, width: Int, height: Int, color: Int) =
+        dao.setPreview(id, preview, width, height, color)
+
+    fun setAudioMetadata(id: Int, durationMs: Long, waveform: String) = dao.setAudioMetadata(id, durationMs, waveform)
+
     fun resetTransientData() = dao.resetTransientData()
 }
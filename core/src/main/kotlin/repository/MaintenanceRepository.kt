@@ -0,0 +1,41 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.core.repository
+
+import android.util.Log
+import javax.inject.Inject
+import javax.inject.Singleton
+import ltd.evilcorp.core.db.Database
+
+private const val TAG = "MaintenanceRepository"
+private const val AUTO_VACUUM_INCREMENTAL = 2L
+
+@Singleton
+class MaintenanceRepository @Inject internal constructor(private val db: Database) {
+    private fun pragma(query: String): Long = db.openHelper.writableDatabase.query(query).use { cursor ->
+        if (cursor.moveToFirst()) cursor.getLong(0) else 0L
+    }
+
+    /**
+     * Returns free pages to the file system, at most [maxPages] at a time.
+     *
+     * Databases created before auto_vacuum was turned on need one full VACUUM to switch modes, that's done the first
+     * time this is called and may take a while on a big database.
+     */
+    fun incrementalVacuum(maxPages: Int) {
+        val sqlite = db.openHelper.writableDatabase
+        if (pragma("PRAGMA auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            Log.i(TAG, "Switching database to incremental auto_vacuum")
+            sqlite.execSQL("PRAGMA auto_vacuum = INCREMENTAL")
+            sqlite.execSQL("VACUUM")
+            return
+        }
+
+        val free = pragma("PRAGMA freelist_count")
+        if (free == 0L) return
+        Log.i(TAG, "Vacuuming up to $maxPages of $free free pages")
+        sqlite.query("PRAGMA incremental_vacuum($maxPages)").use { cursor -> while (cursor.moveToNext()) continue }
+    }
+}
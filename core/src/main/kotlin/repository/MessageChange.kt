@@ -0,0 +1,31 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.core.repository
+
+import ltd.evilcorp.core.vo.Message
+
+/**
+ * A write to a single conversation's messages, published by [MessageRepository] after it has hit the database.
+ *
+ * Observers of one conversation only ever see changes to that conversation, unlike Room's table-wide invalidation.
+ */
+sealed interface MessageChange {
+    val conversation: String
+
+    /** New rows, with their ids filled in. */
+    data class Inserted(override val conversation: String, val messages: List<Message>) : MessageChange
+
+    /** Pending messages with [correlationId] were delivered at [timestamp]. */
+    data class Receipt(override val conversation: String, val correlationId: Int, val timestamp: Long) : MessageChange
+
+    /** A queued message was sent and is now waiting for the receipt for [correlationId]. */
+    data class CorrelationIdChanged(override val conversation: String, val id: Long, val correlationId: Int) :
+        MessageChange
+
+    data class Deleted(override val conversation: String, val ids: List<Long>) : MessageChange
+
+    /** Anything else, observers should re-read the conversation. */
+    data class Invalidated(override val conversation: String) : MessageChange
+}
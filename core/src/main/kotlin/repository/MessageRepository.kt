@@ -7,30 +7,115 @@ package ltd.evilcorp.core.repository
 import java.util.Date
 import javax.inject.Inject
 import javax.inject.Singleton
+import kotlinx.coroutines.channels.BufferOverflow
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.onSubscription
 import ltd.evilcorp.core.db.MessageDao
 import ltd.evilcorp.core.vo.Message
 
+// How far a collector can fall behind, e.g. during an import or a prune, before it's told to re-read instead.
+private const val CHANGE_BUFFER = 256
+
+private class SequencedChange(val sequence: Long, val change: MessageChange)
+
+/**
+ * All writes to messages go through here so that observers can be told which conversation changed, see
+ * [MessageChange]. Each conversation's observers re-read only when their own conversation is written to.
+ */
 @Singleton
-class MessageRepository @Inject internal constructor(
+class MessageRepository @Inject constructor(
     private val messageDao: MessageDao,
     private val contactRepository: ContactRepository,
 ) {
+    // Writers never block, a collector that falls too far behind loses the oldest changes. Every change is numbered so
+    // that the collector notices the gap and re-reads, see [changes].
+    private val _changes = MutableSharedFlow<SequencedChange>(
+        extraBufferCapacity = CHANGE_BUFFER,
+        onBufferOverflow = BufferOverflow.DROP_OLDEST,
+    )
+    private var sequence = 0L
+
+    /**
+     * Changes to [conversation], starting with an [MessageChange.Invalidated] once the subscription is active. If the
+     * collector was too slow to keep up and changes were dropped, it gets another [MessageChange.Invalidated] instead.
+     */
+    fun changes(conversation: String): Flow<MessageChange> = flow {
+        var seen = 0L
+        _changes
+            .onSubscription {
+                seen = synchronized(_changes) { sequence }
+                emit(SequencedChange(seen, MessageChange.Invalidated(conversation)))
+            }
+            .collect {
+                if (it.sequence > seen + 1) {
+                    emit(MessageChange.Invalidated(conversation))
+                } else if (it.change.conversation == conversation) {
+                    emit(it.change)
+                }
+                if (it.sequence > seen) seen = it.sequence
+            }
+    }
+
+    private fun publish(change: MessageChange) = synchronized(_changes) {
+        _changes.tryEmit(SequencedChange(++sequence, change))
+    }
+
     fun add(message: Message) {
-        messageDao.save(message)
+        message.id = messageDao.save(message)
         contactRepository.setLastMessage(message.publicKey, Date().time)
+        publish(MessageChange.Inserted(message.publicKey, listOf(message)))
+    }
+
+    fun addAll(messages: List<Message>) {
+        messageDao.saveAll(messages).forEachIndexed { i, id -> messages[i].id = id }
+        for ((conversation, inserted) in messages.groupBy { it.publicKey }) {
+            publish(MessageChange.Inserted(conversation, inserted))
+        }
     }
 
-    fun get(conversation: String): Flow<List<Message>> = messageDao.load(conversation)
+    fun getAll(conversation: String): List<Message> = messageDao.load(conversation)
+
+    fun getPage(conversation: String, afterId: Long, limit: Int): List<Message> =
+        messageDao.loadPage(conversation, afterId, limit)
+
+    fun getBetween(conversation: String, from: Long, to: Long): List<Message> =
+        messageDao.loadBetween(conversation, from, to)
+
+    fun getOldest(conversation: String, before: Long, limit: Int): List<Message> =
+        messageDao.loadOldest(conversation, before, limit)
+
+    fun byteSize(conversation: String): Long = messageDao.byteSize(conversation)
+
+    fun getConversations(): List<String> = messageDao.loadConversations()
+
+    fun count(conversation: String): Int = messageDao.count(conversation)
+
+    fun count(): Int = messageDao.count()
 
     fun getPending(conversation: String): List<Message> = messageDao.loadPending(conversation)
 
-    fun setCorrelationId(id: Long, correlationId: Int) = messageDao.setCorrelationId(id, correlationId)
+    fun setCorrelationId(conversation: String, id: Long, correlationId: Int) {
+        messageDao.setCorrelationId(id, correlationId)
+        publish(MessageChange.CorrelationIdChanged(conversation, id, correlationId))
+    }
 
-    fun delete(conversation: String) = messageDao.delete(conversation)
+    fun delete(conversation: String) {
+        messageDao.delete(conversation)
+        publish(MessageChange.Invalidated(conversation))
+    }
 
-    fun deleteMessage(id: Long) = messageDao.deleteMessage(id)
+    fun deleteMessage(conversation: String, id: Long) = deleteMessages(conversation, listOf(id))
 
-    fun setReceipt(conversation: String, correlationId: Int, timestamp: Long) =
+    /** Deletes the messages [ids] along with the file transfers [fileTransferIds] they're for, all or nothing. */
+    fun deleteMessages(conversation: String, ids: List<Long>, fileTransferIds: List<Int> = listOf()) {
+        messageDao.deleteMessages(ids, fileTransferIds)
+        publish(MessageChange.Deleted(conversation, ids))
+    }
+
+    fun setReceipt(conversation: String, correlationId: Int, timestamp: Long) {
         messageDao.setReceipt(conversation, correlationId, timestamp)
+        publish(MessageChange.Receipt(conversation, correlationId, timestamp))
+    }
 }
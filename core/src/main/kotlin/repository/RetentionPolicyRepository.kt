@@ -0,0 +1,22 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.core.repository
+
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlinx.coroutines.flow.Flow
+import ltd.evilcorp.core.db.RetentionPolicyDao
+import ltd.evilcorp.core.vo.RetentionPolicy
+
+@Singleton
+class RetentionPolicyRepository @Inject internal constructor(private val dao: RetentionPolicyDao) {
+    fun set(policy: RetentionPolicy) = dao.save(policy)
+
+    fun delete(publicKey: String) = dao.delete(publicKey)
+
+    fun get(publicKey: String): Flow<RetentionPolicy?> = dao.load(publicKey)
+
+    fun getAll(): List<RetentionPolicy> = dao.loadAll()
+}
@@ -0,0 +1,23 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.core.vo
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/** How the app treats a contact. Contacts without a row are neither muted nor blocked. */
+@Entity(tableName = "contact_policies")
+data class ContactPolicy(
+    @PrimaryKey
+    @ColumnInfo(name = "public_key")
+    val publicKey: String,
+
+    @ColumnInfo(name = "muted")
+    val muted: Boolean = false,
+
+    @ColumnInfo(name = "blocked")
+    val blocked: Boolean = false,
+)
@@ -43,6 +43,28 @@ data class FileTransfer(
 
     @ColumnInfo(name = "destination")
     var destination: String = "",
+
+    // A small copy of image transfers for the chat to show, so it never has to decode the original.
+    @ColumnInfo(name = "preview")
+    val preview: String = "",
+
+    @ColumnInfo(name = "image_width")
+    val imageWidth: Int = 0,
+
+    @ColumnInfo(name = "image_height")
+    val imageHeight: Int = 0,
+
+    // Shown in place of the preview until it's loaded.
+    @ColumnInfo(name = "placeholder_color")
+    val placeholderColor: Int = 0,
+
+    // Known up front for audio transfers, so the chat can show how long they are without opening them.
+    @ColumnInfo(name = "audio_duration_ms")
+    val audioDurationMs: Long = 0,
+
+    // The peaks of the audio as hex, two digits each.
+    @ColumnInfo(name = "audio_waveform")
+    val audioWaveform: String = "",
 ) {
     @PrimaryKey(autoGenerate = true)
     @ColumnInfo(name = "id")
@@ -0,0 +1,31 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.core.vo
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+const val RETENTION_UNLIMITED = 0L
+
+/** How much history to keep for a conversation. A limit of [RETENTION_UNLIMITED] disables that limit. */
+@Entity(tableName = "retention_policies")
+data class RetentionPolicy(
+    @PrimaryKey
+    @ColumnInfo(name = "public_key")
+    val publicKey: String,
+
+    @ColumnInfo(name = "max_age_ms")
+    val maxAgeMs: Long = RETENTION_UNLIMITED,
+
+    @ColumnInfo(name = "max_count")
+    val maxCount: Long = RETENTION_UNLIMITED,
+
+    @ColumnInfo(name = "max_bytes")
+    val maxBytes: Long = RETENTION_UNLIMITED,
+)
+
+fun RetentionPolicy.isUnlimited() =
+    maxAgeMs == RETENTION_UNLIMITED && maxCount == RETENTION_UNLIMITED && maxBytes == RETENTION_UNLIMITED
@@ -0,0 +1,149 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.feature
+
+import android.os.SystemClock
+import android.util.Log
+import androidx.room.Room
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import java.io.InputStream
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+import kotlinx.coroutines.runBlocking
+import ltd.evilcorp.core.db.Database
+import ltd.evilcorp.core.repository.ContactRepository
+import ltd.evilcorp.core.repository.MessageRepository
+import org.junit.runner.RunWith
+
+private const val TAG = "HistoryImportBenchmark"
+private const val MESSAGE_COUNT = 2_000_000
+private const val CONVERSATIONS = 20
+private const val MAX_HEAP_GROWTH_BYTES = 32L * 1024 * 1024
+
+/** Produces a version 1 archive on the fly so the test itself never holds the whole document. */
+private class GeneratedArchive(private val conversations: Int, private val perConversation: Int) : InputStream() {
+    private var chunk = "{\"version\":1,\"timestamp\":\"2026-01-01T00:00:00\",\"conversations\":[".toByteArray()
+    private var pos = 0
+    private var conversation = 0
+    private var message = 0
+
+    private fun next(): Boolean {
+        val text = when {
+            conversation == conversations -> return false
+            message == 0 -> {
+                val separator = if (conversation == 0) "" else ","
+                "$separator{\"contact_public_key\":\"${conversation.toString().padStart(64, '0')}\",\"entries\":["
+            }
+            message == perConversation + 1 -> {
+                conversation++
+                message = -1
+                "]}" + if (conversation == conversations) "]}" else ""
+            }
+            else -> {
+                val separator = if (message == 1) "" else ","
+                "$separator{\"message\":\"message number $message with some padding to look like real text\"," +
+                    "\"sender\":\"${if (message % 2 == 0) "Sent" else "Received"}\",\"type\":\"Normal\"," +
+                    "\"timestamp\":\"2026-01-01T00:00:00\",\"timestamp_ms\":${1_700_000_000_000L + message}}"
+            }
+        }
+        message++
+        chunk = text.toByteArray()
+        pos = 0
+        return true
+    }
+
+    override fun read(): Int {
+        while (pos == chunk.size) {
+            if (!next()) return -1
+        }
+        return chunk[pos++].toInt() and 0xff
+    }
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+        if (len == 0) return 0
+        var n = 0
+        while (n < len) {
+            if (pos == chunk.size && !next()) break
+            val count = minOf(len - n, chunk.size - pos)
+            System.arraycopy(chunk, pos, b, off + n, count)
+            pos += count
+            n += count
+        }
+        return if (n == 0) -1 else n
+    }
+}
+
+@RunWith(AndroidJUnit4::class)
+class HistoryImportBenchmark {
+    private fun usedHeap(): Long = Runtime.getRuntime().let { it.totalMemory() - it.freeMemory() }
+
+    private fun archive() = GeneratedArchive(CONVERSATIONS, MESSAGE_COUNT / CONVERSATIONS)
+
+    @Test
+    fun parses_millions_of_messages_in_bounded_memory() = runBlocking {
+        val reader = HistoryArchiveReader(archive())
+
+        Runtime.getRuntime().gc()
+        val baseline = usedHeap()
+        var peak = baseline
+        var parsed = 0
+        var batches = 0
+        val start = SystemClock.elapsedRealtime()
+        reader.read { _, batch ->
+            parsed += batch.size
+            // Only look at what's retained, garbage from earlier batches doesn't count.
+            if (++batches % 200 == 0) {
+                Runtime.getRuntime().gc()
+                peak = maxOf(peak, usedHeap())
+            }
+        }
+        val elapsed = SystemClock.elapsedRealtime() - start
+
+        Log.i(TAG, "Parsed $parsed messages in $elapsed ms, peak retained heap growth ${(peak - baseline) / 1024} KiB")
+        assertEquals(MESSAGE_COUNT, parsed)
+        assertTrue(peak - baseline < MAX_HEAP_GROWTH_BYTES, "Heap grew by ${peak - baseline} bytes")
+    }
+
+    @Test
+    fun imports_millions_of_messages_in_bounded_memory() = runBlocking {
+        // Room's own memory isn't what's being measured, so only the heap is checked.
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        val db = Room.inMemoryDatabaseBuilder(context, Database::class.java).build()
+        // None of the conversations are with contacts, the way it commonly is with exports from another device.
+        val contacts = ContactRepository(db.contactDao())
+        val importer = ImportManager(contacts, MessageRepository(db.messageDao(), contacts))
+
+        try {
+            Runtime.getRuntime().gc()
+            val baseline = usedHeap()
+            var peak = baseline
+            var batches = 0
+            var start = SystemClock.elapsedRealtime()
+            val result = importer.import(archive()) {
+                if (++batches % 200 == 0) {
+                    Runtime.getRuntime().gc()
+                    peak = maxOf(peak, usedHeap())
+                }
+            }
+            var elapsed = SystemClock.elapsedRealtime() - start
+            Log.i(TAG, "Imported $result in $elapsed ms, peak retained heap growth ${(peak - baseline) / 1024} KiB")
+            assertEquals(ImportResult(MESSAGE_COUNT, 0, 0), result)
+            assertEquals(MESSAGE_COUNT, db.messageDao().count())
+            assertTrue(peak - baseline < MAX_HEAP_GROWTH_BYTES, "Heap grew by ${peak - baseline} bytes")
+
+            // Every batch is checked against what's stored, so a second import finds nothing new.
+            start = SystemClock.elapsedRealtime()
+            val again = importer.import(archive())
+            elapsed = SystemClock.elapsedRealtime() - start
+            Log.i(TAG, "Imported again $again in $elapsed ms")
+            assertEquals(ImportResult(0, MESSAGE_COUNT, 0), again)
+            assertEquals(MESSAGE_COUNT, db.messageDao().count())
+        } finally {
+            db.close()
+        }
+    }
+}
@@ -0,0 +1,137 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+// Opus rates in kbit/s that make sense for a voice call, from the bare minimum for intelligible wideband speech to
+// comfortably transparent. https://wiki.xiph.org/Opus_Recommended_Settings
+private val OPUS_VOICE_RATES = intArrayOf(8, 12, 16, 20, 24, 32, 40, 48, 64)
+
+// Losing more than this share of the frames we tried to send in a period means the link can't keep up.
+private const val MAX_SEND_ERROR_RATIO = 0.02
+
+// Receive jitter above this usually means queues are building up along the path in both directions.
+private const val MAX_JITTER_MS = 60.0
+
+// Congestion measures lag behind, give each step down a moment to take effect before taking another.
+private const val STEP_DOWN_AFTER_MS = 2_000L
+
+// How long things have to stay calm before trying the next rate up, and how long a rate toxav asked for caps us.
+private const val STEP_UP_AFTER_MS = 8_000L
+private const val CEILING_HOLD_MS = 30_000L
+
+// Enough to see how a call went without it growing for as long as the call lasts.
+private const val MAX_RECORDED_CHANGES = 64
+
+data class AudioBitrateConfig(val minKbps: Int = 12, val startKbps: Int = 32, val maxKbps: Int = 48) {
+    init {
+        require(minKbps in 1..startKbps && startKbps <= maxKbps) { "Bad bitrate bounds $this" }
+    }
+}
+
+enum class BitrateChangeReason {
+    Start,
+    Suggested,
+    SendErrors,
+    Jitter,
+    Recovered,
+}
+
+data class AudioBitrateChange(val atMs: Long, val kbps: Int, val reason: BitrateChangeReason)
+
+/**
+ * Picks the Opus bitrate for the audio of a call.
+ *
+ * toxav reports when it thinks the network is saturated together with the rate it suggests, which becomes a ceiling
+ * for a while. On top of that, send errors and receive jitter measured by us step the rate down one notch at a time,
+ * and a calm stretch steps it back up towards [AudioBitrateConfig.maxKbps]. Times are passed in so the decisions can
+ * be checked against synthetic timelines.
+ */
+class AudioBitrateController(private val config: AudioBitrateConfig = AudioBitrateConfig()) {
+    private val rates = (
+        OPUS_VOICE_RATES.filter { it in config.minKbps..config.maxKbps } +
+            listOf(config.minKbps, config.startKbps, config.maxKbps)
+        ).distinct().sorted()
+
+    private var ceilingKbps = config.maxKbps
+    private var ceilingSetMs = 0L
+    private var lastChangeMs = 0L
+    private var lastSent = 0L
+    private var lastSendErrors = 0L
+    private val changes = ArrayDeque<AudioBitrateChange>()
+
+    @Volatile
+    var kbps = config.startKbps
+        private set
+
+    /** Starts a new call at [AudioBitrateConfig.startKbps]. */
+    @Synchronized
+    fun start(nowMs: Long): Int {
+        kbps = config.startKbps
+        ceilingKbps = config.maxKbps
+        lastSent = 0
+        lastSendErrors = 0
+        changes.clear()
+        record(nowMs, BitrateChangeReason.Start)
+        return kbps
+    }
+
+    /** Returns the rate to switch to in response to toxav's suggestion, or null to keep the current one. */
+    @Synchronized
+    fun onSuggested(suggestedKbps: Int, nowMs: Long): Int? {
+        ceilingKbps = suggestedKbps.coerceIn(config.minKbps, config.maxKbps)
+        ceilingSetMs = nowMs
+        if (kbps <= ceilingKbps) return null
+        kbps = rates.last { it <= ceilingKbps }
+        record(nowMs, BitrateChangeReason.Suggested)
+        return kbps
+    }
+
+    /**
+     * Looks at what happened since the last call, given the running totals of frames handed to toxav, [sent], how many
+     * of those it failed to send, [sendErrors], and the current receive [jitterMs]. Returns the rate to switch to or
+     * null to keep the current one.
+     */
+    @Synchronized
+    fun update(nowMs: Long, sent: Long, sendErrors: Long, jitterMs: Double?): Int? {
+        val sentDelta = sent - lastSent
+        val errorDelta = sendErrors - lastSendErrors
+        lastSent = sent
+        lastSendErrors = sendErrors
+
+        if (ceilingKbps < config.maxKbps && nowMs - ceilingSetMs >= CEILING_HOLD_MS) {
+            ceilingKbps = config.maxKbps
+        }
+
+        val reason = when {
+            sentDelta > 0 && errorDelta.toDouble() / sentDelta > MAX_SEND_ERROR_RATIO -> BitrateChangeReason.SendErrors
+            jitterMs != null && jitterMs > MAX_JITTER_MS -> BitrateChangeReason.Jitter
+            else -> null
+        }
+
+        val sinceChange = nowMs - lastChangeMs
+        val next = if (reason != null) {
+            if (sinceChange < STEP_DOWN_AFTER_MS) return null
+            rates.lastOrNull { it < kbps } ?: return null
+        } else if (sinceChange >= STEP_UP_AFTER_MS) {
+            rates.firstOrNull { it > kbps && it <= ceilingKbps } ?: return null
+        } else {
+            return null
+        }
+
+        kbps = next
+        record(nowMs, reason ?: BitrateChangeReason.Recovered)
+        return kbps
+    }
+
+    /** The rates chosen during the current call, oldest first. */
+    @Synchronized
+    fun changes(): List<AudioBitrateChange> = changes.toList()
+
+    private fun record(nowMs: Long, reason: BitrateChangeReason) {
+        lastChangeMs = nowMs
+        if (changes.size == MAX_RECORDED_CHANGES) changes.removeFirst()
+        changes.addLast(AudioBitrateChange(nowMs, kbps, reason))
+    }
+}
@@ -22,14 +22,16 @@ private fun intToChannel(channels: Int) = when (channels) {
 // agree with results from ActivityResultContracts.RequestPermission, requiring
 // an extra permission check in there as well.
 @SuppressLint("MissingPermission")
-private fun findAudioRecord(sampleRate: Int, channels: Int): AudioRecord? {
+private fun findAudioRecord(sampleRate: Int, channels: Int, burst: Int, readFrames: Int): AudioRecord? {
     val audioFormat = AudioFormat.ENCODING_PCM_16BIT
     val channelConfig = intToChannel(channels)
 
-    val bufferSize = AudioRecord.getMinBufferSize(sampleRate, channelConfig, audioFormat)
-    if (bufferSize == AudioRecord.ERROR_BAD_VALUE) {
+    val minBufferSize = AudioRecord.getMinBufferSize(sampleRate, channelConfig, audioFormat)
+    if (minBufferSize == AudioRecord.ERROR_BAD_VALUE || minBufferSize == AudioRecord.ERROR) {
         return null
     }
+    val bytesPerFrame = channels * 2
+    val bufferSize = captureBufferFrames(minBufferSize / bytesPerFrame, burst, readFrames) * bytesPerFrame
 
     // Seems like not all Xiaomi phones have a VOICE_COMMUNICATION audio source, so try a few different ones.
     val audioSources = arrayOf(
@@ -49,25 +51,64 @@ private fun findAudioRecord(sampleRate: Int, channels: Int): AudioRecord? {
     return null
 }
 
+/**
+ * Records [frameLengthMs] frames of 16-bit PCM at [sampleRate].
+ *
+ * The device is recorded at its own rate if that's different, which keeps it on its fast path, and resampled to
+ * [sampleRate] as frames are read.
+ */
 class AudioCapture private constructor(
     private val sampleRate: Int,
     private val channels: Int,
     private val frameLengthMs: Int,
     private val audioRecord: AudioRecord,
+    recordingRate: Int,
 ) {
+    /** Samples in one frame, all channels included. */
+    val frameSize = (sampleRate * channels * frameLengthMs / 1000.0).toInt()
+
+    private val resampler = if (recordingRate != sampleRate) Resampler(recordingRate, sampleRate, channels) else null
+    private val recorded = if (resampler != null) ShortArray(recordingRate * channels * frameLengthMs / 1000) else null
+
     fun start() = audioRecord.startRecording()
     fun stop() = audioRecord.stop()
     fun release() = audioRecord.release()
-    fun read(): ShortArray {
-        val bytes = ShortArray((sampleRate * channels * frameLengthMs / 1000.0).toInt())
-        audioRecord.read(bytes, 0, bytes.size)
-        return bytes
+
+    /** Blocks until [frame] has been filled with the next [frameSize] samples. Returns false if recording failed. */
+    fun read(frame: ShortArray): Boolean {
+        if (resampler == null || recorded == null) return readFully(frame, frameSize)
+        if (!readFully(recorded, recorded.size)) return false
+        // Frames at both rates hold a whole number of samples, so every frame resamples to exactly one frame.
+        resampler.process(recorded, recorded.size / channels, frame)
+        return true
+    }
+
+    private fun readFully(buffer: ShortArray, size: Int): Boolean {
+        var offset = 0
+        while (offset < size) {
+            val read = audioRecord.read(buffer, offset, size - offset)
+            if (read <= 0) {
+                Log.e(TAG, "Reading audio failed: $read")
+                return false
+            }
+            offset += read
+        }
+        return true
     }
 
     companion object {
-        fun create(sampleRate: Int, channels: Int, frameLengthMs: Int): AudioCapture? {
-            val audioRecord = findAudioRecord(sampleRate, channels) ?: return null
-            return AudioCapture(sampleRate, channels, frameLengthMs, audioRecord)
+        fun create(
+            sampleRate: Int,
+            channels: Int,
+            frameLengthMs: Int,
+            device: AudioDeviceConfig = AudioDeviceConfig.DEFAULT,
+        ): AudioCapture? {
+            val recordingRate = captureSampleRate(device, sampleRate, frameLengthMs)
+            val readFrames = recordingRate * frameLengthMs / 1000
+            val audioRecord = findAudioRecord(recordingRate, channels, device.framesPerBurst, readFrames)
+                ?: return null
+            Log.i(TAG, "Recording at $recordingRate Hz for $sampleRate Hz frames")
+            return AudioCapture(sampleRate, channels, frameLengthMs, audioRecord, recordingRate)
         }
     }
 }
@@ -0,0 +1,74 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+import android.content.Context
+import android.content.pm.PackageManager
+import android.media.AudioManager
+import androidx.core.content.ContextCompat
+
+// What devices that don't say tend to use, per the Android high-performance audio guidance.
+private const val DEFAULT_SAMPLE_RATE = 48_000
+private const val DEFAULT_FRAMES_PER_BURST = 256
+
+// The output latency starts out this many bursts deep, the least that doesn't glitch on a device keeping up.
+private const val INITIAL_LATENCY_BURSTS = 2
+
+/**
+ * How the audio device prefers to be driven.
+ *
+ * Streams opened at the native [sampleRate] with buffers in whole multiples of [framesPerBurst] can go through the
+ * device's fast path, skipping the system mixer's resampling and its extra buffering. [lowLatency] is whether the
+ * device claims to have such a path at all.
+ */
+data class AudioDeviceConfig(val sampleRate: Int, val framesPerBurst: Int, val lowLatency: Boolean) {
+    companion object {
+        /** Used when there's nothing to ask, everything goes through the regular paths at toxav's own rate. */
+        val DEFAULT = AudioDeviceConfig(DEFAULT_SAMPLE_RATE, DEFAULT_FRAMES_PER_BURST, lowLatency = false)
+
+        fun from(context: Context): AudioDeviceConfig {
+            val audioManager = ContextCompat.getSystemService(context, AudioManager::class.java) ?: return DEFAULT
+            val sampleRate = audioManager.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE)?.toIntOrNull()
+            val framesPerBurst = audioManager.getProperty(AudioManager.PROPERTY_OUTPUT_FRAMES_PER_BUFFER)?.toIntOrNull()
+            return AudioDeviceConfig(
+                sampleRate?.takeIf { it > 0 } ?: DEFAULT_SAMPLE_RATE,
+                framesPerBurst?.takeIf { it > 0 } ?: DEFAULT_FRAMES_PER_BURST,
+                context.packageManager.hasSystemFeature(PackageManager.FEATURE_AUDIO_LOW_LATENCY),
+            )
+        }
+    }
+}
+
+/** Rounds [frames] up to a whole number of [burst]s. */
+fun burstAligned(frames: Int, burst: Int) = (frames + burst - 1) / burst * burst
+
+/**
+ * How many frames of room to ask for when opening an output stream. It has to hold a whole [writeFrames] write so
+ * writes don't get split up, and leaves the device space to grow its latency into if it turns out not to keep up.
+ */
+fun playbackCapacityFrames(minFrames: Int, burst: Int, writeFrames: Int) =
+    burstAligned(maxOf(minFrames, writeFrames * 2, burst * INITIAL_LATENCY_BURSTS), burst)
+
+/** How deep into its capacity an output stream starts playing. */
+fun initialPlaybackLatencyFrames(burst: Int, capacityFrames: Int) =
+    minOf(burst * INITIAL_LATENCY_BURSTS, capacityFrames)
+
+/** How deep into its capacity an output stream plays after having run dry at [currentFrames]. */
+fun nextPlaybackLatencyFrames(currentFrames: Int, burst: Int, capacityFrames: Int) =
+    minOf(currentFrames + burst, capacityFrames)
+
+/**
+ * How many frames an input stream should buffer, enough for the device to keep writing a burst while the previous
+ * [readFrames] read is being handed over.
+ */
+fun captureBufferFrames(minFrames: Int, burst: Int, readFrames: Int) =
+    burstAligned(maxOf(minFrames, readFrames * 2), burst)
+
+/**
+ * The rate to record at to end up with [frameLengthMs] frames at [rate]: the device's own if frames at it have a
+ * whole number of samples so they can be resampled without drifting, [rate] otherwise.
+ */
+fun captureSampleRate(device: AudioDeviceConfig, rate: Int, frameLengthMs: Int) =
+    if (device.sampleRate.toLong() * frameLengthMs % 1000 == 0L) device.sampleRate else rate
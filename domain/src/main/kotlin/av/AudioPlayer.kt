@@ -9,15 +9,40 @@ import android.media.AudioFormat
 import android.media.AudioManager
 import android.media.AudioTrack
 import android.os.Build
+import android.util.Log
+import kotlin.math.min
+
+private const val TAG = "AudioPlayer"
 
 private fun intToChannel(channels: Int) = when (channels) {
     1 -> AudioFormat.CHANNEL_OUT_MONO
     else -> AudioFormat.CHANNEL_OUT_STEREO
 }
 
-class AudioPlayer(sampleRate: Int, channels: Int) {
-    private val minBufferSize =
-        AudioTrack.getMinBufferSize(sampleRate, intToChannel(channels), AudioFormat.ENCODING_PCM_16BIT)
+/**
+ * Plays 16-bit PCM at [sampleRate], which should be [AudioDeviceConfig.sampleRate] for the track to be allowed on the
+ * device's low-latency path.
+ *
+ * The track is opened with room for a couple of [writeFrames] writes but only plays a couple of bursts deep. Whenever
+ * it runs dry it plays a burst deeper, so it settles at the least latency the device keeps up with.
+ *
+ * Audio in other formats is mixed and resampled to the track's as it's written, so a stream changing format midway
+ * keeps playing through the same track.
+ */
+class AudioPlayer(
+    private val sampleRate: Int,
+    private val channels: Int,
+    device: AudioDeviceConfig = AudioDeviceConfig.DEFAULT,
+    writeFrames: Int = sampleRate / 50,
+) {
+    private val burst = device.framesPerBurst
+    private val bytesPerFrame = channels * 2
+    private val capacityFrames = playbackCapacityFrames(
+        AudioTrack.getMinBufferSize(sampleRate, intToChannel(channels), AudioFormat.ENCODING_PCM_16BIT) /
+            bytesPerFrame,
+        burst,
+        writeFrames,
+    )
     private val audioTrack = if (Build.VERSION.SDK_INT < 23) {
         // TODO(robinlinden): Verify that this works on old devices.
         @Suppress("DEPRECATION") // I can't find a non-deprecated alternative for lower SDK versions.
@@ -26,7 +51,7 @@ class AudioPlayer(sampleRate: Int, channels: Int) {
             sampleRate,
             intToChannel(channels),
             AudioFormat.ENCODING_PCM_16BIT,
-            minBufferSize,
+            capacityFrames * bytesPerFrame,
             AudioTrack.MODE_STREAM,
         )
     } else {
@@ -41,14 +66,67 @@ class AudioPlayer(sampleRate: Int, channels: Int) {
             .setAudioAttributes(
                 AudioAttributes.Builder()
                     .setUsage(AudioAttributes.USAGE_VOICE_COMMUNICATION)
+                    .setContentType(AudioAttributes.CONTENT_TYPE_SPEECH)
                     .build(),
             )
-            .setBufferSizeInBytes(minBufferSize)
+            .setBufferSizeInBytes(capacityFrames * bytesPerFrame)
+            .apply {
+                if (Build.VERSION.SDK_INT >= 26 && device.lowLatency) {
+                    setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY)
+                }
+            }
             .build()
     }
 
-    fun buffer(data: ShortArray) {
-        audioTrack.write(data, 0, data.size)
+    private var latencyFrames = 0
+
+    // Where audio in other formats is converted, the resampled audio a write's worth at a time.
+    private val mixed = ShortArray(MAX_FRAME_SAMPLES * channels)
+    private val resampled = ShortArray(writeFrames * channels)
+    private var resampler: Resampler? = null
+
+    /** Times the device ran out of audio to play, as far as it can tell. */
+    @Volatile
+    var deviceUnderruns = 0
+        private set
+
+    init {
+        if (Build.VERSION.SDK_INT >= 24) {
+            val capacity = audioTrack.bufferCapacityInFrames
+            latencyFrames = audioTrack.setBufferSizeInFrames(initialPlaybackLatencyFrames(burst, capacity))
+        }
+    }
+
+    fun buffer(data: ShortArray, length: Int = data.size) {
+        audioTrack.write(data, 0, length)
+        if (Build.VERSION.SDK_INT >= 24) tuneLatency()
+    }
+
+    /** Plays [length] samples of [data] with [dataChannels] channels at [dataRate], whatever the track's format. */
+    fun buffer(data: ShortArray, length: Int, dataChannels: Int, dataRate: Int) {
+        val frames = min(length / dataChannels, MAX_FRAME_SAMPLES)
+        val source = if (dataChannels == channels) {
+            data
+        } else {
+            mixChannels(data, frames, dataChannels, mixed, channels)
+            mixed
+        }
+        if (dataRate == sampleRate) {
+            buffer(source, frames * channels)
+            return
+        }
+
+        val converter = resampler?.takeIf { it.inRate == dataRate } ?: Resampler(dataRate, sampleRate, channels).also {
+            Log.i(TAG, "Resampling $dataRate Hz to $sampleRate Hz")
+            resampler = it
+        }
+        val chunk = converter.maxInputFrames(resampled.size / channels)
+        var done = 0
+        while (done < frames) {
+            val count = min(chunk, frames - done)
+            buffer(resampled, converter.process(source, count, resampled, done) * channels)
+            done += count
+        }
     }
 
     fun start() {
@@ -61,4 +139,15 @@ class AudioPlayer(sampleRate: Int, channels: Int) {
     }
 
     fun release() = audioTrack.release()
+
+    private fun tuneLatency() {
+        val count = audioTrack.underrunCount
+        if (count <= deviceUnderruns) return
+        deviceUnderruns = count
+        val capacity = audioTrack.bufferCapacityInFrames
+        if (latencyFrames in 1 until capacity) {
+            latencyFrames = audioTrack.setBufferSizeInFrames(nextPlaybackLatencyFrames(latencyFrames, burst, capacity))
+            Log.i(TAG, "Ran dry, now playing $latencyFrames frames deep")
+        }
+    }
 }
@@ -0,0 +1,75 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+import android.os.Process
+import android.os.SystemClock
+import android.util.Log
+
+private const val TAG = "AudioPlayout"
+
+// Call audio is speech, and played through the earpiece more often than not.
+private const val OUTPUT_CHANNELS = 1
+
+/**
+ * Plays received call audio through a [JitterBuffer].
+ *
+ * Frames from toxav are only copied into the buffer on the thread that delivers them. A dedicated urgent-audio thread
+ * pulls a frame at a time and writes it to a single [AudioPlayer] at the rate of the [device], which converts whatever
+ * format the frame is in. The write blocks until the device has room, so playback keeps its own steady clock however
+ * the frames arrive.
+ */
+class AudioPlayout(private val device: AudioDeviceConfig = AudioDeviceConfig.DEFAULT) {
+    private val jitterBuffer = JitterBuffer()
+
+    @Volatile
+    private var running = false
+    private var thread: Thread? = null
+
+    // Once stopped, frames still in flight mustn't start playback again.
+    private var stopped = false
+
+    @Volatile
+    private var currentPlayer: AudioPlayer? = null
+
+    fun receive(pcm: ShortArray, channels: Int, samplingRate: Int) {
+        synchronized(this) {
+            if (stopped) return
+            jitterBuffer.push(pcm, channels, samplingRate, SystemClock.elapsedRealtime())
+            if (thread == null) {
+                running = true
+                thread = Thread(::playLoop, "AudioPlayout").apply { start() }
+            }
+        }
+    }
+
+    fun stats() = jitterBuffer.stats()
+
+    /** Times the audio device ran out of audio to play, as opposed to the jitter buffer running out. */
+    fun deviceUnderruns() = currentPlayer?.deviceUnderruns ?: 0
+
+    /** Stops playback for good, anything received afterwards is dropped. */
+    fun stop() = synchronized(this) {
+        stopped = true
+        running = false
+        thread = null
+    }
+
+    private fun playLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO)
+        val frame = ShortArray(MAX_FRAME_SAMPLES)
+        val player = AudioPlayer(device.sampleRate, OUTPUT_CHANNELS, device).apply { start() }
+        currentPlayer = player
+
+        while (running) {
+            val length = jitterBuffer.pull(frame)
+            player.buffer(frame, length, jitterBuffer.channels, jitterBuffer.samplingRate)
+        }
+
+        player.stop()
+        player.release()
+        Log.i(TAG, "Stopped: ${jitterBuffer.stats()}, device underruns: ${player.deviceUnderruns}")
+    }
+}
@@ -0,0 +1,131 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+import android.os.Process
+import android.os.SystemClock
+import android.util.Log
+import java.util.concurrent.Semaphore
+import java.util.concurrent.atomic.AtomicLong
+
+private const val TAG = "AudioSendEngine"
+
+// 160 ms of 20 ms frames, enough to ride out the sender being held up by a tox iteration or a GC pause.
+private const val RING_FRAMES = 8
+
+data class AudioSendCounters(
+    val captured: Long,
+    val sent: Long,
+    /** Frames dropped at capture because the ring was full. */
+    val overruns: Long,
+    /** Frames sent more than a frame length after they were captured. */
+    val late: Long,
+    /** The time frames spent between being captured and being sent, summed up. */
+    val latencyMs: Long,
+    val sendErrors: Long,
+)
+
+/**
+ * Records call audio and hands it to [send], one frame at a time.
+ *
+ * Capture runs on its own urgent-audio thread paced only by the blocking reads from [AudioCapture], and writes into a
+ * ring of preallocated frames. A second thread sends them, so a slow send, e.g. while toxav is busy iterating, never
+ * makes capture miss a read. Once started nothing is allocated per frame.
+ */
+class AudioSendEngine(
+    private val capture: AudioCapture,
+    private val frameLengthMs: Int,
+    private val send: (pcm: ShortArray) -> Unit,
+    private val onStopped: (AudioSendEngine) -> Unit,
+) {
+    private val frames = Array(RING_FRAMES) { ShortArray(capture.frameSize) }
+    private val capturedAt = LongArray(RING_FRAMES)
+    private val scratch = ShortArray(capture.frameSize)
+
+    // Frames are written at captured % RING_FRAMES and read at sent % RING_FRAMES, each only moved by one thread.
+    private val written = AtomicLong()
+    private val read = AtomicLong()
+    private val ready = Semaphore(0)
+
+    @Volatile
+    private var running = false
+
+    @Volatile
+    private var overruns = 0L
+
+    @Volatile
+    private var late = 0L
+
+    @Volatile
+    private var latencyMs = 0L
+
+    @Volatile
+    private var sendErrors = 0L
+
+    fun counters() = AudioSendCounters(written.get() + overruns, read.get(), overruns, late, latencyMs, sendErrors)
+
+    fun start() {
+        running = true
+        val sender = Thread(::sendLoop, "AudioSend").apply { start() }
+        Thread({ captureLoop(sender) }, "AudioCapture").start()
+    }
+
+    /** Asks both threads to finish, [onStopped] is called once they have and the recorder is released. */
+    fun stop() {
+        running = false
+    }
+
+    private fun captureLoop(sender: Thread) {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO)
+        capture.start()
+        while (running) {
+            val position = written.get()
+            // Dropping the newest frame keeps the sender from ever seeing a frame that's overwritten mid-send.
+            val full = position - read.get() >= RING_FRAMES
+            val frame = if (full) scratch else frames[(position % RING_FRAMES).toInt()]
+            if (!capture.read(frame)) break
+
+            if (full) {
+                overruns++
+                continue
+            }
+            capturedAt[(position % RING_FRAMES).toInt()] = SystemClock.elapsedRealtime()
+            written.set(position + 1)
+            ready.release()
+        }
+
+        running = false
+        ready.release()
+        sender.join()
+        capture.stop()
+        capture.release()
+        Log.i(TAG, "Stopped: ${counters()}")
+        onStopped(this)
+    }
+
+    private fun sendLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO)
+        while (true) {
+            ready.acquire()
+            val position = read.get()
+            if (position == written.get()) {
+                if (!running) return
+                continue
+            }
+
+            val slot = (position % RING_FRAMES).toInt()
+            val latency = SystemClock.elapsedRealtime() - capturedAt[slot]
+            latencyMs += latency
+            if (latency > frameLengthMs) late++
+            try {
+                send(frames[slot])
+            } catch (e: Exception) {
+                sendErrors++
+                Log.e(TAG, e.toString())
+            }
+            read.set(position + 1)
+        }
+    }
+}
@@ -0,0 +1,195 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+import ltd.evilcorp.core.vo.ConnectionStatus
+
+// Receive jitter above this means the network is delivering audio late, see AudioBitrateController.
+private const val NETWORK_JITTER_MS = 60.0
+
+// More than this share of audio frames sent late means the sender is starved of CPU time.
+private const val MAX_LATE_RATIO = 0.1
+
+// Spending more than this share of the time converting, encoding and sending video leaves too little for the rest.
+private const val MAX_VIDEO_SEND_LOAD = 0.8
+
+// Bitrate changes that mean the network couldn't take what was being sent.
+private val CONGESTION_REASONS = setOf(
+    BitrateChangeReason.Suggested,
+    BitrateChangeReason.SendErrors,
+    BitrateChangeReason.Jitter,
+)
+
+/** What most likely held a call back during a sampling interval. */
+enum class CallBottleneck {
+    None,
+
+    /** Frames were captured but not sent in time, or sending video took up most of the time. */
+    Cpu,
+
+    /** Sends failed, arrivals were uneven, or the bitrate had to come down. */
+    Network,
+
+    /** The audio device ran dry, or playback did even though audio kept arriving evenly. */
+    AudioDevice,
+}
+
+/** Everything the call stack reports about a call at one point in time, as [CallMetricsCollector] takes it in. */
+data class CallSample(
+    val connection: ConnectionStatus,
+    val audioBitrateKbps: Int,
+    val audioBitrateChanges: List<AudioBitrateChange>,
+    /** 0 if video isn't being sent. */
+    val videoBitrateKbps: Int,
+    val audioSend: AudioSendCounters?,
+    val audioPlayout: JitterBufferStats?,
+    val audioDeviceUnderruns: Int?,
+    val videoSend: VideoSendCounters?,
+    val videoReceive: VideoReceiveStats,
+)
+
+/** How a call has gone so far. Counts are since the call started, rates and averages over the last interval. */
+data class CallMetrics(
+    val durationMs: Long,
+    val connection: ConnectionStatus,
+    val bottleneck: CallBottleneck,
+    val audioBitrateKbps: Int,
+    val audioBitrateChanges: Int,
+    val audioFramesSent: Long,
+    val audioFramesReceived: Long,
+    /** Mean time a sent audio frame waited between being captured and being handed to toxav. */
+    val audioSendLatencyMs: Double,
+    val audioSendErrors: Long,
+    val audioUnderruns: Long,
+    val audioConcealed: Long,
+    /** Times the audio device ran dry, as opposed to the jitter buffer. */
+    val audioDeviceUnderruns: Long,
+    val jitterMs: Double,
+    val videoBitrateKbps: Int,
+    val videoFramesSent: Long,
+    val videoFramesReceived: Long,
+    val videoFramesDropped: Long,
+    val videoSendFps: Double,
+    val videoReceiveFps: Double,
+    /** Mean time it took to convert, encode and send a video frame. */
+    val videoSendTimeMs: Double,
+)
+
+// Turns a counter that starts over whenever whatever reports it does, e.g. when the microphone is turned off and on
+// again, into one that keeps counting for the whole call.
+private class CallCounter(private var last: Long = 0) {
+    var total = 0L
+        private set
+    var delta = 0L
+        private set
+
+    fun update(value: Long?) {
+        delta = when {
+            value == null -> 0
+            value < last -> value
+            else -> value - last
+        }
+        last = value ?: 0
+        total += delta
+    }
+}
+
+/**
+ * Collects what the call stack reports into [CallMetrics] once per sampling interval.
+ *
+ * The counters of the audio and video engines start over whenever they do, and the video receive buffer counts for
+ * as long as the app runs, so this keeps totals for the call on top of them and works out the rates for each interval
+ * from the difference to the previous sample. Times are passed in so the numbers can be checked against synthetic
+ * timelines.
+ */
+class CallMetricsCollector(private val startMs: Long, videoReceive: VideoReceiveStats) {
+    private var lastMs = startMs
+
+    private val audioSent = CallCounter()
+    private val audioOverruns = CallCounter()
+    private val audioLate = CallCounter()
+    private val audioLatency = CallCounter()
+    private val audioSendErrors = CallCounter()
+    private val audioReceived = CallCounter()
+    private val audioUnderruns = CallCounter()
+    private val audioConcealed = CallCounter()
+    private val audioDeviceUnderruns = CallCounter()
+    private val videoSent = CallCounter()
+    private val videoSendErrors = CallCounter()
+    private val videoSendTime = CallCounter()
+    private val videoReceived = CallCounter(videoReceive.received)
+    private val videoDropped = CallCounter(videoReceive.dropped)
+
+    private val bottlenecks = IntArray(CallBottleneck.entries.size)
+
+    /** Takes in [sample], taken at [nowMs], and returns how the call is going. */
+    fun update(nowMs: Long, sample: CallSample): CallMetrics {
+        val intervalMs = (nowMs - lastMs).coerceAtLeast(1)
+        audioSent.update(sample.audioSend?.sent)
+        audioOverruns.update(sample.audioSend?.overruns)
+        audioLate.update(sample.audioSend?.late)
+        audioLatency.update(sample.audioSend?.latencyMs)
+        audioSendErrors.update(sample.audioSend?.sendErrors)
+        audioReceived.update(sample.audioPlayout?.received)
+        audioUnderruns.update(sample.audioPlayout?.underruns)
+        audioConcealed.update(sample.audioPlayout?.concealed)
+        audioDeviceUnderruns.update(sample.audioDeviceUnderruns?.toLong())
+        videoSent.update(sample.videoSend?.sent)
+        videoSendErrors.update(sample.videoSend?.sendErrors)
+        videoSendTime.update(sample.videoSend?.sendTimeMs)
+        videoReceived.update(sample.videoReceive.received)
+        videoDropped.update(sample.videoReceive.dropped)
+
+        val jitterMs = sample.audioPlayout?.jitterMs ?: 0.0
+        val bottleneck = bottleneck(sample, intervalMs, jitterMs)
+        bottlenecks[bottleneck.ordinal]++
+        lastMs = nowMs
+
+        return CallMetrics(
+            durationMs = nowMs - startMs,
+            connection = sample.connection,
+            bottleneck = bottleneck,
+            audioBitrateKbps = sample.audioBitrateKbps,
+            audioBitrateChanges = sample.audioBitrateChanges.count { it.reason != BitrateChangeReason.Start },
+            audioFramesSent = audioSent.total,
+            audioFramesReceived = audioReceived.total,
+            audioSendLatencyMs = mean(audioLatency.delta, audioSent.delta),
+            audioSendErrors = audioSendErrors.total,
+            audioUnderruns = audioUnderruns.total,
+            audioConcealed = audioConcealed.total,
+            audioDeviceUnderruns = audioDeviceUnderruns.total,
+            jitterMs = jitterMs,
+            videoBitrateKbps = sample.videoBitrateKbps,
+            videoFramesSent = videoSent.total,
+            videoFramesReceived = videoReceived.total,
+            videoFramesDropped = videoDropped.total,
+            videoSendFps = videoSent.delta * 1000.0 / intervalMs,
+            videoReceiveFps = videoReceived.delta * 1000.0 / intervalMs,
+            videoSendTimeMs = mean(videoSendTime.delta, videoSent.delta),
+        )
+    }
+
+    /** How many intervals each bottleneck was the likeliest one in, for looking back at a call once it's over. */
+    fun bottlenecks(): Map<CallBottleneck, Int> = CallBottleneck.entries.associateWith { bottlenecks[it.ordinal] }
+
+    private fun bottleneck(sample: CallSample, intervalMs: Long, jitterMs: Double): CallBottleneck {
+        val starved = audioOverruns.delta > 0 ||
+            audioLate.delta > audioSent.delta * MAX_LATE_RATIO ||
+            videoSendTime.delta > intervalMs * MAX_VIDEO_SEND_LOAD
+        if (starved) return CallBottleneck.Cpu
+
+        val network = audioSendErrors.delta > 0 ||
+            videoSendErrors.delta > 0 ||
+            jitterMs > NETWORK_JITTER_MS ||
+            sample.audioBitrateChanges.any { it.atMs > lastMs && it.reason in CONGESTION_REASONS }
+        if (network) return CallBottleneck.Network
+
+        // Running dry with nothing arriving could just as well be the other side having muted their microphone.
+        val deviceStarved = audioDeviceUnderruns.delta > 0 || (audioUnderruns.delta > 0 && audioReceived.delta > 0)
+        return if (deviceStarved) CallBottleneck.AudioDevice else CallBottleneck.None
+    }
+
+    private fun mean(sum: Long, count: Long) = if (count > 0) sum.toDouble() / count else 0.0
+}
@@ -0,0 +1,155 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+import java.nio.ByteBuffer
+
+private fun transposes(rotation: Int) = rotation % 180 != 0
+
+/**
+ * How wide a [width] by [height] camera frame ends up once turned by [rotation] degrees and shrunk by [scale], rounded
+ * down to an even number as toxav wants whole chroma samples.
+ */
+fun convertedWidth(width: Int, height: Int, rotation: Int, scale: Int) =
+    ((if (transposes(rotation)) height else width) / scale) and 1.inv()
+
+/** How high a [width] by [height] camera frame ends up, see [convertedWidth]. */
+fun convertedHeight(width: Int, height: Int, rotation: Int, scale: Int) =
+    ((if (transposes(rotation)) width else height) / scale) and 1.inv()
+
+/**
+ * Converts a camera frame in [android.graphics.ImageFormat.YUV_420_888] layout to a packed I420 [out] frame, as it
+ * comes out of a [android.media.Image]: a luma plane with its own row stride, and two chroma planes that may be
+ * interleaved with each other, given by [uvPixelStride], as is the case for NV21.
+ *
+ * The frame is turned clockwise by [rotation] degrees, a multiple of 90, so it's upright for the other side, and
+ * shrunk by averaging [scale] by [scale] blocks. [out] has to be packed and sized by [convertedWidth] and
+ * [convertedHeight].
+ */
+fun convertYuv420(
+    width: Int,
+    height: Int,
+    y: ByteBuffer,
+    yRowStride: Int,
+    u: ByteBuffer,
+    v: ByteBuffer,
+    uvRowStride: Int,
+    uvPixelStride: Int,
+    rotation: Int,
+    scale: Int,
+    out: I420Frame,
+) {
+    require(rotation % 90 == 0 && scale >= 1) { "Unsupported rotation $rotation or scale $scale" }
+    val outWidth = convertedWidth(width, height, rotation, scale)
+    val outHeight = convertedHeight(width, height, rotation, scale)
+    require(out.width == outWidth && out.height == outHeight && out.yStride == outWidth) {
+        "Frame of ${out.width}x${out.height} can't hold ${outWidth}x$outHeight"
+    }
+
+    val r = (rotation % 360 + 360) % 360
+    convertPlane(y, yRowStride, 1, width / scale, height / scale, r, scale, out.y, outWidth, outHeight)
+
+    val sourceChromaWidth = chromaSize(width) / scale
+    val sourceChromaHeight = chromaSize(height) / scale
+    val chromaWidth = chromaSize(outWidth)
+    val chromaHeight = chromaSize(outHeight)
+    for (plane in 0..1) {
+        convertPlane(
+            if (plane == 0) u else v,
+            uvRowStride,
+            uvPixelStride,
+            sourceChromaWidth,
+            sourceChromaHeight,
+            r,
+            scale,
+            if (plane == 0) out.u else out.v,
+            chromaWidth,
+            chromaHeight,
+        )
+    }
+}
+
+/** Like [convertYuv420], for NV21 frames like the ones from the old camera API, with rows [rowStride] bytes apart. */
+fun convertNv21(
+    data: ByteArray,
+    width: Int,
+    height: Int,
+    rowStride: Int,
+    rotation: Int,
+    scale: Int,
+    out: I420Frame,
+) {
+    // The chroma plane follows the luma plane with V and U samples taking turns.
+    val chroma = rowStride * height
+    convertYuv420(
+        width,
+        height,
+        ByteBuffer.wrap(data),
+        rowStride,
+        ByteBuffer.wrap(data, chroma + 1, data.size - chroma - 1).slice(),
+        ByteBuffer.wrap(data, chroma, data.size - chroma).slice(),
+        rowStride,
+        2,
+        rotation,
+        scale,
+        out,
+    )
+}
+
+// Fills [outWidth] by [outHeight] samples of [out] from a source plane [width] by [height] blocks of [scale] samples
+// big, reading each output sample from where it was before being turned by [rotation].
+private fun convertPlane(
+    source: ByteBuffer,
+    rowStride: Int,
+    pixelStride: Int,
+    width: Int,
+    height: Int,
+    rotation: Int,
+    scale: Int,
+    out: ByteArray,
+    outWidth: Int,
+    outHeight: Int,
+) {
+    val blockSize = scale * scale
+    for (oy in 0 until outHeight) {
+        val outRow = oy * outWidth
+        for (ox in 0 until outWidth) {
+            val bx: Int
+            val by: Int
+            when (rotation) {
+                90 -> {
+                    bx = oy
+                    by = height - 1 - ox
+                }
+                180 -> {
+                    bx = width - 1 - ox
+                    by = height - 1 - oy
+                }
+                270 -> {
+                    bx = width - 1 - oy
+                    by = ox
+                }
+                else -> {
+                    bx = ox
+                    by = oy
+                }
+            }
+
+            val start = by * scale * rowStride + bx * scale * pixelStride
+            out[outRow + ox] = if (scale == 1) {
+                source.get(start)
+            } else {
+                var sum = 0
+                for (dy in 0 until scale) {
+                    val row = start + dy * rowStride
+                    for (dx in 0 until scale) {
+                        sum += source.get(row + dx * pixelStride).toInt() and 0xff
+                    }
+                }
+                (sum / blockSize).toByte()
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+/**
+ * Mixes [frames] frames of interleaved 16-bit PCM with [inChannels] channels into [outChannels] channels in [output].
+ * Stereo is averaged down to mono and mono copied to both sides of stereo, anything else passes through as is.
+ */
+fun mixChannels(input: ShortArray, frames: Int, inChannels: Int, output: ShortArray, outChannels: Int) {
+    require(inChannels in 1..2 && outChannels in 1..2) { "Can't mix $inChannels channels into $outChannels" }
+    when {
+        inChannels == outChannels -> input.copyInto(output, endIndex = frames * inChannels)
+        inChannels == 2 -> for (i in 0 until frames) {
+            output[i] = ((input[i * 2] + input[i * 2 + 1]) shr 1).toShort()
+        }
+        else -> for (i in 0 until frames) {
+            output[i * 2] = input[i]
+            output[i * 2 + 1] = input[i]
+        }
+    }
+}
@@ -0,0 +1,131 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+/**
+ * A video frame in the planar YUV 4:2:0 layout toxav sends and receives, a full size luma plane followed by two
+ * quarter size chroma planes, each row of a plane starting a stride after the one before it.
+ *
+ * The planes are only ever grown, so a frame can be reused for as long as the video doesn't get bigger.
+ */
+class I420Frame {
+    var width = 0
+        private set
+    var height = 0
+        private set
+    var yStride = 0
+        private set
+    var uStride = 0
+        private set
+    var vStride = 0
+        private set
+
+    var y = ByteArray(0)
+        private set
+    var u = ByteArray(0)
+        private set
+    var v = ByteArray(0)
+        private set
+
+    /** Makes sure the planes can hold a frame of [height] rows with the given strides, keeping them if they can. */
+    fun reserve(height: Int, yStride: Int, uStride: Int, vStride: Int) {
+        val chromaHeight = chromaSize(height)
+        if (y.size < yStride * height) y = ByteArray(yStride * height)
+        if (u.size < uStride * chromaHeight) u = ByteArray(uStride * chromaHeight)
+        if (v.size < vStride * chromaHeight) v = ByteArray(vStride * chromaHeight)
+    }
+
+    /**
+     * Sizes the planes to exactly hold a [width] by [height] frame without any padding, the way toxav wants frames to
+     * send. Unlike [reserve] this replaces planes that are too big as well.
+     */
+    fun allocatePacked(width: Int, height: Int) {
+        val chromaWidth = chromaSize(width)
+        val chromaPlane = chromaWidth * chromaSize(height)
+        if (y.size != width * height) y = ByteArray(width * height)
+        if (u.size != chromaPlane) u = ByteArray(chromaPlane)
+        if (v.size != chromaPlane) v = ByteArray(chromaPlane)
+        setFormat(width, height, width, chromaWidth, chromaWidth)
+    }
+
+    /** Describes what's been written into the planes. */
+    fun setFormat(width: Int, height: Int, yStride: Int, uStride: Int, vStride: Int) {
+        this.width = width
+        this.height = height
+        this.yStride = yStride
+        this.uStride = uStride
+        this.vStride = vStride
+    }
+
+    /** Copies planes that live somewhere else into this frame. */
+    fun copyFrom(
+        width: Int,
+        height: Int,
+        y: ByteArray,
+        u: ByteArray,
+        v: ByteArray,
+        yStride: Int,
+        uStride: Int,
+        vStride: Int,
+    ) {
+        reserve(height, yStride, uStride, vStride)
+        val chromaHeight = chromaSize(height)
+        y.copyInto(this.y, endIndex = yStride * height)
+        u.copyInto(this.u, endIndex = uStride * chromaHeight)
+        v.copyInto(this.v, endIndex = vStride * chromaHeight)
+        setFormat(width, height, yStride, uStride, vStride)
+    }
+}
+
+/** Keeps a few packed frames around so a video being sent doesn't need new planes for every frame. */
+class I420FramePool(private val capacity: Int = 2) {
+    private val free = ArrayDeque<I420Frame>()
+
+    /** A packed frame of the given size, reused if there's one to spare. */
+    @Synchronized
+    fun acquire(width: Int, height: Int): I420Frame {
+        while (free.isNotEmpty()) {
+            // Frames of another size are left over from before the resolution changed, let them go.
+            val frame = free.removeLast()
+            if (frame.width == width && frame.height == height) return frame
+        }
+        return I420Frame().apply { allocatePacked(width, height) }
+    }
+
+    @Synchronized
+    fun release(frame: I420Frame) {
+        if (free.size < capacity) free.addLast(frame)
+    }
+}
+
+/** The width or height of a chroma plane for a frame [size] pixels wide or high. */
+fun chromaSize(size: Int) = (size + 1) / 2
+
+private fun clamp(value: Int) = if (value < 0) 0 else if (value > 255) 255 else value
+
+/**
+ * Converts [frame] to ARGB pixels in [out], row by row with no padding, using the limited range BT.601 matrix.
+ *
+ * Rendering does the same on the GPU, this is the reference for it and the way out where there is no GPU to use.
+ */
+fun I420Frame.toArgb(out: IntArray) {
+    require(out.size >= width * height) { "Need room for ${width * height} pixels, got ${out.size}" }
+    for (row in 0 until height) {
+        val yRow = row * yStride
+        val uRow = (row / 2) * uStride
+        val vRow = (row / 2) * vStride
+        val outRow = row * width
+        for (col in 0 until width) {
+            // Fixed point versions of 1.164 (Y - 16), 1.596 V, 0.391 U, 0.813 V and 2.018 U, scaled by 1024.
+            val c = 1192 * ((y[yRow + col].toInt() and 0xff) - 16)
+            val d = (u[uRow + col / 2].toInt() and 0xff) - 128
+            val e = (v[vRow + col / 2].toInt() and 0xff) - 128
+            val r = clamp((c + 1634 * e + 512) shr 10)
+            val g = clamp((c - 401 * d - 833 * e + 512) shr 10)
+            val b = clamp((c + 2066 * d + 512) shr 10)
+            out[outRow + col] = (0xff shl 24) or (r shl 16) or (g shl 8) or b
+        }
+    }
+}
@@ -0,0 +1,197 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+import kotlin.math.abs
+import kotlin.math.ceil
+import kotlin.math.max
+
+// Opus frames are at most 120 ms, toxav decodes to at most 48 kHz stereo.
+internal const val MAX_FRAME_SAMPLES = 48_000 * 2 * 120 / 1000
+
+private const val CAPACITY_FRAMES = 32
+private const val MIN_TARGET_FRAMES = 2
+private const val MAX_TARGET_FRAMES = 12
+
+// How many mean deviations of headroom to keep, roughly covering the tail of mobile network jitter.
+private const val JITTER_HEADROOM = 3.0
+
+// The smoothing of the RFC 3550 interarrival jitter estimate.
+private const val JITTER_GAIN = 1.0 / 16
+
+// How many arrivals in a row have to ask for less buffering before the target shrinks by a frame, about a second.
+private const val SHRINK_AFTER_ARRIVALS = 50
+
+// Concealed frames fade out by this much each, so a lost frame becomes a short echo instead of a click, and then
+// silence once there's nothing left worth repeating.
+private const val CONCEALMENT_FADE = 0.5f
+private const val MAX_CONCEALED_FRAMES = 5
+
+data class JitterBufferStats(
+    val received: Long,
+    val played: Long,
+    /** Frames made up because nothing had arrived in time to play. */
+    val concealed: Long,
+    /** Times playback ran dry. */
+    val underruns: Long,
+    /** Frames thrown away because too much audio had piled up. */
+    val dropped: Long,
+    val jitterMs: Double,
+    val targetFrames: Int,
+    val bufferedFrames: Int,
+)
+
+/**
+ * Sits between toxav handing us decoded audio frames and the audio device asking for them, so that frames arriving
+ * unevenly still play back evenly.
+ *
+ * The buffer aims to hold enough audio to cover the jitter observed between arrivals, growing quickly when the
+ * network gets worse and draining slowly when it gets better. When it runs dry, the last frame is repeated with a fade
+ * until audio arrives again, after which it waits to refill to its target before resuming. toxav already puts frames
+ * back in order before decoding them, so all that's left to handle here is their timing.
+ *
+ * Frames are copied into preallocated slots, so neither [push] nor [pull] allocate. Times are passed in rather than
+ * read from a clock so the behaviour can be checked against synthetic timelines.
+ */
+class JitterBuffer {
+    private val frames = Array(CAPACITY_FRAMES) { ShortArray(MAX_FRAME_SAMPLES) }
+    private val lengths = IntArray(CAPACITY_FRAMES)
+    private val frameChannels = IntArray(CAPACITY_FRAMES)
+    private val frameRates = IntArray(CAPACITY_FRAMES)
+    private var head = 0
+    private var size = 0
+
+    private var lastArrivalMs = -1L
+    private var jitterMs = 0.0
+    private var targetFrames = MIN_TARGET_FRAMES
+    private var calmArrivals = 0
+    private var buffering = true
+
+    private val lastFrame = ShortArray(MAX_FRAME_SAMPLES)
+    private var lastLength = 0
+    private var lastChannels = 1
+    private var lastRate = 48_000
+    private var concealedInRow = 0
+
+    private var received = 0L
+    private var played = 0L
+    private var concealed = 0L
+    private var underruns = 0L
+    private var dropped = 0L
+
+    /** The format of the frame last returned by [pull]. */
+    val channels get() = lastChannels
+    val samplingRate get() = lastRate
+
+    @Synchronized
+    fun push(pcm: ShortArray, channels: Int, samplingRate: Int, arrivalMs: Long) {
+        if (pcm.isEmpty() || pcm.size > MAX_FRAME_SAMPLES) return
+        received++
+        updateJitter(durationMs(pcm.size, channels, samplingRate), arrivalMs)
+
+        if (size == CAPACITY_FRAMES) {
+            dropOldest()
+        }
+        val slot = (head + size) % CAPACITY_FRAMES
+        pcm.copyInto(frames[slot])
+        lengths[slot] = pcm.size
+        frameChannels[slot] = channels
+        frameRates[slot] = samplingRate
+        size++
+
+        // Delay only ever builds up, trim back down to the target when it's clearly too much.
+        while (size > targetFrames * 2) {
+            dropOldest()
+        }
+    }
+
+    /**
+     * Fills [out] with the next frame to play and returns how many samples it holds, in the format of [channels] and
+     * [samplingRate]. While (re)buffering or when nothing has ever arrived this is silence of the last frame's length.
+     */
+    @Synchronized
+    fun pull(out: ShortArray): Int {
+        if (buffering && size >= targetFrames) buffering = false
+
+        if (buffering || size == 0) {
+            if (!buffering) {
+                underruns++
+                buffering = true
+            }
+            return conceal(out)
+        }
+
+        val slot = head
+        val length = lengths[slot]
+        frames[slot].copyInto(out, endIndex = length)
+        frames[slot].copyInto(lastFrame, endIndex = length)
+        lastLength = length
+        lastChannels = frameChannels[slot]
+        lastRate = frameRates[slot]
+        concealedInRow = 0
+        head = (head + 1) % CAPACITY_FRAMES
+        size--
+        played++
+        return length
+    }
+
+    @Synchronized
+    fun stats() = JitterBufferStats(
+        received,
+        played,
+        concealed,
+        underruns,
+        dropped,
+        jitterMs,
+        targetFrames,
+        size,
+    )
+
+    private fun dropOldest() {
+        head = (head + 1) % CAPACITY_FRAMES
+        size--
+        dropped++
+    }
+
+    private fun durationMs(samples: Int, channels: Int, samplingRate: Int) =
+        samples * 1000.0 / (max(channels, 1) * max(samplingRate, 1))
+
+    private fun updateJitter(frameMs: Double, arrivalMs: Long) {
+        if (lastArrivalMs >= 0) {
+            val deviation = abs((arrivalMs - lastArrivalMs) - frameMs)
+            jitterMs += (deviation - jitterMs) * JITTER_GAIN
+        }
+        lastArrivalMs = arrivalMs
+
+        val wanted = (1 + ceil(jitterMs * JITTER_HEADROOM / frameMs).toInt()).coerceIn(
+            MIN_TARGET_FRAMES,
+            MAX_TARGET_FRAMES,
+        )
+        // Grow right away to stop the next underrun, but only shrink once the network has stayed calm for a while.
+        if (wanted >= targetFrames) {
+            targetFrames = wanted
+            calmArrivals = 0
+        } else if (++calmArrivals >= SHRINK_AFTER_ARRIVALS) {
+            targetFrames--
+            calmArrivals = 0
+        }
+    }
+
+    private fun conceal(out: ShortArray): Int {
+        // Before anything has arrived, hand out 20 ms of silence at a time.
+        val length = lastLength.takeIf { it > 0 } ?: (lastRate * lastChannels / 50)
+        if (lastLength > 0 && concealedInRow < MAX_CONCEALED_FRAMES) {
+            concealed++
+            concealedInRow++
+            for (i in 0 until length) {
+                lastFrame[i] = (lastFrame[i] * CONCEALMENT_FADE).toInt().toShort()
+                out[i] = lastFrame[i]
+            }
+        } else {
+            out.fill(0, 0, length)
+        }
+        return length
+    }
+}
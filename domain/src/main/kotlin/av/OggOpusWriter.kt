@@ -0,0 +1,192 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+import java.io.OutputStream
+import kotlin.random.Random
+
+// Opus timestamps are always in 48 kHz samples, whatever rate the audio was recorded at.
+const val OPUS_GRANULE_RATE = 48_000
+
+// How much audio the encoder runs ahead by before its output lines up with its input, unless it says otherwise.
+const val OPUS_DEFAULT_PRE_SKIP = 312
+
+// Pages are closed once they hold this much audio, so a player seeking through the file doesn't have far to look.
+private const val MAX_PAGE_GRANULES = OPUS_GRANULE_RATE
+
+private const val MAX_SEGMENTS = 255
+private const val MAX_SEGMENT_SIZE = 255
+private const val PAGE_HEADER_SIZE = 27
+
+private const val FLAG_FIRST = 0x02
+private const val FLAG_LAST = 0x04
+
+private val OPUS_HEAD = "OpusHead".toByteArray(Charsets.US_ASCII)
+private val OPUS_TAGS = "OpusTags".toByteArray(Charsets.US_ASCII)
+private val VENDOR = "bTox".toByteArray(Charsets.US_ASCII)
+
+private val CRC_TABLE = IntArray(256) {
+    var crc = it shl 24
+    repeat(8) { crc = if (crc < 0) (crc shl 1) xor 0x04c11db7 else crc shl 1 }
+    crc
+}
+
+/** The checksum of an Ogg page: CRC-32 with the 0x04c11db7 polynomial, not reflected, starting out at 0. */
+fun oggCrc(data: ByteArray, offset: Int = 0, length: Int = data.size - offset): Int {
+    var crc = 0
+    for (i in offset until offset + length) {
+        crc = (crc shl 8) xor CRC_TABLE[((crc ushr 24) xor (data[i].toInt() and 0xff)) and 0xff]
+    }
+    return crc
+}
+
+/** How many 48 kHz samples an Opus packet decodes to, going by its TOC byte, or 0 if it's not a valid packet. */
+fun opusPacketSamples(packet: ByteArray, offset: Int = 0, length: Int = packet.size - offset): Int {
+    if (length < 1) return 0
+    val toc = packet[offset].toInt() and 0xff
+    val config = toc shr 3
+    val frameSamples = when {
+        config < 12 -> intArrayOf(480, 960, 1920, 2880)[config and 3] // SILK, 10 to 60 ms.
+        config < 16 -> intArrayOf(480, 960)[config and 1] // Hybrid, 10 or 20 ms.
+        else -> intArrayOf(120, 240, 480, 960)[config and 3] // CELT, 2.5 to 20 ms.
+    }
+    val frames = when (toc and 3) {
+        0 -> 1
+        1, 2 -> 2
+        else -> if (length < 2) return 0 else packet[offset + 1].toInt() and 0x3f
+    }
+    return frameSamples * frames
+}
+
+/**
+ * Finds the pre-skip in the codec-specific data an Opus encoder hands out before its first packet. Encoders put an
+ * OpusHead header in there, either on its own or wrapped in markers of their own.
+ */
+fun opusPreSkip(config: ByteArray, length: Int = config.size): Int? {
+    for (start in 0..length - OPUS_HEAD.size - 4) {
+        if (OPUS_HEAD.indices.all { config[start + it] == OPUS_HEAD[it] }) {
+            val at = start + OPUS_HEAD.size + 2
+            return (config[at].toInt() and 0xff) or ((config[at + 1].toInt() and 0xff) shl 8)
+        }
+    }
+    return null
+}
+
+/**
+ * Writes Opus packets to [out] as an Ogg Opus stream (RFC 7845) as they're encoded, so a recording ends up as a
+ * playable file without being held in memory or rewritten at the end.
+ *
+ * The identification and comment headers are written up front, [preSkip] being how many samples at the start a
+ * player should drop. Packets are then collected into pages of up to a second of audio each, and [finish] writes out
+ * the last one marked as the end of the stream.
+ */
+class OggOpusWriter(
+    private val out: OutputStream,
+    channels: Int,
+    inputRate: Int,
+    private val preSkip: Int = OPUS_DEFAULT_PRE_SKIP,
+    private val serial: Int = Random.nextInt(),
+) {
+    private var sequence = 0
+    private var first = true
+
+    // The page being put together, its lacing values and the data they describe.
+    private val segments = ByteArray(MAX_SEGMENTS)
+    private var segmentCount = 0
+    private var body = ByteArray(4096)
+    private var bodySize = 0
+    private var pageStartGranule = 0L
+
+    /** Where the stream is at in 48 kHz samples, pre-skip included, once everything written so far is decoded. */
+    var granule = 0L
+        private set
+
+    /** How long the audio written so far plays for, in ms. */
+    val durationMs get() = maxOf(0L, granule - preSkip) * 1000 / OPUS_GRANULE_RATE
+
+    init {
+        require(channels in 1..2) { "Can't write $channels channels" }
+        val head = ByteArray(19)
+        OPUS_HEAD.copyInto(head)
+        head[8] = 1 // Version.
+        head[9] = channels.toByte()
+        putLe(head, 10, preSkip, 2)
+        putLe(head, 12, inputRate, 4)
+        // Output gain and channel mapping family stay 0, mono or stereo without any mapping table.
+        addPacket(head, 0, head.size)
+        flushPage(0)
+
+        val tags = ByteArray(OPUS_TAGS.size + 4 + VENDOR.size + 4)
+        OPUS_TAGS.copyInto(tags)
+        putLe(tags, OPUS_TAGS.size, VENDOR.size, 4)
+        VENDOR.copyInto(tags, OPUS_TAGS.size + 4)
+        // No user comments.
+        addPacket(tags, 0, tags.size)
+        flushPage(0)
+    }
+
+    /** Writes [length] bytes of [packet], starting at [offset], as the next Opus packet in the stream. */
+    fun write(packet: ByteArray, offset: Int = 0, length: Int = packet.size - offset) {
+        val lacing = length / MAX_SEGMENT_SIZE + 1
+        require(lacing <= MAX_SEGMENTS) { "A $length byte packet doesn't fit on a page" }
+        if (segmentCount + lacing > MAX_SEGMENTS) flushPage(granule)
+        addPacket(packet, offset, length)
+        granule += opusPacketSamples(packet, offset, length)
+        if (granule - pageStartGranule >= MAX_PAGE_GRANULES) flushPage(granule)
+    }
+
+    /** Writes out whatever is left as the last page, which may be empty, and flushes [out]. */
+    fun finish() {
+        flushPage(granule, FLAG_LAST)
+        out.flush()
+    }
+
+    private fun addPacket(packet: ByteArray, offset: Int, length: Int) {
+        var left = length
+        while (left >= MAX_SEGMENT_SIZE) {
+            segments[segmentCount++] = MAX_SEGMENT_SIZE.toByte()
+            left -= MAX_SEGMENT_SIZE
+        }
+        // A packet ends on the first lacing value short of 255, which is 0 for packets a multiple of 255 long.
+        segments[segmentCount++] = left.toByte()
+
+        if (bodySize + length > body.size) body = body.copyOf(maxOf(body.size * 2, bodySize + length))
+        packet.copyInto(body, bodySize, offset, offset + length)
+        bodySize += length
+    }
+
+    private fun flushPage(pageGranule: Long, flags: Int = 0) {
+        val page = ByteArray(PAGE_HEADER_SIZE + segmentCount + bodySize)
+        page[0] = 'O'.code.toByte()
+        page[1] = 'g'.code.toByte()
+        page[2] = 'g'.code.toByte()
+        page[3] = 'S'.code.toByte()
+        // page[4] is the stream structure version, always 0.
+        page[5] = (flags or if (first) FLAG_FIRST else 0).toByte()
+        putLe(page, 6, pageGranule, 8)
+        putLe(page, 14, serial.toLong(), 4)
+        putLe(page, 18, sequence.toLong(), 4)
+        // The checksum at 22 is worked out over the page with those bytes still 0.
+        page[26] = segmentCount.toByte()
+        segments.copyInto(page, PAGE_HEADER_SIZE, 0, segmentCount)
+        body.copyInto(page, PAGE_HEADER_SIZE + segmentCount, 0, bodySize)
+        putLe(page, 22, oggCrc(page).toLong(), 4)
+        out.write(page)
+
+        first = false
+        sequence++
+        segmentCount = 0
+        bodySize = 0
+        pageStartGranule = pageGranule
+    }
+}
+
+private fun putLe(data: ByteArray, offset: Int, value: Int, bytes: Int) = putLe(data, offset, value.toLong(), bytes)
+
+private fun putLe(data: ByteArray, offset: Int, value: Long, bytes: Int) {
+    for (i in 0 until bytes) {
+        data[offset + i] = (value ushr (i * 8)).toByte()
+    }
+}
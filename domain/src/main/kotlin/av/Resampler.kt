@@ -0,0 +1,156 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+import kotlin.math.PI
+import kotlin.math.ceil
+import kotlin.math.min
+import kotlin.math.roundToInt
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+// Taps on each side of the point being interpolated when not shrinking the bandwidth, enough for the stopband to
+// reach the noise floor of 16-bit audio. Going down in rate widens the filter by the same factor as its cutoff falls.
+private const val HALF_TAPS = 8
+
+// The filter cuts off this far towards the lower of the two Nyquist frequencies, leaving the rest to roll off in.
+private const val PASSBAND = 0.9
+
+// The Kaiser window shape, about 80 dB of stopband attenuation.
+private const val KAISER_BETA = 8.0
+
+// Rates with a ratio that doesn't reduce to a handful of phases get the phase just before where each sample falls
+// instead, off by less than 1/1024 of an input sample.
+private const val MAX_PHASES = 1024
+
+private const val SHORT_MIN = -32768
+private const val SHORT_MAX = 32767
+
+private fun gcd(a: Int, b: Int): Int = if (b == 0) a else gcd(b, a % b)
+
+// The zeroth-order modified Bessel function of the first kind, as the Kaiser window needs.
+private fun besselI0(x: Double): Double {
+    var sum = 1.0
+    var term = 1.0
+    var k = 1
+    while (term > sum * 1e-12) {
+        val half = x / (2 * k)
+        term *= half * half
+        sum += term
+        k++
+    }
+    return sum
+}
+
+/**
+ * Converts interleaved 16-bit PCM from [inRate] to [outRate] as it streams through, with a polyphase windowed-sinc
+ * filter.
+ *
+ * The ratio between the rates is reduced to the number of distinct points between two input samples the output can
+ * fall on, and a filter is precomputed for each of them, band-limited to below the lower of the two Nyquist
+ * frequencies so going down in rate doesn't alias. Where the next output sample falls is kept as an exact fraction
+ * carried over from one call to the next, so frames of any length can be fed through without the output drifting or
+ * clicking at their edges. Output runs [delay] input frames behind. Nothing is allocated after construction.
+ */
+class Resampler(val inRate: Int, val outRate: Int, val channels: Int) {
+    init {
+        require(inRate > 0 && outRate > 0 && channels > 0) { "Can't resample $channels channels $inRate -> $outRate" }
+    }
+
+    private val bandwidth = min(1.0, outRate.toDouble() / inRate)
+    private val halfTaps = ceil(HALF_TAPS / bandwidth).toInt()
+    private val taps = halfTaps * 2
+    private val phases = min(outRate / gcd(inRate, outRate), MAX_PHASES)
+    private val coefficients = FloatArray(phases * taps)
+
+    /** How many input frames behind the output runs. */
+    val delay = halfTaps
+
+    // The last input frames of the previous calls, for the filters of the next output samples to reach back into.
+    private val historyFrames = taps - 1
+    private val history = ShortArray(historyFrames * channels)
+
+    // Where the first tap of the next output sample is, in 1/outRate input frames from the oldest history frame.
+    private var position = 0L
+
+    init {
+        // Passing audio through at the same rate shouldn't filter it at all, which a full-band sinc doesn't.
+        val cutoff = if (inRate == outRate) 1.0 else PASSBAND * bandwidth
+        val window = besselI0(KAISER_BETA)
+        for (phase in 0 until phases) {
+            val row = phase * taps
+            val fraction = phase.toDouble() / phases
+            var sum = 0.0
+            for (t in 0 until taps) {
+                // How far this tap is from the point between the middle two that's being interpolated.
+                val distance = t - halfTaps + 1 - fraction
+                val x = cutoff * distance
+                val sinc = if (x == 0.0) 1.0 else sin(PI * x) / (PI * x)
+                val r = distance / halfTaps
+                val value = cutoff * sinc * besselI0(KAISER_BETA * sqrt(maxOf(0.0, 1 - r * r))) / window
+                coefficients[row + t] = value.toFloat()
+                sum += value
+            }
+            // Each phase passes a constant level through unchanged.
+            for (t in 0 until taps) {
+                coefficients[row + t] = (coefficients[row + t] / sum).toFloat()
+            }
+        }
+    }
+
+    /** The most frames [process] can write for [inFrames] frames of input. */
+    fun maxOutputFrames(inFrames: Int) = ((inFrames.toLong() * outRate + inRate - 1) / inRate).toInt()
+
+    /** The most frames of input [process] can take without writing more than [outFrames] frames. */
+    fun maxInputFrames(outFrames: Int) = (outFrames.toLong() * inRate / outRate).toInt()
+
+    /**
+     * Resamples [inFrames] frames of [input], starting [offset] frames in, into [output], which has to have room for
+     * [maxOutputFrames] frames, and returns how many frames were written.
+     */
+    fun process(input: ShortArray, inFrames: Int, output: ShortArray, offset: Int = 0): Int {
+        val end = inFrames.toLong() * outRate
+        var written = 0
+        while (position < end) {
+            val first = (position / outRate).toInt()
+            val row = (position % outRate * phases / outRate).toInt() * taps
+            val out = written * channels
+            for (c in 0 until channels) {
+                var sum = 0f
+                var t = 0
+                var frame = first
+                while (frame < historyFrames && t < taps) {
+                    sum += coefficients[row + t] * history[frame * channels + c]
+                    t++
+                    frame++
+                }
+                var sample = (offset + frame - historyFrames) * channels + c
+                while (t < taps) {
+                    sum += coefficients[row + t] * input[sample]
+                    t++
+                    sample += channels
+                }
+                output[out + c] = sum.roundToInt().coerceIn(SHORT_MIN, SHORT_MAX).toShort()
+            }
+            written++
+            position += inRate
+        }
+
+        position -= end
+        keepHistory(input, offset, inFrames)
+        return written
+    }
+
+    private fun keepHistory(input: ShortArray, offset: Int, inFrames: Int) {
+        if (inFrames >= historyFrames) {
+            val end = (offset + inFrames) * channels
+            input.copyInto(history, 0, end - historyFrames * channels, end)
+        } else {
+            history.copyInto(history, 0, inFrames * channels, history.size)
+            val start = offset * channels
+            input.copyInto(history, (historyFrames - inFrames) * channels, start, start + inFrames * channels)
+        }
+    }
+}
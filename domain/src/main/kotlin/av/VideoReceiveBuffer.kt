@@ -0,0 +1,90 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+data class VideoReceiveStats(
+    val received: Long,
+    val rendered: Long,
+    /** Frames replaced by a newer one before the renderer got to them. */
+    val dropped: Long,
+    /** Frames toxav put somewhere other than the planes we offered, which then had to be copied. */
+    val copied: Long,
+)
+
+/**
+ * Hands received video frames from toxav to the renderer through three reused [I420Frame]s.
+ *
+ * toxav decodes into the frame returned by [writeFrame], which becomes the ready one once [publish]ed. The renderer
+ * takes the ready frame with [takeLatest] and keeps it until it asks again. A frame published while the previous one
+ * is still waiting replaces it, so a renderer that falls behind skips to the newest picture instead of building up
+ * delay, and neither side ever waits on the other or allocates once the frames are big enough.
+ */
+class VideoReceiveBuffer {
+    private val frames = Array(3) { I420Frame() }
+    private var writing = 0
+    private var ready = 1
+    private var reading = 2
+    private var fresh = false
+
+    private var received = 0L
+    private var rendered = 0L
+    private var dropped = 0L
+    private var copied = 0L
+
+    /** Called on the decoding thread whenever a new frame is ready to be taken. */
+    @Volatile
+    var onFrameAvailable: (() -> Unit)? = null
+
+    /** Planes for toxav to decode the next frame into. Only call this from the decoding thread. */
+    fun writeFrame(height: Int, yStride: Int, uStride: Int, vStride: Int): I420Frame =
+        frames[writing].apply { reserve(height, yStride, uStride, vStride) }
+
+    /** Makes the frame just decoded the one to render next. Only call this from the decoding thread. */
+    fun publish(
+        width: Int,
+        height: Int,
+        y: ByteArray,
+        u: ByteArray,
+        v: ByteArray,
+        yStride: Int,
+        uStride: Int,
+        vStride: Int,
+    ) {
+        val frame = frames[writing]
+        if (y === frame.y && u === frame.u && v === frame.v) {
+            frame.setFormat(width, height, yStride, uStride, vStride)
+        } else {
+            frame.copyFrom(width, height, y, u, v, yStride, uStride, vStride)
+            synchronized(this) { copied++ }
+        }
+
+        synchronized(this) {
+            received++
+            if (fresh) dropped++
+            writing = ready.also { ready = writing }
+            fresh = true
+        }
+        onFrameAvailable?.invoke()
+    }
+
+    /**
+     * The newest frame if one arrived since the last call, or null if the previously taken frame is still the latest.
+     * The frame stays untouched until the next call. Only call this from the rendering thread.
+     */
+    fun takeLatest(): I420Frame? = synchronized(this) {
+        if (!fresh) return null
+        reading = ready.also { ready = reading }
+        fresh = false
+        rendered++
+        frames[reading]
+    }
+
+    /** Forgets about any waiting frame, e.g. when a call ends. */
+    fun clear() = synchronized(this) {
+        fresh = false
+    }
+
+    fun stats() = synchronized(this) { VideoReceiveStats(received, rendered, dropped, copied) }
+}
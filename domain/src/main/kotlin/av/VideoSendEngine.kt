@@ -0,0 +1,245 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+import android.annotation.SuppressLint
+import android.content.Context
+import android.graphics.ImageFormat
+import android.hardware.camera2.CameraAccessException
+import android.hardware.camera2.CameraCaptureSession
+import android.hardware.camera2.CameraCharacteristics
+import android.hardware.camera2.CameraDevice
+import android.hardware.camera2.CameraManager
+import android.media.ImageReader
+import android.os.Handler
+import android.os.HandlerThread
+import android.os.Process
+import android.os.SystemClock
+import android.util.Log
+import androidx.core.content.ContextCompat
+
+private const val TAG = "VideoSendEngine"
+
+// VGA is as much as toxav's VP8 encoder keeps up with in software on most phones.
+private const val CAPTURE_WIDTH = 640
+private const val CAPTURE_HEIGHT = 480
+
+data class VideoSendCounters(
+    val captured: Long,
+    /** Frames the camera delivered faster than the frame rate being sent. */
+    val skipped: Long,
+    val sent: Long,
+    val sendErrors: Long,
+    /** The time spent converting and sending frames, summed up. */
+    val sendTimeMs: Long,
+)
+
+/**
+ * Records video from the front camera and hands it to [send], one I420 frame at a time.
+ *
+ * Frames are converted on the camera's own thread into pooled frames, turned upright and shrunk as the current
+ * bitrate asks for, see [videoSendFormatFor], and paced to its frame rate. The camera only keeps the latest frame
+ * around, so if sending falls behind, frames are skipped at the source rather than queued.
+ */
+class VideoSendEngine(
+    context: Context,
+    private val send: (frame: I420Frame) -> Unit,
+    private val onStopped: (VideoSendEngine) -> Unit,
+) {
+    private val cameraManager = ContextCompat.getSystemService(context, CameraManager::class.java)
+    private val thread = HandlerThread("VideoCapture", Process.THREAD_PRIORITY_DISPLAY)
+    private lateinit var handler: Handler
+
+    private val pool = I420FramePool()
+
+    @Volatile
+    private var format = videoSendFormatFor(0)
+    private val pacer = FramePacer(format.fps)
+    private var rotation = 0
+
+    // Only touched on the camera thread.
+    private var reader: ImageReader? = null
+    private var camera: CameraDevice? = null
+    private var session: CameraCaptureSession? = null
+    private var released = false
+
+    @Volatile
+    private var captured = 0L
+
+    @Volatile
+    private var skipped = 0L
+
+    @Volatile
+    private var sent = 0L
+
+    @Volatile
+    private var sendErrors = 0L
+
+    @Volatile
+    private var sendTimeMs = 0L
+
+    fun counters() = VideoSendCounters(captured, skipped, sent, sendErrors, sendTimeMs)
+
+    /** Adapts the resolution and frame rate to the video bitrate toxav is using. */
+    fun setBitRate(kbps: Int) {
+        format = videoSendFormatFor(kbps)
+    }
+
+    /** Opens the camera, returns false if there isn't one to use. */
+    @SuppressLint("MissingPermission") // Checked by whoever asks for video to be sent.
+    fun start(): Boolean {
+        val manager = cameraManager ?: return false
+        val id = try {
+            pickCamera(manager)?.also {
+                rotation = manager.getCameraCharacteristics(it).get(CameraCharacteristics.SENSOR_ORIENTATION) ?: 0
+            }
+        } catch (e: CameraAccessException) {
+            Log.e(TAG, "Unable to look at cameras: $e")
+            null
+        } ?: return false
+
+        thread.start()
+        handler = Handler(thread.looper)
+        reader = ImageReader.newInstance(CAPTURE_WIDTH, CAPTURE_HEIGHT, ImageFormat.YUV_420_888, 2).apply {
+            setOnImageAvailableListener({ onImageAvailable(it) }, handler)
+        }
+
+        try {
+            manager.openCamera(id, cameraCallback, handler)
+        } catch (e: CameraAccessException) {
+            Log.e(TAG, "Unable to open camera $id: $e")
+            handler.post { release() }
+            return false
+        } catch (e: SecurityException) {
+            Log.e(TAG, "Not allowed to open camera $id: $e")
+            handler.post { release() }
+            return false
+        }
+        return true
+    }
+
+    /** Closes the camera, [onStopped] is called once it is. */
+    fun stop() {
+        handler.post { release() }
+    }
+
+    private fun pickCamera(manager: CameraManager): String? {
+        val ids = manager.cameraIdList
+        return ids.firstOrNull {
+            manager.getCameraCharacteristics(it).get(CameraCharacteristics.LENS_FACING) ==
+                CameraCharacteristics.LENS_FACING_FRONT
+        } ?: ids.firstOrNull()
+    }
+
+    private val cameraCallback = object : CameraDevice.StateCallback() {
+        override fun onOpened(device: CameraDevice) {
+            if (released) {
+                device.close()
+                return
+            }
+            camera = device
+            val surface = reader?.surface ?: return release()
+            try {
+                @Suppress("DEPRECATION") // The replacement needs API 28.
+                device.createCaptureSession(listOf(surface), sessionCallback, handler)
+            } catch (e: CameraAccessException) {
+                Log.e(TAG, "Unable to create capture session: $e")
+                release()
+            }
+        }
+
+        override fun onDisconnected(device: CameraDevice) {
+            Log.i(TAG, "Camera taken away")
+            release()
+        }
+
+        override fun onError(device: CameraDevice, error: Int) {
+            Log.e(TAG, "Camera error $error")
+            release()
+        }
+    }
+
+    private val sessionCallback = object : CameraCaptureSession.StateCallback() {
+        override fun onConfigured(captureSession: CameraCaptureSession) {
+            val device = camera
+            val surface = reader?.surface
+            if (released || device == null || surface == null) {
+                captureSession.close()
+                return
+            }
+            session = captureSession
+            try {
+                val request = device.createCaptureRequest(CameraDevice.TEMPLATE_RECORD).apply { addTarget(surface) }
+                captureSession.setRepeatingRequest(request.build(), null, handler)
+            } catch (e: CameraAccessException) {
+                Log.e(TAG, "Unable to start capturing: $e")
+                release()
+            }
+        }
+
+        override fun onConfigureFailed(captureSession: CameraCaptureSession) {
+            Log.e(TAG, "Unable to configure capture session")
+            release()
+        }
+    }
+
+    private fun onImageAvailable(imageReader: ImageReader) {
+        val image = imageReader.acquireLatestImage() ?: return
+        val startedAt = SystemClock.elapsedRealtime()
+        val frame = try {
+            captured++
+            val format = format
+            if (pacer.fps != format.fps) pacer.fps = format.fps
+            if (!pacer.accept(image.timestamp / 1_000_000)) {
+                skipped++
+                return
+            }
+
+            val planes = image.planes
+            pool.acquire(
+                convertedWidth(image.width, image.height, rotation, format.scale),
+                convertedHeight(image.width, image.height, rotation, format.scale),
+            ).also {
+                convertYuv420(
+                    image.width,
+                    image.height,
+                    planes[0].buffer,
+                    planes[0].rowStride,
+                    planes[1].buffer,
+                    planes[2].buffer,
+                    planes[1].rowStride,
+                    planes[1].pixelStride,
+                    rotation,
+                    format.scale,
+                    it,
+                )
+            }
+        } finally {
+            image.close()
+        }
+
+        try {
+            send(frame)
+            sent++
+        } catch (e: Exception) {
+            sendErrors++
+            Log.e(TAG, e.toString())
+        } finally {
+            pool.release(frame)
+            sendTimeMs += SystemClock.elapsedRealtime() - startedAt
+        }
+    }
+
+    private fun release() {
+        if (released) return
+        released = true
+        session?.close()
+        camera?.close()
+        reader?.close()
+        thread.quitSafely()
+        Log.i(TAG, "Stopped: ${counters()}")
+        onStopped(this)
+    }
+}
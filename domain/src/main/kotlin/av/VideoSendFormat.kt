@@ -0,0 +1,54 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+/** What to send at a given video bitrate: camera frames shrunk by [scale], at most [fps] of them a second. */
+data class VideoSendFormat(val scale: Int, val fps: Int)
+
+// VP8 needs roughly this many kbit/s for watchable VGA at 15 fps, below it fewer, smaller frames look better than
+// many blocky ones.
+private const val FULL_SIZE_MIN_KBPS = 400
+private const val FULL_RATE_MIN_KBPS = 800
+private const val LOW_RATE_MAX_KBPS = 150
+
+/** Picks the resolution and frame rate that make the best use of [kbps]. */
+fun videoSendFormatFor(kbps: Int) = when {
+    kbps >= FULL_RATE_MIN_KBPS -> VideoSendFormat(scale = 1, fps = 24)
+    kbps >= FULL_SIZE_MIN_KBPS -> VideoSendFormat(scale = 1, fps = 15)
+    kbps > LOW_RATE_MAX_KBPS -> VideoSendFormat(scale = 2, fps = 15)
+    else -> VideoSendFormat(scale = 2, fps = 8)
+}
+
+/**
+ * Thins out camera frames to [fps] a second.
+ *
+ * Cameras deliver frames at their own rate, which may be higher than what's worth encoding and rarely evenly spaced.
+ * Frames are let through once they are due, with some slack so a frame arriving slightly early isn't dropped in favour
+ * of one a whole camera interval later, and a stall doesn't cause a burst of catching up afterwards.
+ */
+class FramePacer(fps: Int) {
+    private var intervalMs = 1000.0 / fps
+    private var nextDueMs = Double.NaN
+
+    var fps = fps
+        set(value) {
+            field = value
+            intervalMs = 1000.0 / value
+        }
+
+    /** Whether to send the frame captured at [timestampMs]. */
+    fun accept(timestampMs: Long): Boolean {
+        val now = timestampMs.toDouble()
+        if (!nextDueMs.isNaN() && now < nextDueMs - intervalMs / 4) return false
+
+        // After a stall, start over from this frame instead of letting through everything that was missed.
+        nextDueMs = if (nextDueMs.isNaN() || now - nextDueMs > intervalMs) now + intervalMs else nextDueMs + intervalMs
+        return true
+    }
+
+    fun reset() {
+        nextDueMs = Double.NaN
+    }
+}
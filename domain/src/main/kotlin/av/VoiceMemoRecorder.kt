@@ -0,0 +1,249 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+import android.content.Context
+import android.media.MediaCodec
+import android.media.MediaCodecInfo
+import android.media.MediaCodecList
+import android.media.MediaFormat
+import android.media.MediaMuxer
+import android.os.Build
+import android.os.SystemClock
+import android.util.Log
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlinx.coroutines.CompletableDeferred
+
+private const val TAG = "VoiceMemoRecorder"
+
+private const val FRAME_LENGTH_MS = 20
+private const val CHANNELS = 1
+
+private const val DEQUEUE_TIMEOUT_US = 10_000L
+
+// How long to wait at the end for the encoder to hand back the last of what it's holding on to.
+private const val DRAIN_TIMEOUT_MS = 1000L
+
+private class VoiceMemoEncoding(val mime: String, val sampleRate: Int, val bitRate: Int, val extension: String) {
+    fun format(): MediaFormat = MediaFormat.createAudioFormat(mime, sampleRate, CHANNELS).apply {
+        setInteger(MediaFormat.KEY_BIT_RATE, bitRate)
+        setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, sampleRate * CHANNELS * FRAME_LENGTH_MS / 1000 * 2)
+        if (mime == MediaFormat.MIMETYPE_AUDIO_AAC) {
+            setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC)
+        }
+    }
+}
+
+// Fullband Opus at wideband speech rates, about an eighth of the 128 kbps AAC voice memos used to be.
+private val OPUS = VoiceMemoEncoding(MediaFormat.MIMETYPE_AUDIO_OPUS, 48_000, 16_000, "ogg")
+
+// Devices without an Opus encoder, anything before Android 10, still get speech-sized AAC.
+private val AAC = VoiceMemoEncoding(MediaFormat.MIMETYPE_AUDIO_AAC, 16_000, 32_000, "m4a")
+
+private fun hasEncoder(encoding: VoiceMemoEncoding) =
+    MediaCodecList(MediaCodecList.REGULAR_CODECS).findEncoderForFormat(encoding.format()) != null
+
+/** A finished recording, with the peaks of its [waveform] as [WaveformSummary.peaks] gives them. */
+class VoiceMemo(val file: File, val durationMs: Long, val waveform: ByteArray)
+
+/** Where encoded audio ends up, in whatever container suits the codec. */
+private interface EncodedAudioSink {
+    /** Called once, with the encoder's output format, before anything is [write]n. */
+    fun start(format: MediaFormat)
+
+    fun write(data: ByteBuffer, info: MediaCodec.BufferInfo)
+
+    fun finish()
+}
+
+private class OggOpusSink(private val out: OutputStream) : EncodedAudioSink {
+    private var writer: OggOpusWriter? = null
+    private var packet = ByteArray(1024)
+
+    override fun start(format: MediaFormat) {
+        val preSkip = format.getByteBuffer("csd-0")?.let {
+            val config = ByteArray(it.remaining())
+            it.get(config)
+            opusPreSkip(config)
+        } ?: OPUS_DEFAULT_PRE_SKIP
+        writer = OggOpusWriter(out, CHANNELS, OPUS.sampleRate, preSkip)
+    }
+
+    override fun write(data: ByteBuffer, info: MediaCodec.BufferInfo) {
+        val writer = writer ?: return
+        if (packet.size < info.size) packet = ByteArray(info.size)
+        data.get(packet, 0, info.size)
+        writer.write(packet, 0, info.size)
+    }
+
+    override fun finish() {
+        out.use { writer?.finish() }
+    }
+}
+
+private class Mp4Sink(path: String) : EncodedAudioSink {
+    private val muxer = MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4)
+    private var track = -1
+
+    override fun start(format: MediaFormat) {
+        track = muxer.addTrack(format)
+        muxer.start()
+    }
+
+    override fun write(data: ByteBuffer, info: MediaCodec.BufferInfo) {
+        if (track >= 0) muxer.writeSampleData(track, data, info)
+    }
+
+    override fun finish() {
+        try {
+            if (track >= 0) muxer.stop()
+        } finally {
+            muxer.release()
+        }
+    }
+}
+
+/**
+ * Records a voice memo into [file] through the same capture path as calls, encoding it as it's recorded.
+ *
+ * Opus goes into an Ogg file page by page, so there's nothing left to do at the end but flush the last page. The
+ * loudness of every frame is kept along the way for the memo's waveform.
+ */
+class VoiceMemoRecorder private constructor(
+    val file: File,
+    capture: AudioCapture,
+    private val codec: MediaCodec,
+    private val sink: EncodedAudioSink,
+) {
+    private val waveform = WaveformSummary(capture.frameSize)
+    private val info = MediaCodec.BufferInfo()
+    private val done = CompletableDeferred<VoiceMemo?>()
+    private var framesEncoded = 0L
+    private var started = false
+    private var ended = false
+
+    // Capture runs on its own thread and encoding on another, so a slow encoder can't make capture miss a read.
+    private val engine = AudioSendEngine(capture, FRAME_LENGTH_MS, ::encode) { finishEncoding() }
+
+    /** Stops recording and returns the memo once it's been written out, or null if writing it failed. */
+    suspend fun stop(): VoiceMemo? {
+        engine.stop()
+        return done.await()
+    }
+
+    private fun encode(pcm: ShortArray) {
+        waveform.add(pcm)
+        queue(pcm, 0)
+        framesEncoded++
+    }
+
+    private fun queue(pcm: ShortArray, flags: Int) {
+        var index = codec.dequeueInputBuffer(0)
+        while (index < 0) {
+            drain(0)
+            index = codec.dequeueInputBuffer(DEQUEUE_TIMEOUT_US)
+        }
+        val buffer = requireNotNull(codec.getInputBuffer(index))
+        buffer.clear()
+        buffer.order(ByteOrder.nativeOrder()).asShortBuffer().put(pcm)
+        codec.queueInputBuffer(index, 0, pcm.size * 2, framesEncoded * FRAME_LENGTH_MS * 1000, flags)
+        drain(0)
+    }
+
+    /** Hands everything the encoder has ready to the sink, up to and including the end of the stream. */
+    private fun drain(timeoutUs: Long) {
+        while (!ended) {
+            val index = codec.dequeueOutputBuffer(info, timeoutUs)
+            when {
+                // Containers only take one format, their headers are already written by the time any later one comes.
+                index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED -> if (!started) {
+                    started = true
+                    sink.start(codec.outputFormat)
+                }
+                index == MediaCodec.INFO_TRY_AGAIN_LATER -> return
+                index < 0 -> continue
+                else -> {
+                    val buffer = codec.getOutputBuffer(index)
+                    // The codec config is in the output format already, the containers carry it from there.
+                    if (buffer != null && info.size > 0 && info.flags and MediaCodec.BUFFER_FLAG_CODEC_CONFIG == 0) {
+                        buffer.position(info.offset).limit(info.offset + info.size)
+                        sink.write(buffer, info)
+                    }
+                    codec.releaseOutputBuffer(index, false)
+                    ended = info.flags and MediaCodec.BUFFER_FLAG_END_OF_STREAM != 0
+                }
+            }
+        }
+    }
+
+    private fun finishEncoding() {
+        try {
+            queue(ShortArray(0), MediaCodec.BUFFER_FLAG_END_OF_STREAM)
+            val deadline = SystemClock.elapsedRealtime() + DRAIN_TIMEOUT_MS
+            while (!ended) {
+                drain(DEQUEUE_TIMEOUT_US)
+                if (!ended && SystemClock.elapsedRealtime() > deadline) {
+                    Log.w(TAG, "Gave up waiting for the encoder to finish")
+                    break
+                }
+            }
+        } catch (e: IllegalStateException) {
+            Log.e(TAG, "Finishing encoding failed: $e")
+        } finally {
+            codec.release()
+        }
+
+        val memo = try {
+            sink.finish()
+            VoiceMemo(file, framesEncoded * FRAME_LENGTH_MS, waveform.peaks())
+        } catch (e: IOException) {
+            Log.e(TAG, "Writing ${file.name} failed: $e")
+            null
+        } catch (e: IllegalStateException) {
+            // The muxer refuses to stop without having been given anything to write.
+            Log.e(TAG, "Writing ${file.name} failed: $e")
+            null
+        }
+        Log.i(TAG, "Recorded ${memo?.durationMs} ms into ${file.name}, ${file.length()} bytes")
+        done.complete(memo)
+    }
+
+    companion object {
+        /**
+         * Starts recording into a new file called [name] in [dir], with an extension to match what it's encoded as.
+         * Returns null if the microphone or the encoder couldn't be opened.
+         */
+        fun start(context: Context, dir: File, name: String): VoiceMemoRecorder? {
+            val encoding = if (Build.VERSION.SDK_INT >= 29 && hasEncoder(OPUS)) OPUS else AAC
+            val capture = AudioCapture.create(
+                encoding.sampleRate,
+                CHANNELS,
+                FRAME_LENGTH_MS,
+                AudioDeviceConfig.from(context),
+            ) ?: return null
+
+            val file = File(dir, "$name.${encoding.extension}")
+            var codec: MediaCodec? = null
+            return try {
+                codec = MediaCodec.createEncoderByType(encoding.mime)
+                codec.configure(encoding.format(), null, null, MediaCodec.CONFIGURE_FLAG_ENCODE)
+                val sink = if (encoding == OPUS) OggOpusSink(FileOutputStream(file)) else Mp4Sink(file.absolutePath)
+                codec.start()
+                Log.i(TAG, "Recording ${encoding.mime} at ${encoding.bitRate} bps into ${file.name}")
+                VoiceMemoRecorder(file, capture, codec, sink).also { it.engine.start() }
+            } catch (e: Exception) {
+                Log.e(TAG, "Opening ${encoding.mime} encoder failed: $e")
+                codec?.release()
+                capture.release()
+                null
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+import kotlin.math.abs
+
+// Enough bars for one every few dp across a message bubble.
+const val WAVEFORM_PEAKS = 64
+
+private const val MAX_LEVEL = 32767
+
+/**
+ * Keeps the loudest sample of every [blockSamples] samples of 16-bit PCM fed through it, so a waveform can be drawn
+ * once the audio is done without having to go through it again.
+ *
+ * How the audio is split up when it's [add]ed doesn't matter, blocks carry on from one call to the next.
+ */
+class WaveformSummary(private val blockSamples: Int) {
+    init {
+        require(blockSamples > 0) { "Blocks of $blockSamples samples" }
+    }
+
+    private var levels = ShortArray(1024)
+    private var blocks = 0
+    private var level = 0
+    private var inBlock = 0
+
+    fun add(pcm: ShortArray, length: Int = pcm.size) {
+        for (i in 0 until length) {
+            val sample = abs(pcm[i].toInt())
+            if (sample > level) level = sample
+            if (++inBlock == blockSamples) endBlock()
+        }
+    }
+
+    /**
+     * Boils what's been added down to [count] peaks, each the loudest block within its stretch of the audio, scaled so
+     * the loudest of them all is 255. The peaks are unsigned, and all 0 if there was nothing but silence.
+     */
+    fun peaks(count: Int = WAVEFORM_PEAKS): ByteArray {
+        val total = blocks + if (inBlock > 0) 1 else 0
+        val peaks = IntArray(count)
+        if (total == 0) return ByteArray(count)
+        for (i in 0 until count) {
+            // Each peak covers at least one block, even when there are fewer blocks than peaks.
+            val start = (i.toLong() * total / count).toInt()
+            val end = maxOf(start + 1, ((i + 1).toLong() * total / count).toInt())
+            for (block in start until end) {
+                peaks[i] = maxOf(peaks[i], levelOf(block))
+            }
+        }
+        val loudest = peaks.max()
+        if (loudest == 0) return ByteArray(count)
+        return ByteArray(count) { (peaks[it] * 255 / loudest).toByte() }
+    }
+
+    private fun levelOf(block: Int) = if (block < blocks) levels[block].toInt() else minOf(level, MAX_LEVEL)
+
+    private fun endBlock() {
+        if (blocks == levels.size) levels = levels.copyOf(levels.size * 2)
+        levels[blocks++] = minOf(level, MAX_LEVEL).toShort()
+        level = 0
+        inBlock = 0
+    }
+}
+
+/** Writes [peaks] out as hex, two digits each, to be stored along with the audio they're of. */
+fun encodeWaveform(peaks: ByteArray): String {
+    val hex = CharArray(peaks.size * 2)
+    for (i in peaks.indices) {
+        val peak = peaks[i].toInt() and 0xff
+        hex[i * 2] = Character.forDigit(peak shr 4, 16)
+        hex[i * 2 + 1] = Character.forDigit(peak and 0xf, 16)
+    }
+    return String(hex)
+}
+
+/** Reads back peaks written by [encodeWaveform], or nothing if [encoded] isn't a waveform. */
+fun decodeWaveform(encoded: String): ByteArray {
+    if (encoded.length % 2 != 0) return ByteArray(0)
+    val peaks = ByteArray(encoded.length / 2)
+    for (i in peaks.indices) {
+        val high = Character.digit(encoded[i * 2], 16)
+        val low = Character.digit(encoded[i * 2 + 1], 16)
+        if (high < 0 || low < 0) return ByteArray(0)
+        peaks[i] = (high shl 4 or low).toByte()
+    }
+    return peaks
+}
@@ -0,0 +1,158 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.feature
+
+import android.content.Context
+import android.media.MediaCodec
+import android.media.MediaExtractor
+import android.media.MediaFormat
+import android.net.Uri
+import android.os.SystemClock
+import android.util.Log
+import java.io.IOException
+import java.net.URLConnection
+import java.nio.ByteOrder
+import java.util.Locale
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlin.math.max
+import ltd.evilcorp.core.repository.FileTransferRepository
+import ltd.evilcorp.core.vo.FileTransfer
+import ltd.evilcorp.domain.av.WaveformSummary
+import ltd.evilcorp.domain.av.encodeWaveform
+
+private const val TAG = "AudioMetadataExtractor"
+
+private const val DEQUEUE_TIMEOUT_US = 10_000L
+
+// Peaks are kept for every 20 ms, about as quickly as the loudness of speech changes.
+private const val BLOCKS_PER_SECOND = 50
+
+// Decoding all of something this long just to draw it isn't worth it, anything longer only gets its duration.
+private const val MAX_WAVEFORM_DURATION_US = 30L * 60 * 1_000_000
+
+// A decoder that hands back nothing for this long has stalled, and is given up on.
+private const val DECODE_STALL_TIMEOUT_MS = 2000L
+
+// Not every version of Android knows these hold audio, voice memos are recorded as Ogg Opus though.
+private val OGG_AUDIO_EXTENSIONS = setOf("ogg", "oga", "opus")
+
+/** Whether [fileName] looks like audio that can be played in the chat. */
+fun isAudio(fileName: String) =
+    URLConnection.guessContentTypeFromName(fileName)?.startsWith("audio/") == true ||
+        fileName.substringAfterLast('.').lowercase(Locale.ROOT) in OGG_AUDIO_EXTENSIONS
+
+private class DecodedAudio(val durationUs: Long, val waveform: String)
+
+/**
+ * Works out the duration and waveform the chat shows for audio transfers, so rows can be drawn without opening the
+ * audio until it's played.
+ *
+ * Like image previews, this happens once per transfer, when an outgoing one is created or an incoming one completes.
+ */
+@Singleton
+class AudioMetadataExtractor @Inject constructor(
+    private val context: Context,
+    private val fileTransferRepository: FileTransferRepository,
+) {
+    /** Blocks while decoding [source], so call it off the main thread. */
+    fun extract(ft: FileTransfer, source: Uri) {
+        if (!isAudio(ft.fileName)) return
+        val extractor = MediaExtractor()
+        try {
+            extractor.setDataSource(context, source, null)
+            val track = (0 until extractor.trackCount).firstOrNull {
+                extractor.getTrackFormat(it).getString(MediaFormat.KEY_MIME)?.startsWith("audio/") == true
+            } ?: return
+            extractor.selectTrack(track)
+            val format = extractor.getTrackFormat(track)
+            val durationUs = if (format.containsKey(MediaFormat.KEY_DURATION)) {
+                format.getLong(MediaFormat.KEY_DURATION)
+            } else {
+                0L
+            }
+
+            val decoded = if (durationUs <= MAX_WAVEFORM_DURATION_US) decode(extractor, format) else null
+            val durationMs = max(durationUs, decoded?.durationUs ?: 0L) / 1000
+            if (durationMs <= 0) return
+            fileTransferRepository.setAudioMetadata(ft.id, durationMs, decoded?.waveform ?: "")
+        } catch (e: IOException) {
+            Log.w(TAG, "Unable to read ${ft.id} for its duration: $e")
+        } catch (e: IllegalArgumentException) {
+            Log.w(TAG, "Unable to read ${ft.id} for its duration: $e")
+        } catch (e: IllegalStateException) {
+            // Includes MediaCodec.CodecException, for audio the decoder doesn't agree with.
+            Log.w(TAG, "Unable to decode ${ft.id} for its waveform: $e")
+        } catch (e: SecurityException) {
+            Log.w(TAG, "Not allowed to read ${ft.id} for its duration: $e")
+        } finally {
+            extractor.release()
+        }
+    }
+
+    private fun decode(extractor: MediaExtractor, format: MediaFormat): DecodedAudio? {
+        val mime = format.getString(MediaFormat.KEY_MIME) ?: return null
+        val codec = MediaCodec.createDecoderByType(mime)
+        try {
+            codec.configure(format, null, null, 0)
+            codec.start()
+
+            var sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE)
+            var channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT)
+            var summary: WaveformSummary? = null
+            var pcm = ShortArray(0)
+            var samples = 0L
+            val info = MediaCodec.BufferInfo()
+            var inputDone = false
+            var deadline = SystemClock.elapsedRealtime() + DECODE_STALL_TIMEOUT_MS
+            while (true) {
+                if (SystemClock.elapsedRealtime() > deadline) {
+                    Log.w(TAG, "Gave up waiting for the decoder after $samples samples")
+                    return null
+                }
+
+                if (!inputDone) {
+                    val index = codec.dequeueInputBuffer(DEQUEUE_TIMEOUT_US)
+                    if (index >= 0) {
+                        val size = extractor.readSampleData(requireNotNull(codec.getInputBuffer(index)), 0)
+                        if (size < 0) {
+                            codec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM)
+                            inputDone = true
+                        } else {
+                            codec.queueInputBuffer(index, 0, size, extractor.sampleTime, 0)
+                            extractor.advance()
+                        }
+                    }
+                }
+
+                val index = codec.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US)
+                if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    sampleRate = codec.outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE)
+                    channels = codec.outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT)
+                } else if (index >= 0) {
+                    deadline = SystemClock.elapsedRealtime() + DECODE_STALL_TIMEOUT_MS
+                    val buffer = codec.getOutputBuffer(index)
+                    if (buffer != null && info.size > 0) {
+                        val count = info.size / 2
+                        if (pcm.size < count) pcm = ShortArray(count)
+                        buffer.position(info.offset).limit(info.offset + info.size)
+                        buffer.order(ByteOrder.nativeOrder()).asShortBuffer().get(pcm, 0, count)
+                        val waveform = summary
+                            ?: WaveformSummary(max(1, sampleRate * channels / BLOCKS_PER_SECOND)).also { summary = it }
+                        waveform.add(pcm, count)
+                        samples += count
+                    }
+                    codec.releaseOutputBuffer(index, false)
+                    if (info.flags and MediaCodec.BUFFER_FLAG_END_OF_STREAM != 0) break
+                }
+            }
+
+            val durationUs = samples / channels * 1_000_000 / sampleRate
+            return DecodedAudio(durationUs, summary?.let { encodeWaveform(it.peaks()) } ?: "")
+        } finally {
+            codec.release()
+        }
+    }
+}
@@ -9,17 +9,36 @@ import android.media.AudioManager
 import android.os.SystemClock
 import android.util.Log
 import androidx.core.content.ContextCompat
+import im.tox.tox4j.av.exceptions.ToxavBitRateSetException
 import im.tox.tox4j.av.exceptions.ToxavCallControlException
 import javax.inject.Inject
 import javax.inject.Singleton
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
+import ltd.evilcorp.core.repository.ContactRepository
+import ltd.evilcorp.core.vo.ConnectionStatus
 import ltd.evilcorp.core.vo.Contact
 import ltd.evilcorp.core.vo.PublicKey
+import ltd.evilcorp.domain.av.AudioBitrateChange
+import ltd.evilcorp.domain.av.AudioBitrateConfig
+import ltd.evilcorp.domain.av.AudioBitrateController
 import ltd.evilcorp.domain.av.AudioCapture
+import ltd.evilcorp.domain.av.AudioDeviceConfig
+import ltd.evilcorp.domain.av.AudioPlayout
+import ltd.evilcorp.domain.av.AudioSendCounters
+import ltd.evilcorp.domain.av.AudioSendEngine
+import ltd.evilcorp.domain.av.CallMetrics
+import ltd.evilcorp.domain.av.CallMetricsCollector
+import ltd.evilcorp.domain.av.CallSample
+import ltd.evilcorp.domain.av.JitterBufferStats
+import ltd.evilcorp.domain.av.VideoReceiveBuffer
+import ltd.evilcorp.domain.av.VideoSendCounters
+import ltd.evilcorp.domain.av.VideoSendEngine
 import ltd.evilcorp.domain.tox.Tox
 
 sealed class CallState {
@@ -32,9 +51,18 @@ private const val TAG = "CallManager"
 private const val AUDIO_CHANNELS = 1
 private const val AUDIO_SAMPLING_RATE_HZ = 48_000
 private const val AUDIO_SEND_INTERVAL_MS = 20
+private const val MONITOR_INTERVAL_MS = 1_000L
+
+// Where video starts out until toxav has an opinion, enough for VGA at 15 fps.
+private const val VIDEO_START_BIT_RATE_KBPS = 400
 
 @Singleton
-class CallManager @Inject constructor(private val tox: Tox, private val scope: CoroutineScope, context: Context) {
+class CallManager @Inject constructor(
+    private val tox: Tox,
+    private val scope: CoroutineScope,
+    private val context: Context,
+    private val contactRepository: ContactRepository,
+) {
     private val _inCall = MutableStateFlow<CallState>(CallState.NotInCall)
     val inCall: StateFlow<CallState> get() = _inCall
 
@@ -44,7 +72,42 @@ class CallManager @Inject constructor(private val tox: Tox, private val scope: C
     private val _sendingAudio = MutableStateFlow(false)
     val sendingAudio: StateFlow<Boolean> get() = _sendingAudio
 
+    /** The video received in the current call, for whatever is showing it to take frames from. */
+    val remoteVideo = VideoReceiveBuffer()
+
+    private val _sendingVideo = MutableStateFlow(false)
+    val sendingVideo: StateFlow<Boolean> get() = _sendingVideo
+
+    private val _metrics = MutableStateFlow<CallMetrics?>(null)
+
+    /** How the current call is going, updated every second, or null when not in a call. */
+    val metrics: StateFlow<CallMetrics?> get() = _metrics
+
     private val audioManager = ContextCompat.getSystemService(context, AudioManager::class.java)
+    private val audioDevice by lazy { AudioDeviceConfig.from(context) }
+    // Kept until its threads have finished and released the microphone, a new one can't open it before then.
+    @Volatile
+    private var audioSender: AudioSendEngine? = null
+    private var audioSenderStopping = false
+
+    // Sending was turned back on while the previous sender was still stopping, so it's restarted once that's done.
+    private var audioSenderRestart = false
+    private var audioPlayout: AudioPlayout? = null
+
+    @Volatile
+    private var videoSender: VideoSendEngine? = null
+    private var videoBitRate = VIDEO_START_BIT_RATE_KBPS
+
+    /** The bounds the audio bitrate of the next call is picked within. */
+    var audioBitrateConfig = AudioBitrateConfig()
+
+    @Volatile
+    private var bitrateController = AudioBitrateController(audioBitrateConfig)
+    private var monitorJob: Job? = null
+    private var metricsCollector: CallMetricsCollector? = null
+
+    @Volatile
+    private var connection = ConnectionStatus.None
 
     fun addPendingCall(from: Contact) {
         val calls = mutableSetOf<Contact>().apply { addAll(_pendingCalls.value) }
@@ -66,21 +129,40 @@ class CallManager @Inject constructor(private val tox: Tox, private val scope: C
     }
 
     fun startCall(publicKey: PublicKey) {
+        val controller = AudioBitrateController(audioBitrateConfig)
+        val bitRate = controller.start(SystemClock.elapsedRealtime())
         if (pendingCalls.value.any { it.publicKey == publicKey.string() }) {
-            tox.answerCall(publicKey)
+            tox.answerCall(publicKey, bitRate)
         } else {
-            tox.startCall(publicKey)
+            tox.startCall(publicKey, bitRate)
         }
+        bitrateController = controller
+        videoBitRate = VIDEO_START_BIT_RATE_KBPS
         _inCall.value = CallState.InCall(publicKey, SystemClock.elapsedRealtime())
         audioManager?.mode = AudioManager.MODE_IN_COMMUNICATION
         removePendingCall(publicKey)
+        startMonitoring(publicKey)
     }
 
     fun endCall(publicKey: PublicKey) {
         val state = inCall.value
         if (state is CallState.InCall && state.publicKey == publicKey) {
+            stopSendingAudio()
+            stopSendingVideo(publicKey, callEnded = true)
+            monitorJob?.cancel()
+            monitorJob = null
+            remoteVideo.clear()
+            Log.i(TAG, "Call with ${publicKey.fingerprint()} ended: ${_metrics.value}")
+            Log.i(TAG, "Bottlenecks for ${publicKey.fingerprint()}: ${metricsCollector?.bottlenecks()}")
+            Log.i(TAG, "Audio bitrates for ${publicKey.fingerprint()}: ${bitrateController.changes()}")
+            metricsCollector = null
+            _metrics.value = null
             audioManager?.mode = AudioManager.MODE_NORMAL
-            _inCall.value = CallState.NotInCall
+            // Together, so that a frame arriving as the call ends can't set up playback after it's been torn down.
+            synchronized(this) {
+                _inCall.value = CallState.NotInCall
+                stopPlayingAudio()
+            }
         }
 
         removePendingCall(publicKey)
@@ -94,16 +176,185 @@ class CallManager @Inject constructor(private val tox: Tox, private val scope: C
         }
     }
 
+    @Synchronized
     fun startSendingAudio(): Boolean {
         val to = (inCall.value as CallState.InCall?)?.publicKey ?: return false
-        val recorder =
-            AudioCapture.create(AUDIO_SAMPLING_RATE_HZ, AUDIO_CHANNELS, AUDIO_SEND_INTERVAL_MS) ?: return false
-        startAudioSender(recorder, to)
-        return true
+        if (audioSender != null) {
+            if (audioSenderStopping) audioSenderRestart = true
+            return true
+        }
+        return startAudioSender(to)
     }
 
+    @Synchronized
     fun stopSendingAudio() {
-        _sendingAudio.value = false
+        audioSenderRestart = false
+        if (audioSenderStopping) return
+        val sender = audioSender ?: return
+        audioSenderStopping = true
+        sender.stop()
+    }
+
+    /** How the current audio sender is doing, or null if audio isn't being sent. */
+    fun audioSendCounters(): AudioSendCounters? = audioSender?.counters()
+
+    /** Queues received audio for playback, starting it on the first frame of a call. */
+    fun playAudio(from: PublicKey, pcm: ShortArray, channels: Int, samplingRate: Int) {
+        val playout = synchronized(this) {
+            // Frames still in flight when a call ends shouldn't start playback again.
+            val state = inCall.value
+            if (state !is CallState.InCall || state.publicKey != from) return
+            audioPlayout ?: AudioPlayout(audioDevice).also { audioPlayout = it }
+        }
+        playout.receive(pcm, channels, samplingRate)
+    }
+
+    /** Starts sending video from the camera, the caller has to make sure it's allowed to use it. */
+    fun startSendingVideo(): Boolean = synchronized(this) {
+        val to = (inCall.value as? CallState.InCall)?.publicKey ?: return false
+        if (videoSender != null) return true
+
+        val engine = VideoSendEngine(
+            context,
+            send = { frame -> tox.sendVideo(to, frame.width, frame.height, frame.y, frame.u, frame.v) },
+            onStopped = { stopped ->
+                synchronized(this) {
+                    // Stopping on its own, e.g. because another app took the camera.
+                    if (videoSender === stopped) videoSender = null
+                    if (videoSender == null) _sendingVideo.value = false
+                }
+            },
+        )
+        engine.setBitRate(videoBitRate)
+        if (!engine.start()) return false
+
+        // Calls start out audio-only, a video bitrate is what tells toxav to send video as well.
+        setVideoBitRate(to, videoBitRate)
+        videoSender = engine
+        _sendingVideo.value = true
+        true
+    }
+
+    fun stopSendingVideo() {
+        val to = (inCall.value as? CallState.InCall)?.publicKey ?: return
+        stopSendingVideo(to, callEnded = false)
+    }
+
+    /** Adapts the video being sent to the bitrate toxav thinks the network can take. */
+    fun onVideoBitRateSuggested(from: PublicKey, kbps: Int) {
+        val state = inCall.value
+        if (state !is CallState.InCall || state.publicKey != from || kbps <= 0) return
+        videoBitRate = kbps
+        val sender = videoSender ?: return
+        sender.setBitRate(kbps)
+        setVideoBitRate(from, kbps)
+    }
+
+    /** How the current video sender is doing, or null if video isn't being sent. */
+    fun videoSendCounters(): VideoSendCounters? = videoSender?.counters()
+
+    private fun stopSendingVideo(to: PublicKey, callEnded: Boolean) {
+        synchronized(this) {
+            val sender = videoSender ?: return
+            sender.stop()
+            videoSender = null
+            _sendingVideo.value = false
+        }
+        if (!callEnded) setVideoBitRate(to, 0)
+    }
+
+    private fun setVideoBitRate(publicKey: PublicKey, kbps: Int) {
+        try {
+            tox.setVideoBitRate(publicKey, kbps)
+        } catch (e: ToxavBitRateSetException) {
+            Log.w(TAG, "Unable to set video bitrate to $kbps: ${e.code()}")
+        }
+    }
+
+    /** Passes a decoded video frame on to [remoteVideo]. */
+    fun onVideoFrame(
+        from: PublicKey,
+        width: Int,
+        height: Int,
+        y: ByteArray,
+        u: ByteArray,
+        v: ByteArray,
+        yStride: Int,
+        uStride: Int,
+        vStride: Int,
+    ) {
+        val state = inCall.value
+        if (state !is CallState.InCall || state.publicKey != from) return
+        remoteVideo.publish(width, height, y, u, v, yStride, uStride, vStride)
+    }
+
+    /** How playback of received audio is doing, or null if nothing is being played. */
+    fun audioPlayoutStats(): JitterBufferStats? = audioPlayout?.stats()
+
+    /** Lowers the audio bitrate of the call with [from] if toxav thinks the network can't take it. */
+    fun onAudioBitRateSuggested(from: PublicKey, kbps: Int) {
+        val state = inCall.value
+        if (state !is CallState.InCall || state.publicKey != from) return
+        bitrateController.onSuggested(kbps, SystemClock.elapsedRealtime())?.let { setAudioBitRate(from, it) }
+    }
+
+    /** The audio bitrates picked during the current or last call, oldest first. */
+    fun audioBitrateChanges(): List<AudioBitrateChange> = bitrateController.changes()
+
+    // Adapts the audio bitrate and collects metrics for the call with [publicKey] once a second until it ends.
+    private fun startMonitoring(publicKey: PublicKey) {
+        monitorJob?.cancel()
+        val collector = CallMetricsCollector(SystemClock.elapsedRealtime(), remoteVideo.stats())
+        metricsCollector = collector
+        connection = ConnectionStatus.None
+        _metrics.value = null
+        monitorJob = scope.launch {
+            launch {
+                contactRepository.get(publicKey.string()).collect { connection = it.connectionStatus }
+            }
+
+            while (isActive) {
+                delay(MONITOR_INTERVAL_MS)
+                val now = SystemClock.elapsedRealtime()
+                val audioSend = audioSendCounters()
+                val playout = audioPlayoutStats()
+                bitrateController.update(
+                    now,
+                    audioSend?.sent ?: 0,
+                    audioSend?.sendErrors ?: 0,
+                    playout?.jitterMs,
+                )?.let { setAudioBitRate(publicKey, it) }
+
+                _metrics.value = collector.update(
+                    now,
+                    CallSample(
+                        connection = connection,
+                        audioBitrateKbps = bitrateController.kbps,
+                        audioBitrateChanges = bitrateController.changes(),
+                        videoBitrateKbps = if (videoSender != null) videoBitRate else 0,
+                        audioSend = audioSend,
+                        audioPlayout = playout,
+                        audioDeviceUnderruns = audioPlayout?.deviceUnderruns(),
+                        videoSend = videoSendCounters(),
+                        videoReceive = remoteVideo.stats(),
+                    ),
+                )
+            }
+        }
+    }
+
+    private fun setAudioBitRate(publicKey: PublicKey, kbps: Int) {
+        try {
+            tox.setAudioBitRate(publicKey, kbps)
+            Log.i(TAG, "Audio bitrate for ${publicKey.fingerprint()} set to $kbps kbit/s")
+        } catch (e: ToxavBitRateSetException) {
+            Log.w(TAG, "Unable to set audio bitrate to $kbps: ${e.code()}")
+        }
+    }
+
+    private fun stopPlayingAudio() = synchronized(this) {
+        audioPlayout?.stop()
+        audioPlayout = null
     }
 
     var speakerphoneOn: Boolean
@@ -112,26 +363,30 @@ class CallManager @Inject constructor(private val tox: Tox, private val scope: C
             audioManager?.isSpeakerphoneOn = value
         }
 
-    private fun startAudioSender(recorder: AudioCapture, to: PublicKey) {
-        scope.launch {
-            recorder.start()
-            _sendingAudio.value = true
-            while (inCall.value is CallState.InCall && sendingAudio.value) {
-                val start = System.currentTimeMillis()
-                val audioFrame = recorder.read()
-                try {
-                    tox.sendAudio(to, audioFrame, AUDIO_CHANNELS, AUDIO_SAMPLING_RATE_HZ)
-                } catch (e: Exception) {
-                    Log.e(TAG, e.toString())
-                }
-                val elapsed = System.currentTimeMillis() - start
-                if (elapsed < AUDIO_SEND_INTERVAL_MS) {
-                    delay(AUDIO_SEND_INTERVAL_MS - elapsed)
-                }
-            }
-            recorder.stop()
-            recorder.release()
-            _sendingAudio.value = false
-        }
+    @Synchronized
+    private fun startAudioSender(to: PublicKey): Boolean {
+        val recorder = AudioCapture.create(AUDIO_SAMPLING_RATE_HZ, AUDIO_CHANNELS, AUDIO_SEND_INTERVAL_MS, audioDevice)
+            ?: return false
+        val engine = AudioSendEngine(
+            recorder,
+            AUDIO_SEND_INTERVAL_MS,
+            send = { pcm -> tox.sendAudio(to, pcm, AUDIO_CHANNELS, AUDIO_SAMPLING_RATE_HZ) },
+            onStopped = { stopped -> onAudioSenderStopped(stopped, to) },
+        )
+        audioSender = engine
+        _sendingAudio.value = true
+        engine.start()
+        return true
+    }
+
+    // Also called when a sender stops on its own, e.g. because the microphone was taken away.
+    @Synchronized
+    private fun onAudioSenderStopped(stopped: AudioSendEngine, to: PublicKey) {
+        if (audioSender !== stopped) return
+        val restart = audioSenderRestart && (inCall.value as? CallState.InCall)?.publicKey == to
+        audioSender = null
+        audioSenderStopping = false
+        audioSenderRestart = false
+        if (!restart || !startAudioSender(to)) _sendingAudio.value = false
     }
 }
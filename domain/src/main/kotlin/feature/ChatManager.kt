@@ -10,8 +10,10 @@ import java.nio.charset.StandardCharsets
 import javax.inject.Inject
 import javax.inject.Singleton
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import ltd.evilcorp.core.repository.ContactRepository
 import ltd.evilcorp.core.repository.MessageRepository
 import ltd.evilcorp.core.vo.ConnectionStatus
@@ -57,7 +59,11 @@ class ChatManager @Inject constructor(
             }
         }
 
-    fun messagesFor(publicKey: PublicKey) = messageRepository.get(publicKey.string())
+    fun messageChangesFor(publicKey: PublicKey) = messageRepository.changes(publicKey.string())
+
+    suspend fun loadMessages(publicKey: PublicKey): List<Message> = withContext(Dispatchers.IO) {
+        messageRepository.getAll(publicKey.string())
+    }
 
     fun sendMessage(publicKey: PublicKey, message: String, type: MessageType = MessageType.Normal) = scope.launch {
         if (contactRepository.get(publicKey.string()).first().connectionStatus == ConnectionStatus.None) {
@@ -93,14 +99,15 @@ class ChatManager @Inject constructor(
             }
 
             messageRepository.setCorrelationId(
+                message.publicKey,
                 message.id,
                 tox.sendMessage(PublicKey(message.publicKey), msgs.first(), message.type),
             )
         }
     }
 
-    fun deleteMessage(id: Long) = scope.launch {
-        messageRepository.deleteMessage(id)
+    fun deleteMessage(publicKey: PublicKey, id: Long) = scope.launch {
+        messageRepository.deleteMessage(publicKey.string(), id)
     }
 
     fun clearHistory(publicKey: PublicKey) = scope.launch {
@@ -1,41 +1,122 @@
 // SPDX-FileCopyrightText: 2022 Akito <the@akito.ooo>
 // SPDX-FileCopyrightText: 2023-2024 Robin Lindén <dev@robinlinden.eu>
+// SPDX-FileCopyrightText: 2026 bTox contributors
 //
 // SPDX-License-Identifier: GPL-3.0-only
 
 package ltd.evilcorp.domain.feature
 
+import android.util.JsonWriter
+import java.io.BufferedWriter
+import java.io.OutputStream
+import java.io.OutputStreamWriter
+import java.text.DateFormat
 import java.text.SimpleDateFormat
 import java.util.Date
 import java.util.Locale
 import javax.inject.Inject
-import kotlinx.coroutines.flow.first
-import kotlinx.coroutines.runBlocking
+import kotlin.coroutines.coroutineContext
+import kotlinx.coroutines.ensureActive
 import ltd.evilcorp.core.repository.MessageRepository
-import org.json.JSONArray
-import org.json.JSONObject
+import ltd.evilcorp.core.vo.Message
 
+const val EXPORT_FORMAT_VERSION = 1
+private const val EXPORT_PAGE_SIZE = 500
+
+data class ExportProgress(val exported: Int, val total: Int)
+
+/**
+ * Writes message history as JSON directly to an [OutputStream].
+ *
+ * Messages are read from the database a page at a time, so the memory needed is bounded by the page size rather
+ * than by the size of the history. A single conversation is written in the original version 1 layout; exporting
+ * everything wraps one such object per conversation in a "conversations" array.
+ */
 class ExportManager @Inject constructor(private val messageRepository: MessageRepository) {
-    fun generateExportMessagesJString(publicKey: String): String {
-        val messages = runBlocking { messageRepository.get(publicKey).first() }
-        val dateFormat = SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.getDefault())
-
-        val root = JSONObject()
-        root.put("version", 1)
-        root.put("timestamp", dateFormat.format(Date()))
-        root.put("contact_public_key", publicKey)
-
-        val entries = JSONArray()
-        for (message in messages) {
-            val jsonMessage = JSONObject().apply {
-                put("message", message.message)
-                put("sender", message.sender.toString())
-                put("type", message.type.toString())
-                put("timestamp", dateFormat.format(Date(message.timestamp)))
+    suspend fun exportConversation(
+        publicKey: String,
+        out: OutputStream,
+        onProgress: (ExportProgress) -> Unit = {},
+    ) {
+        val total = messageRepository.count(publicKey)
+        write(out) { writer, dateFormat ->
+            writer.beginObject()
+            writeHeader(writer, dateFormat)
+            var exported = 0
+            writeConversation(writer, dateFormat, publicKey) { written ->
+                exported += written
+                onProgress(ExportProgress(exported, total))
             }
-            entries.put(jsonMessage)
+            writer.endObject()
         }
-        root.put("entries", entries)
-        return root.toString(2)
+    }
+
+    suspend fun exportAll(out: OutputStream, onProgress: (ExportProgress) -> Unit = {}) {
+        val conversations = messageRepository.getConversations()
+        val total = messageRepository.count()
+        write(out) { writer, dateFormat ->
+            writer.beginObject()
+            writeHeader(writer, dateFormat)
+            writer.name("conversations").beginArray()
+            var exported = 0
+            for (publicKey in conversations) {
+                writer.beginObject()
+                writeConversation(writer, dateFormat, publicKey) { written ->
+                    exported += written
+                    onProgress(ExportProgress(exported, total))
+                }
+                writer.endObject()
+            }
+            writer.endArray()
+            writer.endObject()
+        }
+    }
+
+    private suspend fun write(out: OutputStream, block: suspend (JsonWriter, DateFormat) -> Unit) {
+        val writer = JsonWriter(BufferedWriter(OutputStreamWriter(out, Charsets.UTF_8)))
+        writer.setIndent("  ")
+        block(writer, SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.getDefault()))
+        // Flush rather than close, the stream belongs to the caller.
+        writer.flush()
+    }
+
+    private fun writeHeader(writer: JsonWriter, dateFormat: DateFormat) {
+        writer.name("version").value(EXPORT_FORMAT_VERSION.toLong())
+        writer.name("timestamp").value(dateFormat.format(Date()))
+    }
+
+    private suspend fun writeConversation(
+        writer: JsonWriter,
+        dateFormat: DateFormat,
+        publicKey: String,
+        onPageWritten: (Int) -> Unit,
+    ) {
+        writer.name("contact_public_key").value(publicKey)
+        writer.name("entries").beginArray()
+        var lastId = 0L
+        while (true) {
+            coroutineContext.ensureActive()
+            val page = messageRepository.getPage(publicKey, lastId, EXPORT_PAGE_SIZE)
+            if (page.isEmpty()) break
+
+            for (message in page) {
+                writeMessage(writer, dateFormat, message)
+            }
+            lastId = page.last().id
+            onPageWritten(page.size)
+            if (page.size < EXPORT_PAGE_SIZE) break
+        }
+        writer.endArray()
+    }
+
+    private fun writeMessage(writer: JsonWriter, dateFormat: DateFormat, message: Message) {
+        writer.beginObject()
+        writer.name("message").value(message.message)
+        writer.name("sender").value(message.sender.toString())
+        writer.name("type").value(message.type.toString())
+        writer.name("timestamp").value(dateFormat.format(Date(message.timestamp)))
+        // The formatted timestamp is only accurate to the second, keep the raw value around for re-importing.
+        writer.name("timestamp_ms").value(message.timestamp)
+        writer.endObject()
     }
 }
@@ -21,6 +21,7 @@ import javax.inject.Singleton
 import kotlin.collections.forEach as kForEach
 import kotlin.random.Random
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.take
 import kotlinx.coroutines.launch
 import ltd.evilcorp.core.repository.ContactRepository
@@ -37,6 +38,8 @@ import ltd.evilcorp.core.vo.PublicKey
 import ltd.evilcorp.core.vo.Sender
 import ltd.evilcorp.core.vo.isComplete
 import ltd.evilcorp.core.vo.isStarted
+import ltd.evilcorp.domain.av.VoiceMemo
+import ltd.evilcorp.domain.av.encodeWaveform
 import ltd.evilcorp.domain.tox.MAX_AVATAR_SIZE
 import ltd.evilcorp.domain.tox.Tox
 
@@ -59,6 +62,8 @@ class FileTransferManager @Inject constructor(
     private val contactRepository: ContactRepository,
     private val messageRepository: MessageRepository,
     private val fileTransferRepository: FileTransferRepository,
+    private val previews: ImagePreviewGenerator,
+    private val audioMetadata: AudioMetadataExtractor,
     private val tox: Tox,
 ) {
     private val fileTransfers: MutableList<FileTransfer> = mutableListOf()
@@ -219,6 +224,11 @@ class FileTransferManager @Inject constructor(
                 wipAvatar(ft.fileName).copyTo(avatar(ft.fileName), overwrite = true)
                 wipAvatar(ft.fileName).delete()
                 contactRepository.setAvatarUri(ft.publicKey, Uri.fromFile(avatar(ft.fileName)).toString())
+            } else {
+                scope.launch(Dispatchers.IO) {
+                    previews.generate(ft, ft.destination.toUri())
+                    audioMetadata.extract(ft, ft.destination.toUri())
+                }
             }
             fileTransfers.remove(ft)
         }
@@ -226,7 +236,8 @@ class FileTransferManager @Inject constructor(
 
     fun transfersFor(publicKey: PublicKey) = fileTransferRepository.get(publicKey.string())
 
-    fun create(pk: PublicKey, file: Uri) {
+    /** Sends [file] to [pk]. A [memo] that was just recorded already knows its duration and waveform. */
+    fun create(pk: PublicKey, file: Uri, memo: VoiceMemo? = null) {
         val (name, size) = context.contentResolver.query(file, null, null, null, null, null)?.use { cursor ->
             cursor.moveToFirst()
             val fileSize = cursor.getLong(cursor.getColumnIndexOrThrow(OpenableColumns.SIZE))
@@ -243,12 +254,19 @@ class FileTransferManager @Inject constructor(
             true,
             FT_NOT_STARTED,
             file.toString(),
+            audioDurationMs = memo?.durationMs ?: 0,
+            audioWaveform = memo?.let { encodeWaveform(it.waveform) } ?: "",
         )
         val id = fileTransferRepository.add(ft).toInt()
         messageRepository.add(
             Message(ft.publicKey, ft.fileName, Sender.Sent, MessageType.FileTransfer, id, Date().time),
         )
-        fileTransfers.add(ft.copy().apply { this.id = id })
+        val added = ft.copy().apply { this.id = id }
+        fileTransfers.add(added)
+        scope.launch(Dispatchers.IO) {
+            previews.generate(added, file)
+            if (memo == null) audioMetadata.extract(added, file)
+        }
 
         val inputStream = resolver.openInputStream(file)
         if (inputStream == null) {
@@ -331,6 +349,7 @@ class FileTransferManager @Inject constructor(
             if (!it.outgoing && it.destination.startsWith("file://")) {
                 File(it.destination.toUri().path!!).delete()
             }
+            previews.delete(it)
             fileTransferRepository.delete(id)
         }
     }
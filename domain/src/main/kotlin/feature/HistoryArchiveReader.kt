@@ -0,0 +1,118 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.feature
+
+import android.util.JsonReader
+import java.io.InputStream
+import java.io.InputStreamReader
+import java.text.SimpleDateFormat
+import java.util.Locale
+import kotlin.coroutines.coroutineContext
+import kotlinx.coroutines.ensureActive
+import ltd.evilcorp.core.vo.Message
+import ltd.evilcorp.core.vo.MessageType
+import ltd.evilcorp.core.vo.Sender
+
+const val IMPORT_BATCH_SIZE = 1000
+
+/**
+ * Pull-parses history written by [ExportManager], handing messages on in batches of at most [batchSize].
+ *
+ * Both the single-conversation layout and the "conversations" archive layout are accepted. Only one batch is held
+ * in memory at a time, so the size of the input doesn't matter. Entries that can't be restored (pending messages
+ * and file transfers, whose files aren't part of the export) are counted in [skipped].
+ */
+class HistoryArchiveReader(input: InputStream, private val batchSize: Int = IMPORT_BATCH_SIZE) {
+    private val reader = JsonReader(InputStreamReader(input, Charsets.UTF_8))
+    private val dateFormat = SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.getDefault())
+
+    var skipped = 0
+        private set
+
+    suspend fun read(onBatch: suspend (publicKey: String, messages: List<Message>) -> Unit) {
+        reader.beginObject()
+        readConversationFields(onBatch) { name ->
+            when (name) {
+                "version" -> {
+                    val version = reader.nextInt()
+                    require(version <= EXPORT_FORMAT_VERSION) { "Unsupported history version $version" }
+                }
+                "conversations" -> {
+                    reader.beginArray()
+                    while (reader.hasNext()) {
+                        reader.beginObject()
+                        readConversationFields(onBatch) { reader.skipValue() }
+                        reader.endObject()
+                    }
+                    reader.endArray()
+                }
+                else -> reader.skipValue()
+            }
+        }
+        reader.endObject()
+    }
+
+    private suspend fun readConversationFields(
+        onBatch: suspend (String, List<Message>) -> Unit,
+        onOtherField: suspend (String) -> Unit,
+    ) {
+        var publicKey: String? = null
+        while (reader.hasNext()) {
+            when (val name = reader.nextName()) {
+                "contact_public_key" -> publicKey = reader.nextString()
+                "entries" -> readEntries(requireNotNull(publicKey) { "entries before contact_public_key" }, onBatch)
+                else -> onOtherField(name)
+            }
+        }
+    }
+
+    private suspend fun readEntries(publicKey: String, onBatch: suspend (String, List<Message>) -> Unit) {
+        var batch = ArrayList<Message>(batchSize)
+        reader.beginArray()
+        while (reader.hasNext()) {
+            val message = readEntry(publicKey) ?: continue
+            batch.add(message)
+            if (batch.size == batchSize) {
+                coroutineContext.ensureActive()
+                onBatch(publicKey, batch)
+                batch = ArrayList(batchSize)
+            }
+        }
+        reader.endArray()
+
+        if (batch.isNotEmpty()) {
+            onBatch(publicKey, batch)
+        }
+    }
+
+    private fun readEntry(publicKey: String): Message? {
+        var text = ""
+        var sender = Sender.Received
+        var type = MessageType.Normal
+        var formattedTimestamp: String? = null
+        var timestamp: Long? = null
+
+        reader.beginObject()
+        while (reader.hasNext()) {
+            when (reader.nextName()) {
+                "message" -> text = reader.nextString()
+                "sender" -> sender = Sender.valueOf(reader.nextString())
+                "type" -> type = MessageType.valueOf(reader.nextString())
+                "timestamp" -> formattedTimestamp = reader.nextString()
+                "timestamp_ms" -> timestamp = reader.nextLong()
+                else -> reader.skipValue()
+            }
+        }
+        reader.endObject()
+
+        val time = timestamp ?: formattedTimestamp?.let { dateFormat.parse(it)?.time } ?: 0
+        if (time <= 0 || type == MessageType.FileTransfer) {
+            skipped++
+            return null
+        }
+
+        return Message(publicKey, text, sender, type, 0, time)
+    }
+}
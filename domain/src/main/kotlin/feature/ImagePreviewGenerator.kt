@@ -0,0 +1,195 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.feature
+
+import android.content.ContentResolver
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.Matrix
+import android.media.ExifInterface
+import android.net.Uri
+import android.os.Build
+import android.util.Log
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.net.URLConnection
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlin.math.max
+import kotlin.math.roundToInt
+import ltd.evilcorp.core.repository.FileTransferRepository
+import ltd.evilcorp.core.vo.FileTransfer
+
+private const val TAG = "ImagePreviewGenerator"
+
+// Long edge of the stored preview, enough for a chat bubble on a 1440p screen.
+private const val PREVIEW_MAX_SIZE = 1024
+private const val PREVIEW_JPEG_QUALITY = 85
+
+// The placeholder colour is the average of this many by this many pixels spread over the preview.
+private const val PLACEHOLDER_SAMPLES = 8
+
+private val TRANSPOSING_ORIENTATIONS = setOf(
+    ExifInterface.ORIENTATION_ROTATE_90,
+    ExifInterface.ORIENTATION_ROTATE_270,
+    ExifInterface.ORIENTATION_TRANSPOSE,
+    ExifInterface.ORIENTATION_TRANSVERSE,
+)
+
+/** Whether [fileName] looks like an image that can be shown in the chat. */
+fun isImage(fileName: String) = try {
+    URLConnection.guessContentTypeFromName(fileName)?.startsWith("image/") == true
+} catch (e: Exception) {
+    Log.e(TAG, e.toString())
+    false
+}
+
+/** The largest power of two an image of [width] by [height] can be subsampled by and still cover a preview. */
+fun previewSampleSize(width: Int, height: Int): Int {
+    var sampleSize = 1
+    while (max(width, height) / (sampleSize * 2) >= PREVIEW_MAX_SIZE) {
+        sampleSize *= 2
+    }
+    return sampleSize
+}
+
+/** What an image of [width] by [height] is scaled to for its preview, never upscaled. */
+fun previewSize(width: Int, height: Int): Pair<Int, Int> {
+    val longEdge = max(width, height)
+    if (longEdge <= PREVIEW_MAX_SIZE) return width to height
+    val ratio = PREVIEW_MAX_SIZE.toFloat() / longEdge
+    return (width * ratio).roundToInt().coerceAtLeast(1) to (height * ratio).roundToInt().coerceAtLeast(1)
+}
+
+/** The size of a [width] by [height] image once it's turned upright according to its EXIF [orientation]. */
+fun uprightSize(width: Int, height: Int, orientation: Int): Pair<Int, Int> =
+    if (orientation in TRANSPOSING_ORIENTATIONS) height to width else width to height
+
+/** The average of [pixels], each channel on its own, to stand in for the image until its preview is loaded. */
+fun placeholderColor(pixels: IntArray): Int {
+    if (pixels.isEmpty()) return 0
+    val sums = LongArray(4)
+    for (pixel in pixels) {
+        for (channel in 0 until 4) {
+            sums[channel] += (pixel ushr (channel * 8)) and 0xff
+        }
+    }
+    var color = 0
+    for (channel in 0 until 4) {
+        color = color or ((sums[channel] / pixels.size).toInt() shl (channel * 8))
+    }
+    return color
+}
+
+/**
+ * Creates the downscaled preview, dimensions and placeholder colour the chat shows for image transfers, so that
+ * scrolling past a photo never decodes the full-size original.
+ *
+ * Previews are made once per transfer, when an outgoing one is created or an incoming one completes, and are stored
+ * next to the transfer.
+ */
+@Singleton
+class ImagePreviewGenerator @Inject constructor(
+    private val context: Context,
+    private val resolver: ContentResolver,
+    private val fileTransferRepository: FileTransferRepository,
+) {
+    private val previewDir = File(context.filesDir, "ft_previews")
+
+    /** Blocks while decoding [source], so call it off the main thread. */
+    fun generate(ft: FileTransfer, source: Uri) {
+        if (!isImage(ft.fileName)) return
+        try {
+            val bounds = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+            resolver.openInputStream(source)?.use { BitmapFactory.decodeStream(it, null, bounds) } ?: return
+            if (bounds.outWidth <= 0 || bounds.outHeight <= 0) return
+
+            val options = BitmapFactory.Options().apply {
+                inSampleSize = previewSampleSize(bounds.outWidth, bounds.outHeight)
+            }
+            val decoded = resolver.openInputStream(source)?.use { BitmapFactory.decodeStream(it, null, options) }
+                ?: return
+            val orientation = orientation(source)
+            val preview = orient(scale(decoded), orientation)
+
+            val color = Bitmap.createScaledBitmap(preview, PLACEHOLDER_SAMPLES, PLACEHOLDER_SAMPLES, true).let {
+                val pixels = IntArray(PLACEHOLDER_SAMPLES * PLACEHOLDER_SAMPLES)
+                it.getPixels(pixels, 0, PLACEHOLDER_SAMPLES, 0, 0, PLACEHOLDER_SAMPLES, PLACEHOLDER_SAMPLES)
+                if (it !== preview) it.recycle()
+                placeholderColor(pixels)
+            }
+
+            previewDir.mkdirs()
+            val file = File(previewDir, "${ft.id}")
+            FileOutputStream(file).use {
+                // Keep transparency in stickers and screenshots with cut-outs.
+                val format = if (preview.hasAlpha()) Bitmap.CompressFormat.PNG else Bitmap.CompressFormat.JPEG
+                preview.compress(format, PREVIEW_JPEG_QUALITY, it)
+            }
+
+            // Report the size of the picture once it's turned upright.
+            val (width, height) = uprightSize(bounds.outWidth, bounds.outHeight, orientation)
+            fileTransferRepository.setPreview(ft.id, Uri.fromFile(file).toString(), width, height, color)
+            preview.recycle()
+        } catch (e: IOException) {
+            Log.w(TAG, "Unable to create preview for ${ft.id}: $e")
+        } catch (e: SecurityException) {
+            Log.w(TAG, "Not allowed to read ${ft.id} for a preview: $e")
+        } catch (e: OutOfMemoryError) {
+            Log.w(TAG, "Image ${ft.id} too large for a preview")
+        }
+    }
+
+    fun delete(ft: FileTransfer) {
+        if (ft.preview.isNotEmpty()) {
+            File(previewDir, "${ft.id}").delete()
+        }
+    }
+
+    private fun scale(bitmap: Bitmap): Bitmap {
+        val (width, height) = previewSize(bitmap.width, bitmap.height)
+        if (width == bitmap.width && height == bitmap.height) return bitmap
+        val scaled = Bitmap.createScaledBitmap(bitmap, width, height, true)
+        if (scaled !== bitmap) bitmap.recycle()
+        return scaled
+    }
+
+    private fun orientation(source: Uri): Int {
+        // Reading EXIF from a stream needs API 24, older devices get their photos the way they were stored.
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return ExifInterface.ORIENTATION_NORMAL
+        return try {
+            resolver.openInputStream(source)?.use {
+                ExifInterface(it).getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL)
+            } ?: ExifInterface.ORIENTATION_NORMAL
+        } catch (e: IOException) {
+            ExifInterface.ORIENTATION_NORMAL
+        }
+    }
+
+    private fun orient(bitmap: Bitmap, orientation: Int): Bitmap {
+        val matrix = Matrix()
+        when (orientation) {
+            ExifInterface.ORIENTATION_ROTATE_90 -> matrix.postRotate(90f)
+            ExifInterface.ORIENTATION_ROTATE_180 -> matrix.postRotate(180f)
+            ExifInterface.ORIENTATION_ROTATE_270 -> matrix.postRotate(270f)
+            ExifInterface.ORIENTATION_FLIP_HORIZONTAL -> matrix.postScale(-1f, 1f)
+            ExifInterface.ORIENTATION_FLIP_VERTICAL -> matrix.postScale(1f, -1f)
+            ExifInterface.ORIENTATION_TRANSPOSE -> {
+                matrix.postRotate(90f)
+                matrix.postScale(-1f, 1f)
+            }
+            ExifInterface.ORIENTATION_TRANSVERSE -> {
+                matrix.postRotate(270f)
+                matrix.postScale(-1f, 1f)
+            }
+            else -> return bitmap
+        }
+        val oriented = Bitmap.createBitmap(bitmap, 0, 0, bitmap.width, bitmap.height, matrix, true)
+        if (oriented !== bitmap) bitmap.recycle()
+        return oriented
+    }
+}
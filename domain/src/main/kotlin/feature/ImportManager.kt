@@ -0,0 +1,94 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.feature
+
+import android.util.Log
+import java.io.FilterInputStream
+import java.io.InputStream
+import javax.inject.Inject
+import ltd.evilcorp.core.repository.ContactRepository
+import ltd.evilcorp.core.repository.MessageRepository
+import ltd.evilcorp.core.vo.Message
+import ltd.evilcorp.core.vo.MessageType
+import ltd.evilcorp.core.vo.Sender
+
+private const val TAG = "ImportManager"
+
+data class ImportProgress(val bytesRead: Long, val totalBytes: Long, val imported: Int)
+
+data class ImportResult(val imported: Int, val duplicates: Int, val skipped: Int)
+
+// Exports only store timestamps with second precision, so that's what messages are compared at.
+private data class MessageKey(val second: Long, val sender: Sender, val type: MessageType, val message: String)
+
+private fun Message.key() = MessageKey(timestamp / 1000, sender, type, message)
+
+private class CountingInputStream(input: InputStream) : FilterInputStream(input) {
+    var count = 0L
+        private set
+
+    override fun read(): Int = super.read().also { if (it != -1) count++ }
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int =
+        super.read(b, off, len).also { if (it > 0) count += it }
+
+    override fun skip(n: Long): Long = super.skip(n).also { count += it }
+}
+
+/**
+ * Restores history written by [ExportManager].
+ *
+ * Every batch is checked against the messages already stored for the same time span, so importing the same file
+ * twice, or importing on top of a partially synced history, doesn't create duplicates. Each batch is inserted in a
+ * single transaction.
+ */
+class ImportManager @Inject constructor(
+    private val contactRepository: ContactRepository,
+    private val messageRepository: MessageRepository,
+) {
+    suspend fun import(
+        input: InputStream,
+        totalBytes: Long = -1,
+        onProgress: (ImportProgress) -> Unit = {},
+    ): ImportResult {
+        val counter = CountingInputStream(input)
+        val reader = HistoryArchiveReader(counter)
+        val newest = mutableMapOf<String, Long>()
+        var imported = 0
+        var duplicates = 0
+
+        reader.read { publicKey, batch ->
+            val fresh = withoutExisting(publicKey, batch)
+            if (fresh.isNotEmpty()) {
+                messageRepository.addAll(fresh)
+                val latest = fresh.maxOf { it.timestamp }
+                newest[publicKey] = maxOf(newest[publicKey] ?: 0, latest)
+            }
+
+            imported += fresh.size
+            duplicates += batch.size - fresh.size
+            onProgress(ImportProgress(counter.count, totalBytes, imported))
+        }
+
+        for ((publicKey, timestamp) in newest) {
+            // Exports from another device often hold conversations with people who aren't contacts here.
+            val contact = contactRepository.find(publicKey) ?: continue
+            if (contact.lastMessage < timestamp) {
+                contactRepository.setLastMessage(publicKey, timestamp)
+            }
+        }
+
+        Log.i(TAG, "Imported $imported messages, $duplicates duplicates, ${reader.skipped} skipped")
+        return ImportResult(imported, duplicates, reader.skipped)
+    }
+
+    private fun withoutExisting(publicKey: String, batch: List<Message>): List<Message> {
+        val from = batch.minOf { it.timestamp } / 1000 * 1000
+        val to = batch.maxOf { it.timestamp } / 1000 * 1000 + 999
+        val existing = messageRepository.getBetween(publicKey, from, to).mapTo(HashSet()) { it.key() }
+        if (existing.isEmpty()) return batch
+        return batch.filterNot { existing.contains(it.key()) }
+    }
+}
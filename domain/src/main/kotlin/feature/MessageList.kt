@@ -0,0 +1,136 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.feature
+
+import ltd.evilcorp.core.repository.MessageChange
+import ltd.evilcorp.core.vo.Message
+import ltd.evilcorp.core.vo.MessageType
+
+sealed interface MessageListDelta {
+    /** Everything may have changed. */
+    data object Reset : MessageListDelta
+
+    data class Inserted(val position: Int, val count: Int) : MessageListDelta
+
+    data class Changed(val positions: List<Int>) : MessageListDelta
+
+    /** Where the removed messages were before they were removed, in ascending order. */
+    data class Removed(val positions: List<Int>) : MessageListDelta
+}
+
+private fun Message.withId(id: Long) = also { it.id = id }
+
+/**
+ * One conversation's messages in id order, kept current by applying [MessageChange]s rather than re-reading and
+ * comparing the whole conversation on every write. Finding the affected rows is a binary search on the id.
+ *
+ * Not thread safe, it's meant to be owned by whatever displays it.
+ */
+class MessageList {
+    private val items = ArrayList<Message>()
+
+    // Ids of messages waiting for a receipt, so receipts don't have to scan the whole history.
+    private val pending = HashSet<Long>()
+
+    // File transfer id to the id of the message showing it, for finding the row to update on progress.
+    private val fileTransfers = HashMap<Int, Long>()
+
+    val messages: List<Message> get() = items
+
+    fun reset(messages: List<Message>): MessageListDelta {
+        items.clear()
+        items.addAll(messages)
+        pending.clear()
+        fileTransfers.clear()
+        track(messages)
+        return MessageListDelta.Reset
+    }
+
+    /** Where the message for the file transfer [id] is, or -1 if it's not in the list. */
+    fun positionOfFileTransfer(id: Int): Int {
+        val messageId = fileTransfers[id] ?: return -1
+        return indexOf(messageId).coerceAtLeast(-1)
+    }
+
+    /**
+     * Returns what [change] did to the list, or null if it didn't touch anything in it. [MessageChange.Invalidated]
+     * can't be applied, the conversation has to be re-read and passed to [reset].
+     */
+    fun apply(change: MessageChange): MessageListDelta? = when (change) {
+        is MessageChange.Inserted -> insert(change.messages)
+        is MessageChange.Receipt -> receipt(change.correlationId, change.timestamp)
+        is MessageChange.CorrelationIdChanged -> update(change.id) { it.copy(correlationId = change.correlationId) }
+        is MessageChange.Deleted -> remove(change.ids)
+        is MessageChange.Invalidated -> throw IllegalArgumentException("${change.conversation} needs to be re-read")
+    }
+
+    private fun indexOf(id: Long) = items.binarySearch { it.id.compareTo(id) }
+
+    private fun track(messages: List<Message>) {
+        for (message in messages) {
+            if (message.timestamp == 0L) pending.add(message.id)
+            if (message.type == MessageType.FileTransfer) fileTransfers[message.correlationId] = message.id
+        }
+    }
+
+    private fun insert(messages: List<Message>): MessageListDelta? {
+        if (messages.isEmpty()) return null
+        val start = items.size
+
+        // Writes racing the initial load may show up here a second time, and imports may arrive out of order.
+        // Neither is common enough to be worth more than starting over.
+        val appendable = messages.zipWithNext().all { (a, b) -> a.id < b.id } &&
+            (items.isEmpty() || items.last().id < messages.first().id)
+        if (!appendable) {
+            val merged = (items + messages).associateBy { it.id }.values.sortedBy { it.id }
+            return reset(merged)
+        }
+
+        items.addAll(messages)
+        track(messages)
+        return MessageListDelta.Inserted(start, messages.size)
+    }
+
+    private fun receipt(correlationId: Int, timestamp: Long): MessageListDelta? {
+        val positions = mutableListOf<Int>()
+        val iterator = pending.iterator()
+        while (iterator.hasNext()) {
+            val i = indexOf(iterator.next())
+            if (i < 0) {
+                iterator.remove()
+                continue
+            }
+
+            val message = items[i]
+            if (message.correlationId != correlationId) continue
+            items[i] = message.copy(timestamp = timestamp).withId(message.id)
+            iterator.remove()
+            positions.add(i)
+        }
+
+        if (positions.isEmpty()) return null
+        positions.sort()
+        return MessageListDelta.Changed(positions)
+    }
+
+    private fun update(id: Long, transform: (Message) -> Message): MessageListDelta? {
+        val i = indexOf(id)
+        if (i < 0) return null
+        items[i] = transform(items[i]).withId(id)
+        return MessageListDelta.Changed(listOf(i))
+    }
+
+    private fun remove(ids: List<Long>): MessageListDelta? {
+        val positions = ids.map { indexOf(it) }.filter { it >= 0 }.sorted()
+        if (positions.isEmpty()) return null
+
+        for (i in positions.asReversed()) {
+            val message = items.removeAt(i)
+            pending.remove(message.id)
+            if (message.type == MessageType.FileTransfer) fileTransfers.remove(message.correlationId)
+        }
+        return MessageListDelta.Removed(positions)
+    }
+}
@@ -0,0 +1,219 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.feature
+
+import android.content.Context
+import android.util.Log
+import androidx.core.net.toUri
+import java.io.File
+import java.util.Date
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlin.coroutines.coroutineContext
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.yield
+import ltd.evilcorp.core.repository.FileTransferRepository
+import ltd.evilcorp.core.repository.MaintenanceRepository
+import ltd.evilcorp.core.repository.MessageRepository
+import ltd.evilcorp.core.repository.RetentionPolicyRepository
+import ltd.evilcorp.core.vo.FileTransfer
+import ltd.evilcorp.core.vo.Message
+import ltd.evilcorp.core.vo.MessageType
+import ltd.evilcorp.core.vo.PublicKey
+import ltd.evilcorp.core.vo.RETENTION_UNLIMITED
+import ltd.evilcorp.core.vo.RetentionPolicy
+import ltd.evilcorp.core.vo.isComplete
+import ltd.evilcorp.core.vo.isStarted
+import ltd.evilcorp.core.vo.isUnlimited
+
+private const val TAG = "RetentionManager"
+private const val PRUNE_BATCH_SIZE = 500
+private const val VACUUM_PAGES = 2048
+
+// Files this fresh may belong to a transfer that's being set up, the row pointing at them can lag behind.
+private const val ORPHAN_GRACE_PERIOD_MS = 60 * 60 * 1000L
+
+data class PruneResult(val messages: Int, val fileTransfers: Int, val orphanedFiles: Int)
+
+private data class Pruned(val messages: Int = 0, val fileTransfers: Int = 0) {
+    operator fun plus(other: Pruned) = Pruned(messages + other.messages, fileTransfers + other.fileTransfers)
+}
+
+/** A message that may be pruned, along with the file transfer it's for, if any. */
+class PrunableMessage(val message: Message, val fileTransfer: FileTransfer?) {
+    fun sizeOnDisk(): Long = message.message.toByteArray().size +
+        if (fileTransfer != null && !fileTransfer.outgoing) fileTransfer.fileSize else 0
+}
+
+fun retentionPolicyFor(conversation: String, overrides: Map<String, RetentionPolicy>, global: RetentionPolicy) =
+    overrides[conversation] ?: global
+
+/**
+ * Cuts [messages], oldest first, down to those that may be pruned, looking up their transfers in [fileTransfers].
+ *
+ * Never pulls a running transfer out from under FileTransferManager, and since deletion goes oldest-first, doesn't skip
+ * past it either.
+ */
+fun prunable(messages: List<Message>, fileTransfers: Map<Int, FileTransfer>): List<PrunableMessage> {
+    val result = ArrayList<PrunableMessage>(messages.size)
+    for (message in messages) {
+        val ft = if (message.type == MessageType.FileTransfer) fileTransfers[message.correlationId] else null
+        if (ft != null && ft.isStarted() && !ft.isComplete()) break
+        result.add(PrunableMessage(message, ft))
+    }
+    return result
+}
+
+/** Takes from successive batches of a conversation's oldest [count] messages until only [maxCount] are left. */
+fun selectByCount(count: Int, maxCount: Long): (List<PrunableMessage>) -> Int {
+    var excess = count - maxCount
+    return { batch ->
+        val take = excess.coerceIn(0, batch.size.toLong()).toInt()
+        excess -= take
+        take
+    }
+}
+
+/** Takes from successive batches of a conversation's oldest messages until what's left of [size] fits [maxBytes]. */
+fun selectBySize(size: Long, maxBytes: Long): (List<PrunableMessage>) -> Int {
+    var left = size
+    return { batch ->
+        var take = 0
+        while (take < batch.size && left > maxBytes) {
+            left -= batch[take].sizeOnDisk()
+            take++
+        }
+        take
+    }
+}
+
+@Singleton
+class RetentionManager @Inject constructor(
+    private val context: Context,
+    private val messageRepository: MessageRepository,
+    private val fileTransferRepository: FileTransferRepository,
+    private val previews: ImagePreviewGenerator,
+    private val retentionPolicyRepository: RetentionPolicyRepository,
+    private val maintenanceRepository: MaintenanceRepository,
+) {
+    fun get(publicKey: PublicKey): Flow<RetentionPolicy?> = retentionPolicyRepository.get(publicKey.string())
+
+    fun set(policy: RetentionPolicy) = retentionPolicyRepository.set(policy)
+
+    fun clear(publicKey: PublicKey) = retentionPolicyRepository.delete(publicKey.string())
+
+    /**
+     * Applies per-contact policies, falling back to [global] for contacts without one, then cleans up files and
+     * database pages nothing refers to any longer.
+     *
+     * Work is done in batches of [PRUNE_BATCH_SIZE] messages so that cancelling the calling coroutine stops it
+     * quickly and so that no single transaction holds the database for long.
+     */
+    suspend fun prune(global: RetentionPolicy): PruneResult {
+        var pruned = Pruned()
+        val overrides = retentionPolicyRepository.getAll().associateBy { it.publicKey }
+        for (conversation in messageRepository.getConversations()) {
+            val policy = retentionPolicyFor(conversation, overrides, global)
+            if (policy.isUnlimited()) continue
+            pruned += prune(conversation, policy)
+        }
+
+        val orphans = deleteOrphanedFiles()
+        coroutineContext.ensureActive()
+        maintenanceRepository.incrementalVacuum(VACUUM_PAGES)
+
+        Log.i(
+            TAG,
+            "Pruned ${pruned.messages} messages, ${pruned.fileTransfers} file transfers, $orphans orphaned files",
+        )
+        return PruneResult(pruned.messages, pruned.fileTransfers, orphans)
+    }
+
+    private suspend fun prune(conversation: String, policy: RetentionPolicy): Pruned {
+        var pruned = Pruned()
+        if (policy.maxAgeMs != RETENTION_UNLIMITED) {
+            val cutoff = Date().time - policy.maxAgeMs
+            pruned += pruneOldest(conversation, cutoff) { Int.MAX_VALUE }
+        }
+
+        if (policy.maxCount != RETENTION_UNLIMITED) {
+            val select = selectByCount(messageRepository.count(conversation), policy.maxCount)
+            pruned += pruneOldest(conversation, select = select)
+        }
+
+        if (policy.maxBytes != RETENTION_UNLIMITED) {
+            val size = messageRepository.byteSize(conversation) + fileTransferRepository.incomingSize(conversation)
+            pruned += pruneOldest(conversation, select = selectBySize(size, policy.maxBytes))
+        }
+        return pruned
+    }
+
+    /**
+     * Walks the conversation from its oldest delivered message, asking [select] how many of each batch to delete.
+     * Stops once [select] wants less than a whole batch.
+     */
+    private suspend fun pruneOldest(
+        conversation: String,
+        before: Long = Long.MAX_VALUE,
+        select: (List<PrunableMessage>) -> Int,
+    ): Pruned {
+        var pruned = Pruned()
+        while (true) {
+            coroutineContext.ensureActive()
+            val batch = prunable(messageRepository.getOldest(conversation, before, PRUNE_BATCH_SIZE))
+            if (batch.isEmpty()) return pruned
+
+            val take = minOf(select(batch), batch.size)
+            if (take <= 0) return pruned
+            pruned += delete(conversation, batch.subList(0, take))
+            if (take < batch.size) return pruned
+            yield()
+        }
+    }
+
+    private fun prunable(messages: List<Message>): List<PrunableMessage> {
+        val ftIds = messages.filter { it.type == MessageType.FileTransfer }.map { it.correlationId }
+        val fts = if (ftIds.isEmpty()) emptyMap() else fileTransferRepository.getAll(ftIds).associateBy { it.id }
+        return prunable(messages, fts)
+    }
+
+    private fun delete(conversation: String, batch: List<PrunableMessage>): Pruned {
+        val fts = batch.mapNotNull { it.fileTransfer }
+        for (ft in fts) {
+            if (!ft.outgoing && ft.destination.startsWith("file://")) {
+                File(ft.destination.toUri().path!!).delete()
+            }
+            previews.delete(ft)
+        }
+
+        // Together, so that a message is never left pointing at a transfer that's gone.
+        messageRepository.deleteMessages(conversation, batch.map { it.message.id }, fts.map { it.id })
+        return Pruned(batch.size, fts.size)
+    }
+
+    private suspend fun deleteOrphanedFiles(): Int {
+        val root = File(context.filesDir, "ft")
+        val referenced = fileTransferRepository.getIncomingDestinations()
+            .mapNotNullTo(HashSet()) { it.toUri().path?.let { path -> File(path).absolutePath } }
+        val cutoff = Date().time - ORPHAN_GRACE_PERIOD_MS
+
+        var deleted = 0
+        for (dir in root.listFiles().orEmpty()) {
+            coroutineContext.ensureActive()
+            for (file in dir.listFiles().orEmpty()) {
+                if (file.isFile && file.lastModified() < cutoff && !referenced.contains(file.absolutePath)) {
+                    if (file.delete()) deleted++
+                }
+            }
+
+            if (dir.isDirectory && dir.list()?.isEmpty() == true) {
+                dir.delete()
+            }
+        }
+
+        return deleted
+    }
+}
@@ -231,9 +231,13 @@ class Tox @Inject constructor(
     fun sendLosslessPacket(pk: PublicKey, packet: ByteArray) = tox.sendLosslessPacket(pk, packet)
 
     // ToxAv, probably move these.
-    fun startCall(pk: PublicKey) = tox.startCall(pk)
-    fun answerCall(pk: PublicKey) = tox.answerCall(pk)
+    fun startCall(pk: PublicKey, audioBitRate: Int) = tox.startCall(pk, audioBitRate)
+    fun answerCall(pk: PublicKey, audioBitRate: Int) = tox.answerCall(pk, audioBitRate)
+    fun setAudioBitRate(pk: PublicKey, audioBitRate: Int) = tox.setAudioBitRate(pk, audioBitRate)
     fun endCall(pk: PublicKey) = tox.endCall(pk)
     fun sendAudio(pk: PublicKey, pcm: ShortArray, channels: Int, samplingRate: Int) =
         tox.sendAudio(pk, pcm, channels, samplingRate)
+    fun setVideoBitRate(pk: PublicKey, videoBitRate: Int) = tox.setVideoBitRate(pk, videoBitRate)
+    fun sendVideo(pk: PublicKey, width: Int, height: Int, y: ByteArray, u: ByteArray, v: ByteArray) =
+        tox.sendVideo(pk, width, height, y, u, v)
 }
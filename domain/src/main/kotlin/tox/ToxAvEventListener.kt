@@ -9,6 +9,7 @@ import im.tox.tox4j.av.enums.ToxavFriendCallState
 import java.util.EnumSet
 import javax.inject.Inject
 import ltd.evilcorp.core.vo.PublicKey
+import ltd.evilcorp.domain.av.I420Frame
 import scala.Option
 import scala.Tuple3
 
@@ -27,9 +28,13 @@ typealias VideoReceiveFrameHandler = (
     vStride: Int,
 ) -> Unit
 
+typealias VideoFrameCachedYuvHandler = (height: Int, yStride: Int, uStride: Int, vStride: Int) -> I420Frame?
+
 typealias AudioReceiveFrameHandler = (pk: String, pcm: ShortArray, channels: Int, samplingRate: Int) -> Unit
 typealias AudioBitRateHandler = (pk: String, bitRate: Int) -> Unit
 
+private const val MAX_CACHED_PLANES = 6
+
 class ToxAvEventListener @Inject constructor() : ToxAvEventListener<Unit> {
     var contactMapping: List<Pair<PublicKey, Int>> = listOf()
 
@@ -37,9 +42,13 @@ class ToxAvEventListener @Inject constructor() : ToxAvEventListener<Unit> {
     var callStateHandler: CallStateHandler = { _, _ -> }
     var videoBitRateHandler: VideoBitRateHandler = { _, _ -> }
     var videoReceiveFrameHandler: VideoReceiveFrameHandler = { _, _, _, _, _, _, _, _, _ -> }
+    var videoFrameCachedYuvHandler: VideoFrameCachedYuvHandler = { _, _, _, _ -> null }
     var audioReceiveFrameHandler: AudioReceiveFrameHandler = { _, _, _, _ -> }
     var audioBitRateHandler: AudioBitRateHandler = { _, _ -> }
 
+    // The planes handed out for decoding rotate between a few frames, so remember how we wrapped each of them.
+    private val cachedPlanes = HashMap<ByteArray, Option<Tuple3<ByteArray, ByteArray, ByteArray>>>()
+
     private fun keyFor(friendNo: Int) = contactMapping.find { it.second == friendNo }!!.first.string()
 
     override fun call(friendNo: Int, audioEnabled: Boolean, videoEnabled: Boolean, s: Unit?) =
@@ -52,7 +61,17 @@ class ToxAvEventListener @Inject constructor() : ToxAvEventListener<Unit> {
         yStride: Int,
         uStride: Int,
         vStride: Int,
-    ): Option<Tuple3<ByteArray, ByteArray, ByteArray>> = Option.empty()
+    ): Option<Tuple3<ByteArray, ByteArray, ByteArray>> {
+        // Without planes to reuse, tox4j allocates new ones for every frame.
+        if (yStride <= 0 || uStride <= 0 || vStride <= 0) return Option.empty()
+        val frame = videoFrameCachedYuvHandler(height, yStride, uStride, vStride) ?: return Option.empty()
+        val cached = cachedPlanes[frame.y]
+        if (cached != null && cached.get()._2() === frame.u && cached.get()._3() === frame.v) return cached
+
+        // Planes only get replaced when the video grows, so whatever was cached before is garbage now.
+        if (cachedPlanes.size >= MAX_CACHED_PLANES) cachedPlanes.clear()
+        return Option.apply(Tuple3(frame.y, frame.u, frame.v)).also { cachedPlanes[frame.y] = it }
+    }
 
     override fun videoReceiveFrame(
         friendNo: Int,
@@ -21,11 +21,6 @@ import ltd.evilcorp.core.vo.UserStatus
 
 private const val TAG = "ToxWrapper"
 
-// TODO(robinlinden) Make configurable.
-// https://wiki.xiph.org/Opus_Recommended_Settings
-// 32 should be good enough for fullband stereo.
-private const val AUDIO_BIT_RATE = 32
-
 enum class CustomPacketError {
     Success,
     Empty,
@@ -185,9 +180,13 @@ class ToxWrapper(
     private fun contactByKey(pk: PublicKey): Int = tox.friendByPublicKey(pk.bytes())
 
     // ToxAv, probably move these.
-    fun startCall(pk: PublicKey) = av.call(contactByKey(pk), AUDIO_BIT_RATE, 0)
-    fun answerCall(pk: PublicKey) = av.answer(contactByKey(pk), AUDIO_BIT_RATE, 0)
+    fun startCall(pk: PublicKey, audioBitRate: Int) = av.call(contactByKey(pk), audioBitRate, 0)
+    fun answerCall(pk: PublicKey, audioBitRate: Int) = av.answer(contactByKey(pk), audioBitRate, 0)
+    fun setAudioBitRate(pk: PublicKey, audioBitRate: Int) = av.setAudioBitRate(contactByKey(pk), audioBitRate)
     fun endCall(pk: PublicKey) = av.callControl(contactByKey(pk), ToxavCallControl.CANCEL)
     fun sendAudio(pk: PublicKey, pcm: ShortArray, channels: Int, samplingRate: Int) =
         av.audioSendFrame(contactByKey(pk), pcm, pcm.size, channels, samplingRate)
+    fun setVideoBitRate(pk: PublicKey, videoBitRate: Int) = av.setVideoBitRate(contactByKey(pk), videoBitRate)
+    fun sendVideo(pk: PublicKey, width: Int, height: Int, y: ByteArray, u: ByteArray, v: ByteArray) =
+        av.videoSendFrame(contactByKey(pk), width, height, y, u, v)
 }
@@ -0,0 +1,96 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNull
+
+// One update a second with 50 frames of 20 ms sent in between.
+private const val FRAMES_PER_UPDATE = 50L
+
+class AudioBitrateControllerTest {
+    @Test
+    fun `calls start at the configured rate`() {
+        val controller = AudioBitrateController(AudioBitrateConfig(minKbps = 8, startKbps = 24, maxKbps = 40))
+        assertEquals(24, controller.start(0))
+        assertEquals(listOf(AudioBitrateChange(0, 24, BitrateChangeReason.Start)), controller.changes())
+    }
+
+    @Test
+    fun `a calm call steps up to the maximum and stays there`() {
+        val controller = AudioBitrateController(AudioBitrateConfig(minKbps = 12, startKbps = 24, maxKbps = 40))
+        controller.start(0)
+        for (second in 1..60L) {
+            controller.update(second * 1000, second * FRAMES_PER_UPDATE, 0, 10.0)
+        }
+
+        assertEquals(40, controller.kbps)
+        assertEquals(listOf(24, 32, 40), controller.changes().map { it.kbps })
+        assertEquals(BitrateChangeReason.Recovered, controller.changes().last().reason)
+    }
+
+    @Test
+    fun `send errors step the rate down a notch at a time`() {
+        val controller = AudioBitrateController()
+        controller.start(0)
+        var errors = 0L
+        for (second in 1..6L) {
+            errors += 5
+            controller.update(second * 1000, second * FRAMES_PER_UPDATE, errors, null)
+        }
+
+        assertEquals(listOf(32, 24, 20, 16), controller.changes().map { it.kbps })
+        assertEquals(BitrateChangeReason.SendErrors, controller.changes().last().reason)
+    }
+
+    @Test
+    fun `high jitter steps the rate down but never below the minimum`() {
+        val controller = AudioBitrateController(AudioBitrateConfig(minKbps = 16, startKbps = 24, maxKbps = 48))
+        controller.start(0)
+        for (second in 1..30L) {
+            controller.update(second * 1000, second * FRAMES_PER_UPDATE, 0, 120.0)
+        }
+
+        assertEquals(16, controller.kbps)
+        assertEquals(BitrateChangeReason.Jitter, controller.changes().last().reason)
+    }
+
+    @Test
+    fun `a suggestion from toxav lowers the rate right away`() {
+        val controller = AudioBitrateController()
+        controller.start(0)
+        assertEquals(16, controller.onSuggested(18, 1000))
+        assertNull(controller.onSuggested(40, 1500))
+        assertEquals(BitrateChangeReason.Suggested, controller.changes().last().reason)
+    }
+
+    @Test
+    fun `a suggestion from toxav caps the rate until it expires`() {
+        val controller = AudioBitrateController()
+        controller.start(0)
+        assertEquals(24, controller.onSuggested(30, 0))
+        for (second in 1..29L) {
+            assertNull(controller.update(second * 1000, second * FRAMES_PER_UPDATE, 0, 0.0))
+        }
+
+        // Half a minute later toxav hasn't complained again, so we're free to go back up.
+        assertEquals(32, controller.update(30_000, 30 * FRAMES_PER_UPDATE, 0, 0.0))
+    }
+
+    @Test
+    fun `suggestions are kept within the bounds`() {
+        val controller = AudioBitrateController(AudioBitrateConfig(minKbps = 12, startKbps = 32, maxKbps = 48))
+        controller.start(0)
+        assertEquals(12, controller.onSuggested(2, 1000))
+    }
+
+    @Test
+    fun `bounds have to make sense`() {
+        assertFailsWith<IllegalArgumentException> { AudioBitrateConfig(minKbps = 32, startKbps = 24, maxKbps = 48) }
+        assertFailsWith<IllegalArgumentException> { AudioBitrateConfig(minKbps = 12, startKbps = 64, maxKbps = 48) }
+    }
+}
@@ -0,0 +1,50 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+class AudioDeviceConfigTest {
+    @Test
+    fun `buffers are whole bursts`() {
+        assertEquals(192, burstAligned(1, 192))
+        assertEquals(192, burstAligned(192, 192))
+        assertEquals(384, burstAligned(193, 192))
+    }
+
+    @Test
+    fun `playback has room for two writes`() {
+        // A device with a 4 ms burst and a small minimum buffer, fed 20 ms frames.
+        assertEquals(1920, playbackCapacityFrames(minFrames = 384, burst = 192, writeFrames = 960))
+        // A device that wants more than that gets it, rounded up to whole bursts.
+        assertEquals(3840, playbackCapacityFrames(minFrames = 3700, burst = 240, writeFrames = 960))
+    }
+
+    @Test
+    fun `playback starts shallow and grows a burst at a time when it runs dry`() {
+        var latency = initialPlaybackLatencyFrames(burst = 192, capacityFrames = 1920)
+        assertEquals(384, latency)
+        val seen = mutableListOf(latency)
+        repeat(10) {
+            latency = nextPlaybackLatencyFrames(latency, 192, 1920)
+            seen.add(latency)
+        }
+        assertEquals(listOf(384, 576, 768, 960, 1152, 1344, 1536, 1728, 1920, 1920, 1920), seen)
+    }
+
+    @Test
+    fun `capture holds two reads`() {
+        assertEquals(1920, captureBufferFrames(minFrames = 640, burst = 192, readFrames = 960))
+        assertEquals(3840, captureBufferFrames(minFrames = 3600, burst = 256, readFrames = 882))
+    }
+
+    @Test
+    fun `the device rate is recorded at when frames at it are whole`() {
+        assertEquals(44_100, captureSampleRate(AudioDeviceConfig(44_100, 256, true), 48_000, 20))
+        assertEquals(48_000, captureSampleRate(AudioDeviceConfig(48_000, 192, true), 48_000, 20))
+        assertEquals(48_000, captureSampleRate(AudioDeviceConfig(11_025, 256, false), 48_000, 20))
+    }
+}
@@ -0,0 +1,134 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import ltd.evilcorp.core.vo.ConnectionStatus
+
+private val NO_VIDEO = VideoReceiveStats(received = 0, rendered = 0, dropped = 0, copied = 0)
+
+private fun audioSend(sent: Long, overruns: Long = 0, late: Long = 0, latencyMs: Long = 0, sendErrors: Long = 0) =
+    AudioSendCounters(sent + overruns, sent, overruns, late, latencyMs, sendErrors)
+
+private fun playout(received: Long, underruns: Long = 0, jitterMs: Double = 5.0) =
+    JitterBufferStats(received, received, 0, underruns, 0, jitterMs, 2, 2)
+
+private fun sample(
+    audioSend: AudioSendCounters? = null,
+    audioPlayout: JitterBufferStats? = null,
+    deviceUnderruns: Int? = null,
+    videoSend: VideoSendCounters? = null,
+    videoReceive: VideoReceiveStats = NO_VIDEO,
+    changes: List<AudioBitrateChange> = listOf(AudioBitrateChange(0, 32, BitrateChangeReason.Start)),
+) = CallSample(
+    ConnectionStatus.UDP,
+    32,
+    changes,
+    0,
+    audioSend,
+    audioPlayout,
+    deviceUnderruns,
+    videoSend,
+    videoReceive,
+)
+
+class CallMetricsTest {
+    @Test
+    fun `counts carry on when the microphone is turned off and on again`() {
+        val collector = CallMetricsCollector(0, NO_VIDEO)
+        collector.update(1000, sample(audioSend(50)))
+        collector.update(2000, sample(audioSend(100)))
+        collector.update(3000, sample(null))
+        val metrics = collector.update(4000, sample(audioSend(30)))
+        assertEquals(130L, metrics.audioFramesSent)
+        assertEquals(4000L, metrics.durationMs)
+    }
+
+    @Test
+    fun `video received before the call isn't counted`() {
+        val before = VideoReceiveStats(received = 500, rendered = 480, dropped = 20, copied = 0)
+        val collector = CallMetricsCollector(0, before)
+        val metrics = collector.update(2000, sample(videoReceive = before.copy(received = 530, dropped = 22)))
+        assertEquals(30L, metrics.videoFramesReceived)
+        assertEquals(2L, metrics.videoFramesDropped)
+        assertEquals(15.0, metrics.videoReceiveFps)
+    }
+
+    @Test
+    fun `averages cover the last interval`() {
+        val collector = CallMetricsCollector(0, NO_VIDEO)
+        collector.update(1000, sample(audioSend(50, latencyMs = 500)))
+        val metrics = collector.update(2000, sample(audioSend(100, latencyMs = 600)))
+        assertEquals(2.0, metrics.audioSendLatencyMs)
+
+        val video = CallMetricsCollector(0, NO_VIDEO)
+        video.update(1000, sample(videoSend = VideoSendCounters(30, 15, 15, 0, 150)))
+        val sending = video.update(2000, sample(videoSend = VideoSendCounters(60, 30, 30, 0, 450)))
+        assertEquals(15.0, sending.videoSendFps)
+        assertEquals(20.0, sending.videoSendTimeMs)
+    }
+
+    @Test
+    fun `a starved sender is put down to the cpu`() {
+        val collector = CallMetricsCollector(0, NO_VIDEO)
+        assertEquals(CallBottleneck.Cpu, collector.update(1000, sample(audioSend(48, overruns = 2))).bottleneck)
+        assertEquals(CallBottleneck.Cpu, collector.update(2000, sample(audioSend(98, late = 10))).bottleneck)
+        val slowVideo = sample(audioSend(148, late = 10), videoSend = VideoSendCounters(30, 15, 15, 0, 900))
+        assertEquals(CallBottleneck.Cpu, collector.update(3000, slowVideo).bottleneck)
+    }
+
+    @Test
+    fun `errors, jitter and congestion are put down to the network`() {
+        val collector = CallMetricsCollector(0, NO_VIDEO)
+        assertEquals(CallBottleneck.Network, collector.update(1000, sample(audioSend(50, sendErrors = 1))).bottleneck)
+        val jittery = sample(audioSend(100, sendErrors = 1), playout(50, jitterMs = 90.0))
+        assertEquals(CallBottleneck.Network, collector.update(2000, jittery).bottleneck)
+
+        val changes = listOf(
+            AudioBitrateChange(0, 32, BitrateChangeReason.Start),
+            AudioBitrateChange(2500, 24, BitrateChangeReason.Suggested),
+        )
+        val congested = sample(audioSend(150, sendErrors = 1), playout(100), changes = changes)
+        assertEquals(CallBottleneck.Network, collector.update(3000, congested).bottleneck)
+        val calm = sample(audioSend(200, sendErrors = 1), playout(150), changes = changes)
+        assertEquals(CallBottleneck.None, collector.update(4000, calm).bottleneck)
+    }
+
+    @Test
+    fun `running dry while audio arrives evenly is put down to the audio device`() {
+        val collector = CallMetricsCollector(0, NO_VIDEO)
+        collector.update(1000, sample(audioPlayout = playout(50)))
+        val starved = collector.update(2000, sample(audioPlayout = playout(100, underruns = 3)))
+        assertEquals(CallBottleneck.AudioDevice, starved.bottleneck)
+        assertEquals(3L, starved.audioUnderruns)
+
+        // Nothing arriving at all is most likely just a muted microphone on the other side.
+        val muted = collector.update(3000, sample(audioPlayout = playout(100, underruns = 4)))
+        assertEquals(CallBottleneck.None, muted.bottleneck)
+
+        val device = collector.update(4000, sample(audioPlayout = playout(150, underruns = 4), deviceUnderruns = 2))
+        assertEquals(CallBottleneck.AudioDevice, device.bottleneck)
+        assertEquals(2L, device.audioDeviceUnderruns)
+    }
+
+    @Test
+    fun `the bottlenecks of a call are tallied up`() {
+        val collector = CallMetricsCollector(0, NO_VIDEO)
+        collector.update(1000, sample(audioSend(50)))
+        collector.update(2000, sample(audioSend(98, overruns = 2)))
+        collector.update(3000, sample(audioSend(148, overruns = 2, sendErrors = 1)))
+        collector.update(4000, sample(audioSend(198, overruns = 2, sendErrors = 1)))
+        assertEquals(
+            mapOf(
+                CallBottleneck.None to 2,
+                CallBottleneck.Cpu to 1,
+                CallBottleneck.Network to 1,
+                CallBottleneck.AudioDevice to 0,
+            ),
+            collector.bottlenecks(),
+        )
+    }
+}
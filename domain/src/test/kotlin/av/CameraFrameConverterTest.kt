@@ -0,0 +1,122 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+import java.nio.ByteBuffer
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+private const val PAD: Byte = 127
+
+// A 4x2 NV21 frame with two bytes of padding after each row. Luma is 1..4 on the first row and 11..14 on the second,
+// the single chroma row has U 50, 51 and V 70, 71.
+private val NV21_4X2 = byteArrayOf(
+    1, 2, 3, 4, PAD, PAD,
+    11, 12, 13, 14, PAD, PAD,
+    70, 50, 71, 51, PAD, PAD,
+)
+
+private fun bytes(vararg values: Int) = ByteArray(values.size) { values[it].toByte() }
+
+private fun converted(data: ByteArray, width: Int, height: Int, rowStride: Int, rotation: Int, scale: Int) =
+    I420Frame().apply {
+        allocatePacked(
+            convertedWidth(width, height, rotation, scale),
+            convertedHeight(width, height, rotation, scale),
+        )
+        convertNv21(data, width, height, rowStride, rotation, scale, this)
+    }
+
+class CameraFrameConverterTest {
+    @Test
+    fun `padding is left out`() {
+        val frame = converted(NV21_4X2, 4, 2, 6, 0, 1)
+        assertEquals(4, frame.width)
+        assertEquals(2, frame.height)
+        assertContentEquals(bytes(1, 2, 3, 4, 11, 12, 13, 14), frame.y)
+        assertContentEquals(bytes(50, 51), frame.u)
+        assertContentEquals(bytes(70, 71), frame.v)
+    }
+
+    @Test
+    fun `frames are turned clockwise`() {
+        val quarter = converted(NV21_4X2, 4, 2, 6, 90, 1)
+        assertEquals(2, quarter.width)
+        assertEquals(4, quarter.height)
+        assertContentEquals(bytes(11, 1, 12, 2, 13, 3, 14, 4), quarter.y)
+        assertContentEquals(bytes(50, 51), quarter.u)
+        assertContentEquals(bytes(70, 71), quarter.v)
+
+        val half = converted(NV21_4X2, 4, 2, 6, 180, 1)
+        assertContentEquals(bytes(14, 13, 12, 11, 4, 3, 2, 1), half.y)
+        assertContentEquals(bytes(51, 50), half.u)
+
+        val threeQuarters = converted(NV21_4X2, 4, 2, 6, 270, 1)
+        assertContentEquals(bytes(4, 14, 3, 13, 2, 12, 1, 11), threeQuarters.y)
+        assertContentEquals(bytes(51, 50), threeQuarters.u)
+        assertContentEquals(bytes(71, 70), threeQuarters.v)
+    }
+
+    @Test
+    fun `shrinking averages blocks`() {
+        val nv21 = bytes(
+            10, 20, 100, 110,
+            10, 20, 100, 110,
+            0, 4, 60, 62,
+            0, 4, 60, 62,
+            10, 40, 10, 44,
+            10, 48, 14, 52,
+        )
+        val frame = converted(nv21, 4, 4, 4, 0, 2)
+        assertEquals(2, frame.width)
+        assertEquals(2, frame.height)
+        assertContentEquals(bytes(15, 105, 2, 61), frame.y)
+        assertContentEquals(bytes(46), frame.u)
+        assertContentEquals(bytes(11), frame.v)
+    }
+
+    @Test
+    fun `planar camera frames convert the same way`() {
+        val frame = I420Frame().apply { allocatePacked(4, 2) }
+        convertYuv420(
+            4,
+            2,
+            ByteBuffer.allocateDirect(12).put(bytes(1, 2, 3, 4, 0, 0, 11, 12, 13, 14, 0, 0)),
+            6,
+            ByteBuffer.wrap(bytes(50, 51, 0)),
+            ByteBuffer.wrap(bytes(70, 71, 0)),
+            3,
+            1,
+            0,
+            1,
+            frame,
+        )
+        assertContentEquals(bytes(1, 2, 3, 4, 11, 12, 13, 14), frame.y)
+        assertContentEquals(bytes(50, 51), frame.u)
+        assertContentEquals(bytes(70, 71), frame.v)
+    }
+
+    @Test
+    fun `sizes are rounded down to whole chroma samples`() {
+        assertEquals(640, convertedWidth(641, 481, 0, 1))
+        assertEquals(480, convertedHeight(641, 481, 0, 1))
+        assertEquals(480, convertedWidth(641, 481, 90, 1))
+        assertEquals(640, convertedHeight(641, 481, 270, 1))
+        assertEquals(160, convertedWidth(641, 481, 0, 4))
+        assertEquals(120, convertedHeight(641, 481, 0, 4))
+    }
+
+    @Test
+    fun `the frame has to fit what's converted`() {
+        assertFailsWith<IllegalArgumentException> {
+            convertNv21(NV21_4X2, 4, 2, 6, 0, 1, I420Frame().apply { allocatePacked(2, 4) })
+        }
+        assertFailsWith<IllegalArgumentException> {
+            convertNv21(NV21_4X2, 4, 2, 6, 45, 1, I420Frame().apply { allocatePacked(4, 2) })
+        }
+    }
+}
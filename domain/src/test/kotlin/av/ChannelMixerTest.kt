@@ -0,0 +1,39 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertFailsWith
+
+private fun shorts(vararg values: Int) = ShortArray(values.size) { values[it].toShort() }
+
+class ChannelMixerTest {
+    @Test
+    fun `stereo is averaged down to mono`() {
+        val output = ShortArray(4)
+        mixChannels(shorts(100, 300, -32768, -32768, 32767, 32767, 1000, -1000), 4, 2, output, 1)
+        assertContentEquals(shorts(200, -32768, 32767, 0), output)
+    }
+
+    @Test
+    fun `mono goes to both sides`() {
+        val output = ShortArray(6)
+        mixChannels(shorts(1, -2, 3), 3, 1, output, 2)
+        assertContentEquals(shorts(1, 1, -2, -2, 3, 3), output)
+    }
+
+    @Test
+    fun `only the frames asked for are touched`() {
+        val output = shorts(9, 9, 9, 9)
+        mixChannels(shorts(1, 2, 3, 4), 1, 2, output, 2)
+        assertContentEquals(shorts(1, 2, 9, 9), output)
+    }
+
+    @Test
+    fun `only mono and stereo are mixed`() {
+        assertFailsWith<IllegalArgumentException> { mixChannels(ShortArray(6), 1, 6, ShortArray(2), 2) }
+    }
+}
@@ -0,0 +1,88 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+import kotlin.math.abs
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+private fun solidFrame(width: Int, height: Int, y: Int, u: Int, v: Int, padding: Int = 0) = I420Frame().apply {
+    val yStride = width + padding
+    val uvStride = chromaSize(width) + padding
+    copyFrom(
+        width,
+        height,
+        ByteArray(yStride * height) { if (it % yStride < width) y.toByte() else -1 },
+        ByteArray(uvStride * chromaSize(height)) { if (it % uvStride < chromaSize(width)) u.toByte() else -1 },
+        ByteArray(uvStride * chromaSize(height)) { if (it % uvStride < chromaSize(width)) v.toByte() else -1 },
+        yStride,
+        uvStride,
+        uvStride,
+    )
+}
+
+private fun assertColor(r: Int, g: Int, b: Int, argb: Int) {
+    val actual = listOf(argb shr 16 and 0xff, argb shr 8 and 0xff, argb and 0xff)
+    assertTrue(actual.zip(listOf(r, g, b)).all { (a, e) -> abs(a - e) <= 2 }, "Expected ($r, $g, $b), got $actual")
+    assertEquals(0xff, argb ushr 24)
+}
+
+class I420FrameTest {
+    @Test
+    fun `black, white and the primaries convert to what BT 601 says`() {
+        val out = IntArray(4)
+        solidFrame(2, 2, 16, 128, 128).toArgb(out)
+        assertColor(0, 0, 0, out[0])
+        solidFrame(2, 2, 235, 128, 128).toArgb(out)
+        assertColor(255, 255, 255, out[3])
+        solidFrame(2, 2, 81, 90, 240).toArgb(out)
+        assertColor(255, 0, 0, out[1])
+        solidFrame(2, 2, 145, 54, 34).toArgb(out)
+        assertColor(0, 255, 0, out[2])
+        solidFrame(2, 2, 41, 240, 110).toArgb(out)
+        assertColor(0, 0, 255, out[0])
+    }
+
+    @Test
+    fun `padding at the end of rows is skipped`() {
+        val out = IntArray(3 * 3)
+        solidFrame(3, 3, 16, 128, 128, padding = 5).toArgb(out)
+        for (pixel in out) assertColor(0, 0, 0, pixel)
+    }
+
+    @Test
+    fun `each chroma sample covers a two by two block`() {
+        val frame = solidFrame(4, 2, 126, 128, 128)
+        // Make the right half red-ish by only changing its chroma.
+        frame.v[1] = 240.toByte()
+        val out = IntArray(8)
+        frame.toArgb(out)
+        for (row in 0 until 2) {
+            assertEquals(out[row * 4], out[row * 4 + 1])
+            assertEquals(out[row * 4 + 2], out[row * 4 + 3])
+            assertTrue((out[row * 4 + 2] shr 16 and 0xff) > (out[row * 4] shr 16 and 0xff))
+        }
+    }
+
+    @Test
+    fun `planes are only replaced when they are too small`() {
+        val frame = I420Frame()
+        frame.reserve(480, 640, 320, 320)
+        val y = frame.y
+        frame.reserve(240, 320, 160, 160)
+        assertSame(y, frame.y)
+        frame.reserve(720, 1280, 640, 640)
+        assertEquals(1280 * 720, frame.y.size)
+        assertEquals(640 * 360, frame.u.size)
+    }
+
+    @Test
+    fun `converting needs room for every pixel`() {
+        assertFailsWith<IllegalArgumentException> { solidFrame(2, 2, 16, 128, 128).toArgb(IntArray(3)) }
+    }
+}
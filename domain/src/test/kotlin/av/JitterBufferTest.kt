@@ -0,0 +1,143 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotEquals
+import kotlin.test.assertTrue
+
+private const val RATE = 48_000
+private const val FRAME_MS = 20
+private const val FRAME_SAMPLES = RATE * FRAME_MS / 1000
+
+private fun frame(value: Int) = ShortArray(FRAME_SAMPLES) { value.toShort() }
+
+class JitterBufferTest {
+    private val out = ShortArray(MAX_FRAME_SAMPLES)
+
+    @Test
+    fun `steady arrivals play without concealment at the smallest delay`() {
+        val buffer = JitterBuffer()
+        for (i in 0 until 500) {
+            buffer.push(frame(i), 1, RATE, i * FRAME_MS.toLong())
+            assertEquals(FRAME_SAMPLES, buffer.pull(out))
+        }
+
+        val stats = buffer.stats()
+        assertEquals(0L, stats.concealed)
+        assertEquals(0L, stats.underruns)
+        assertEquals(0L, stats.dropped)
+        assertEquals(2, stats.targetFrames)
+        assertEquals(499L, stats.played)
+    }
+
+    @Test
+    fun `bursty arrivals grow the target`() {
+        val buffer = JitterBuffer()
+        // Five frames at once every 100 ms, as if the network held them back and let them go together.
+        for (burst in 0 until 40) {
+            repeat(5) { buffer.push(frame(1), 1, RATE, burst * 100L) }
+            repeat(5) { buffer.pull(out) }
+        }
+
+        val stats = buffer.stats()
+        assertTrue(stats.jitterMs > FRAME_MS, "jitter ${stats.jitterMs}")
+        assertTrue(stats.targetFrames > 5, "target ${stats.targetFrames}")
+    }
+
+    @Test
+    fun `the target shrinks again once arrivals are steady`() {
+        val buffer = JitterBuffer()
+        var time = 0L
+        for (burst in 0 until 20) {
+            repeat(5) { buffer.push(frame(1), 1, RATE, time) }
+            repeat(5) { buffer.pull(out) }
+            time += 100
+        }
+        val grown = buffer.stats().targetFrames
+
+        for (i in 0 until 2000) {
+            buffer.push(frame(1), 1, RATE, time)
+            buffer.pull(out)
+            time += FRAME_MS
+        }
+        assertTrue(grown > 2)
+        assertEquals(2, buffer.stats().targetFrames)
+    }
+
+    @Test
+    fun `a gap is concealed by fading out the last frame`() {
+        val buffer = JitterBuffer()
+        buffer.push(frame(1000), 1, RATE, 0)
+        buffer.push(frame(1000), 1, RATE, 20)
+        assertEquals(FRAME_SAMPLES, buffer.pull(out))
+        assertEquals(FRAME_SAMPLES, buffer.pull(out))
+        assertEquals(1000, out[0].toInt())
+
+        for (value in listOf(500, 250, 125, 62, 31, 0, 0)) {
+            assertEquals(FRAME_SAMPLES, buffer.pull(out))
+            assertEquals(value, out[0].toInt())
+            assertEquals(value, out[FRAME_SAMPLES - 1].toInt())
+        }
+
+        val stats = buffer.stats()
+        assertEquals(1L, stats.underruns)
+        assertEquals(5L, stats.concealed)
+    }
+
+    @Test
+    fun `playback resumes once the buffer has refilled`() {
+        val buffer = JitterBuffer()
+        buffer.push(frame(1), 1, RATE, 0)
+        buffer.push(frame(1), 1, RATE, 20)
+        repeat(3) { buffer.pull(out) }
+
+        buffer.push(frame(7), 1, RATE, 60)
+        buffer.pull(out)
+        assertNotEquals(7, out[0].toInt())
+
+        buffer.push(frame(7), 1, RATE, 80)
+        buffer.pull(out)
+        assertEquals(7, out[0].toInt())
+        assertEquals(1L, buffer.stats().underruns)
+    }
+
+    @Test
+    fun `silence is played before anything arrives`() {
+        val buffer = JitterBuffer()
+        out.fill(5)
+        assertEquals(RATE / 50, buffer.pull(out))
+        assertEquals(0, out[0].toInt())
+        assertEquals(0L, buffer.stats().concealed)
+        assertEquals(0L, buffer.stats().underruns)
+    }
+
+    @Test
+    fun `audio piling up is dropped oldest first`() {
+        val buffer = JitterBuffer()
+        for (i in 0 until 100) {
+            buffer.push(frame(i), 1, RATE, 0)
+        }
+
+        val stats = buffer.stats()
+        assertTrue(stats.dropped > 0)
+        assertEquals(stats.received, stats.dropped + stats.bufferedFrames)
+        assertTrue(stats.bufferedFrames <= stats.targetFrames * 2)
+
+        buffer.pull(out)
+        assertEquals(100 - stats.bufferedFrames, out[0].toInt())
+    }
+
+    @Test
+    fun `the format of the pulled frame is reported`() {
+        val buffer = JitterBuffer()
+        buffer.push(ShortArray(1920), 2, RATE, 0)
+        buffer.push(ShortArray(1920), 2, RATE, 20)
+        assertEquals(1920, buffer.pull(out))
+        assertEquals(2, buffer.channels)
+        assertEquals(RATE, buffer.samplingRate)
+    }
+}
@@ -0,0 +1,171 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+import java.io.ByteArrayOutputStream
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+private const val SERIAL = 0x1234abcd
+
+// A 20 ms CELT frame.
+private const val TOC_20MS = 0xf8
+
+// A 2.5 ms CELT frame.
+private const val TOC_2_5MS = 0xe0
+
+private class OggPage(val flags: Int, val granule: Long, val serial: Int, val sequence: Int, val lacing: List<Int>) {
+    val packets = mutableListOf<ByteArray>()
+}
+
+private fun readLe(data: ByteArray, offset: Int, bytes: Int): Long {
+    var value = 0L
+    for (i in 0 until bytes) value = value or ((data[offset + i].toLong() and 0xff) shl (i * 8))
+    return value
+}
+
+private fun parsePages(data: ByteArray): List<OggPage> {
+    val pages = mutableListOf<OggPage>()
+    var at = 0
+    while (at < data.size) {
+        assertEquals("OggS", String(data, at, 4, Charsets.US_ASCII))
+        val segments = data[at + 26].toInt() and 0xff
+        val lacing = (0 until segments).map { data[at + 27 + it].toInt() and 0xff }
+        val size = 27 + segments + lacing.sum()
+
+        val page = data.copyOfRange(at, at + size)
+        val crc = readLe(page, 22, 4).toInt()
+        page.fill(0, 22, 26)
+        assertEquals(oggCrc(page), crc)
+
+        val parsed = OggPage(
+            data[at + 5].toInt(),
+            readLe(data, at + 6, 8),
+            readLe(data, at + 14, 4).toInt(),
+            readLe(data, at + 18, 4).toInt(),
+            lacing,
+        )
+        var packetStart = at + 27 + segments
+        var packetSize = 0
+        for (value in lacing) {
+            packetSize += value
+            if (value < 255) {
+                parsed.packets.add(data.copyOfRange(packetStart, packetStart + packetSize))
+                packetStart += packetSize
+                packetSize = 0
+            }
+        }
+        pages.add(parsed)
+        at += size
+    }
+    return pages
+}
+
+private fun packet(toc: Int, size: Int) = ByteArray(size) { if (it == 0) toc.toByte() else it.toByte() }
+
+private fun record(vararg packets: ByteArray): Pair<OggOpusWriter, List<OggPage>> {
+    val out = ByteArrayOutputStream()
+    val writer = OggOpusWriter(out, 1, 48_000, serial = SERIAL)
+    packets.forEach { writer.write(it) }
+    writer.finish()
+    return writer to parsePages(out.toByteArray())
+}
+
+class OggOpusWriterTest {
+    @Test
+    fun `pages are checksummed the way Ogg does it`() {
+        assertEquals(0x89a1897f.toInt(), oggCrc("123456789".toByteArray()))
+        assertEquals(0, oggCrc(ByteArray(0)))
+    }
+
+    @Test
+    fun `the headers come first, each on a page of its own`() {
+        val (_, pages) = record(packet(TOC_20MS, 40))
+        assertEquals(3, pages.size)
+        assertEquals(listOf(0x02, 0x00, 0x04), pages.map { it.flags })
+        assertEquals(listOf(0, 1, 2), pages.map { it.sequence })
+        assertEquals(listOf(SERIAL, SERIAL, SERIAL), pages.map { it.serial })
+        assertEquals(listOf(0L, 0L, 960L), pages.map { it.granule })
+
+        val head = pages[0].packets.single()
+        assertEquals(19, head.size)
+        assertEquals("OpusHead", String(head, 0, 8, Charsets.US_ASCII))
+        assertEquals(1, head[8].toInt())
+        assertEquals(1, head[9].toInt())
+        assertEquals(OPUS_DEFAULT_PRE_SKIP.toLong(), readLe(head, 10, 2))
+        assertEquals(48_000L, readLe(head, 12, 4))
+
+        val tags = pages[1].packets.single()
+        assertEquals("OpusTags", String(tags, 0, 8, Charsets.US_ASCII))
+        assertEquals(0L, readLe(tags, tags.size - 4, 4))
+
+        assertContentEquals(packet(TOC_20MS, 40), pages[2].packets.single())
+    }
+
+    @Test
+    fun `a page holds a second of audio`() {
+        val (writer, pages) = record(*Array(120) { packet(TOC_20MS, 40) })
+        val audio = pages.drop(2)
+        assertEquals(listOf(50, 50, 20), audio.map { it.packets.size })
+        assertEquals(listOf(48_000L, 96_000L, 115_200L), audio.map { it.granule })
+        assertEquals(listOf(0, 0, 0x04), audio.map { it.flags })
+        assertEquals(115_200L, writer.granule)
+        // What's left once the pre-skip is dropped.
+        assertEquals(2393L, writer.durationMs)
+    }
+
+    @Test
+    fun `packets are laced across as many segments as they need`() {
+        val (_, pages) = record(packet(TOC_20MS, 255), packet(TOC_20MS, 600), packet(TOC_20MS, 3))
+        assertEquals(listOf(255, 0, 255, 255, 90, 3), pages[2].lacing)
+        assertEquals(listOf(255, 600, 3), pages[2].packets.map { it.size })
+        assertContentEquals(packet(TOC_20MS, 600), pages[2].packets[1])
+    }
+
+    @Test
+    fun `a page is closed before it runs out of segments`() {
+        val (_, pages) = record(*Array(200) { packet(TOC_2_5MS, 300) })
+        val audio = pages.drop(2)
+        assertEquals(listOf(127, 73), audio.map { it.packets.size })
+        assertEquals(254, audio[0].lacing.size)
+        assertEquals(listOf(127 * 120L, 200 * 120L), audio.map { it.granule })
+    }
+
+    @Test
+    fun `packets are timed by their TOC byte`() {
+        assertEquals(960, opusPacketSamples(byteArrayOf(TOC_20MS.toByte())))
+        assertEquals(120, opusPacketSamples(byteArrayOf(TOC_2_5MS.toByte())))
+        // Hybrid, 20 ms.
+        assertEquals(960, opusPacketSamples(byteArrayOf(0x78)))
+        // Two 20 ms frames.
+        assertEquals(1920, opusPacketSamples(byteArrayOf((TOC_20MS or 1).toByte())))
+        // SILK, three 20 ms frames.
+        assertEquals(2880, opusPacketSamples(byteArrayOf(0x0b, 0x03)))
+        // SILK, a single 60 ms frame.
+        assertEquals(2880, opusPacketSamples(byteArrayOf(0x18)))
+        assertEquals(0, opusPacketSamples(ByteArray(0)))
+        assertEquals(0, opusPacketSamples(byteArrayOf(0x0b)))
+    }
+
+    @Test
+    fun `the pre-skip is found in what the encoder hands out`() {
+        val head = ByteArray(19)
+        "OpusHead".toByteArray(Charsets.US_ASCII).copyInto(head)
+        head[8] = 1
+        head[9] = 1
+        head[10] = 0x00
+        head[11] = 0x0f
+        assertEquals(3840, opusPreSkip(head))
+
+        // Wrapped the way some encoders do it.
+        val wrapped = "AOPUSHDR".toByteArray(Charsets.US_ASCII) + ByteArray(8) { if (it == 0) 19 else 0 } + head
+        assertEquals(3840, opusPreSkip(wrapped))
+
+        assertNull(opusPreSkip("OpusTags".toByteArray(Charsets.US_ASCII) + ByteArray(16)))
+        assertNull(opusPreSkip(head.copyOf(11)))
+    }
+}
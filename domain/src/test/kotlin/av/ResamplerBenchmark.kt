@@ -0,0 +1,71 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+import java.lang.management.ManagementFactory
+import kotlin.math.PI
+import kotlin.math.sin
+
+// Measures how long converting a 20 ms call frame takes, and that doing so allocates nothing.
+//
+//   bazel run //domain:ResamplerBenchmark
+
+private const val FRAME_MS = 20
+private const val FRAMES_PER_RUN = 5_000
+private const val WARMUP_RUNS = 5
+private const val RUNS = 10
+
+private val threads = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+
+private fun allocatedBytes() = threads?.getThreadAllocatedBytes(Thread.currentThread().id) ?: 0L
+
+private fun measure(name: String, frameMs: Int, convertFrame: () -> Unit) {
+    repeat(WARMUP_RUNS) { repeat(FRAMES_PER_RUN) { convertFrame() } }
+
+    var best = Long.MAX_VALUE
+    var allocated = 0L
+    repeat(RUNS) {
+        val bytesBefore = allocatedBytes()
+        val start = System.nanoTime()
+        repeat(FRAMES_PER_RUN) { convertFrame() }
+        best = minOf(best, System.nanoTime() - start)
+        allocated = maxOf(allocated, allocatedBytes() - bytesBefore)
+    }
+
+    val perFrameUs = best / 1000.0 / FRAMES_PER_RUN
+    val realtime = frameMs * 1000.0 / perFrameUs
+    println("%-28s %8.2f µs/frame %8.0fx realtime %8d bytes allocated".format(name, perFrameUs, realtime, allocated))
+}
+
+private fun resample(inRate: Int, outRate: Int, channels: Int) {
+    val resampler = Resampler(inRate, outRate, channels)
+    val frames = inRate * FRAME_MS / 1000
+    val input = ShortArray(frames * channels) {
+        (10_000 * sin(2 * PI * 440 * (it / channels) / inRate)).toInt().toShort()
+    }
+    val output = ShortArray(resampler.maxOutputFrames(frames) * channels)
+    measure("resample $inRate->$outRate ${channels}ch", FRAME_MS) { resampler.process(input, frames, output) }
+}
+
+private fun mix(inChannels: Int, outChannels: Int) {
+    val frames = 48_000 * FRAME_MS / 1000
+    val input = ShortArray(frames * inChannels) { (it * 31).toShort() }
+    val output = ShortArray(frames * outChannels)
+    measure("mix ${inChannels}ch->${outChannels}ch", FRAME_MS) {
+        mixChannels(input, frames, inChannels, output, outChannels)
+    }
+}
+
+fun main() {
+    resample(48_000, 44_100, 1)
+    resample(44_100, 48_000, 1)
+    resample(16_000, 48_000, 1)
+    resample(8_000, 48_000, 1)
+    resample(48_000, 16_000, 1)
+    resample(48_000, 8_000, 1)
+    resample(48_000, 44_100, 2)
+    mix(2, 1)
+    mix(1, 2)
+}
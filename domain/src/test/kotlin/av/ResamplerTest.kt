@@ -0,0 +1,140 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+import kotlin.math.PI
+import kotlin.math.log10
+import kotlin.math.roundToInt
+import kotlin.math.sin
+import kotlin.math.sqrt
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+private const val AMPLITUDE = 10_000.0
+
+private fun sine(rate: Int, hz: Double, frames: Int) =
+    ShortArray(frames) { (AMPLITUDE * sin(2 * PI * hz * it / rate)).roundToInt().toShort() }
+
+private fun Resampler.processAll(input: ShortArray): ShortArray {
+    val output = ShortArray(maxOutputFrames(input.size / channels) * channels)
+    val frames = process(input, input.size / channels, output)
+    return output.copyOf(frames * channels)
+}
+
+// How far the tone stands above whatever sets the output apart from a perfectly resampled one, in dB.
+private fun toneSnrDb(inRate: Int, outRate: Int, hz: Double): Double {
+    val resampler = Resampler(inRate, outRate, 1)
+    val output = resampler.processAll(sine(inRate, hz, inRate / 5))
+    var signal = 0.0
+    var noise = 0.0
+    for (k in output.indices) {
+        val t = k.toDouble() / outRate - resampler.delay.toDouble() / inRate
+        // Until the filter has filled up with input, part of what it sees is the silence it started out with.
+        if (t < 2.0 * resampler.delay / inRate) continue
+        val ideal = AMPLITUDE * sin(2 * PI * hz * t)
+        signal += ideal * ideal
+        noise += (output[k] - ideal) * (output[k] - ideal)
+    }
+    return 10 * log10(signal / noise)
+}
+
+// How loud the tone comes out, in dB relative to how loud it went in.
+private fun toneLevelDb(inRate: Int, outRate: Int, hz: Double): Double {
+    val output = Resampler(inRate, outRate, 1).processAll(sine(inRate, hz, inRate / 5))
+    val settled = output.copyOfRange(output.size / 4, output.size)
+    val rms = sqrt(settled.sumOf { it.toDouble() * it } / settled.size)
+    return 20 * log10(rms / (AMPLITUDE / sqrt(2.0)))
+}
+
+class ResamplerTest {
+    @Test
+    fun `the same rate passes audio through unchanged, only later`() {
+        val resampler = Resampler(48_000, 48_000, 1)
+        val input = ShortArray(200) { (it * 37 % 2001 - 1000).toShort() }
+        val output = resampler.processAll(input)
+        assertEquals(input.size, output.size)
+        assertContentEquals(ShortArray(resampler.delay) + input.copyOf(input.size - resampler.delay), output)
+    }
+
+    @Test
+    fun `tones come through clean at any rate`() {
+        val rates = listOf(
+            8_000 to 48_000,
+            16_000 to 48_000,
+            44_100 to 48_000,
+            48_000 to 44_100,
+            48_000 to 32_000,
+            48_000 to 16_000,
+            48_000 to 8_000,
+        )
+        for ((inRate, outRate) in rates) {
+            val snr = toneSnrDb(inRate, outRate, 1000.0)
+            assertTrue(snr > 70, "$inRate -> $outRate: $snr dB")
+        }
+    }
+
+    @Test
+    fun `going down in rate doesn't alias`() {
+        // Both tones would fold back to well within what's left of the band.
+        assertTrue(toneLevelDb(48_000, 8_000, 6000.0) < -60)
+        assertTrue(toneLevelDb(48_000, 16_000, 12000.0) < -60)
+        // While what's well within it stays put.
+        assertTrue(toneLevelDb(48_000, 8_000, 2000.0) > -0.1)
+    }
+
+    @Test
+    fun `a constant level stays constant`() {
+        val output = Resampler(44_100, 48_000, 1).processAll(ShortArray(4410) { 1000 })
+        assertTrue(output.copyOfRange(output.size / 2, output.size).all { it == 1000.toShort() })
+    }
+
+    @Test
+    fun `channels are kept apart`() {
+        val left = sine(16_000, 1000.0, 1600)
+        val stereo = ShortArray(left.size * 2) { if (it % 2 == 0) left[it / 2] else 0 }
+        val output = Resampler(16_000, 48_000, 2).processAll(stereo)
+        val mono = Resampler(16_000, 48_000, 1).processAll(left)
+        assertContentEquals(mono, ShortArray(output.size / 2) { output[it * 2] })
+        assertTrue((0 until output.size / 2).all { output[it * 2 + 1] == 0.toShort() })
+    }
+
+    @Test
+    fun `every frame comes out the same length`() {
+        val resampler = Resampler(44_100, 48_000, 1)
+        val frame = ShortArray(882)
+        val output = ShortArray(resampler.maxOutputFrames(frame.size))
+        repeat(500) {
+            assertEquals(960, resampler.process(frame, frame.size, output))
+        }
+    }
+
+    @Test
+    fun `how audio is split up doesn't matter`() {
+        val signal = sine(16_000, 440.0, 1000)
+        val whole = Resampler(16_000, 48_000, 1).processAll(signal)
+
+        val resampler = Resampler(16_000, 48_000, 1)
+        val pieces = listOf(0 until 7, 7 until 300, 300 until 301, 301 until 1000).map {
+            val output = ShortArray(resampler.maxOutputFrames(it.count()))
+            output.copyOf(resampler.process(signal, it.count(), output, offset = it.first))
+        }
+        assertEquals(3000, whole.size)
+        assertContentEquals(whole, pieces.reduce { a, b -> a + b })
+    }
+
+    @Test
+    fun `output never needs more room than promised`() {
+        for ((inRate, outRate) in listOf(8_000 to 48_000, 48_000 to 44_100, 44_100 to 48_000, 11_025 to 48_000)) {
+            val resampler = Resampler(inRate, outRate, 1)
+            for (frames in listOf(1, 7, 441, 960, 5760)) {
+                val output = ShortArray(resampler.maxOutputFrames(frames))
+                assertTrue(resampler.process(ShortArray(frames), frames, output) <= output.size)
+                assertTrue(resampler.maxOutputFrames(resampler.maxInputFrames(frames)) <= frames)
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNotSame
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+private const val WIDTH = 4
+private const val HEIGHT = 2
+private const val Y_STRIDE = 8
+private const val UV_STRIDE = 4
+
+// Decodes a frame the way toxav would, into the planes it was offered, with every luma sample set to [value].
+private fun VideoReceiveBuffer.decode(value: Int) {
+    val frame = writeFrame(HEIGHT, Y_STRIDE, UV_STRIDE, UV_STRIDE)
+    frame.y.fill(value.toByte())
+    publish(WIDTH, HEIGHT, frame.y, frame.u, frame.v, Y_STRIDE, UV_STRIDE, UV_STRIDE)
+}
+
+class VideoReceiveBufferTest {
+    @Test
+    fun `published frames are taken once`() {
+        val buffer = VideoReceiveBuffer()
+        assertNull(buffer.takeLatest())
+
+        buffer.decode(1)
+        val frame = assertNotNull(buffer.takeLatest())
+        assertEquals(WIDTH, frame.width)
+        assertEquals(HEIGHT, frame.height)
+        assertEquals(Y_STRIDE, frame.yStride)
+        assertEquals(UV_STRIDE, frame.uStride)
+        assertEquals(1, frame.y[0].toInt())
+        assertNull(buffer.takeLatest())
+    }
+
+    @Test
+    fun `frames the renderer didn't get to are dropped for newer ones`() {
+        val buffer = VideoReceiveBuffer()
+        buffer.decode(1)
+        buffer.decode(2)
+        buffer.decode(3)
+
+        assertEquals(3, assertNotNull(buffer.takeLatest()).y[0].toInt())
+        assertEquals(VideoReceiveStats(received = 3, rendered = 1, dropped = 2, copied = 0), buffer.stats())
+    }
+
+    @Test
+    fun `the frame being rendered is left alone`() {
+        val buffer = VideoReceiveBuffer()
+        buffer.decode(1)
+        val rendering = assertNotNull(buffer.takeLatest())
+
+        for (value in 2..10) {
+            buffer.decode(value)
+            assertNotSame(rendering.y, buffer.writeFrame(HEIGHT, Y_STRIDE, UV_STRIDE, UV_STRIDE).y)
+        }
+        assertTrue(rendering.y.all { it.toInt() == 1 })
+        assertEquals(10, assertNotNull(buffer.takeLatest()).y[0].toInt())
+    }
+
+    @Test
+    fun `planes are reused once they are big enough`() {
+        val buffer = VideoReceiveBuffer()
+        val planes = HashSet<Int>()
+        repeat(30) {
+            planes += System.identityHashCode(buffer.writeFrame(HEIGHT, Y_STRIDE, UV_STRIDE, UV_STRIDE).y)
+            buffer.decode(it)
+            buffer.takeLatest()
+        }
+        assertEquals(3, planes.size)
+    }
+
+    @Test
+    fun `frames decoded somewhere else are copied`() {
+        val buffer = VideoReceiveBuffer()
+        val y = ByteArray(Y_STRIDE * HEIGHT) { 9 }
+        val u = ByteArray(UV_STRIDE) { 10 }
+        val v = ByteArray(UV_STRIDE) { 11 }
+        buffer.publish(WIDTH, HEIGHT, y, u, v, Y_STRIDE, UV_STRIDE, UV_STRIDE)
+
+        val frame = assertNotNull(buffer.takeLatest())
+        assertNotSame(y, frame.y)
+        assertEquals(9, frame.y[Y_STRIDE * HEIGHT - 1].toInt())
+        assertEquals(10, frame.u[0].toInt())
+        assertEquals(11, frame.v[UV_STRIDE - 1].toInt())
+        assertEquals(1L, buffer.stats().copied)
+    }
+
+    @Test
+    fun `clearing forgets the waiting frame`() {
+        val buffer = VideoReceiveBuffer()
+        buffer.decode(1)
+        buffer.clear()
+        assertNull(buffer.takeLatest())
+    }
+
+    @Test
+    fun `new frames are announced`() {
+        val buffer = VideoReceiveBuffer()
+        var announced = 0
+        buffer.onFrameAvailable = { announced++ }
+        buffer.decode(1)
+        buffer.decode(2)
+        assertEquals(2, announced)
+    }
+}
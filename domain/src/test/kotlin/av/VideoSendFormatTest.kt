@@ -0,0 +1,72 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+// Timestamps of a camera delivering [fps] frames a second for [seconds], optionally off by up to [jitterMs].
+private fun camera(fps: Int, seconds: Int, jitterMs: Int = 0): List<Long> {
+    val random = Random(42)
+    return (0 until fps * seconds).map {
+        it * 1000L / fps + if (jitterMs > 0) random.nextInt(-jitterMs, jitterMs) else 0
+    }
+}
+
+class VideoSendFormatTest {
+    @Test
+    fun `frames are thinned out to the target rate`() {
+        val pacer = FramePacer(15)
+        assertEquals(150, camera(30, 10).count { pacer.accept(it) })
+    }
+
+    @Test
+    fun `uneven cameras still get close to the target rate`() {
+        val pacer = FramePacer(15)
+        val accepted = camera(30, 10, jitterMs = 6).count { pacer.accept(it) }
+        assertTrue(accepted in 140..150, "accepted $accepted")
+
+        val slower = FramePacer(24)
+        val fromThirty = camera(30, 10, jitterMs = 4).count { slower.accept(it) }
+        assertTrue(fromThirty in 220..240, "accepted $fromThirty")
+    }
+
+    @Test
+    fun `cameras slower than the target rate are left alone`() {
+        val pacer = FramePacer(24)
+        assertEquals(150, camera(15, 10).count { pacer.accept(it) })
+    }
+
+    @Test
+    fun `a stall doesn't cause a burst afterwards`() {
+        val pacer = FramePacer(15)
+        assertTrue(pacer.accept(0))
+        assertTrue(pacer.accept(2000))
+        assertFalse(pacer.accept(2033))
+        assertTrue(pacer.accept(2067))
+    }
+
+    @Test
+    fun `changing the rate takes effect right away`() {
+        val pacer = FramePacer(30)
+        val timestamps = camera(30, 2)
+        assertEquals(30, timestamps.take(30).count { pacer.accept(it) })
+        pacer.fps = 10
+        assertEquals(10, timestamps.drop(30).count { pacer.accept(it) })
+    }
+
+    @Test
+    fun `less bitrate means smaller and fewer frames`() {
+        val formats = listOf(2000, 800, 500, 400, 300, 150, 50, 0).map(::videoSendFormatFor)
+        assertEquals(VideoSendFormat(scale = 1, fps = 24), formats.first())
+        assertEquals(VideoSendFormat(scale = 2, fps = 8), formats.last())
+        for ((better, worse) in formats.zipWithNext()) {
+            assertTrue(better.scale <= worse.scale && better.fps >= worse.fps, "$better then $worse")
+        }
+    }
+}
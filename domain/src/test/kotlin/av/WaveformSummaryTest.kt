@@ -0,0 +1,77 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.av
+
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+
+private fun ByteArray.unsigned() = map { it.toInt() and 0xff }
+
+class WaveformSummaryTest {
+    @Test
+    fun `each peak is the loudest of its stretch, scaled to the loudest of them all`() {
+        val summary = WaveformSummary(4)
+        for (block in 0 until 8) {
+            val level = (1000 * (block + 1)).toShort()
+            summary.add(shortArrayOf(0, level, (-level / 2).toShort(), 0))
+        }
+        assertEquals(listOf(63, 127, 191, 255), summary.peaks(4).unsigned())
+    }
+
+    @Test
+    fun `the loudest negative sample counts too`() {
+        val summary = WaveformSummary(2)
+        summary.add(shortArrayOf(Short.MIN_VALUE, 0, 16_384, 0))
+        assertEquals(listOf(255, 127), summary.peaks(2).unsigned())
+    }
+
+    @Test
+    fun `how audio is split up doesn't matter`() {
+        val random = Random(42)
+        val audio = ShortArray(10_000) { random.nextInt(-20_000, 20_000).toShort() }
+        val whole = WaveformSummary(320).apply { add(audio) }
+
+        val pieces = WaveformSummary(320)
+        var at = 0
+        for (size in listOf(1, 319, 960, 7, 5000)) {
+            pieces.add(audio.copyOfRange(at, at + size))
+            at += size
+        }
+        pieces.add(audio.copyOfRange(at, audio.size), audio.size - at)
+        assertContentEquals(whole.peaks(), pieces.peaks())
+    }
+
+    @Test
+    fun `short audio is stretched across every peak`() {
+        val summary = WaveformSummary(2)
+        summary.add(shortArrayOf(1000, 0, 2000, 0))
+        assertEquals(listOf(127, 127, 255, 255), summary.peaks(4).unsigned())
+    }
+
+    @Test
+    fun `what's left over at the end makes it in`() {
+        val summary = WaveformSummary(4)
+        summary.add(shortArrayOf(100, 100, 100, 100, 400))
+        assertEquals(listOf(63, 255), summary.peaks(2).unsigned())
+    }
+
+    @Test
+    fun `peaks are stored as hex and read back`() {
+        val peaks = byteArrayOf(0, 15, 16, 127, -128, -1)
+        assertEquals("000f107f80ff", encodeWaveform(peaks))
+        assertContentEquals(peaks, decodeWaveform(encodeWaveform(peaks)))
+        assertContentEquals(ByteArray(0), decodeWaveform(""))
+        assertContentEquals(ByteArray(0), decodeWaveform("0f1"))
+        assertContentEquals(ByteArray(0), decodeWaveform("0g"))
+    }
+
+    @Test
+    fun `silence is flat`() {
+        assertContentEquals(ByteArray(WAVEFORM_PEAKS), WaveformSummary(4).peaks())
+        assertContentEquals(ByteArray(3), WaveformSummary(4).apply { add(ShortArray(100)) }.peaks(3))
+    }
+}
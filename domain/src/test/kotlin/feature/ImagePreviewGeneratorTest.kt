@@ -0,0 +1,60 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.feature
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+// The EXIF orientations, as ExifInterface has them.
+private const val ORIENTATION_NORMAL = 1
+private const val ORIENTATION_ROTATE_180 = 3
+private const val ORIENTATION_ROTATE_90 = 6
+private const val ORIENTATION_TRANSVERSE = 7
+
+class ImagePreviewGeneratorTest {
+    @Test
+    fun `images are recognised by their name`() {
+        assertTrue(isImage("photo.jpg"))
+        assertTrue(isImage("sticker.png"))
+        assertFalse(isImage("memo.ogg"))
+        assertFalse(isImage("no extension"))
+    }
+
+    @Test
+    fun `images are subsampled no further than the preview needs`() {
+        assertEquals(1, previewSampleSize(1024, 768))
+        assertEquals(1, previewSampleSize(2047, 100))
+        assertEquals(2, previewSampleSize(2048, 100))
+        assertEquals(4, previewSampleSize(3000, 4096))
+        assertEquals(2, previewSampleSize(4000, 3000))
+    }
+
+    @Test
+    fun `previews are scaled down to fit, never up`() {
+        assertEquals(640 to 480, previewSize(640, 480))
+        assertEquals(1024 to 768, previewSize(4000, 3000))
+        assertEquals(768 to 1024, previewSize(3000, 4000))
+        // Very long and thin images still keep a pixel.
+        assertEquals(1024 to 1, previewSize(100_000, 10))
+    }
+
+    @Test
+    fun `sizes are reported upright`() {
+        assertEquals(4000 to 3000, uprightSize(4000, 3000, ORIENTATION_NORMAL))
+        assertEquals(4000 to 3000, uprightSize(4000, 3000, ORIENTATION_ROTATE_180))
+        assertEquals(3000 to 4000, uprightSize(4000, 3000, ORIENTATION_ROTATE_90))
+        assertEquals(3000 to 4000, uprightSize(4000, 3000, ORIENTATION_TRANSVERSE))
+    }
+
+    @Test
+    fun `the placeholder is the average colour`() {
+        assertEquals(0xff7f4020.toInt(), placeholderColor(intArrayOf(0xff000000.toInt(), 0xffff8040.toInt())))
+        assertEquals(0x7fffffff, placeholderColor(intArrayOf(0xffffffff.toInt(), 0x00ffffff)))
+        assertEquals(0x12345678, placeholderColor(IntArray(64) { 0x12345678 }))
+        assertEquals(0, placeholderColor(IntArray(0)))
+    }
+}
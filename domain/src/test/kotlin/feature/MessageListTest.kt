@@ -0,0 +1,95 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.feature
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNull
+import ltd.evilcorp.core.repository.MessageChange
+import ltd.evilcorp.core.vo.Message
+import ltd.evilcorp.core.vo.MessageType
+import ltd.evilcorp.core.vo.Sender
+
+private const val PK = "123"
+
+private fun message(id: Long, correlationId: Int = 0, timestamp: Long = 1000) =
+    Message(PK, "message $id", Sender.Sent, MessageType.Normal, correlationId, timestamp).also { it.id = id }
+
+class MessageListTest {
+    @Test
+    fun `new messages are appended`() {
+        val list = MessageList()
+        assertEquals(MessageListDelta.Reset, list.reset(listOf(message(1), message(2))))
+
+        val delta = list.apply(MessageChange.Inserted(PK, listOf(message(3), message(4))))
+        assertEquals(MessageListDelta.Inserted(2, 2), delta)
+        assertEquals(listOf(1L, 2, 3, 4), list.messages.map { it.id })
+    }
+
+    @Test
+    fun `inserts already in the list start over`() {
+        val list = MessageList()
+        list.reset(listOf(message(1), message(2)))
+
+        assertEquals(MessageListDelta.Reset, list.apply(MessageChange.Inserted(PK, listOf(message(2), message(3)))))
+        assertEquals(listOf(1L, 2, 3), list.messages.map { it.id })
+    }
+
+    @Test
+    fun `receipts only touch pending messages with the correlation id`() {
+        val list = MessageList()
+        list.reset(listOf(message(1, correlationId = 5), message(2, correlationId = 5, timestamp = 0)))
+        list.apply(MessageChange.Inserted(PK, listOf(message(3, correlationId = 6, timestamp = 0))))
+
+        assertEquals(MessageListDelta.Changed(listOf(1)), list.apply(MessageChange.Receipt(PK, 5, 2000)))
+        assertEquals(listOf(1000L, 2000, 0), list.messages.map { it.timestamp })
+        assertEquals(2L, list.messages[1].id)
+
+        assertNull(list.apply(MessageChange.Receipt(PK, 5, 3000)))
+        assertEquals(MessageListDelta.Changed(listOf(2)), list.apply(MessageChange.Receipt(PK, 6, 3000)))
+    }
+
+    @Test
+    fun `correlation id changes are found by id`() {
+        val list = MessageList()
+        list.reset(listOf(message(1), message(4, timestamp = 0), message(9)))
+
+        assertEquals(MessageListDelta.Changed(listOf(1)), list.apply(MessageChange.CorrelationIdChanged(PK, 4, 7)))
+        assertEquals(7, list.messages[1].correlationId)
+        assertNull(list.apply(MessageChange.CorrelationIdChanged(PK, 5, 7)))
+    }
+
+    @Test
+    fun `deletions report positions before removal`() {
+        val list = MessageList()
+        list.reset((1L..5).map { message(it) })
+
+        assertEquals(MessageListDelta.Removed(listOf(1, 3)), list.apply(MessageChange.Deleted(PK, listOf(4, 2, 42))))
+        assertEquals(listOf(1L, 3, 5), list.messages.map { it.id })
+        assertNull(list.apply(MessageChange.Deleted(PK, listOf(2))))
+    }
+
+    @Test
+    fun `file transfer rows are found by transfer id`() {
+        val ft = { id: Long, ftId: Int ->
+            Message(PK, "", Sender.Received, MessageType.FileTransfer, ftId, 1000).also { it.id = id }
+        }
+        val list = MessageList()
+        list.reset(listOf(message(1), ft(2, 10)))
+        list.apply(MessageChange.Inserted(PK, listOf(message(3), ft(4, 11))))
+
+        assertEquals(1, list.positionOfFileTransfer(10))
+        assertEquals(3, list.positionOfFileTransfer(11))
+        list.apply(MessageChange.Deleted(PK, listOf(2)))
+        assertEquals(-1, list.positionOfFileTransfer(10))
+        assertEquals(2, list.positionOfFileTransfer(11))
+    }
+
+    @Test
+    fun `invalidations can't be applied`() {
+        assertFailsWith<IllegalArgumentException> { MessageList().apply(MessageChange.Invalidated(PK)) }
+    }
+}
@@ -0,0 +1,73 @@
+// SPDX-FileCopyrightText: 2026 bTox contributors
+//
+// SPDX-License-Identifier: GPL-3.0-only
+
+package ltd.evilcorp.domain.feature
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertSame
+import ltd.evilcorp.core.vo.FT_NOT_STARTED
+import ltd.evilcorp.core.vo.FileTransfer
+import ltd.evilcorp.core.vo.Message
+import ltd.evilcorp.core.vo.MessageType
+import ltd.evilcorp.core.vo.RetentionPolicy
+import ltd.evilcorp.core.vo.Sender
+
+private const val PK = "123"
+
+private fun message(text: String = "abcd") = Message(PK, text, Sender.Received, MessageType.Normal, 0, 1000)
+
+private fun ftMessage(ft: Int) = Message(PK, "", Sender.Received, MessageType.FileTransfer, ft, 1000)
+
+private fun ft(id: Int, size: Long, progress: Long = size, outgoing: Boolean = false) =
+    FileTransfer(PK, 0, 0, size, "file", outgoing, progress).also { it.id = id }
+
+private fun batch(vararg messages: Message) = messages.map { PrunableMessage(it, null) }
+
+class RetentionManagerTest {
+    @Test
+    fun `a contact's own policy overrides the global one`() {
+        val global = RetentionPolicy("", maxCount = 100)
+        val own = RetentionPolicy(PK, maxAgeMs = 1000)
+        assertSame(own, retentionPolicyFor(PK, mapOf(PK to own), global))
+        assertSame(global, retentionPolicyFor("456", mapOf(PK to own), global))
+    }
+
+    @Test
+    fun `the oldest messages go until only the newest are left`() {
+        val select = selectByCount(1200, 100)
+        val full = batch(*Array(500) { message() })
+        assertEquals(listOf(500, 500, 100, 0), List(4) { select(full) })
+
+        assertEquals(0, selectByCount(50, 100)(full))
+    }
+
+    @Test
+    fun `the oldest messages go until the rest fit`() {
+        val select = selectBySize(40, 25)
+        assertEquals(listOf(2, 2, 0), List(3) { select(batch(message(), message())) })
+
+        assertEquals(0, selectBySize(25, 25)(batch(message())))
+    }
+
+    @Test
+    fun `only received files count towards the size`() {
+        val received = PrunableMessage(ftMessage(1), ft(1, 1000))
+        val sent = PrunableMessage(ftMessage(2), ft(2, 1000, outgoing = true))
+        assertEquals(1000, received.sizeOnDisk())
+        assertEquals(0, sent.sizeOnDisk())
+
+        val select = selectBySize(1100, 500)
+        assertEquals(2, select(listOf(sent, received, PrunableMessage(message(), null))))
+    }
+
+    @Test
+    fun `nothing past a running transfer is pruned`() {
+        val transfers = listOf(ft(1, 100), ft(2, 100, FT_NOT_STARTED), ft(3, 100, 50)).associateBy { it.id }
+        val messages = listOf(message("a"), ftMessage(1), ftMessage(2), message("b"), ftMessage(3), message("c"))
+        val prunable = prunable(messages, transfers)
+        assertEquals(messages.take(4), prunable.map { it.message })
+        assertEquals(listOf(null, 1, 2, null), prunable.map { it.fileTransfer?.id })
+    }
+}